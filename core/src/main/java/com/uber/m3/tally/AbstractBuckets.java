@@ -38,6 +38,10 @@ import java.util.ListIterator;
 public abstract class AbstractBuckets<T extends Comparable<T>> implements Buckets<T> {
     protected List<T> buckets;
 
+    // NOTE: Buckets are immutable, therefore hash-code is computed lazily once
+    //       to make buckets cheap to use as keys in hash-based lookups
+    private int hashCode;
+
     AbstractBuckets(T[] buckets) {
         if (buckets == null) {
             throw new IllegalArgumentException("provided buckets could not be null");
@@ -199,6 +203,12 @@ public abstract class AbstractBuckets<T extends Comparable<T>> implements Bucket
 
     @Override
     public int hashCode() {
-        return buckets.hashCode();
+        int h = hashCode;
+        if (h == 0) {
+            h = buckets.hashCode();
+            hashCode = h;
+        }
+
+        return h;
     }
 }
@@ -30,6 +30,16 @@ public interface BaseStatsReporter {
      */
     Capabilities capabilities();
 
+    /**
+     * Notifies the reporter that values of the new reporting interval are about to be reported
+     * (up until the following {@link #flush()}), allowing it to share the interval's timestamp
+     * in between all of them, instead of capturing one per every value.
+     * @param timestampNanos timestamp of the interval, in nanoseconds since the epoch
+     */
+    default void startInterval(long timestampNanos) {
+        // No-op
+    }
+
     /**
      * Flush asks the reporter to flush all reported values.
      */
@@ -66,6 +66,10 @@ class CounterImpl extends MetricBase implements Counter, Reportable {
         reporter.reportCounter(getQualifiedName(), tags, delta);
     }
 
+    long cumulativeValue() {
+        return curr.get();
+    }
+
     long snapshot() {
         return curr.get() - prev.get();
     }
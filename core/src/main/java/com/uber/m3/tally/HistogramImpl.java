@@ -125,6 +125,20 @@ class HistogramImpl extends MetricBase implements Histogram, StopwatchRecorder {
         return new Stopwatch(System.nanoTime(), this);
     }
 
+    Buckets getBuckets() {
+        return (Buckets) specification;
+    }
+
+    long[] cumulativeBucketValues() {
+        long[] values = new long[bucketCounters.length];
+
+        for (int i = 0; i < bucketCounters.length; ++i) {
+            values[i] = bucketCounters[i] != null ? bucketCounters[i].cumulativeValue() : 0;
+        }
+
+        return values;
+    }
+
     ImmutableMap<String, String> getTags() {
         return tags;
     }
@@ -133,18 +147,10 @@ class HistogramImpl extends MetricBase implements Histogram, StopwatchRecorder {
         return bucketIndex < specification.getDurationUpperBounds().size() ? specification.getDurationUpperBounds().get(bucketIndex) : Duration.MAX_VALUE;
     }
 
-    private Duration getLowerBoundDurationForBucket(int bucketIndex) {
-        return bucketIndex == 0 ? Duration.MIN_VALUE : specification.getDurationUpperBounds().get(bucketIndex - 1);
-    }
-
     private double getUpperBoundValueForBucket(int bucketIndex) {
         return bucketIndex < specification.getValueUpperBounds().size() ? specification.getValueUpperBounds().get(bucketIndex) : Double.MAX_VALUE;
     }
 
-    private double getLowerBoundValueForBucket(int bucketIndex) {
-        return bucketIndex == 0 ? Double.MIN_VALUE : specification.getValueUpperBounds().get(bucketIndex - 1);
-    }
-
     private long snapshotCounterValue(int index) {
         return bucketCounters[index] != null ? bucketCounters[index].snapshot() : 0;
     }
@@ -210,28 +216,13 @@ class HistogramImpl extends MetricBase implements Histogram, StopwatchRecorder {
                 return;
             }
 
-            switch (type) {
-                case VALUE:
-                    reporter.reportHistogramValueSamples(
-                        getQualifiedName(),
-                        tags,
-                        (Buckets) specification,
-                        getLowerBoundValueForBucket(bucketIndex),
-                        getUpperBoundValueForBucket(bucketIndex),
-                        inc
-                    );
-                    break;
-                case DURATION:
-                    reporter.reportHistogramDurationSamples(
-                        getQualifiedName(),
-                        tags,
-                        (Buckets) specification,
-                        getLowerBoundDurationForBucket(bucketIndex),
-                        getUpperBoundDurationForBucket(bucketIndex),
-                        inc
-                    );
-                    break;
-            }
+            reporter.reportHistogramSamples(
+                getQualifiedName(),
+                tags,
+                (Buckets) specification,
+                bucketIndex,
+                inc
+            );
         }
     }
 }
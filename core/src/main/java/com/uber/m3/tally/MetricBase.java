@@ -27,12 +27,19 @@ abstract class MetricBase {
 
     private final String fullyQualifiedName;
 
+    private final long createdAtMillis;
+
     protected MetricBase(String fqn) {
         this.fullyQualifiedName = fqn;
+        this.createdAtMillis = System.currentTimeMillis();
     }
 
     final String getQualifiedName() {
         return fullyQualifiedName;
     }
 
+    final long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
 }
@@ -77,6 +77,15 @@ public interface Scope extends AutoCloseable {
      */
     Capabilities capabilities();
 
+    /**
+     * Visits live state of every {@link Counter}, {@link Gauge} and {@link Histogram} held by this
+     * {@link Scope} and the rest of the scopes sharing its root. {@link Timer}s are not held by the scope,
+     * and therefore are not visited. By default, nothing is visited.
+     * @param visitor the visitor to visit metrics with
+     */
+    default void visit(ScopeVisitor visitor) {
+    }
+
     @Override
     void close() throws ScopeCloseException;
 }
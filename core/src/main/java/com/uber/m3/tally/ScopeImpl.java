@@ -20,6 +20,7 @@
 
 package com.uber.m3.tally;
 
+import com.uber.m3.util.Duration;
 import com.uber.m3.util.ImmutableMap;
 
 import javax.annotation.Nullable;
@@ -248,6 +249,45 @@ class ScopeImpl implements Scope, TestScope {
         return snap;
     }
 
+    @Override
+    public void visit(ScopeVisitor visitor) {
+        // NOTE: Root scope is only registered once it's started reporting
+        if (registry.subscopes.get(keyForPrefixedStringMap(prefix, tags)) != this) {
+            visitMetrics(visitor);
+        }
+
+        for (ScopeImpl subscope : registry.subscopes.values()) {
+            subscope.visitMetrics(visitor);
+        }
+    }
+
+    private void visitMetrics(ScopeVisitor visitor) {
+        ImmutableMap<String, String> tags = this.tags != null ? this.tags : ImmutableMap.EMPTY;
+
+        for (CounterImpl counter : counters.values()) {
+            visitor.visitCounter(
+                    counter.getQualifiedName(),
+                    tags,
+                    counter.cumulativeValue(),
+                    counter.getCreatedAtMillis()
+            );
+        }
+
+        for (GaugeImpl gauge : gauges.values()) {
+            visitor.visitGauge(gauge.getQualifiedName(), tags, gauge.value());
+        }
+
+        for (HistogramImpl histogram : histograms.values()) {
+            visitor.visitHistogram(
+                    histogram.getQualifiedName(),
+                    tags,
+                    histogram.getBuckets(),
+                    histogram.cumulativeBucketValues(),
+                    histogram.getCreatedAtMillis()
+            );
+        }
+    }
+
     // Helper function used to create subscopes
     private Scope subScopeHelper(String prefix, Map<String, String> tags) {
         ImmutableMap.Builder<String, String> mapBuilder = new ImmutableMap.Builder<>();
@@ -291,6 +331,8 @@ class ScopeImpl implements Scope, TestScope {
         Collection<ScopeImpl> subscopes = registry.subscopes.values();
 
         if (reporter != null) {
+            reporter.startInterval(System.currentTimeMillis() * Duration.NANOS_PER_MILLI);
+
             for (ScopeImpl subscope : subscopes) {
                 subscope.report(reporter);
             }
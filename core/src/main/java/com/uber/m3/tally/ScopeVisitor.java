@@ -0,0 +1,65 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally;
+
+import java.util.Map;
+
+/**
+ * Visitor of the live state of the metrics held by the {@link Scope}, see {@link Scope#visit(ScopeVisitor)}.
+ * <p>
+ * Unlike {@link StatsReporter}, visitor observes cumulative values of the metrics
+ * (rather than the deltas since the last report), without affecting reporting in any way.
+ */
+public interface ScopeVisitor {
+    /**
+     * Visits a {@link Counter}.
+     * @param name  the fully qualified name of the {@link Counter}
+     * @param tags  the tags of the {@link Counter}
+     * @param value the cumulative value of the {@link Counter}
+     * @param createdAtMillis the time (in milliseconds since the epoch) the {@link Counter} was created at
+     */
+    void visitCounter(String name, Map<String, String> tags, long value, long createdAtMillis);
+
+    /**
+     * Visits a {@link Gauge}.
+     * @param name  the fully qualified name of the {@link Gauge}
+     * @param tags  the tags of the {@link Gauge}
+     * @param value the last value of the {@link Gauge}
+     */
+    void visitGauge(String name, Map<String, String> tags, double value);
+
+    /**
+     * Visits a {@link Histogram}.
+     * @param name         the fully qualified name of the {@link Histogram}
+     * @param tags         the tags of the {@link Histogram}
+     * @param buckets      the buckets of the {@link Histogram}
+     * @param bucketValues the cumulative number of samples of each of the buckets (indexed the same way
+     *                     {@link Buckets#getBucketIndexFor(double)} does), last one being the overflow bucket
+     * @param createdAtMillis the time (in milliseconds since the epoch) the {@link Histogram} was created at
+     */
+    void visitHistogram(
+            String name,
+            Map<String, String> tags,
+            Buckets buckets,
+            long[] bucketValues,
+            long createdAtMillis
+    );
+}
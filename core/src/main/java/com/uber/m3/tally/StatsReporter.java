@@ -99,4 +99,46 @@ public interface StatsReporter extends BaseStatsReporter {
             Duration bucketUpperBound,
             long samples
     );
+
+    /**
+     * Report samples of a single {@link Histogram} bucket identified by its index.
+     * <p>
+     * Reporters that can leverage bucket's index directly (for ex, to look up pre-computed
+     * per-bucket data) should override this method. Default implementation resolves bucket's
+     * bounds and delegates to either {@link #reportHistogramDurationSamples} (for {@link DurationBuckets})
+     * or {@link #reportHistogramValueSamples} (for any other {@link Buckets}).
+     *
+     * @param name        name of {@link Histogram} to report
+     * @param tags        tags to report on
+     * @param buckets     {@link Buckets} of the {@link Histogram}
+     * @param bucketIndex index of the bucket to report
+     * @param samples     samples to report
+     */
+    default void reportHistogramSamples(
+            String name,
+            Map<String, String> tags,
+            Buckets buckets,
+            int bucketIndex,
+            long samples
+    ) {
+        if (buckets instanceof DurationBuckets) {
+            reportHistogramDurationSamples(
+                    name,
+                    tags,
+                    buckets,
+                    buckets.getDurationLowerBoundFor(bucketIndex),
+                    buckets.getDurationUpperBoundFor(bucketIndex),
+                    samples
+            );
+        } else {
+            reportHistogramValueSamples(
+                    name,
+                    tags,
+                    buckets,
+                    buckets.getValueLowerBoundFor(bucketIndex),
+                    buckets.getValueUpperBoundFor(bucketIndex),
+                    samples
+            );
+        }
+    }
 }
@@ -38,6 +38,10 @@ public class ImmutableMap<K, V> implements Map<K, V> {
     private ImmutableList<V> values;
     private ImmutableSet<Entry<K, V>> entrySet;
 
+    // Cached hash code, computed lazily (similarly to {@link String#hashCode()}, since the map
+    // is immutable, racy computation is benign)
+    private int hash;
+
     private ImmutableMap() {
         this.map = new HashMap<>(0);
     }
@@ -188,7 +192,12 @@ public class ImmutableMap<K, V> implements Map<K, V> {
 
     @Override
     public int hashCode() {
-        return map.hashCode();
+        int h = hash;
+        if (h == 0 && !map.isEmpty()) {
+            h = map.hashCode();
+            hash = h;
+        }
+        return h;
     }
 
     @Override
@@ -121,6 +121,22 @@ public class ScopeImplTest {
         assertEquals(123, reporter.nextGaugeVal(), EPSILON);
     }
 
+    @Test
+    public void reportLoopIterationStartsInterval() {
+        TestStatsReporter reporter = new TestStatsReporter();
+
+        ScopeImpl scope = (ScopeImpl) new RootScopeBuilder().reporter(reporter).reportEvery(Duration.ofMinutes(1));
+
+        long before = System.currentTimeMillis() * Duration.NANOS_PER_MILLI;
+
+        scope.reportLoopIteration();
+
+        long after = System.currentTimeMillis() * Duration.NANOS_PER_MILLI;
+
+        assertTrue(reporter.getIntervalTimestampNanos() >= before);
+        assertTrue(reporter.getIntervalTimestampNanos() <= after);
+    }
+
     @Test
     public void closeWithoutReporter() throws ScopeCloseException {
         try (Scope scope = new RootScopeBuilder().reportEvery(Duration.ofMinutes(1))) {
@@ -257,6 +273,83 @@ public class ScopeImplTest {
         assertEquals(ImmutableMap.EMPTY, timerSnapshotActual.tags());
     }
 
+    @Test
+    public void visit() throws ScopeCloseException {
+        TestStatsReporter reporter = new TestStatsReporter();
+
+        long startMillis = System.currentTimeMillis();
+
+        Scope rootScope = new RootScopeBuilder()
+            .reporter(reporter)
+            .reportEvery(Duration.ofMillis(REPORT_INTERVAL_MILLIS));
+
+        ImmutableMap<String, String> tags = ImmutableMap.of("foo", "bar");
+
+        rootScope.counter("visit-counter").inc(1);
+        rootScope.tagged(tags).counter("visit-counter").inc(2);
+        rootScope.gauge("visit-gauge").update(3);
+
+        Buckets buckets = ValueBuckets.custom(10, 100);
+        Histogram histogram = rootScope.subScope("sub").histogram("visit-histogram", buckets);
+        histogram.recordValue(1);
+        histogram.recordValue(50);
+        histogram.recordValue(50);
+
+        try {
+            Thread.sleep(SLEEP_MILLIS);
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted while sleeping! Let's continue anyway...");
+        }
+
+        // Counters are visited with their cumulative values, irrespective of reporting
+        rootScope.counter("visit-counter").inc(4);
+
+        Map<ScopeKey, Long> counters = new HashMap<>();
+        Map<ScopeKey, Double> gauges = new HashMap<>();
+        Map<ScopeKey, long[]> histograms = new HashMap<>();
+
+        rootScope.visit(new ScopeVisitor() {
+            @Override
+            public void visitCounter(String name, Map<String, String> tags, long value, long createdAtMillis) {
+                assertTrue(createdAtMillis >= startMillis && createdAtMillis <= System.currentTimeMillis());
+                counters.put(new ScopeKey(name, (ImmutableMap<String, String>) tags), value);
+            }
+
+            @Override
+            public void visitGauge(String name, Map<String, String> tags, double value) {
+                gauges.put(new ScopeKey(name, (ImmutableMap<String, String>) tags), value);
+            }
+
+            @Override
+            public void visitHistogram(
+                    String name,
+                    Map<String, String> tags,
+                    Buckets buckets,
+                    long[] bucketValues,
+                    long createdAtMillis
+            ) {
+                assertTrue(createdAtMillis >= startMillis && createdAtMillis <= System.currentTimeMillis());
+                histograms.put(new ScopeKey(name, (ImmutableMap<String, String>) tags), bucketValues);
+            }
+        });
+
+        rootScope.close();
+
+        assertEquals(2, counters.size());
+        assertEquals(5, (long) counters.get(new ScopeKey("visit-counter", ImmutableMap.EMPTY)));
+        assertEquals(2, (long) counters.get(new ScopeKey("visit-counter", tags)));
+
+        assertEquals(1, gauges.size());
+        assertEquals(3, gauges.get(new ScopeKey("visit-gauge", ImmutableMap.EMPTY)), EPSILON);
+
+        assertEquals(1, histograms.size());
+        long[] bucketValues = histograms.get(new ScopeKey("sub.visit-histogram", ImmutableMap.EMPTY));
+        assertEquals(3, bucketValues.length);
+        assertEquals(1, bucketValues[0]);
+        assertEquals(2, bucketValues[1]);
+        assertEquals(0, bucketValues[2]);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void nonPositiveReportInterval() {
         new RootScopeBuilder().reportEvery(Duration.ofSeconds(-10));
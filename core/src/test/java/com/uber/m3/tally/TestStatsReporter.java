@@ -38,6 +38,8 @@ public class TestStatsReporter implements StatsReporter {
 
     private Map<Double, Long> cumulativeValueSamples = new HashMap<>();
 
+    private volatile long intervalTimestampNanos;
+
     @Override
     public void reportCounter(String name, Map<String, String> tags, long value) {
         counters.add(new MetricStruct<>(name, tags, value));
@@ -111,6 +113,15 @@ public class TestStatsReporter implements StatsReporter {
         return CapableOf.REPORTING;
     }
 
+    @Override
+    public void startInterval(long timestampNanos) {
+        intervalTimestampNanos = timestampNanos;
+    }
+
+    public long getIntervalTimestampNanos() {
+        return intervalTimestampNanos;
+    }
+
     @Override
     public void flush() {
         // No-op
@@ -168,6 +168,15 @@ public class ImmutableMapTest {
         assertTrue(ImmutableMap.EMPTY.equals(new ImmutableMap(new HashMap())));
     }
 
+    @Test
+    public void hashCodeTest() {
+        // Hash code is cached, therefore has to stay consistent across the calls
+        assertEquals(helperMap.hashCode(), map.hashCode());
+        assertEquals(helperMap.hashCode(), map.hashCode());
+
+        assertEquals(new HashMap<>(0).hashCode(), ImmutableMap.EMPTY.hashCode());
+    }
+
     @Test
     public void toStringTest() {
         assertEquals(helperMap.toString(), map.toString());
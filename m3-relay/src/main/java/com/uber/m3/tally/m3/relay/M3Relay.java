@@ -0,0 +1,343 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.relay;
+
+import com.uber.m3.tally.m3.thrift.TCalcTransport;
+import com.uber.m3.tally.m3.thrift.TUdpServer;
+import com.uber.m3.tally.m3.thrift.TUdpTransport;
+import com.uber.m3.thrift.gen.M3;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricBatch;
+import com.uber.m3.thrift.gen.MetricTag;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local aggregating relay for M3: receives {@link MetricBatch}es sent by the (multiple) {@link M3.Iface} clients
+ * on the host (for ex, {@code M3Reporter}s of the JVMs running on it), aggregates them per series over the window
+ * and forwards compacted batches upstream (to the M3 collector).
+ * <p>
+ * Since every reporter sends the same series within the same interval, the relay forwards (roughly)
+ * as many metrics as a single reporter does, therefore cutting the collector's ingest by the number
+ * of reporting processes. See {@link RelayAggregator} for how metrics are aggregated.
+ * <p>
+ * Receiving and aggregating are confined to a single thread, handing aggregated metrics over once
+ * the window elapses (as well as upon closing the relay), and timers right away, to the forwarding thread,
+ * so that forwarding doesn't hold off draining the socket. Forwarding requests are bounded, shedding
+ * metrics (accounted for in {@link #getDroppedMetricsCount()}) whenever forwarding falls behind.
+ */
+public class M3Relay implements AutoCloseable {
+    public static final int DEFAULT_WINDOW_MILLIS = 10_000;
+    public static final int DEFAULT_RECEIVE_BUFFER_SIZE_BYTES = 4 * 1024 * 1024;
+
+    private static final Logger LOG = LoggerFactory.getLogger(M3Relay.class);
+
+    // NOTE: Receiving times out periodically to make sure the window is flushed
+    //       even if there are no more metrics arriving
+    private static final int RECEIVE_TIMEOUT_MILLIS = 100;
+
+    private static final long MAX_RELAYING_THREAD_WAIT_MILLIS = 5_000;
+
+    private static final int MAX_PENDING_FORWARDS = 1_024;
+
+    private final TUdpServer server;
+    private final TProtocol inputProtocol;
+    // NOTE: Since M3 API is one-way, responses (sent only in case of errors) are discarded
+    private final TProtocol outputProtocol = new TCompactProtocol(new TCalcTransport());
+    private final TProcessor processor;
+
+    private final RelayAggregator aggregator = new RelayAggregator();
+    private final RelayForwarder forwarder;
+    private final ExecutorService forwardingExecutor;
+
+    private final long windowNanos;
+
+    private final LongAdder receivedBatchesCount = new LongAdder();
+    private final LongAdder receivedMetricsCount = new LongAdder();
+
+    private final Thread relayingThread;
+
+    private volatile boolean closed = false;
+
+    private M3Relay(Builder builder) {
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(builder.windowMillis);
+
+        try {
+            server = new TUdpServer(builder.listenSocketAddress, RECEIVE_TIMEOUT_MILLIS);
+            server.setReceiveBufferSize(builder.receiveBufferSizeBytes);
+            server.open();
+
+            forwarder = new RelayForwarder(builder.upstreamSocketAddress, builder.maxPacketSizeBytes);
+        } catch (SocketException | TException e) {
+            throw new RuntimeException("Failed to start M3 relay", e);
+        }
+
+        forwardingExecutor = new ThreadPoolExecutor(
+                1,
+                1,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING_FORWARDS),
+                M3Relay::newForwardingThread
+        );
+
+        inputProtocol = new TCompactProtocol(server);
+        processor = new M3.Processor<M3.Iface>(this::receive);
+
+        relayingThread = new Thread(this::run, "m3-relay");
+        relayingThread.setDaemon(true);
+        relayingThread.start();
+
+        LOG.info(
+                "Started M3 relay at {}, forwarding to {} every {}ms",
+                server.getLocalSocketAddress(),
+                builder.upstreamSocketAddress,
+                builder.windowMillis
+        );
+    }
+
+    /**
+     * Returns the address relay is receiving metrics at
+     */
+    public SocketAddress getListenAddress() {
+        return server.getLocalSocketAddress();
+    }
+
+    /**
+     * Returns number of batches received
+     */
+    public long getReceivedBatchesCount() {
+        return receivedBatchesCount.sum();
+    }
+
+    /**
+     * Returns number of metrics received
+     */
+    public long getReceivedMetricsCount() {
+        return receivedMetricsCount.sum();
+    }
+
+    /**
+     * Returns number of batches forwarded upstream
+     */
+    public long getForwardedBatchesCount() {
+        return forwarder.getBatchesCount();
+    }
+
+    /**
+     * Returns number of (aggregated) metrics forwarded upstream
+     */
+    public long getForwardedMetricsCount() {
+        return forwarder.getMetricsCount();
+    }
+
+    /**
+     * Returns number of (aggregated) metrics that failed to be forwarded upstream
+     */
+    public long getDroppedMetricsCount() {
+        return forwarder.getDroppedMetricsCount();
+    }
+
+    /**
+     * Closes the relay, forwarding metrics aggregated within the current window
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        // Closing the socket unblocks the relaying thread
+        server.close();
+
+        try {
+            relayingThread.join(MAX_RELAYING_THREAD_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        LOG.info("Closed M3 relay");
+    }
+
+    private void run() {
+        long windowStartNanos = System.nanoTime();
+
+        while (!closed) {
+            process();
+
+            if (System.nanoTime() - windowStartNanos >= windowNanos) {
+                flush();
+                windowStartNanos = System.nanoTime();
+            }
+        }
+
+        flush();
+
+        forwardingExecutor.shutdown();
+
+        try {
+            if (!forwardingExecutor.awaitTermination(MAX_RELAYING_THREAD_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Timed out forwarding pending metrics upon closing");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        forwarder.close();
+    }
+
+    private void process() {
+        try {
+            processor.process(inputProtocol, outputProtocol);
+        } catch (TTransportException e) {
+            if (!closed && !(e.getCause() instanceof SocketTimeoutException)) {
+                LOG.warn("Failed to receive metrics", e);
+            }
+        } catch (TException | RuntimeException e) {
+            LOG.warn("Failed to decode metrics", e);
+        } finally {
+            // Discard the remainder of the packet (if any), to make sure
+            // the next message is read starting from the next packet
+            server.consumeBuffer(server.getBytesRemainingInBuffer());
+        }
+    }
+
+    private void receive(MetricBatch batch) {
+        receivedBatchesCount.increment();
+        receivedMetricsCount.add(batch.getMetricsSize());
+
+        aggregator.merge(batch, this::forwardAsync);
+    }
+
+    private void flush() {
+        if (aggregator.isEmpty()) {
+            return;
+        }
+
+        aggregator.drain(this::forwardAsync);
+    }
+
+    private static Thread newForwardingThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "m3-relay-forwarder");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private void forwardAsync(Set<MetricTag> commonTags, List<Metric> metrics) {
+        try {
+            forwardingExecutor.execute(() -> forwarder.forward(commonTags, metrics));
+        } catch (RejectedExecutionException e) {
+            // Forwarding falls behind, shedding metrics rather than holding off receiving
+            forwarder.recordDropped(metrics.size());
+        }
+    }
+
+    /**
+     * Builder pattern to construct an {@link M3Relay}.
+     */
+    public static class Builder {
+        protected SocketAddress listenSocketAddress;
+        protected SocketAddress upstreamSocketAddress;
+        protected int windowMillis = DEFAULT_WINDOW_MILLIS;
+        protected int maxPacketSizeBytes = TUdpTransport.PACKET_DATA_PAYLOAD_MAX_SIZE;
+        protected int receiveBufferSizeBytes = DEFAULT_RECEIVE_BUFFER_SIZE_BYTES;
+
+        /**
+         * Constructs a {@link Builder}.
+         *
+         * @param listenSocketAddress   the address to receive metrics at (use port 0 to bind to an ephemeral one)
+         * @param upstreamSocketAddress the address to forward aggregated metrics to
+         */
+        public Builder(SocketAddress listenSocketAddress, SocketAddress upstreamSocketAddress) {
+            this.listenSocketAddress = listenSocketAddress;
+            this.upstreamSocketAddress = upstreamSocketAddress;
+        }
+
+        /**
+         * Configures the aggregation window of this {@link Builder}.
+         *
+         * @param windowMillis the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder windowMillis(int windowMillis) {
+            this.windowMillis = windowMillis;
+            return this;
+        }
+
+        /**
+         * Configures the maxPacketSizeBytes of this {@link Builder}.
+         *
+         * @param maxPacketSizeBytes the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder maxPacketSizeBytes(int maxPacketSizeBytes) {
+            this.maxPacketSizeBytes = maxPacketSizeBytes;
+            return this;
+        }
+
+        /**
+         * Configures the size of the receiving socket's buffer ({@code SO_RCVBUF}) of this {@link Builder}.
+         *
+         * @param receiveBufferSizeBytes the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder receiveBufferSizeBytes(int receiveBufferSizeBytes) {
+            this.receiveBufferSizeBytes = receiveBufferSizeBytes;
+            return this;
+        }
+
+        /**
+         * Builds and returns an {@link M3Relay}, starting it.
+         *
+         * @return the built {@link M3Relay}
+         */
+        public M3Relay build() {
+            if (windowMillis <= 0) {
+                throw new IllegalArgumentException("Aggregation window has to be positive");
+            }
+
+            if (receiveBufferSizeBytes <= 0) {
+                throw new IllegalArgumentException("Receive buffer size has to be positive");
+            }
+
+            return new M3Relay(this);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.relay;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs {@link M3Relay} as a standalone process (sidecar), accepting following arguments:
+ * <ul>
+ *     <li>{@code --upstream=<host>:<port>}: address of the M3 collector to forward metrics to (required)</li>
+ *     <li>{@code --listen=<host>:<port>}: address to receive metrics at ({@value #DEFAULT_LISTEN_ADDRESS} by default)</li>
+ *     <li>{@code --window=<millis>}: aggregation window ({@value M3Relay#DEFAULT_WINDOW_MILLIS} by default)</li>
+ *     <li>{@code --max-packet-size=<bytes>}: max size of the packets forwarded upstream</li>
+ *     <li>{@code --receive-buffer-size=<bytes>}: size of the receiving socket's buffer
+ *     ({@value M3Relay#DEFAULT_RECEIVE_BUFFER_SIZE_BYTES} by default)</li>
+ * </ul>
+ */
+public final class M3RelayMain {
+
+    private static final String DEFAULT_LISTEN_ADDRESS = "127.0.0.1:9052";
+
+    private M3RelayMain() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = parse(args);
+
+        if (!options.containsKey("upstream")) {
+            throw new IllegalArgumentException("Upstream address (--upstream=<host>:<port>) is required");
+        }
+
+        M3Relay.Builder builder = new M3Relay.Builder(
+                toSocketAddress(options.getOrDefault("listen", DEFAULT_LISTEN_ADDRESS)),
+                toSocketAddress(options.get("upstream"))
+        );
+
+        if (options.containsKey("window")) {
+            builder.windowMillis(Integer.parseInt(options.get("window")));
+        }
+
+        if (options.containsKey("max-packet-size")) {
+            builder.maxPacketSizeBytes(Integer.parseInt(options.get("max-packet-size")));
+        }
+
+        if (options.containsKey("receive-buffer-size")) {
+            builder.receiveBufferSizeBytes(Integer.parseInt(options.get("receive-buffer-size")));
+        }
+
+        M3Relay relay = builder.build();
+
+        CountDownLatch shutdownLatch = new CountDownLatch(1);
+
+        // Forward metrics aggregated within the current window before exiting
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            relay.close();
+            shutdownLatch.countDown();
+        }));
+
+        shutdownLatch.await();
+    }
+
+    private static InetSocketAddress toSocketAddress(String address) {
+        int separator = address.lastIndexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected address in the form of <host>:<port>, got: " + address);
+        }
+
+        return new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected arguments in the form of --<name>=<value>, got: " + arg);
+            }
+
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        return options;
+    }
+}
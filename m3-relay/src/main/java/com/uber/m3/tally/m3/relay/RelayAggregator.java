@@ -0,0 +1,204 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.relay;
+
+import com.uber.m3.thrift.gen.CountValue;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricBatch;
+import com.uber.m3.thrift.gen.MetricTag;
+import com.uber.m3.thrift.gen.MetricValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Aggregates metrics received (from multiple reporters) within the window, per series:
+ * <ul>
+ *     <li>Counters are summed up (this also covers bucketed histograms, which are reported as
+ *     counters tagged with the bucket they belong to)</li>
+ *     <li>Gauges retain the last value received</li>
+ *     <li>Timers are passed through as is, since individual samples can't be merged, and
+ *     therefore are handed over right away instead of being held for the window</li>
+ * </ul>
+ * Series are identified by the metric's name, tags and type, within the batch's common tags,
+ * therefore metrics are only merged across reporters sharing the same common tags.
+ * <p>
+ * NOTE: This class is NOT thread-safe and is expected to be confined to a single (receiving) thread
+ */
+final class RelayAggregator {
+
+    private final Map<Set<MetricTag>, Group> groups = new HashMap<>();
+
+    private long metricsCount = 0;
+
+    /**
+     * Merges metrics of the batch into the current window, handing timers over to the consumer right away
+     */
+    <E extends Exception> void merge(MetricBatch batch, GroupConsumer<E> timersConsumer) throws E {
+        if (batch.getMetrics() == null || batch.getMetrics().isEmpty()) {
+            return;
+        }
+
+        // NOTE: Tags are copied to be compared irrespective of the order
+        Set<MetricTag> commonTags =
+                batch.getCommonTags() == null ? Collections.emptySet() : new HashSet<>(batch.getCommonTags());
+
+        Group group = null;
+        List<Metric> timers = null;
+
+        for (Metric metric : batch.getMetrics()) {
+            if (metric.getMetricValue() != null && metric.getMetricValue().isSetTimer()) {
+                if (timers == null) {
+                    timers = new ArrayList<>();
+                }
+
+                timers.add(metric);
+                continue;
+            }
+
+            if (group == null) {
+                group = groups.computeIfAbsent(commonTags, tags -> new Group());
+            }
+
+            if (merge(group, metric)) {
+                ++metricsCount;
+            }
+        }
+
+        if (timers != null) {
+            timersConsumer.accept(commonTags, timers);
+        }
+    }
+
+    private static boolean merge(Group group, Metric metric) {
+        MetricValue value = metric.getMetricValue();
+        if (value == null) {
+            return false;
+        }
+
+        if (value.isSetCount()) {
+            Metric aggregated = group.series.putIfAbsent(new SeriesKey(metric, MetricValue._Fields.COUNT), metric);
+            if (aggregated != null) {
+                CountValue count = aggregated.getMetricValue().getCount();
+                count.setI64Value(count.getI64Value() + value.getCount().getI64Value());
+
+                mergeTimestamp(aggregated, metric);
+            }
+        } else if (value.isSetGauge()) {
+            Metric aggregated = group.series.putIfAbsent(new SeriesKey(metric, MetricValue._Fields.GAUGE), metric);
+            // NOTE: Gauges arriving out of order (from different reporters) must not override the newer value
+            if (aggregated != null && !isOlder(metric, aggregated)) {
+                aggregated.setMetricValue(value);
+
+                mergeTimestamp(aggregated, metric);
+            }
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    private static boolean isOlder(Metric metric, Metric aggregated) {
+        return metric.isSetTimestamp() && aggregated.isSetTimestamp() && metric.getTimestamp() < aggregated.getTimestamp();
+    }
+
+    private static void mergeTimestamp(Metric aggregated, Metric metric) {
+        if (metric.isSetTimestamp() && metric.getTimestamp() > aggregated.getTimestamp()) {
+            aggregated.setTimestamp(metric.getTimestamp());
+        }
+    }
+
+    boolean isEmpty() {
+        return groups.isEmpty();
+    }
+
+    /**
+     * Returns number of metrics merged into the current window
+     */
+    long getMetricsCount() {
+        return metricsCount;
+    }
+
+    /**
+     * Hands over metrics aggregated within the window (per common tags), resetting it
+     */
+    <E extends Exception> void drain(GroupConsumer<E> consumer) throws E {
+        for (Map.Entry<Set<MetricTag>, Group> entry : groups.entrySet()) {
+            consumer.accept(entry.getKey(), new ArrayList<>(entry.getValue().series.values()));
+        }
+
+        groups.clear();
+        metricsCount = 0;
+    }
+
+    /**
+     * Consumer of the metrics aggregated within the window, sharing the same common tags
+     */
+    interface GroupConsumer<E extends Exception> {
+        void accept(Set<MetricTag> commonTags, List<Metric> metrics) throws E;
+    }
+
+    private static final class Group {
+        private final Map<SeriesKey, Metric> series = new HashMap<>();
+    }
+
+    private static final class SeriesKey {
+        private final String name;
+        private final Set<MetricTag> tags;
+        private final MetricValue._Fields type;
+        private final int hashCode;
+
+        SeriesKey(Metric metric, MetricValue._Fields type) {
+            this.name = metric.getName();
+            // NOTE: Tags are copied to be compared irrespective of the order
+            this.tags = metric.getTags() == null ? Collections.emptySet() : new HashSet<>(metric.getTags());
+            this.type = type;
+            this.hashCode = Objects.hash(name, tags, type);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+
+            if (other == null || getClass() != other.getClass()) {
+                return false;
+            }
+
+            SeriesKey that = (SeriesKey) other;
+
+            return type == that.type && Objects.equals(name, that.name) && tags.equals(that.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.relay;
+
+import com.uber.m3.tally.m3.thrift.TCalcTransport;
+import com.uber.m3.tally.m3.thrift.TUdpClient;
+import com.uber.m3.thrift.gen.M3;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricBatch;
+import com.uber.m3.thrift.gen.MetricTag;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Forwards metrics aggregated by the relay upstream, packing them into as few batches as possible,
+ * each batch being sent in a single UDP packet.
+ * <p>
+ * NOTE: Forwarding is NOT thread-safe and is expected to be confined to a single (forwarding) thread
+ */
+final class RelayForwarder implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RelayForwarder.class);
+
+    // NOTE: Accounts for the growth of the metrics list's size header, which isn't
+    //       accounted for when estimating size of the (empty) batch's shell
+    private static final int LIST_HEADER_PADDING = 4;
+
+    private final int maxPacketSizeBytes;
+
+    private final TUdpClient transport;
+    private final M3.Client client;
+
+    private final TCalcTransport calculatingPhonyTransport = new TCalcTransport();
+    private final TCompactProtocol calculatingPhonyProtocol = new TCompactProtocol(calculatingPhonyTransport);
+    private final M3.Client phonyClient = new M3.Client(calculatingPhonyProtocol);
+
+    // NOTE: Counters are only updated by the forwarding thread, but could be read by any
+    private final LongAdder batchesCount = new LongAdder();
+    private final LongAdder metricsCount = new LongAdder();
+    private final LongAdder droppedMetricsCount = new LongAdder();
+
+    RelayForwarder(SocketAddress upstreamAddress, int maxPacketSizeBytes) throws SocketException, TException {
+        this.maxPacketSizeBytes = maxPacketSizeBytes;
+
+        transport = new TUdpClient(upstreamAddress);
+        transport.open();
+
+        client = new M3.Client(new TCompactProtocol(transport));
+    }
+
+    /**
+     * Forwards metrics sharing the same common tags
+     */
+    void forward(Set<MetricTag> commonTags, List<Metric> metrics) {
+        MetricBatch shell = new MetricBatch(new ArrayList<>());
+        if (!commonTags.isEmpty()) {
+            shell.setCommonTags(commonTags);
+        }
+
+        int capacity = maxPacketSizeBytes - LIST_HEADER_PADDING - evaluateByteSize(shell);
+
+        List<Metric> packet = new ArrayList<>();
+        int packetBytes = 0;
+
+        for (Metric metric : metrics) {
+            int size = evaluateByteSize(metric);
+
+            if (!packet.isEmpty() && packetBytes + size > capacity) {
+                send(commonTags, packet);
+
+                packet = new ArrayList<>();
+                packetBytes = 0;
+            }
+
+            packet.add(metric);
+            packetBytes += size;
+        }
+
+        if (!packet.isEmpty()) {
+            send(commonTags, packet);
+        }
+    }
+
+    private void send(Set<MetricTag> commonTags, List<Metric> metrics) {
+        MetricBatch batch = new MetricBatch(metrics);
+        if (!commonTags.isEmpty()) {
+            batch.setCommonTags(commonTags);
+        }
+
+        try {
+            client.emitMetricBatch(batch);
+
+            batchesCount.increment();
+            metricsCount.add(metrics.size());
+        } catch (TException e) {
+            LOG.warn("Failed to forward {} metrics upstream", metrics.size(), e);
+
+            droppedMetricsCount.add(metrics.size());
+        }
+    }
+
+    private int evaluateByteSize(MetricBatch shell) {
+        try {
+            phonyClient.emitMetricBatch(shell);
+            return calculatingPhonyTransport.getSizeAndReset();
+        } catch (TException e) {
+            throw new RuntimeException("Unable to calculate metric batch size", e);
+        }
+    }
+
+    private int evaluateByteSize(Metric metric) {
+        try {
+            metric.write(calculatingPhonyProtocol);
+            return calculatingPhonyTransport.getSizeAndReset();
+        } catch (TException e) {
+            throw new RuntimeException("Unable to calculate metric size", e);
+        }
+    }
+
+    /**
+     * Accounts for the metrics dropped before being handed over for forwarding
+     */
+    void recordDropped(int metricsCount) {
+        droppedMetricsCount.add(metricsCount);
+    }
+
+    long getBatchesCount() {
+        return batchesCount.sum();
+    }
+
+    long getMetricsCount() {
+        return metricsCount.sum();
+    }
+
+    long getDroppedMetricsCount() {
+        return droppedMetricsCount.sum();
+    }
+
+    @Override
+    public void close() {
+        transport.close();
+    }
+}
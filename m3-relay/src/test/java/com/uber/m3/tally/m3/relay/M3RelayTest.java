@@ -0,0 +1,195 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.relay;
+
+import com.uber.m3.tally.ValueBuckets;
+import com.uber.m3.tally.m3.M3CollectorSimulator;
+import com.uber.m3.tally.m3.M3Reporter;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricBatch;
+import com.uber.m3.util.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class M3RelayTest {
+
+    private static final Duration MAX_WAIT_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final int REPORTERS_COUNT = 3;
+
+    private static final ImmutableMap<String, String> TAGS = ImmutableMap.of("endpoint", "foo");
+
+    private final List<MetricBatch> forwarded = new CopyOnWriteArrayList<>();
+
+    private M3CollectorSimulator upstream;
+
+    @Before
+    public void setUp() throws Exception {
+        upstream = M3CollectorSimulator.onLoopback();
+        upstream.setBatchListener(forwarded::add);
+    }
+
+    @After
+    public void tearDown() {
+        upstream.close();
+    }
+
+    @Test
+    public void aggregatesMetricsOfMultipleReporters() throws InterruptedException {
+        ValueBuckets buckets = ValueBuckets.custom(10, 100);
+
+        M3Relay relay = newRelay(M3Relay.DEFAULT_WINDOW_MILLIS);
+
+        try {
+            for (int i = 0; i < REPORTERS_COUNT; ++i) {
+                // NOTE: Every reporter is closed (and flushed) prior to closing the relay
+                try (M3Reporter reporter = newReporter(relay)) {
+                    reporter.reportCounter("requests", TAGS, 2);
+                    reporter.reportGauge("queue", TAGS, 42);
+                    reporter.reportTimer("latency", TAGS, com.uber.m3.util.Duration.ofMillis(10));
+                    reporter.reportHistogramValueSamples("sizes", TAGS, buckets, 10, 100, 1);
+                }
+            }
+
+            // 4 metrics from every reporter
+            awaitReceived(relay, 4 * REPORTERS_COUNT);
+        } finally {
+            relay.close();
+        }
+
+        // Counter, gauge, histogram bucket, and timer of every reporter
+        assertTrue(upstream.awaitMetrics(3 + REPORTERS_COUNT, MAX_WAIT_TIMEOUT));
+
+        assertEquals(3 + REPORTERS_COUNT, relay.getForwardedMetricsCount());
+        assertEquals(relay.getForwardedBatchesCount(), forwarded.size());
+
+        int timers = 0;
+
+        for (MetricBatch batch : forwarded) {
+            for (Metric metric : batch.getMetrics()) {
+                switch (metric.getName()) {
+                    case "requests":
+                        assertEquals(2 * REPORTERS_COUNT, metric.getMetricValue().getCount().getI64Value());
+                        break;
+                    case "sizes":
+                        assertEquals(REPORTERS_COUNT, metric.getMetricValue().getCount().getI64Value());
+                        break;
+                    case "queue":
+                        assertEquals(42, metric.getMetricValue().getGauge().getDValue(), 0);
+                        break;
+                    case "latency":
+                        ++timers;
+                        break;
+                    default:
+                        throw new AssertionError("Unexpected metric: " + metric);
+                }
+            }
+        }
+
+        assertEquals(REPORTERS_COUNT, timers);
+    }
+
+    @Test
+    public void forwardsOnceWindowElapses() throws InterruptedException {
+        try (M3Relay relay = newRelay(100)) {
+            try (M3Reporter reporter = newReporter(relay)) {
+                reporter.reportCounter("requests", TAGS, 1);
+            }
+
+            // Metrics are forwarded without the relay being closed
+            assertTrue(upstream.awaitMetrics(1, MAX_WAIT_TIMEOUT));
+        }
+
+        assertEquals(1, forwarded.size());
+    }
+
+    @Test
+    public void forwardsTimersRightAway() throws InterruptedException {
+        try (M3Relay relay = newRelay(M3Relay.DEFAULT_WINDOW_MILLIS)) {
+            try (M3Reporter reporter = newReporter(relay)) {
+                reporter.reportTimer("latency", TAGS, com.uber.m3.util.Duration.ofMillis(10));
+            }
+
+            // Timers are forwarded without the window elapsing
+            assertTrue(upstream.awaitMetrics(1, MAX_WAIT_TIMEOUT));
+        }
+
+        assertEquals(1, forwarded.size());
+    }
+
+    @Test
+    public void packsForwardedMetricsIntoPackets() throws InterruptedException {
+        int maxPacketSizeBytes = 1_400;
+        int metricsCount = 500;
+
+        M3Relay relay = new M3Relay.Builder(new InetSocketAddress("127.0.0.1", 0), upstream.getAddress())
+                .maxPacketSizeBytes(maxPacketSizeBytes)
+                .build();
+
+        try {
+            try (M3Reporter reporter = newReporter(relay)) {
+                for (int i = 0; i < metricsCount; ++i) {
+                    reporter.reportCounter("requests-" + i, TAGS, 1);
+                }
+            }
+
+            awaitReceived(relay, metricsCount);
+        } finally {
+            relay.close();
+        }
+
+        assertTrue(upstream.awaitMetrics(metricsCount, MAX_WAIT_TIMEOUT));
+
+        assertTrue(forwarded.size() > 1);
+        assertTrue(upstream.snapshot().getMaxPacketBytes() <= maxPacketSizeBytes);
+    }
+
+    private void awaitReceived(M3Relay relay, long metricsCount) throws InterruptedException {
+        long deadline = System.nanoTime() + MAX_WAIT_TIMEOUT.toNanos();
+        while (relay.getReceivedMetricsCount() < metricsCount && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(metricsCount, relay.getReceivedMetricsCount());
+    }
+
+    private M3Relay newRelay(int windowMillis) {
+        return new M3Relay.Builder(new InetSocketAddress("127.0.0.1", 0), upstream.getAddress())
+                .windowMillis(windowMillis)
+                .build();
+    }
+
+    private static M3Reporter newReporter(M3Relay relay) {
+        return new M3Reporter.Builder(relay.getListenAddress())
+                .service("test-service")
+                .env("test")
+                .build();
+    }
+}
@@ -0,0 +1,156 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.relay;
+
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricBatch;
+import com.uber.m3.thrift.gen.MetricTag;
+import com.uber.m3.util.Duration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.uber.m3.tally.m3.TestMetrics.counter;
+import static com.uber.m3.tally.m3.TestMetrics.gauge;
+import static com.uber.m3.tally.m3.TestMetrics.timer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RelayAggregatorTest {
+
+    private final RelayAggregator aggregator = new RelayAggregator();
+
+    private final List<Metric> handedOverTimers = new ArrayList<>();
+
+    @Test
+    public void countersAreSummedUp() {
+        merge(batch(tags("service", "a"), counter("requests", 1, "endpoint", "x", "bucket", "10ms")));
+        // NOTE: Tags order doesn't matter
+        merge(batch(tags("service", "a"), counter("requests", 2, "bucket", "10ms", "endpoint", "x")));
+        merge(batch(tags("service", "a"), counter("requests", 4, "endpoint", "y", "bucket", "10ms")));
+
+        assertEquals(3, aggregator.getMetricsCount());
+
+        Map<Set<MetricTag>, List<Metric>> drained = drain();
+
+        List<Metric> metrics = drained.get(tags("service", "a"));
+        assertEquals(2, metrics.size());
+
+        Map<String, Long> values = new HashMap<>();
+        for (Metric metric : metrics) {
+            for (MetricTag tag : metric.getTags()) {
+                if (tag.getTagName().equals("endpoint")) {
+                    values.put(tag.getTagValue(), metric.getMetricValue().getCount().getI64Value());
+                }
+            }
+        }
+
+        assertEquals(3L, (long) values.get("x"));
+        assertEquals(4L, (long) values.get("y"));
+
+        assertTrue(aggregator.isEmpty());
+        assertEquals(0, aggregator.getMetricsCount());
+    }
+
+    @Test
+    public void seriesAreSeparatedByCommonTags() {
+        merge(batch(tags("service", "a"), counter("requests", 1)));
+        merge(batch(tags("service", "b"), counter("requests", 2)));
+
+        Map<Set<MetricTag>, List<Metric>> drained = drain();
+
+        assertEquals(2, drained.size());
+        assertEquals(1, drained.get(tags("service", "a")).get(0).getMetricValue().getCount().getI64Value());
+        assertEquals(2, drained.get(tags("service", "b")).get(0).getMetricValue().getCount().getI64Value());
+    }
+
+    @Test
+    public void gaugesRetainLatestValue() {
+        merge(batch(tags("service", "a"), gauge("queue", 1.0).setTimestamp(10)));
+        merge(batch(tags("service", "a"), gauge("queue", 3.0).setTimestamp(30)));
+        // NOTE: Gauge arriving out of order doesn't override the newer value
+        merge(batch(tags("service", "a"), gauge("queue", 2.0).setTimestamp(20)));
+
+        List<Metric> metrics = drain().get(tags("service", "a"));
+
+        assertEquals(1, metrics.size());
+        assertEquals(3.0, metrics.get(0).getMetricValue().getGauge().getDValue(), 0);
+        assertEquals(30, metrics.get(0).getTimestamp());
+    }
+
+    @Test
+    public void timersAreHandedOverRightAway() {
+        merge(batch(tags("service", "a"), counter("requests", 1), timer("latency", Duration.ofNanos(5))));
+
+        assertEquals(1, handedOverTimers.size());
+
+        merge(batch(tags("service", "a"), timer("latency", Duration.ofNanos(7))));
+
+        List<Long> timers = new ArrayList<>();
+        for (Metric metric : handedOverTimers) {
+            timers.add(metric.getMetricValue().getTimer().getI64Value());
+        }
+
+        assertEquals(Arrays.asList(5L, 7L), timers);
+
+        // Timers are not held for the window
+        assertEquals(1, aggregator.getMetricsCount());
+        assertEquals(1, drain().get(tags("service", "a")).size());
+    }
+
+    @Test
+    public void seriesAreSeparatedByType() {
+        merge(batch(tags("service", "a"), counter("requests", 1), gauge("requests", 1.0).setTimestamp(0)));
+
+        assertEquals(2, drain().get(tags("service", "a")).size());
+    }
+
+    private void merge(MetricBatch batch) {
+        aggregator.merge(batch, (commonTags, timers) -> handedOverTimers.addAll(timers));
+    }
+
+    private Map<Set<MetricTag>, List<Metric>> drain() {
+        Map<Set<MetricTag>, List<Metric>> drained = new HashMap<>();
+        aggregator.drain((commonTags, metrics) -> drained.put(commonTags, metrics));
+        return drained;
+    }
+
+    private static MetricBatch batch(Set<MetricTag> commonTags, Metric... metrics) {
+        MetricBatch batch = new MetricBatch(new ArrayList<>(Arrays.asList(metrics)));
+        batch.setCommonTags(commonTags);
+        return batch;
+    }
+
+    private static Set<MetricTag> tags(String... tags) {
+        Set<MetricTag> tagSet = new LinkedHashSet<>();
+        for (int i = 0; i < tags.length; i += 2) {
+            tagSet.add(new MetricTag(tags[i]).setTagValue(tags[i + 1]));
+        }
+        return tagSet.isEmpty() ? new HashSet<>() : tagSet;
+    }
+}
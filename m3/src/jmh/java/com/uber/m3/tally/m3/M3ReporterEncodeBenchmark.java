@@ -0,0 +1,115 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.util.Duration;
+import com.uber.m3.util.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks encoding of the metrics reported through {@link M3Reporter} (creating Thrift metrics,
+ * and estimating their serialized size) in isolation from enqueueing and sending them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-server", "-XX:+UseG1GC"})
+@State(Scope.Benchmark)
+public class M3ReporterEncodeBenchmark {
+
+    private static final DurationBuckets BUCKETS = DurationBuckets.linear(Duration.ofMillis(1), Duration.ofMillis(10), 128);
+
+    private static final Duration INTERVAL = Duration.ofMillis(42);
+
+    @Param({"COUNTER", "GAUGE", "TIMER", "HISTOGRAM"})
+    public MetricType type;
+
+    @Param({"0", "4", "16"})
+    public int tagsCount;
+
+    private M3CollectorSimulator collector;
+
+    private M3Reporter reporter;
+
+    private ImmutableMap<String, String> tags;
+
+    @Setup(Level.Trial)
+    public void setup() throws SocketException {
+        collector = M3CollectorSimulator.onLoopback();
+        reporter = new M3Reporter.Builder(collector.getAddress())
+                .service("test-service")
+                .commonTags(ImmutableMap.of("env", "test"))
+                .build();
+
+        ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>(tagsCount);
+        for (int i = 0; i < tagsCount; ++i) {
+            builder.put("tag" + i, "value" + i);
+        }
+
+        tags = builder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        reporter.close();
+        collector.close();
+    }
+
+    @Benchmark
+    public SizedMetric encode() {
+        switch (type) {
+            case COUNTER:
+                return reporter.encodeCounter("counter", tags, 42);
+            case GAUGE:
+                return reporter.encodeGauge("gauge", tags, 42.0);
+            case TIMER:
+                return reporter.encodeTimer("timer", tags, INTERVAL);
+            case HISTOGRAM:
+                return reporter.encodeHistogramSamples("histogram", tags, BUCKETS, 10, 42);
+            default:
+                throw new IllegalStateException("Unexpected metric type: " + type);
+        }
+    }
+
+    public enum MetricType {
+        COUNTER,
+        GAUGE,
+        TIMER,
+        HISTOGRAM
+    }
+}
@@ -0,0 +1,108 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.util.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks latency distribution of enqueueing metrics into the {@link M3Reporter}
+ * by multiple (contending) threads, while reporter's processor is draining the queue
+ * into the loopback collector.
+ * <p>
+ * NOTE: Queue is unbounded (unless priority lanes are configured), therefore in case processor
+ *       can't keep up with the enqueueing threads queue grows until the end of the iteration
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-server", "-XX:+UseG1GC"})
+@Threads(4)
+@State(Scope.Benchmark)
+public class M3ReporterEnqueueBenchmark {
+
+    private static final ImmutableMap<String, String> TAGS = ImmutableMap.of(
+            "tag1", "test1",
+            "tag2", "test2",
+            "tag3", "test3"
+    );
+
+    private M3CollectorSimulator collector;
+
+    private M3Reporter reporter;
+
+    @Setup(Level.Iteration)
+    public void setup() throws SocketException {
+        collector = M3CollectorSimulator.onLoopback();
+        reporter = new M3Reporter.Builder(collector.getAddress())
+                .service("test-service")
+                .commonTags(ImmutableMap.of("env", "test"))
+                .build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void teardown() {
+        reporter.close();
+        collector.close();
+    }
+
+    /**
+     * Enqueues pre-encoded metric
+     */
+    @Benchmark
+    public void enqueue(EncodedMetric metric) {
+        reporter.enqueue(metric.sizedMetric, Priority.NORMAL);
+    }
+
+    /**
+     * Encodes and enqueues metric (as reporting does)
+     */
+    @Benchmark
+    public void report() {
+        reporter.reportCounter("counter", TAGS, 42);
+    }
+
+    @State(Scope.Thread)
+    public static class EncodedMetric {
+        private SizedMetric sizedMetric;
+
+        @Setup(Level.Iteration)
+        public void setup(M3ReporterEnqueueBenchmark benchmark) {
+            sizedMetric = benchmark.reporter.encodeCounter("counter", TAGS, 42);
+        }
+    }
+}
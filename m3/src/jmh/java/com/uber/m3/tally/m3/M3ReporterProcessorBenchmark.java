@@ -0,0 +1,139 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.util.ImmutableMap;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks throughput of the {@link M3Reporter}'s processor draining the queue, packing
+ * and sending metrics into the loopback collector: every invocation enqueues a batch of
+ * pre-encoded metrics and awaits for the processor to flush them.
+ * <p>
+ * Packets and metrics received by the collector are reported as auxiliary counters
+ * (to derive metrics per packet from).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-server", "-XX:+UseG1GC"})
+@State(Scope.Benchmark)
+public class M3ReporterProcessorBenchmark {
+
+    private static final int BATCH_SIZE = 1_000;
+
+    private static final ImmutableMap<String, String> TAGS = ImmutableMap.of(
+            "tag1", "test1",
+            "tag2", "test2",
+            "tag3", "test3"
+    );
+
+    @Param({"NEXT_FIT", "FIRST_FIT_DECREASING", "GROUP_BY_TAGS"})
+    public PackingStrategy packingStrategy;
+
+    @Param({"0", "1500"})
+    public int mtu;
+
+    private M3CollectorSimulator collector;
+
+    private M3Reporter reporter;
+
+    private final SizedMetric[] batch = new SizedMetric[BATCH_SIZE];
+
+    @Setup(Level.Trial)
+    public void setup() throws SocketException {
+        collector = M3CollectorSimulator.onLoopback();
+
+        M3Reporter.Builder builder = new M3Reporter.Builder(collector.getAddress())
+                .service("test-service")
+                .commonTags(ImmutableMap.of("env", "test"))
+                .packingStrategy(packingStrategy);
+
+        if (mtu > 0) {
+            builder.mtu(mtu);
+        }
+
+        reporter = builder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        reporter.close();
+        collector.close();
+    }
+
+    // NOTE: Metrics are encoded anew for every invocation, since packing could modify them
+    //       (for ex, when hoisting their tags)
+    @Setup(Level.Invocation)
+    public void encode() {
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            batch[i] = reporter.encodeCounter("counter-" + (i % 100), TAGS, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void drain(CollectorCounters counters) {
+        for (SizedMetric metric : batch) {
+            reporter.enqueue(metric, Priority.NORMAL);
+        }
+
+        reporter.flushAsync().join();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class CollectorCounters {
+        public long packets;
+        public long metrics;
+
+        @Setup(Level.Iteration)
+        public void reset(M3ReporterProcessorBenchmark benchmark) {
+            benchmark.collector.reset();
+        }
+
+        @TearDown(Level.Iteration)
+        public void snapshot(M3ReporterProcessorBenchmark benchmark) {
+            M3CollectorStats stats = benchmark.collector.snapshot();
+
+            packets = stats.getPackets();
+            metrics = stats.getMetrics();
+        }
+    }
+}
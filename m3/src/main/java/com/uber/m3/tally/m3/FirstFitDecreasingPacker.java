@@ -0,0 +1,97 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.thrift.gen.Metric;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Packs metrics into packets of the given capacity following First-Fit-Decreasing heuristic:
+ * metrics are sorted by their size (largest first), with every one of them placed into the first
+ * packet it fits into, opening up a new packet only when it doesn't fit into any of the existing ones.
+ * <p>
+ * Compared to packing metrics in the order they've been reported (Next-Fit), this fills packets
+ * considerably tighter at the expense of not preserving the order of the metrics.
+ */
+final class FirstFitDecreasingPacker implements MetricPacker {
+    private static final Comparator<SizedMetric> LARGEST_FIRST =
+            Comparator.comparingInt(SizedMetric::getSize).reversed();
+
+    private final List<SizedMetric> pending = new ArrayList<>();
+
+    private int pendingBytes = 0;
+
+    @Override
+    public void add(Metric metric, int size) {
+        pending.add(new SizedMetric(metric, size));
+        pendingBytes += size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    @Override
+    public int getPendingBytes() {
+        return pendingBytes;
+    }
+
+    @Override
+    public <E extends Exception> int pack(int capacity, PacketConsumer<E> consumer) throws E {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        pending.sort(LARGEST_FIRST);
+
+        List<List<Metric>> packets = new ArrayList<>();
+        int[] packetsBytes = new int[pending.size()];
+
+        for (SizedMetric sizedMetric : pending) {
+            int size = sizedMetric.getSize();
+            int packetIndex = 0;
+
+            while (packetIndex < packets.size() && packetsBytes[packetIndex] + size > capacity) {
+                ++packetIndex;
+            }
+
+            if (packetIndex == packets.size()) {
+                packets.add(new ArrayList<>());
+            }
+
+            packets.get(packetIndex).add(sizedMetric.getMetric());
+            packetsBytes[packetIndex] += size;
+        }
+
+        pending.clear();
+        pendingBytes = 0;
+
+        for (int i = 0; i < packets.size(); ++i) {
+            consumer.accept(null, packets.get(i), packetsBytes[i]);
+        }
+
+        return packets.size();
+    }
+}
@@ -0,0 +1,128 @@
+// Copyright (c) 2023 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.Buckets;
+import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.tally.ValueBuckets;
+import com.uber.m3.thrift.gen.MetricTag;
+import com.uber.m3.util.Duration;
+
+/**
+ * Pre-computed table of the histogram bucket-specific tags (bucket id, and bucket range)
+ * for every bucket of the particular {@link Buckets}.
+ *
+ * NOTE: Formatting these tags is relatively expensive (multiple {@link String#format} invocations
+ *       per bucket), while they only depend on the buckets' definition and reporter's configuration,
+ *       therefore we compute them once per {@link Buckets} and re-use them for every subsequent report.
+ *
+ *       Produced {@link MetricTag}s are shared across all the metrics reported for
+ *       the corresponding bucket, and therefore MUST NOT be mutated.
+ */
+final class HistogramBucketTags {
+    private static final int MIN_METRIC_BUCKET_ID_TAG_LENGTH = 4;
+
+    private final MetricTag[] bucketIdTags;
+    private final MetricTag[] bucketTags;
+
+    HistogramBucketTags(
+            Buckets buckets,
+            String bucketIdTagKey,
+            String bucketValueTagKey,
+            int bucketTagPrecision
+    ) {
+        int bucketIdLen = String.valueOf(buckets.size()).length();
+        bucketIdLen = Math.max(bucketIdLen, MIN_METRIC_BUCKET_ID_TAG_LENGTH);
+
+        String bucketIdFmt = String.format("%%0%sd", bucketIdLen);
+        String bucketValFmt = String.format("%%.%df", bucketTagPrecision);
+
+        // Each bucket's upper bound serves as a boundary de-marking upper bound
+        // for the bucket to the left, and lower bound for the bucket to the right
+        int bucketsCount = buckets.size() + 1;
+
+        bucketIdTags = new MetricTag[bucketsCount];
+        bucketTags = new MetricTag[bucketsCount];
+
+        for (int i = 0; i < bucketsCount; ++i) {
+            bucketIdTags[i] = new MetricTag(bucketIdTagKey).setTagValue(String.format(bucketIdFmt, i));
+            bucketTags[i] = new MetricTag(bucketValueTagKey).setTagValue(bucketRangeString(buckets, i, bucketValFmt));
+        }
+    }
+
+    /**
+     * Returns bucket-id tag of the bucket with the provided index
+     */
+    MetricTag bucketIdTag(int bucketIndex) {
+        return bucketIdTags[bucketIndex];
+    }
+
+    /**
+     * Returns bucket (range) tag of the bucket with the provided index
+     */
+    MetricTag bucketTag(int bucketIndex) {
+        return bucketTags[bucketIndex];
+    }
+
+    private static String bucketRangeString(Buckets buckets, int bucketIndex, String bucketValFmt) {
+        if (buckets instanceof ValueBuckets) {
+            return String.format("%s-%s",
+                    valueBucketString(buckets.getValueLowerBoundFor(bucketIndex), bucketValFmt),
+                    valueBucketString(buckets.getValueUpperBoundFor(bucketIndex), bucketValFmt)
+            );
+        } else if (buckets instanceof DurationBuckets) {
+            return String.format("%s-%s",
+                    durationBucketString(buckets.getDurationLowerBoundFor(bucketIndex)),
+                    durationBucketString(buckets.getDurationUpperBoundFor(bucketIndex))
+            );
+        }
+
+        throw new IllegalArgumentException("unsupported buckets format");
+    }
+
+    private static String valueBucketString(double bucketBound, String bucketValFmt) {
+        if (bucketBound == Double.MAX_VALUE) {
+            return "infinity";
+        }
+
+        if (bucketBound == -Double.MAX_VALUE) {
+            return "-infinity";
+        }
+
+        return String.format(bucketValFmt, bucketBound);
+    }
+
+    private static String durationBucketString(Duration bucketBound) {
+        if (Duration.ZERO.equals(bucketBound)) {
+            return "0";
+        }
+
+        if (Duration.MAX_VALUE.equals(bucketBound)) {
+            return "infinity";
+        }
+
+        if (Duration.MIN_VALUE.equals(bucketBound)) {
+            return "-infinity";
+        }
+
+        return bucketBound.toString();
+    }
+}
@@ -24,15 +24,14 @@ import com.uber.m3.tally.Buckets;
 import com.uber.m3.tally.Capabilities;
 import com.uber.m3.tally.CapableOf;
 import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.tally.Scope;
 import com.uber.m3.tally.StatsReporter;
-import com.uber.m3.tally.ValueBuckets;
-import com.uber.m3.tally.m3.thrift.TCalcTransport;
-import com.uber.m3.tally.m3.thrift.TMultiUdpClient;
-import com.uber.m3.tally.m3.thrift.TUdpClient;
+import com.uber.m3.tally.m3.thrift.TFramedTcpClient;
+import com.uber.m3.tally.m3.thrift.TUdpChannelClient;
+import com.uber.m3.tally.m3.thrift.TUdpChannelOptions;
 import com.uber.m3.tally.m3.thrift.TUdpTransport;
 import com.uber.m3.thrift.gen.CountValue;
 import com.uber.m3.thrift.gen.GaugeValue;
-import com.uber.m3.thrift.gen.M3;
 import com.uber.m3.thrift.gen.Metric;
 import com.uber.m3.thrift.gen.MetricBatch;
 import com.uber.m3.thrift.gen.MetricTag;
@@ -41,39 +40,35 @@ import com.uber.m3.thrift.gen.TimerValue;
 import com.uber.m3.util.Duration;
 import com.uber.m3.util.ImmutableMap;
 import com.uber.m3.util.ListSet;
-import org.apache.http.annotation.NotThreadSafe;
-import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TCompactProtocol;
-import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
-import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.time.Clock;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -86,10 +81,20 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
     public static final String HOST_TAG = "host";
     public static final String DEFAULT_TAG_VALUE = "default";
 
+    /**
+     * Tag designating {@link Priority} of the metric, it's stripped off before metric is emitted
+     */
+    public static final String PRIORITY_TAG = "m3_reporter_priority";
+
     public static final String DEFAULT_HISTOGRAM_BUCKET_ID_NAME = "bucketid";
     public static final String DEFAULT_HISTOGRAM_BUCKET_NAME = "bucket";
     public static final int DEFAULT_HISTOGRAM_BUCKET_TAG_PRECISION = 6;
 
+    /**
+     * Sub-scope {@link M3ReporterStats} are exposed under (see {@link #exposeStats(Scope)})
+     */
+    public static final String STATS_SCOPE_NAME = "m3_reporter";
+
     /**
      * NOTE: DO NOT CHANGE THIS NUMBER!
      * Reporter architecture is not suited for multi-processor setup and might cause some disruption
@@ -99,50 +104,93 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
 
     static final Duration HEARTBEAT_PERIOD = Duration.ofSeconds(10);
 
+    static final Duration STATS_EXPORT_PERIOD = Duration.ofSeconds(1);
+
+    static final ThreadLocal<SerializedPayloadSizeEstimator> PAYLOAD_SIZE_ESTIMATOR =
+            ThreadLocal.withInitial(SerializedPayloadSizeEstimator::new);
+
     private static final Logger LOG = LoggerFactory.getLogger(M3Reporter.class);
 
     private static final int MAX_PROCESSOR_WAIT_TIMEOUT_MILLIS = 1_000;
 
     private static final int MAX_PROCESSOR_WAIT_ON_CLOSE_MILLIS = 5_000;
 
-    private static final int DEFAULT_METRIC_SIZE = 100;
     private static final int DEFAULT_MAX_QUEUE_SIZE = 4096;
     private static final int DEFAULT_MAX_PACKET_SIZE = TUdpTransport.PACKET_DATA_PAYLOAD_MAX_SIZE;
 
     // NOTE: 256 bytes of overhead is reserved for Thrift metadata within UDP datagram payload
     private static final int THRIFT_METADATA_PADDING = 256;
 
-    private static final int MIN_METRIC_BUCKET_ID_TAG_LENGTH = 4;
-
-    private static final ThreadLocal<SerializedPayloadSizeEstimator> PAYLOAD_SIZE_ESTIMATOR =
-            ThreadLocal.withInitial(SerializedPayloadSizeEstimator::new);
+    // NOTE: Whenever packets are fit into the MTU, only the growth of the metrics list header
+    //       (up to 4 bytes in compact protocol) has to be reserved, since the rest of the
+    //       Thrift request shell is accounted for precisely
+    private static final int MTU_THRIFT_METADATA_PADDING = 8;
 
     private static final AtomicInteger processorThreadCounter = new AtomicInteger(0);
 
-    private final Duration maxBufferingDelay;
+    // NOTE: Following state is shared with the processors (and their shards) of this reporter
 
-    private final int payloadCapacity;
+    final Duration maxBufferingDelay;
 
-    private final String bucketIdTagKey;
-    private final String bucketValueTagKey;
-    private final String bucketValFmt;
+    final int payloadCapacity;
 
-    private final Set<MetricTag> commonTags;
+    // Capacity of the payload sent over framed TCP transport (if configured)
+    final int framedPayloadCapacity;
+
+    final PackingStrategy packingStrategy;
+
+    final PacketFillStats packetFillStats = new PacketFillStats();
+
+    final String bucketIdTagKey;
+    final String bucketValueTagKey;
+
+    final Set<MetricTag> commonTags;
 
     // NOTE: Non-blocking version of the queue is used to avoid incurring the cost
     //       of lock acquisition in a hot-path of metrics reporting
-    private final Queue<SizedMetric> queue;
+    final PriorityLanes queue;
 
-    // Executor service running processors flushing metrics to collectors
-    private final ExecutorService executorService;
+    final M3ReporterStats stats;
 
-    private final ScheduledExecutorService scheduledExecutorService;
-
-    private final Clock clock;
+    final Clock clock;
 
     // This is a synchronization barrier to make sure that reporter
     // is being shutdown only after all of its processor had done so
-    private final CountDownLatch processorsShutdownLatch;
+    final CountDownLatch processorsShutdownLatch;
+
+    final Processor[] processors;
+
+    // Options of the NIO channel-based transport, null if {@link java.net.DatagramSocket}-based one is used
+    @Nullable
+    final TUdpChannelOptions udpChannelOptions;
+
+    // Socket address of the M3 collector's framed TCP endpoint, null if only UDP is used
+    @Nullable
+    final SocketAddress tcpEndpointSocketAddress;
+
+    final int tcpMaxFrameSizeBytes;
+    final int tcpMinReconnectBackoffMillis;
+    final int tcpMaxReconnectBackoffMillis;
+
+    final EndpointRouting endpointRouting;
+
+    final boolean coalesceMetrics;
+
+    // Buckets timer samples are aggregated into, null if timers are not aggregated
+    @Nullable
+    final DurationBuckets timerAggregationBuckets;
+
+    private final int bucketTagPrecision;
+
+    // Pre-computed histogram bucket tags for every {@link Buckets} reported through this reporter
+    private final ConcurrentHashMap<Buckets, HistogramBucketTags> histogramBucketTags = new ConcurrentHashMap<>();
+
+    private final boolean prioritizeMetrics;
+
+    // Executor service running processors flushing metrics to collectors
+    private final ExecutorService executorService;
+
+    private final ScheduledExecutorService scheduledExecutorService;
 
     // List of socket addresses for M3 collector endpoint
     private final SocketAddress[] collectorEndpointSockedAddresses;
@@ -152,23 +200,41 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
 
     private final Condition condition = lock.newCondition();
 
-    private final Processor[] processors;
-
     private final TProtocolFactory protocolFactory;
 
+    private final TimestampMode timestampMode;
+
+    // Timestamp shared by metrics reported within the current interval (in {@link TimestampMode#SHARED} mode)
+    private volatile long sharedTimestampNanos;
+
     private final AtomicBoolean isShutdown = new AtomicBoolean(false);
 
     // Use inner Builder class to construct an M3Reporter
     M3Reporter(Builder builder, TProtocolFactory thriftProtocolFactory) {
-        payloadCapacity = calculatePayloadCapacity(builder.maxPacketSizeBytes, builder.metricTagSet);
+        payloadCapacity =
+                builder.mtuBytes > 0
+                        ? calculatePayloadCapacity(
+                                builder.mtuBytes - ipUdpHeadersSize(builder.endpointSocketAddresses),
+                                MTU_THRIFT_METADATA_PADDING,
+                                builder.metricTagSet
+                        )
+                        : calculatePayloadCapacity(builder.maxPacketSizeBytes, THRIFT_METADATA_PADDING, builder.metricTagSet);
+        framedPayloadCapacity =
+                builder.tcpEndpointSocketAddress != null
+                        ? calculatePayloadCapacity(builder.tcpMaxFrameSizeBytes, THRIFT_METADATA_PADDING, builder.metricTagSet)
+                        : payloadCapacity;
+
+        packingStrategy = builder.packingStrategy;
 
         maxBufferingDelay = Duration.ofMillis(builder.maxProcessorWaitUntilFlushMillis);
 
         bucketIdTagKey = builder.histogramBucketIdName;
         bucketValueTagKey = builder.histogramBucketName;
-        bucketValFmt = String.format("%%.%df", builder.histogramBucketTagPrecision);
+        bucketTagPrecision = builder.histogramBucketTagPrecision;
 
-        queue = new ConcurrentLinkedQueue<>();
+        prioritizeMetrics = builder.prioritizeMetrics;
+        queue = new PriorityLanes(prioritizeMetrics, builder.priorityLanesCapacity);
+        stats = new M3ReporterStats(queue);
 
         ThreadFactory namedThreadFactory = createThreadFactory();
 
@@ -181,6 +247,21 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
 
         protocolFactory = thriftProtocolFactory;
 
+        udpChannelOptions = builder.udpChannelOptions;
+
+        tcpEndpointSocketAddress = builder.tcpEndpointSocketAddress;
+        tcpMaxFrameSizeBytes = builder.tcpMaxFrameSizeBytes;
+        tcpMinReconnectBackoffMillis = builder.tcpMinReconnectBackoffMillis;
+        tcpMaxReconnectBackoffMillis = builder.tcpMaxReconnectBackoffMillis;
+
+        endpointRouting = builder.endpointRouting;
+
+        coalesceMetrics = builder.coalesceMetrics;
+        timerAggregationBuckets = builder.timerAggregationBuckets;
+
+        timestampMode = builder.timestampMode;
+        sharedTimestampNanos = System.currentTimeMillis() * Duration.NANOS_PER_MILLI;
+
         processorsShutdownLatch = new CountDownLatch(NUM_PROCESSORS);
 
         collectorEndpointSockedAddresses = builder.endpointSocketAddresses;
@@ -198,21 +279,33 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
     void heartbeat() {
         synchronized (this) {
             for (int i = 0; i < processors.length; ++i) {
-                if (processors[i].getState() != ProcessorState.RUNNING) {
+                if (processors[i].getState() != Processor.State.RUNNING) {
                     processors[i] = bootProcessor(collectorEndpointSockedAddresses);
+                    stats.recordProcessorRestart();
                 }
             }
         }
     }
 
-    private int calculatePayloadCapacity(int maxPacketSizeBytes, Set<MetricTag> commonTags) {
+    private static int ipUdpHeadersSize(SocketAddress[] endpointSocketAddresses) {
+        for (SocketAddress socketAddress : endpointSocketAddresses) {
+            if (socketAddress instanceof InetSocketAddress
+                    && ((InetSocketAddress) socketAddress).getAddress() instanceof Inet6Address) {
+                return TUdpTransport.IPV6_UDP_HEADERS_SIZE;
+            }
+        }
+
+        return TUdpTransport.IPV4_UDP_HEADERS_SIZE;
+    }
+
+    private int calculatePayloadCapacity(int maxPacketSizeBytes, int padding, Set<MetricTag> commonTags) {
         MetricBatch metricBatch = new MetricBatch();
         metricBatch.setCommonTags(commonTags);
         metricBatch.setMetrics(new ArrayList<>());
 
         int thriftRequestShellSize = PAYLOAD_SIZE_ESTIMATOR.get().evaluateThriftRequestWireSize(metricBatch);
 
-        int payloadCapacity = maxPacketSizeBytes - (THRIFT_METADATA_PADDING + thriftRequestShellSize);
+        int payloadCapacity = maxPacketSizeBytes - (padding + thriftRequestShellSize);
         if (payloadCapacity <= 0) {
             throw new IllegalArgumentException("Common tags serialized size exceeds packet size");
         }
@@ -231,7 +324,7 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
 
     private Processor bootProcessor(SocketAddress[] endpointSocketAddresses) {
         try {
-            Processor processor = new Processor(endpointSocketAddresses, protocolFactory);
+            Processor processor = new Processor(this, endpointSocketAddresses, protocolFactory);
             executorService.execute(processor);
             return processor;
         } catch (TTransportException | SocketException e) {
@@ -245,19 +338,69 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
         return CapableOf.REPORTING_TAGGING;
     }
 
+    @Override
+    public void startInterval(long timestampNanos) {
+        sharedTimestampNanos = timestampNanos;
+    }
+
     @Override
     public void flush() {
         if (isShutdown.get()) {
             return;
         }
 
+        // NOTE: Metrics reported in between intervals (for ex, timers), or by the reporters driven
+        //       outside of the scope's report loop, share the timestamp of the last flush
+        if (timestampMode == TimestampMode.SHARED) {
+            sharedTimestampNanos = System.currentTimeMillis() * Duration.NANOS_PER_MILLI;
+        }
+
         for (Processor processor : processors) {
             processor.scheduleFlush();
         }
+
+        // Wake up processors awaiting for new metrics to make sure they flush promptly
+        signalProcessors();
+    }
+
+    /**
+     * Flushes all of the metrics reported prior to this call.
+     *
+     * @return {@link CompletableFuture} completing once all of the metrics reported prior to
+     *         this call have been written to the socket(s)
+     */
+    public CompletableFuture<Void> flushAsync() {
+        if (isShutdown.get()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // NOTE: Barrier is enqueued after every metric reported prior to this call, therefore
+        //       once it's dequeued all of them are held by the processors
+        //       (in every lane)
+        FlushBarrier barrier = new FlushBarrier();
+
+        queue.offer(barrier);
+        signalProcessors();
+
+        return barrier.future;
     }
 
     @Override
     public void close() {
+        if (isShutdown.get()) {
+            // Shutdown already
+            return;
+        }
+
+        // Flush everything reported so far prior to shutting processors down
+        try {
+            flushAsync().get(MAX_PROCESSOR_WAIT_ON_CLOSE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.warn("Failed to flush metrics prior to closing M3Reporter", e);
+        }
+
         if (!isShutdown.compareAndSet(false, true)) {
             // Shutdown already
             return;
@@ -304,7 +447,9 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
         Set<MetricTag> metricTagSet = new ListSet<>(tags.size());
 
         for (Map.Entry<String, String> tag : tags.entrySet()) {
-            metricTagSet.add(createMetricTag(tag.getKey(), tag.getValue()));
+            if (!tag.getKey().equals(PRIORITY_TAG)) {
+                metricTagSet.add(createMetricTag(tag.getKey(), tag.getValue()));
+            }
         }
 
         return metricTagSet;
@@ -320,69 +465,25 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
         return metricTag;
     }
 
-    private String valueBucketString(double bucketBound) {
-        if (bucketBound == Double.MAX_VALUE) {
-            return "infinity";
-        }
-
-        if (bucketBound == -Double.MAX_VALUE) {
-            return "-infinity";
-        }
-
-        return String.format(bucketValFmt, bucketBound);
-    }
-
-    private String durationBucketString(Duration bucketBound) {
-        if (Duration.ZERO.equals(bucketBound)) {
-            return "0";
-        }
-
-        if (Duration.MAX_VALUE.equals(bucketBound)) {
-            return "infinity";
-        }
-
-        if (Duration.MIN_VALUE.equals(bucketBound)) {
-            return "-infinity";
-        }
-
-        return bucketBound.toString();
-    }
-
     @Override
     public void reportCounter(String name, Map<String, String> tags, long value) {
-        reportCounterInternal(name, tags, value);
+        enqueue(encodeCounter(name, tags, value), priorityOf(tags));
     }
 
     @Override
     public void reportGauge(String name, Map<String, String> tags, double value) {
-        GaugeValue gaugeValue = new GaugeValue();
-        gaugeValue.setDValue(value);
-
-        MetricValue metricValue = new MetricValue();
-        metricValue.setGauge(gaugeValue);
-
-        Metric metric = newMetric(name, tags, metricValue);
-
-        enqueue(new SizedMetric(metric, PAYLOAD_SIZE_ESTIMATOR.get().evaluateByteSize(metric)));
+        enqueue(encodeGauge(name, tags, value), priorityOf(tags));
     }
 
     @Override
     public void reportTimer(String name, Map<String, String> tags, Duration interval) {
-        TimerValue timerValue = new TimerValue();
-        timerValue.setI64Value(interval.getNanos());
-
-        MetricValue metricValue = new MetricValue();
-        metricValue.setTimer(timerValue);
-
-        Metric metric = newMetric(name, tags, metricValue);
-
-        enqueue(new SizedMetric(metric, PAYLOAD_SIZE_ESTIMATOR.get().evaluateByteSize(metric)));
+        enqueue(encodeTimer(name, tags, interval), priorityOf(tags));
     }
 
     /**
      * @deprecated DO NOT USE
      * <p>
-     * Please use {@link #reportHistogramValueSamples(String, Map, Buckets, int, long)} instead
+     * Please use {@link #reportHistogramSamples(String, Map, Buckets, int, long)} instead
      */
     @Deprecated
     @Override
@@ -394,13 +495,13 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
             double bucketUpperBound,
             long samples
     ) {
-        reportHistogramValueSamples(name, tags, buckets, buckets.getBucketIndexFor(bucketLowerBound), samples);
+        reportHistogramSamples(name, tags, buckets, buckets.getBucketIndexFor(bucketLowerBound), samples);
     }
 
     /**
      * @deprecated DO NOT USE
      * <p>
-     * Please use {@link #reportHistogramValueSamples(String, Map, Buckets, int, long)} instead
+     * Please use {@link #reportHistogramSamples(String, Map, Buckets, int, long)} instead
      */
     @Override
     @Deprecated
@@ -412,9 +513,15 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
             Duration bucketUpperBound,
             long samples
     ) {
-        reportHistogramValueSamples(name, tags, buckets, buckets.getBucketIndexFor(bucketLowerBound), samples);
+        reportHistogramSamples(name, tags, buckets, buckets.getBucketIndexFor(bucketLowerBound), samples);
     }
 
+    /**
+     * @deprecated DO NOT USE
+     * <p>
+     * Please use {@link #reportHistogramSamples(String, Map, Buckets, int, long)} instead
+     */
+    @Deprecated
     public void reportHistogramValueSamples(
             String name,
             Map<String, String> tags,
@@ -422,91 +529,215 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
             int bucketIndex,
             long samples
     ) {
-        // Append histogram bucket-specific tags
-        int bucketIdLen = String.valueOf(buckets.size()).length();
-        bucketIdLen = Math.max(bucketIdLen, MIN_METRIC_BUCKET_ID_TAG_LENGTH);
+        reportHistogramSamples(name, tags, buckets, bucketIndex, samples);
+    }
+
+    @Override
+    public void reportHistogramSamples(
+            String name,
+            Map<String, String> tags,
+            Buckets buckets,
+            int bucketIndex,
+            long samples
+    ) {
+        enqueue(encodeHistogramSamples(name, tags, buckets, bucketIndex, samples), priorityOf(tags));
+    }
+
+    // NOTE: Encoding (of the metrics being reported) is separated from enqueueing
+    //       to be benchmarked in isolation
+    SizedMetric encodeCounter(String name, Map<String, String> tags, long value) {
+        return encodeCounter(name, toMetricTagSet(tags), value);
+    }
+
+    SizedMetric encodeGauge(String name, Map<String, String> tags, double value) {
+        GaugeValue gaugeValue = new GaugeValue();
+        gaugeValue.setDValue(value);
+
+        MetricValue metricValue = new MetricValue();
+        metricValue.setGauge(gaugeValue);
+
+        return sized(newMetric(name, tags, metricValue));
+    }
+
+    SizedMetric encodeTimer(String name, Map<String, String> tags, Duration interval) {
+        TimerValue timerValue = new TimerValue();
+        timerValue.setI64Value(interval.getNanos());
+
+        MetricValue metricValue = new MetricValue();
+        metricValue.setTimer(timerValue);
 
-        String bucketIdFmt = String.format("%%0%sd", bucketIdLen);
+        return sized(newMetric(name, tags, metricValue));
+    }
 
-        ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>();
+    SizedMetric encodeHistogramSamples(
+            String name,
+            Map<String, String> tags,
+            Buckets buckets,
+            int bucketIndex,
+            long samples
+    ) {
+        HistogramBucketTags bucketTags = getHistogramBucketTags(buckets);
+
+        // Append histogram bucket-specific tags
+        Set<MetricTag> metricTagSet = new ListSet<>((tags == null ? 0 : tags.size()) + 2);
 
         if (tags != null) {
-            builder.putAll(tags);
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                // Bucket-specific tags take precedence over the ones provided
+                if (!tag.getKey().equals(bucketIdTagKey)
+                        && !tag.getKey().equals(bucketValueTagKey)
+                        && !tag.getKey().equals(PRIORITY_TAG)) {
+                    metricTagSet.add(createMetricTag(tag.getKey(), tag.getValue()));
+                }
+            }
         }
 
-        String bucketValueTag;
-        if (buckets instanceof ValueBuckets) {
-            bucketValueTag =
-                    String.format("%s-%s",
-                            valueBucketString(buckets.getValueLowerBoundFor(bucketIndex)),
-                            valueBucketString(buckets.getValueUpperBoundFor(bucketIndex))
-                    );
-        } else if (buckets instanceof DurationBuckets) {
-            bucketValueTag =
-                    String.format("%s-%s",
-                            durationBucketString(buckets.getDurationLowerBoundFor(bucketIndex)),
-                            durationBucketString(buckets.getDurationUpperBoundFor(bucketIndex))
-                    );
-        } else {
-            throw new IllegalArgumentException("unsupported buckets format");
+        metricTagSet.add(bucketTags.bucketIdTag(bucketIndex));
+        metricTagSet.add(bucketTags.bucketTag(bucketIndex));
+
+        return encodeCounter(name, metricTagSet, samples);
+    }
+
+    HistogramBucketTags getHistogramBucketTags(Buckets buckets) {
+        HistogramBucketTags bucketTags = histogramBucketTags.get(buckets);
+        if (bucketTags != null) {
+            return bucketTags;
         }
 
-        builder
-                .put(bucketIdTagKey, String.format(bucketIdFmt, bucketIndex))
-                .put(bucketValueTagKey, bucketValueTag);
+        return histogramBucketTags.computeIfAbsent(buckets, this::newHistogramBucketTags);
+    }
 
-        reportCounterInternal(name, builder.build(), samples);
+    private HistogramBucketTags newHistogramBucketTags(Buckets buckets) {
+        return new HistogramBucketTags(buckets, bucketIdTagKey, bucketValueTagKey, bucketTagPrecision);
     }
 
-    // Relies on the calling function to provide guarantees of the reporter being open
-    private void reportCounterInternal(String name, Map<String, String> tags, long value) {
+    private SizedMetric encodeCounter(String name, Set<MetricTag> tags, long value) {
         CountValue countValue = new CountValue();
         countValue.setI64Value(value);
 
         MetricValue metricValue = new MetricValue();
         metricValue.setCount(countValue);
 
-        Metric metric = newMetric(name, tags, metricValue);
+        return sized(newMetric(name, tags, metricValue));
+    }
 
-        enqueue(new SizedMetric(metric, PAYLOAD_SIZE_ESTIMATOR.get().evaluateByteSize(metric)));
+    private static SizedMetric sized(Metric metric) {
+        return new SizedMetric(metric, PAYLOAD_SIZE_ESTIMATOR.get().evaluateByteSize(metric));
+    }
+
+    private Priority priorityOf(Map<String, String> tags) {
+        if (!prioritizeMetrics || tags == null) {
+            return Priority.NORMAL;
+        }
+
+        return Priority.fromTagValue(tags.get(PRIORITY_TAG));
     }
 
     private Metric newMetric(String name, Map<String, String> tags, MetricValue metricValue) {
+        return newMetric(name, toMetricTagSet(tags), metricValue);
+    }
+
+    private Metric newMetric(String name, Set<MetricTag> tags, MetricValue metricValue) {
         Metric metric = new Metric(name);
-        metric.setTags(toMetricTagSet(tags));
-        metric.setTimestamp(System.currentTimeMillis() * Duration.NANOS_PER_MILLI);
+        metric.setTags(tags);
         metric.setMetricValue(metricValue);
 
+        if (timestampMode == TimestampMode.PER_METRIC) {
+            metric.setTimestamp(System.currentTimeMillis() * Duration.NANOS_PER_MILLI);
+        } else if (timestampMode == TimestampMode.SHARED) {
+            metric.setTimestamp(sharedTimestampNanos);
+        }
+
         return metric;
     }
 
-    private void enqueue(SizedMetric sizedMetric) {
+    // NOTE: Package-private to be benchmarked in isolation
+    void enqueue(SizedMetric sizedMetric, Priority priority) {
         // Short-circuit if already shutdown
         if (isShutdown.get()) {
+            stats.recordDropped(1);
             return;
         }
 
         // Check whether queue was empty prior to enqueuing
         boolean wasEmpty = queue.isEmpty();
 
-        boolean enqueued = queue.offer(sizedMetric);
+        // NOTE: Metric is not enqueued only if it has been shed due to lanes being over capacity,
+        //       which is accounted for in the lanes, rather than logged to avoid flooding the log
+        boolean enqueued = queue.offer(sizedMetric, priority);
 
-        if (!enqueued) {
-            LOG.warn("Failed to enqueue metric for emission");
-        } else if (wasEmpty) {
+        if (enqueued) {
+            stats.recordEnqueued();
+        }
+
+        if (enqueued && wasEmpty) {
             signalProcessors();
         }
     }
 
-    private static void runNoThrow(ThrowingRunnable r) {
+    /**
+     * Returns statistics of how tightly metrics are packed into the packets sent by this reporter
+     *
+     * @return packet fill statistics of this reporter
+     */
+    public PacketFillStats getPacketFillStats() {
+        return packetFillStats;
+    }
+
+    /**
+     * Returns health statistics of this reporter
+     *
+     * @return health statistics of this reporter
+     */
+    public M3ReporterStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Exposes health statistics of this reporter (see {@link M3ReporterStats}) through the
+     * {@link #STATS_SCOPE_NAME} sub-scope of the provided scope, updating them every {@link #STATS_EXPORT_PERIOD}.
+     * <p>
+     * NOTE: Stats are exported into a fixed set of counters, gauges and a histogram, rather than reported
+     *       per event, therefore it's safe to expose them through the scope reporting into this very reporter:
+     *       they only add a bounded number of metrics per reporting interval, irrespective of the load
+     *
+     * @param scope scope to expose stats through
+     */
+    public void exposeStats(Scope scope) {
+        if (isShutdown.get()) {
+            return;
+        }
+
+        Runnable exporter = stats.exporterInto(scope.subScope(STATS_SCOPE_NAME));
+
+        scheduledExecutorService.scheduleAtFixedRate(exporter, 0, STATS_EXPORT_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns number of metrics dropped due to priority lanes being over capacity
+     */
+    long getShedMetricsCount() {
+        return queue.getShedCount();
+    }
+
+    boolean isShutdown() {
+        return isShutdown.get();
+    }
+
+    // Parks calling processor until it's signalled (see {@link #signalProcessors()}),
+    // interrupted, or provided timeout elapses
+    void awaitSignal(Duration timeout) {
+        lock.lock();
         try {
-            r.run();
-        } catch (Throwable t) {
+            boolean ignored = condition.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {
             // no-op
+        } finally {
+            lock.unlock();
         }
     }
 
-    private void signalProcessors() {
+    void signalProcessors() {
         lock.lock();
         try {
             condition.signalAll();
@@ -524,229 +755,6 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
         };
     }
 
-    private class Processor implements Runnable {
-
-        private final List<Metric> metricsBuffer =
-                new ArrayList<>(payloadCapacity / 10);
-
-        private Instant lastBufferFlushTimestamp = Instant.now(clock);
-
-        private int bufferedBytes = 0;
-
-        private final M3.Client client;
-        private final TTransport transport;
-
-        private final AtomicReference<ProcessorState> state = new AtomicReference<>();
-        private final AtomicBoolean shouldFlush = new AtomicBoolean(false);
-
-        Processor(SocketAddress[] socketAddresses, TProtocolFactory protocolFactory) throws TTransportException, SocketException {
-            if (socketAddresses.length > 1) {
-                transport = new TMultiUdpClient(socketAddresses);
-            } else {
-                transport = new TUdpClient(socketAddresses[0]);
-            }
-
-            // Open the socket
-            transport.open();
-
-            client = new M3.Client(protocolFactory.getProtocol(transport));
-
-            state.set(ProcessorState.RUNNING);
-
-            LOG.info("Booted reporting processor");
-        }
-
-        @Override
-        public void run() {
-            while (!isShutdown.get()) {
-                try {
-                    // Check whether flush has been requested by the reporter
-                    if (shouldFlush.compareAndSet(true, false)) {
-                        flushBuffered();
-                    }
-
-                    // This `poll` call will block for at most the specified duration to take an item
-                    // off the queue. If we get an item, we append it to the queue to be flushed,
-                    // otherwise we flush what we have so far.
-                    // When this reporter is closed, shutdownNow will be called on the executor,
-                    // which will interrupt this thread and proceed to the `InterruptedException`
-                    // catch block.
-                    SizedMetric sizedMetric = awaitingPoll();
-
-                    if (sizedMetric != null) {
-                        process(sizedMetric);
-                    } else {
-                        // In case there's no more metrics, then
-                        //  - Flush what we have processed so far,
-                        //  - Wait (on the lock), until either
-                        //      - Signalled
-                        //      - Interrupted
-                        //      - Specified timeout elapsed
-                        flushBuffered();
-                    }
-                } catch (Throwable t) {
-                    // This is fly-away guard making sure that uncaught exception
-                    // will be logged
-                    LOG.error("Unhandled exception in processor", t);
-                    break;
-                }
-            }
-
-            state.set(ProcessorState.SHUTDOWN);
-
-            LOG.warn("Processor shutting down");
-
-            shutdown();
-
-            LOG.warn("Processor shut down");
-        }
-
-        @Nullable
-        private SizedMetric awaitingPoll() {
-            // This method closely mimics behavior of the {@code BlockingQueue}:
-            // in case there's currently no elements available in the queue it
-            // will park current thread awaiting for either it to get
-            //      - Interrupted or
-            //      - Signalled (that there are new elements)
-            //      - Specified timeout elapses
-            //
-            // Key difference is however, that this approach only takes locks
-            // upon thread parking/un-parking and doesn't take a locks on the
-            // either of the hot-paths of
-            //      - Enqueuing element into the queue (unless empty)
-            //      - Dequeuing elements from the queue (unless empty)
-            SizedMetric metric = queue.poll();
-            if (metric != null) {
-                return metric;
-            }
-
-            await();
-            return queue.poll();
-        }
-
-        private void await() {
-            lock.lock();
-            try {
-                boolean ignored = condition.await(maxBufferingDelay.toMillis(), TimeUnit.MILLISECONDS);
-            } catch (InterruptedException ignored) {
-                // no-op
-            } finally {
-                lock.unlock();
-            }
-        }
-
-        private void shutdown() {
-            // Drain queue of any remaining metrics submitted prior to shutdown;
-            runNoThrow(this::drainQueue);
-            // Flush remaining buffers at last (best effort)
-            runNoThrow(this::flushBuffered);
-
-            // Close transport
-            transport.close();
-
-            // Count down shutdown latch to notify reporter
-            processorsShutdownLatch.countDown();
-        }
-
-        private void process(SizedMetric sizedMetric) throws TException {
-            int size = sizedMetric.getSize();
-            if (bufferedBytes + size > payloadCapacity || elapsedMaxDelaySinceLastFlush()) {
-                flushBuffered();
-            }
-
-            Metric metric = sizedMetric.getMetric();
-
-            metricsBuffer.add(metric);
-            bufferedBytes += size;
-        }
-
-        private boolean elapsedMaxDelaySinceLastFlush() {
-            return Instant.now(clock).isAfter(
-                    lastBufferFlushTimestamp.plus(maxBufferingDelay.toMillis(), ChronoUnit.MILLIS)
-            );
-        }
-
-        private void drainQueue() throws TException {
-            SizedMetric metrics;
-
-            while ((metrics = queue.poll()) != null) {
-                process(metrics);
-            }
-        }
-
-        private void flushBuffered() throws TException {
-            if (metricsBuffer.isEmpty()) {
-                return;
-            }
-
-            try {
-                client.emitMetricBatch(
-                        new MetricBatch()
-                                .setCommonTags(commonTags)
-                                .setMetrics(metricsBuffer)
-                );
-            } catch (TException t) {
-                LOG.error("Failed to flush metrics", t);
-                throw t;
-            }
-
-            metricsBuffer.clear();
-            bufferedBytes = 0;
-            lastBufferFlushTimestamp = Instant.now(clock);
-        }
-
-        public void scheduleFlush() {
-            shouldFlush.set(true);
-        }
-
-        public ProcessorState getState() {
-            return state.get();
-        }
-    }
-
-    enum ProcessorState {
-        RUNNING,
-        SHUTDOWN
-    }
-
-    @FunctionalInterface
-    interface ThrowingRunnable {
-        void run() throws Exception;
-    }
-
-    /**
-     * This class provides the facility to calculate the size of the payload serialized through {@link TCompactProtocol},
-     * using phony {@link TCalcTransport} as a measurer
-     */
-    @NotThreadSafe
-    private static class SerializedPayloadSizeEstimator {
-        private final TCalcTransport calculatingPhonyTransport = new TCalcTransport();
-        private final TProtocol calculatingPhonyProtocol =
-                new TCompactProtocol.Factory().getProtocol(calculatingPhonyTransport);
-
-        private final M3.Client phonyClient = new M3.Client(calculatingPhonyProtocol);
-
-        public int evaluateThriftRequestWireSize(MetricBatch metricBatch) {
-            try {
-                phonyClient.emitMetricBatch(metricBatch);
-                return calculatingPhonyTransport.getSizeAndReset();
-            } catch (TException e) {
-                LOG.warn("Unable to calculate metric batch size", e);
-                throw new RuntimeException(e);
-            }
-        }
-
-        public int evaluateByteSize(Metric metric) {
-            try {
-                metric.write(calculatingPhonyProtocol);
-                return calculatingPhonyTransport.getSizeAndReset();
-            } catch (TException e) {
-                LOG.warn("Unable to calculate metric batch size. Defaulting to: " + DEFAULT_METRIC_SIZE, e);
-                return DEFAULT_METRIC_SIZE;
-            }
-        }
-    }
-
     /**
      * Builder pattern to construct an {@link M3Reporter}.
      */
@@ -764,6 +772,19 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
         protected String histogramBucketIdName = DEFAULT_HISTOGRAM_BUCKET_ID_NAME;
         protected String histogramBucketName = DEFAULT_HISTOGRAM_BUCKET_NAME;
         protected int histogramBucketTagPrecision = DEFAULT_HISTOGRAM_BUCKET_TAG_PRECISION;
+        protected TUdpChannelOptions udpChannelOptions;
+        protected SocketAddress tcpEndpointSocketAddress;
+        protected int tcpMaxFrameSizeBytes = TFramedTcpClient.DEFAULT_MAX_FRAME_SIZE;
+        protected int tcpMinReconnectBackoffMillis = TFramedTcpClient.DEFAULT_MIN_RECONNECT_BACKOFF_MILLIS;
+        protected int tcpMaxReconnectBackoffMillis = TFramedTcpClient.DEFAULT_MAX_RECONNECT_BACKOFF_MILLIS;
+        protected EndpointRouting endpointRouting = EndpointRouting.BROADCAST;
+        protected boolean coalesceMetrics = false;
+        protected DurationBuckets timerAggregationBuckets;
+        protected boolean prioritizeMetrics = false;
+        protected TimestampMode timestampMode = TimestampMode.PER_METRIC;
+        protected int mtuBytes = 0;
+        protected PackingStrategy packingStrategy = PackingStrategy.NEXT_FIT;
+        protected int priorityLanesCapacity = PriorityLanes.UNBOUNDED;
 
         private Set<MetricTag> metricTagSet;
 
@@ -921,12 +942,184 @@ public class M3Reporter implements StatsReporter, AutoCloseable {
             return this;
         }
 
+        /**
+         * Configures this {@link Builder} to send metrics through NIO {@link java.nio.channels.DatagramChannel}
+         * based transport (see {@link TUdpChannelClient}) with the provided options.
+         *
+         * @param udpChannelOptions the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder udpChannelOptions(TUdpChannelOptions udpChannelOptions) {
+            this.udpChannelOptions = udpChannelOptions;
+
+            return this;
+        }
+
+        /**
+         * Configures framed TCP endpoint of the M3 collector of this {@link Builder}. Once configured,
+         * metrics are sent over TCP (see {@link TFramedTcpClient}), falling back to the UDP
+         * endpoint(s) whenever TCP connection is down.
+         *
+         * @param tcpEndpointSocketAddress the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder tcpEndpoint(SocketAddress tcpEndpointSocketAddress) {
+            this.tcpEndpointSocketAddress = tcpEndpointSocketAddress;
+
+            return this;
+        }
+
+        /**
+         * Configures the maximum size of the frame sent over TCP in bytes of this {@link Builder}.
+         *
+         * @param tcpMaxFrameSizeBytes the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder tcpMaxFrameSizeBytes(int tcpMaxFrameSizeBytes) {
+            this.tcpMaxFrameSizeBytes = tcpMaxFrameSizeBytes;
+
+            return this;
+        }
+
+        /**
+         * Configures the bounds of the exponential backoff in between TCP reconnection attempts
+         * of this {@link Builder}.
+         *
+         * @param minReconnectBackoffMillis the initial backoff to set
+         * @param maxReconnectBackoffMillis the maximum backoff to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder tcpReconnectBackoffMillis(int minReconnectBackoffMillis, int maxReconnectBackoffMillis) {
+            this.tcpMinReconnectBackoffMillis = minReconnectBackoffMillis;
+            this.tcpMaxReconnectBackoffMillis = maxReconnectBackoffMillis;
+
+            return this;
+        }
+
+        /**
+         * Configures how metrics are routed in between multiple endpoints of this {@link Builder}.
+         *
+         * @param endpointRouting the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder endpointRouting(EndpointRouting endpointRouting) {
+            if (endpointRouting == null) {
+                throw new IllegalArgumentException("Endpoint routing must not be null");
+            }
+
+            this.endpointRouting = endpointRouting;
+
+            return this;
+        }
+
+        /**
+         * Configures whether repeated reports of the same counter (gauge) series within the buffering window
+         * should be coalesced into a single one (summing counters up, and retaining the last value of gauges)
+         * of this {@link Builder}.
+         *
+         * @param coalesceMetrics the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder coalesceMetrics(boolean coalesceMetrics) {
+            this.coalesceMetrics = coalesceMetrics;
+
+            return this;
+        }
+
+        /**
+         * Configures this {@link Builder} to queue metrics in dedicated lanes by their {@link Priority},
+         * holding at most provided number of metrics across all of them (shedding the lowest priority ones
+         * once exceeded).
+         *
+         * @param capacity the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder priorityLanes(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Priority lanes capacity must be positive");
+            }
+
+            this.prioritizeMetrics = true;
+            this.priorityLanesCapacity = capacity;
+
+            return this;
+        }
+
+        /**
+         * Configures this {@link Builder} to aggregate timer samples of the same series reported within
+         * the buffering window into a histogram of the provided buckets, emitted as bucket counters
+         * (following the same tagging convention as histograms do), instead of emitting every sample.
+         *
+         * @param timerAggregationBuckets the value to set, null to emit every timer sample
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder aggregateTimers(DurationBuckets timerAggregationBuckets) {
+            this.timerAggregationBuckets = timerAggregationBuckets;
+
+            return this;
+        }
+
+        /**
+         * Configures how metrics are timestamped of this {@link Builder}.
+         *
+         * @param timestampMode the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder timestampMode(TimestampMode timestampMode) {
+            if (timestampMode == null) {
+                throw new IllegalArgumentException("Timestamp mode must not be null");
+            }
+
+            this.timestampMode = timestampMode;
+
+            return this;
+        }
+
+        /**
+         * Configures the MTU of the link to the M3 collector of this {@link Builder}. Once configured,
+         * UDP packets are sized to fit into a single IP packet (accounting for IP and UDP headers) to avoid
+         * their fragmentation, superseding the maximum packet size.
+         *
+         * @param mtuBytes the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder mtu(int mtuBytes) {
+            if (mtuBytes <= TUdpTransport.IPV6_UDP_HEADERS_SIZE) {
+                throw new IllegalArgumentException("MTU is too small: " + mtuBytes);
+            }
+
+            this.mtuBytes = mtuBytes;
+
+            return this;
+        }
+
+        /**
+         * Configures how metrics are packed into packets of this {@link Builder}.
+         *
+         * @param packingStrategy the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder packingStrategy(PackingStrategy packingStrategy) {
+            if (packingStrategy == null) {
+                throw new IllegalArgumentException("Packing strategy must not be null");
+            }
+
+            this.packingStrategy = packingStrategy;
+
+            return this;
+        }
+
         /**
          * Builds and returns an {@link M3Reporter} with the configured paramters.
          *
          * @return a new {@link M3Reporter} instance with the configured paramters
          */
         public M3Reporter build() {
+            if (endpointRouting == EndpointRouting.SHARDED && tcpEndpointSocketAddress != null) {
+                // NOTE: Single TCP endpoint can't be sharded across
+                throw new IllegalArgumentException("Sharded endpoint routing is not supported with TCP endpoint");
+            }
+
             metricTagSet = toMetricTagSet(commonTags);
 
             // Set and ensure required tags
@@ -0,0 +1,257 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.Counter;
+import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.tally.Gauge;
+import com.uber.m3.tally.Histogram;
+import com.uber.m3.tally.Scope;
+import com.uber.m3.util.Duration;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Health statistics of the {@link M3Reporter}: metrics enqueued and dropped, packets and bytes sent,
+ * packets dropped by the transport, send errors, processor restarts and flush latencies.
+ * <p>
+ * Statistics could either be read programmatically, or exposed through the {@link com.uber.m3.tally.Scope}
+ * (see {@link M3Reporter#exposeStats(com.uber.m3.tally.Scope)}).
+ */
+public final class M3ReporterStats {
+    /**
+     * Buckets flush latencies are accounted in
+     */
+    public static final DurationBuckets FLUSH_LATENCY_BUCKETS =
+            DurationBuckets.exponential(Duration.ofMillis(1), 2, 14);
+
+    private final LongAdder enqueuedMetrics = new LongAdder();
+    private final LongAdder dequeuedMetrics = new LongAdder();
+    private final LongAdder droppedMetrics = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder packetsDropped = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder processorRestarts = new LongAdder();
+
+    private final LongAdder[] flushLatencyCounts = new LongAdder[FLUSH_LATENCY_BUCKETS.size() + 1];
+
+    // Histogram flush latencies are additionally recorded into, once stats are exposed through the scope
+    @Nullable
+    private volatile Histogram flushLatencyHistogram;
+
+    // Queue metrics are enqueued into, accounting for the ones shed from it
+    private final PriorityLanes queue;
+
+    M3ReporterStats(PriorityLanes queue) {
+        this.queue = queue;
+
+        for (int i = 0; i < flushLatencyCounts.length; ++i) {
+            flushLatencyCounts[i] = new LongAdder();
+        }
+    }
+
+    void recordEnqueued() {
+        enqueuedMetrics.increment();
+    }
+
+    void recordDequeued() {
+        dequeuedMetrics.increment();
+    }
+
+    void recordDropped(int count) {
+        droppedMetrics.add(count);
+    }
+
+    void recordSent(int bytes) {
+        packetsSent.increment();
+        bytesSent.add(bytes);
+    }
+
+    void recordDroppedPacket(int metricsCount) {
+        packetsDropped.increment();
+        droppedMetrics.add(metricsCount);
+    }
+
+    void recordSendError() {
+        sendErrors.increment();
+    }
+
+    void recordProcessorRestart() {
+        processorRestarts.increment();
+    }
+
+    void recordFlush(Duration latency) {
+        flushLatencyCounts[FLUSH_LATENCY_BUCKETS.getBucketIndexFor(latency)].increment();
+
+        Histogram histogram = flushLatencyHistogram;
+        if (histogram != null) {
+            histogram.recordDuration(latency);
+        }
+    }
+
+    /**
+     * Creates exporter of these stats into the provided scope, that has to be run periodically
+     * to keep them up to date (flush latencies are recorded into the scope's histogram as they happen)
+     */
+    Runnable exporterInto(Scope scope) {
+        Exporter exporter = new Exporter(scope);
+        flushLatencyHistogram = scope.histogram("flush_latency", FLUSH_LATENCY_BUCKETS);
+        return exporter;
+    }
+
+    /**
+     * Returns the number of metrics currently queued, awaiting to be processed
+     * @return the number of metrics currently queued
+     */
+    public long getQueueDepth() {
+        // NOTE: Counters are summed up non-atomically, therefore depth is clamped
+        //       to not go below 0 in case of concurrent updates
+        return Math.max(0, enqueuedMetrics.sum() - queue.getEvictedCount() - dequeuedMetrics.sum());
+    }
+
+    /**
+     * Returns the number of metrics enqueued
+     * @return the number of metrics enqueued
+     */
+    public long getEnqueuedMetrics() {
+        return enqueuedMetrics.sum();
+    }
+
+    /**
+     * Returns the number of metrics dropped: shed due to the priority lanes being over capacity,
+     * reported after the reporter has been closed, failed to be sent, or dropped by the transport
+     * @return the number of metrics dropped
+     */
+    public long getDroppedMetrics() {
+        return droppedMetrics.sum() + queue.getShedCount();
+    }
+
+    /**
+     * Returns the number of packets (frames) sent, frames being accounted for once written out to the socket
+     * @return the number of packets sent
+     */
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    /**
+     * Returns the (estimated) number of bytes of metrics sent
+     * @return the number of bytes of metrics sent
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Returns the number of packets dropped by the transport due to socket's send buffer being full
+     * (see {@link com.uber.m3.tally.m3.thrift.TUdpChannelOptions.SendBufferFullPolicy}), which are
+     * not accounted for as sent
+     * @return the number of packets dropped
+     */
+    public long getPacketsDropped() {
+        return packetsDropped.sum();
+    }
+
+    /**
+     * Returns the number of errors sending (or draining) packets
+     * @return the number of send errors
+     */
+    public long getSendErrors() {
+        return sendErrors.sum();
+    }
+
+    /**
+     * Returns the number of processors restarted after having terminated unexpectedly
+     * @return the number of processor restarts
+     */
+    public long getProcessorRestarts() {
+        return processorRestarts.sum();
+    }
+
+    /**
+     * Returns the number of flushes per bucket of {@link #FLUSH_LATENCY_BUCKETS} (by their latency),
+     * the last one being the overflow bucket
+     * @return the number of flushes per bucket
+     */
+    public long[] getFlushLatencyCounts() {
+        long[] counts = new long[flushLatencyCounts.length];
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = flushLatencyCounts[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Exports stats into the scope's gauges and counters, counters being
+     * incremented by the deltas accumulated since the last export
+     */
+    private final class Exporter implements Runnable {
+        private final Gauge queueDepthGauge;
+        private final Counter enqueuedCounter;
+        private final Counter droppedCounter;
+        private final Counter packetsSentCounter;
+        private final Counter bytesSentCounter;
+        private final Counter packetsDroppedCounter;
+        private final Counter sendErrorsCounter;
+        private final Counter processorRestartsCounter;
+
+        private long lastEnqueued;
+        private long lastDropped;
+        private long lastPacketsSent;
+        private long lastBytesSent;
+        private long lastPacketsDropped;
+        private long lastSendErrors;
+        private long lastProcessorRestarts;
+
+        Exporter(Scope scope) {
+            queueDepthGauge = scope.gauge("queue_depth");
+            enqueuedCounter = scope.counter("enqueued");
+            droppedCounter = scope.counter("dropped");
+            packetsSentCounter = scope.counter("packets_sent");
+            bytesSentCounter = scope.counter("bytes_sent");
+            packetsDroppedCounter = scope.counter("packets_dropped");
+            sendErrorsCounter = scope.counter("send_errors");
+            processorRestartsCounter = scope.counter("processor_restarts");
+        }
+
+        @Override
+        public synchronized void run() {
+            queueDepthGauge.update(getQueueDepth());
+
+            lastEnqueued = export(enqueuedCounter, getEnqueuedMetrics(), lastEnqueued);
+            lastDropped = export(droppedCounter, getDroppedMetrics(), lastDropped);
+            lastPacketsSent = export(packetsSentCounter, getPacketsSent(), lastPacketsSent);
+            lastBytesSent = export(bytesSentCounter, getBytesSent(), lastBytesSent);
+            lastPacketsDropped = export(packetsDroppedCounter, getPacketsDropped(), lastPacketsDropped);
+            lastSendErrors = export(sendErrorsCounter, getSendErrors(), lastSendErrors);
+            lastProcessorRestarts = export(processorRestartsCounter, getProcessorRestarts(), lastProcessorRestarts);
+        }
+
+        private long export(Counter counter, long current, long last) {
+            if (current > last) {
+                counter.inc(current - last);
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.m3.thrift.TFramedTcpClient;
+import com.uber.m3.tally.m3.thrift.TMultiUdpClient;
+import com.uber.m3.tally.m3.thrift.TUdpChannelClient;
+import com.uber.m3.tally.m3.thrift.TUdpChannelOptions;
+import com.uber.m3.tally.m3.thrift.TUdpClient;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.Nullable;
+import java.net.SocketAddress;
+import java.net.SocketException;
+
+/**
+ * Creates transports metrics are sent through to the M3 collector endpoints
+ */
+final class M3Transports {
+
+    private M3Transports() {
+    }
+
+    /**
+     * Creates UDP transport sending to provided endpoint(s), either through NIO channel-based
+     * transport (in case its options are provided), or {@link java.net.DatagramSocket}-based one
+     */
+    static TTransport udp(
+            SocketAddress[] socketAddresses,
+            @Nullable TUdpChannelOptions udpChannelOptions
+    ) throws SocketException {
+        if (udpChannelOptions != null) {
+            return socketAddresses.length > 1
+                    ? new TMultiUdpClient(socketAddresses, udpChannelOptions)
+                    : new TUdpChannelClient(socketAddresses[0], udpChannelOptions);
+        }
+
+        if (socketAddresses.length > 1) {
+            return new TMultiUdpClient(socketAddresses);
+        }
+
+        return new TUdpClient(socketAddresses[0]);
+    }
+
+    /**
+     * Sets the listener notified of every packet dropped by the UDP transport (only reported
+     * by NIO channel-based transports)
+     */
+    static void setPacketListener(TTransport udpTransport, TUdpChannelClient.PacketListener listener) {
+        if (udpTransport instanceof TUdpChannelClient) {
+            ((TUdpChannelClient) udpTransport).setPacketListener(listener);
+        } else if (udpTransport instanceof TMultiUdpClient) {
+            ((TMultiUdpClient) udpTransport).setPacketListener(listener);
+        }
+    }
+
+    /**
+     * Creates framed TCP transport sending to the TCP endpoint of the reporter
+     *
+     * @return framed TCP transport, or null if reporter has no TCP endpoint configured
+     */
+    @Nullable
+    static TFramedTcpClient framedTcp(M3Reporter reporter) {
+        if (reporter.tcpEndpointSocketAddress == null) {
+            return null;
+        }
+
+        return new TFramedTcpClient(
+                reporter.tcpEndpointSocketAddress,
+                reporter.tcpMaxFrameSizeBytes,
+                reporter.tcpMinReconnectBackoffMillis,
+                reporter.tcpMaxReconnectBackoffMillis
+        );
+    }
+}
@@ -0,0 +1,157 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricTag;
+import com.uber.m3.thrift.gen.MetricValue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces repeated reports of the same series (identified by metric's name, tags, and type)
+ * within the buffering window: counters are summed up, while only the last value is retained for gauges.
+ * <p>
+ * Metrics of other types (timers) are not coalesced and should be passed through as is.
+ * <p>
+ * NOTE: Series are held in a plain map without any synchronization, since they're both coalesced
+ *       and harvested by the owning {@link Processor} on its own thread
+ */
+final class MetricCoalescer {
+    private final Map<SeriesKey, Metric> series = new LinkedHashMap<>();
+
+    /**
+     * Coalesces provided metric with the one of the same series (if any).
+     *
+     * @return true if metric has been coalesced, false if metric is not coalescable
+     *         and has to be passed through
+     */
+    boolean coalesce(Metric metric) {
+        MetricValue value = metric.getMetricValue();
+
+        if (value.isSetCount()) {
+            Metric coalesced = series.putIfAbsent(new SeriesKey(metric, MetricValue._Fields.COUNT), metric);
+            if (coalesced != null) {
+                coalesced.getMetricValue().getCount().setI64Value(
+                        coalesced.getMetricValue().getCount().getI64Value() + value.getCount().getI64Value()
+                );
+                if (metric.isSetTimestamp()) {
+                    coalesced.setTimestamp(metric.getTimestamp());
+                }
+            }
+
+            return true;
+        } else if (value.isSetGauge()) {
+            series.put(new SeriesKey(metric, MetricValue._Fields.GAUGE), metric);
+            return true;
+        }
+
+        return false;
+    }
+
+    boolean isEmpty() {
+        return series.isEmpty();
+    }
+
+    /**
+     * Hands over all of the coalesced metrics to the provided consumer (in the order
+     * their series have been first reported in), clearing them afterwards
+     */
+    <E extends Exception> void harvest(ThrowingConsumer<Metric, E> consumer) throws E {
+        Iterator<Metric> iterator = series.values().iterator();
+
+        while (iterator.hasNext()) {
+            Metric metric = iterator.next();
+            iterator.remove();
+
+            consumer.accept(metric);
+        }
+    }
+
+    /**
+     * {@link Consumer} that's allowed to throw checked exceptions
+     */
+    @FunctionalInterface
+    interface ThrowingConsumer<T, E extends Exception> {
+        void accept(T t) throws E;
+    }
+
+    /**
+     * Identity of the series: metric's name, tags (irrespective of their order), and type
+     */
+    static final class SeriesKey {
+        private final String name;
+        private final Set<MetricTag> tags;
+        private final MetricValue._Fields type;
+        private final int hashCode;
+
+        SeriesKey(Metric metric, MetricValue._Fields type) {
+            this.name = metric.getName();
+            this.tags = metric.getTags();
+            this.type = type;
+
+            long seriesHash = RendezvousRouter.seriesHash(metric);
+            this.hashCode = 31 * (int) (seriesHash ^ (seriesHash >>> 32)) + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+
+            if (other == null || getClass() != other.getClass()) {
+                return false;
+            }
+
+            SeriesKey that = (SeriesKey) other;
+
+            return hashCode == that.hashCode
+                    && type == that.type
+                    && name.equals(that.name)
+                    && tagsEqual(tags, that.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private static boolean tagsEqual(Set<MetricTag> tags, Set<MetricTag> otherTags) {
+            if (tags == null || otherTags == null) {
+                return Objects.equals(tags, otherTags) || size(tags) == 0 && size(otherTags) == 0;
+            }
+
+            // NOTE: Tags are commonly backed by {@link com.uber.m3.util.ListSet}, which equality
+            //       is order-sensitive, therefore they are compared explicitly
+            return tags.size() == otherTags.size() && tags.containsAll(otherTags);
+        }
+
+        private static int size(Set<MetricTag> tags) {
+            return tags == null ? 0 : tags.size();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricTag;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Packs metrics reported within the buffering window into packets, following particular
+ * {@link PackingStrategy}.
+ * <p>
+ * NOTE: Implementations are NOT expected to be thread-safe, since they're confined to a single processor
+ */
+interface MetricPacker {
+    /**
+     * Adds metric of the provided (estimated) size to be packed
+     */
+    void add(Metric metric, int size);
+
+    boolean isEmpty();
+
+    /**
+     * Returns (estimated) size of all of the metrics pending to be packed
+     */
+    int getPendingBytes();
+
+    /**
+     * Packs all of the pending metrics into packets of the provided capacity, handing every one of
+     * them over to the provided consumer. Metrics exceeding the capacity are packed on their own.
+     *
+     * @return number of packets metrics have been packed into
+     */
+    <E extends Exception> int pack(int capacity, PacketConsumer<E> consumer) throws E;
+
+    /**
+     * Consumer of the packed metrics
+     */
+    @FunctionalInterface
+    interface PacketConsumer<E extends Exception> {
+        /**
+         * @param groupTags tags hoisted out of every one of the packed metrics, that have to be emitted
+         *                  along with the common tags of the batch, null if none
+         * @param metrics   packed metrics
+         * @param bytes     (estimated) size of the packed metrics
+         */
+        void accept(@Nullable Set<MetricTag> groupTags, List<Metric> metrics, int bytes) throws E;
+    }
+}
@@ -0,0 +1,65 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of how tightly metrics are packed into the packets (frames) sent by {@link M3Reporter}
+ */
+public final class PacketFillStats {
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder payloadBytes = new LongAdder();
+    private final LongAdder capacityBytes = new LongAdder();
+
+    void record(int payloadBytes, int capacityBytes) {
+        this.packets.increment();
+        this.payloadBytes.add(payloadBytes);
+        this.capacityBytes.add(capacityBytes);
+    }
+
+    /**
+     * Returns the number of packets sent
+     * @return the number of packets sent
+     */
+    public long getPacketCount() {
+        return packets.sum();
+    }
+
+    /**
+     * Returns the (estimated) number of bytes of metrics sent
+     * @return the number of bytes of metrics sent
+     */
+    public long getPayloadBytes() {
+        return payloadBytes.sum();
+    }
+
+    /**
+     * Returns the ratio of the metrics' bytes sent to the total capacity of the packets they've been
+     * sent in, 0 if no packets have been sent
+     * @return the ratio of the metrics' bytes sent to the total capacity of the packets
+     */
+    public double getFillRatio() {
+        long capacity = capacityBytes.sum();
+
+        return capacity == 0 ? 0 : (double) payloadBytes.sum() / capacity;
+    }
+}
@@ -0,0 +1,44 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+/**
+ * Defines how metrics are packed into packets
+ */
+public enum PackingStrategy {
+    /**
+     * Metrics are packed in the order they are reported, sending packet out as soon as the next metric
+     * doesn't fit into it
+     */
+    NEXT_FIT,
+    /**
+     * Metrics reported within the buffering window are packed largest first, each into the first packet
+     * it fits into (see {@link FirstFitDecreasingPacker}), filling packets tighter at the expense of
+     * not preserving the order of the metrics
+     */
+    FIRST_FIT_DECREASING,
+    /**
+     * Metrics reported within the buffering window sharing the same (scope) tags are packed together,
+     * with their tags hoisted into the common tags of the batch (see {@link TagGroupingPacker}),
+     * considerably shrinking the payload for the tag-heavy workloads
+     */
+    GROUP_BY_TAGS
+}
@@ -0,0 +1,77 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.util.ImmutableMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Priority of the metric, designated by the {@link M3Reporter#PRIORITY_TAG} tag (see {@link #tags()}), that could be
+ * set either per-metric, or per-scope (for ex, through {@link com.uber.m3.tally.RootScopeBuilder#tags}).
+ * <p>
+ * Once priority lanes are enabled (see {@link M3Reporter.Builder#priorityLanes(int)}), metrics of every priority
+ * are queued in a dedicated lane, drained proportionally to its weight, and in case of the overload,
+ * metrics of the lowest priority are shed first.
+ */
+public enum Priority {
+    HIGH(4),
+    NORMAL(2),
+    LOW(1);
+
+    private final int weight;
+    private final ImmutableMap<String, String> tags;
+
+    Priority(int weight) {
+        this.weight = weight;
+        this.tags = ImmutableMap.of(M3Reporter.PRIORITY_TAG, name().toLowerCase());
+    }
+
+    /**
+     * Returns the number of metrics drained off this priority's lane per turn
+     * @return the weight of this priority
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the tags designating this priority
+     * @return the tags designating this priority
+     */
+    public ImmutableMap<String, String> tags() {
+        return tags;
+    }
+
+    static Priority fromTagValue(@Nullable String value) {
+        if (value == null) {
+            return NORMAL;
+        }
+
+        for (Priority priority : values()) {
+            if (priority.name().equalsIgnoreCase(value)) {
+                return priority;
+            }
+        }
+
+        return NORMAL;
+    }
+}
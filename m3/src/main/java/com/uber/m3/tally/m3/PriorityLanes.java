@@ -0,0 +1,202 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queue of the reported metrics split into lanes, one per {@link Priority}, drained
+ * in a weighted round-robin fashion: every turn up to {@link Priority#getWeight()} metrics
+ * are taken off the lane before moving on to the next one.
+ * <p>
+ * Lanes are bounded by the capacity (in total). Whenever it's exceeded, load is shed from the lowest
+ * priority lane first (dropping its oldest metrics), but never from lanes of priority higher than
+ * the one of the metric being offered: in that case the metric itself is dropped.
+ * <p>
+ * NOTE: Offering is thread-safe, while polling is expected to be confined to a single processor
+ */
+final class PriorityLanes {
+    static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final Queue<SizedMetric>[] lanes;
+    private final int[] weights;
+
+    private final int capacity;
+
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final LongAdder shedCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+
+    // Lane currently being drained along with number of metrics it's still allowed to
+    // yield this turn. NOTE: These are only accessed by the polling processor
+    private int cursor = 0;
+    private int credits;
+
+    /**
+     * @param prioritized whether metrics should be split into lanes by their priority,
+     *                    otherwise a single lane is used for all of them
+     * @param capacity    maximum number of metrics held across all lanes, {@link #UNBOUNDED} if none
+     */
+    @SuppressWarnings("unchecked")
+    PriorityLanes(boolean prioritized, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        int laneCount = prioritized ? PRIORITIES.length : 1;
+
+        this.lanes = new Queue[laneCount];
+        this.weights = new int[laneCount];
+
+        for (int i = 0; i < laneCount; ++i) {
+            lanes[i] = new ConcurrentLinkedQueue<>();
+            weights[i] = prioritized ? PRIORITIES[i].getWeight() : 1;
+        }
+
+        this.capacity = capacity;
+        this.credits = weights[0];
+    }
+
+    /**
+     * Offers metric into the lane of the provided priority, shedding load if capacity is exceeded
+     *
+     * @return true if metric has been enqueued, false if it has been dropped
+     */
+    boolean offer(SizedMetric metric, Priority priority) {
+        int laneIndex = lanes.length > 1 ? priority.ordinal() : 0;
+
+        if (capacity != UNBOUNDED && size.incrementAndGet() > capacity && !shed(laneIndex)) {
+            size.decrementAndGet();
+            shedCount.increment();
+            return false;
+        }
+
+        lanes[laneIndex].offer(metric);
+        return true;
+    }
+
+    /**
+     * Offers marker into every lane. Markers are not subject to capacity, and are never shed.
+     */
+    void offer(Marker marker) {
+        marker.pendingLanes.set(lanes.length);
+
+        for (Queue<SizedMetric> lane : lanes) {
+            lane.offer(marker);
+        }
+    }
+
+    // Drops the oldest metric of the lowest priority lane, that's not higher than the provided one
+    private boolean shed(int laneIndex) {
+        for (int i = lanes.length - 1; i >= laneIndex; --i) {
+            // NOTE: Markers are skipped (rather than re-enqueued), so that they stay in place however
+            //       much load is shed, while the victim is removed atomically (unlike by the iterator),
+            //       so that it's never both shed and polled
+            for (SizedMetric victim : lanes[i]) {
+                if (!(victim instanceof Marker) && lanes[i].remove(victim)) {
+                    size.decrementAndGet();
+                    shedCount.increment();
+                    evictedCount.increment();
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    SizedMetric poll() {
+        if (lanes.length == 1) {
+            return onPolled(lanes[0].poll());
+        }
+
+        // NOTE: Every lane is visited at most once, while the current one is
+        //       visited twice (to use up remaining credits, and with the new ones)
+        for (int i = 0; i <= lanes.length; ++i) {
+            if (credits > 0) {
+                SizedMetric metric = lanes[cursor].poll();
+                if (metric != null) {
+                    --credits;
+                    return onPolled(metric);
+                }
+            }
+
+            cursor = (cursor + 1) % lanes.length;
+            credits = weights[cursor];
+        }
+
+        return null;
+    }
+
+    private SizedMetric onPolled(SizedMetric metric) {
+        if (metric != null && capacity != UNBOUNDED && !(metric instanceof Marker)) {
+            size.decrementAndGet();
+        }
+
+        return metric;
+    }
+
+    boolean isEmpty() {
+        for (Queue<SizedMetric> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns number of metrics dropped due to capacity being exceeded
+     */
+    long getShedCount() {
+        return shedCount.sum();
+    }
+
+    /**
+     * Returns number of metrics dropped after having been enqueued (to make room for the newer ones)
+     */
+    long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    /**
+     * Marker enqueued into every lane, that is passed once it has been polled off all of them,
+     * therefore trailing every metric enqueued prior to it
+     */
+    abstract static class Marker extends SizedMetric {
+        private final AtomicInteger pendingLanes = new AtomicInteger();
+
+        /**
+         * Records marker being polled off one of the lanes
+         *
+         * @return true if marker has been polled off all of the lanes
+         */
+        boolean arrive() {
+            return pendingLanes.decrementAndGet() == 0;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.util.Duration;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Processor of the {@link M3Reporter}, draining metrics off its queue and flushing them
+ * to the M3 collector(s) through its shards
+ */
+final class Processor implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(Processor.class);
+
+    private final M3Reporter reporter;
+
+    private final PriorityLanes queue;
+
+    private final M3ReporterStats stats;
+
+    private final Clock clock;
+
+    private final Duration maxBufferingDelay;
+
+    // NOTE: Broadcasting processor has a single shard sending to every endpoint,
+    //       while sharding one has a dedicated shard for every endpoint
+    private final Shard[] shards;
+
+    @Nullable
+    private final RendezvousRouter router;
+
+    private Instant lastBufferFlushTimestamp;
+
+    // Coalesces repeated reports of the same series, null if coalescing is disabled
+    @Nullable
+    private final MetricCoalescer coalescer;
+
+    // Aggregates timer samples into histograms, null if timers are not aggregated
+    @Nullable
+    private final TimerAggregator timerAggregator;
+
+    private Instant aggregationWindowStartTimestamp;
+
+    private final AtomicReference<State> state = new AtomicReference<>();
+    private final AtomicBoolean shouldFlush = new AtomicBoolean(false);
+
+    // Pending flush requests, fulfilled by the next flush
+    private final Queue<CompletableFuture<Void>> flushRequests = new ConcurrentLinkedQueue<>();
+
+    Processor(
+            M3Reporter reporter,
+            SocketAddress[] socketAddresses,
+            TProtocolFactory protocolFactory
+    ) throws TTransportException, SocketException {
+        this.reporter = reporter;
+        this.queue = reporter.queue;
+        this.stats = reporter.stats;
+        this.clock = reporter.clock;
+        this.maxBufferingDelay = reporter.maxBufferingDelay;
+
+        lastBufferFlushTimestamp = Instant.now(clock);
+        aggregationWindowStartTimestamp = lastBufferFlushTimestamp;
+
+        if (reporter.endpointRouting == EndpointRouting.SHARDED && socketAddresses.length > 1) {
+            shards = new Shard[socketAddresses.length];
+            router = new RendezvousRouter(socketAddresses);
+
+            for (int i = 0; i < socketAddresses.length; ++i) {
+                shards[i] = new Shard(reporter, new SocketAddress[]{socketAddresses[i]}, protocolFactory);
+            }
+        } else {
+            shards = new Shard[]{new Shard(reporter, socketAddresses, protocolFactory)};
+            router = null;
+        }
+
+        coalescer = reporter.coalesceMetrics ? new MetricCoalescer() : null;
+
+        DurationBuckets timerAggregationBuckets = reporter.timerAggregationBuckets;
+        timerAggregator =
+                timerAggregationBuckets != null
+                        ? new TimerAggregator(timerAggregationBuckets, reporter.getHistogramBucketTags(timerAggregationBuckets))
+                        : null;
+
+        state.set(State.RUNNING);
+
+        LOG.info("Booted reporting processor");
+    }
+
+    @Override
+    public void run() {
+        while (!reporter.isShutdown()) {
+            try {
+                // Check whether flush has been requested by the reporter
+                if (shouldFlush.compareAndSet(true, false)) {
+                    flush();
+                }
+
+                // This `poll` call will block for at most the specified duration to take an item
+                // off the queue. If we get an item, we append it to the queue to be flushed,
+                // otherwise we flush what we have so far.
+                // When this reporter is closed, shutdownNow will be called on the executor,
+                // which will interrupt this thread and proceed to the `InterruptedException`
+                // catch block.
+                SizedMetric sizedMetric = awaitingPoll();
+
+                if (sizedMetric != null) {
+                    process(sizedMetric);
+                } else {
+                    // In case there's no more metrics, then
+                    //  - Flush what we have processed so far,
+                    //  - Wait (on the lock), until either
+                    //      - Signalled
+                    //      - Interrupted
+                    //      - Specified timeout elapsed
+                    if (elapsedAggregationWindow()) {
+                        flushAggregated();
+                    }
+
+                    flushBufferedAndDrain();
+                }
+            } catch (Throwable t) {
+                // This is fly-away guard making sure that uncaught exception
+                // will be logged
+                LOG.error("Unhandled exception in processor", t);
+                break;
+            }
+        }
+
+        state.set(State.SHUTDOWN);
+
+        LOG.warn("Processor shutting down");
+
+        shutdown();
+
+        LOG.warn("Processor shut down");
+    }
+
+    @Nullable
+    private SizedMetric awaitingPoll() {
+        // This method closely mimics behavior of the {@code BlockingQueue}:
+        // in case there's currently no elements available in the queue it
+        // will park current thread awaiting for either it to get
+        //      - Interrupted or
+        //      - Signalled (that there are new elements)
+        //      - Specified timeout elapses
+        //
+        // Key difference is however, that this approach only takes locks
+        // upon thread parking/un-parking and doesn't take a locks on the
+        // either of the hot-paths of
+        //      - Enqueuing element into the queue (unless empty)
+        //      - Dequeuing elements from the queue (unless empty)
+        SizedMetric metric = queue.poll();
+        if (metric != null) {
+            return metric;
+        }
+
+        await();
+        return queue.poll();
+    }
+
+    private void await() {
+        reporter.awaitSignal(maxBufferingDelay);
+    }
+
+    private void shutdown() {
+        // Drain queue of any remaining metrics submitted prior to shutdown;
+        runNoThrow(this::drainQueue);
+        runNoThrow(this::flushAggregated);
+        // Flush remaining buffers at last (best effort)
+        for (Shard shard : shards) {
+            runNoThrow(shard::flushBuffered);
+        }
+        drainTransports();
+
+        // Fulfill pending flush requests, after flushing (best effort) for the last time
+        completeFlushRequests(pollFlushRequests(), null);
+
+        // Close transports
+        for (Shard shard : shards) {
+            shard.close();
+        }
+
+        // Count down shutdown latch to notify reporter
+        reporter.processorsShutdownLatch.countDown();
+    }
+
+    private void process(SizedMetric sizedMetric) throws TException {
+        if (sizedMetric instanceof FlushBarrier) {
+            // Barrier is only passed once it's been polled off every lane
+            if (((FlushBarrier) sizedMetric).arrive()) {
+                pass((FlushBarrier) sizedMetric);
+            }
+            return;
+        }
+
+        stats.recordDequeued();
+
+        if (elapsedAggregationWindow()) {
+            flushAggregated();
+        }
+
+        if (elapsedMaxDelaySinceLastFlush()) {
+            flushBufferedAndDrain();
+        }
+
+        Metric metric = sizedMetric.getMetric();
+
+        if (coalescer != null || timerAggregator != null) {
+            if (isAggregationEmpty()) {
+                aggregationWindowStartTimestamp = Instant.now(clock);
+            }
+
+            if (timerAggregator != null && timerAggregator.aggregate(metric)) {
+                return;
+            }
+
+            if (coalescer != null && coalescer.coalesce(metric)) {
+                return;
+            }
+        }
+
+        buffer(metric, sizedMetric.getSize());
+    }
+
+    private void buffer(Metric metric, int size) throws TException {
+        Shard shard = router != null ? shards[router.route(metric)] : shards[0];
+
+        if (shard.add(metric, size)) {
+            lastBufferFlushTimestamp = Instant.now(clock);
+        }
+    }
+
+    private boolean isAggregationEmpty() {
+        return (coalescer == null || coalescer.isEmpty())
+                && (timerAggregator == null || timerAggregator.isEmpty());
+    }
+
+    private boolean elapsedAggregationWindow() {
+        return !isAggregationEmpty()
+                && Instant.now(clock).isAfter(
+                        aggregationWindowStartTimestamp.plus(maxBufferingDelay.toMillis(), ChronoUnit.MILLIS)
+                );
+    }
+
+    // Hands over aggregated (coalesced) metrics to be flushed, re-calculating their sizes
+    private void flushAggregated() throws TException {
+        if (timerAggregator != null) {
+            timerAggregator.harvest(this::bufferResized);
+        }
+
+        if (coalescer != null) {
+            coalescer.harvest(this::bufferResized);
+        }
+    }
+
+    private void bufferResized(Metric metric) throws TException {
+        buffer(metric, M3Reporter.PAYLOAD_SIZE_ESTIMATOR.get().evaluateByteSize(metric));
+    }
+
+    // Writes out messages pending in the transports (if any)
+    private void drainTransports() {
+        for (Shard shard : shards) {
+            shard.drainTransport();
+        }
+    }
+
+    private boolean elapsedMaxDelaySinceLastFlush() {
+        return Instant.now(clock).isAfter(
+                lastBufferFlushTimestamp.plus(maxBufferingDelay.toMillis(), ChronoUnit.MILLIS)
+        );
+    }
+
+    private void drainQueue() throws TException {
+        SizedMetric metrics;
+
+        while ((metrics = queue.poll()) != null) {
+            process(metrics);
+        }
+    }
+
+    private boolean flushBuffered() throws TException {
+        boolean flushed = false;
+
+        for (Shard shard : shards) {
+            flushed |= shard.flushBuffered();
+        }
+
+        if (flushed) {
+            lastBufferFlushTimestamp = Instant.now(clock);
+        }
+
+        return flushed;
+    }
+
+    // Flushes buffered metrics and drains the transports, recording latency of the flush (if any)
+    private void flushBufferedAndDrain() throws TException {
+        long startNanos = System.nanoTime();
+
+        boolean flushed = flushBuffered();
+        drainTransports();
+
+        if (flushed) {
+            stats.recordFlush(Duration.between(startNanos, System.nanoTime()));
+        }
+    }
+
+    public void scheduleFlush() {
+        shouldFlush.set(true);
+    }
+
+    /**
+     * Requests this processor to flush
+     *
+     * @return {@link CompletableFuture} completing once processor have flushed
+     */
+    CompletableFuture<Void> requestFlush() {
+        if (state.get() != State.RUNNING) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> request = new CompletableFuture<>();
+
+        flushRequests.offer(request);
+        shouldFlush.set(true);
+
+        return request;
+    }
+
+    private void flush() throws TException {
+        // NOTE: Only requests made prior to flushing could be fulfilled by it
+        List<CompletableFuture<Void>> requests = pollFlushRequests();
+
+        try {
+            flushAggregated();
+            flushBufferedAndDrain();
+        } catch (TException | RuntimeException e) {
+            completeFlushRequests(requests, e);
+            throw e;
+        }
+
+        completeFlushRequests(requests, null);
+    }
+
+    private void pass(FlushBarrier barrier) throws TException {
+        // NOTE: Metrics enqueued prior to the barrier could still be held by other
+        //       processors, therefore all of them are requested to flush as well
+        Processor[] processors = reporter.processors;
+        List<CompletableFuture<Void>> requests = new ArrayList<>(processors.length);
+
+        for (Processor processor : processors) {
+            if (processor != null && processor != this) {
+                requests.add(processor.requestFlush());
+            }
+        }
+
+        reporter.signalProcessors();
+
+        try {
+            flush();
+        } catch (TException | RuntimeException e) {
+            barrier.future.completeExceptionally(e);
+            throw e;
+        }
+
+        CompletableFuture.allOf(requests.toArray(new CompletableFuture[0]))
+                .whenComplete((ignored, t) -> {
+                    if (t != null) {
+                        barrier.future.completeExceptionally(t);
+                    } else {
+                        barrier.future.complete(null);
+                    }
+                });
+    }
+
+    private List<CompletableFuture<Void>> pollFlushRequests() {
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
+
+        CompletableFuture<Void> request;
+        while ((request = flushRequests.poll()) != null) {
+            requests.add(request);
+        }
+
+        return requests;
+    }
+
+    private void completeFlushRequests(List<CompletableFuture<Void>> requests, @Nullable Throwable t) {
+        for (CompletableFuture<Void> request : requests) {
+            if (t != null) {
+                request.completeExceptionally(t);
+            } else {
+                request.complete(null);
+            }
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    private static void runNoThrow(ThrowingRunnable r) {
+        try {
+            r.run();
+        } catch (Throwable t) {
+            // no-op
+        }
+    }
+
+    enum State {
+        RUNNING,
+        SHUTDOWN
+    }
+
+    @FunctionalInterface
+    interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,110 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricTag;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Objects;
+
+/**
+ * Routes metrics to endpoints using rendezvous (highest random weight) hashing of the
+ * metric's series identity (its name and tags, irrespective of the tags' order).
+ * <p>
+ * This assures that the same series is always routed to the same endpoint, while only
+ * the series of the endpoint being added (removed) get re-routed when the set of
+ * endpoints changes.
+ */
+final class RendezvousRouter {
+    private final long[] endpointSeeds;
+
+    RendezvousRouter(SocketAddress[] endpointSocketAddresses) {
+        if (endpointSocketAddresses == null || endpointSocketAddresses.length == 0) {
+            throw new IllegalArgumentException("Must provide at least one SocketAddress");
+        }
+
+        endpointSeeds = new long[endpointSocketAddresses.length];
+
+        for (int i = 0; i < endpointSocketAddresses.length; ++i) {
+            endpointSeeds[i] = mix(endpointKey(endpointSocketAddresses[i]).hashCode());
+        }
+    }
+
+    /**
+     * Returns index of the endpoint provided metric should be routed to
+     */
+    int route(Metric metric) {
+        long seriesHash = seriesHash(metric);
+
+        int endpoint = 0;
+        long highestScore = mix(seriesHash ^ endpointSeeds[0]);
+
+        for (int i = 1; i < endpointSeeds.length; ++i) {
+            long score = mix(seriesHash ^ endpointSeeds[i]);
+            if (score > highestScore) {
+                highestScore = score;
+                endpoint = i;
+            }
+        }
+
+        return endpoint;
+    }
+
+    /**
+     * Computes hash of the metric's series identity: its name and tags
+     * <p>
+     * NOTE: Tags' hash is order-independent, since same tags could be reported
+     *       in different order
+     */
+    static long seriesHash(Metric metric) {
+        int tagsHash = 0;
+
+        if (metric.getTags() != null) {
+            for (MetricTag tag : metric.getTags()) {
+                tagsHash += 31 * tag.getTagName().hashCode() + Objects.hashCode(tag.getTagValue());
+            }
+        }
+
+        return ((long) metric.getName().hashCode() << 32) ^ (tagsHash & 0xFFFFFFFFL);
+    }
+
+    private static String endpointKey(SocketAddress socketAddress) {
+        // NOTE: Key should not depend on whether address has been resolved or not
+        if (socketAddress instanceof InetSocketAddress) {
+            InetSocketAddress inetSocketAddress = (InetSocketAddress) socketAddress;
+            return inetSocketAddress.getHostString() + ":" + inetSocketAddress.getPort();
+        }
+
+        return socketAddress.toString();
+    }
+
+    // Finalizer of the MurmurHash3's 64-bit variant, providing good avalanche properties
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
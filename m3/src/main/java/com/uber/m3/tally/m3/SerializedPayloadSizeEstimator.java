@@ -0,0 +1,69 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.m3.thrift.TCalcTransport;
+import com.uber.m3.thrift.gen.M3;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricBatch;
+import org.apache.http.annotation.NotThreadSafe;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class provides the facility to calculate the size of the payload serialized through {@link TCompactProtocol},
+ * using phony {@link TCalcTransport} as a measurer
+ */
+@NotThreadSafe
+class SerializedPayloadSizeEstimator {
+    private static final int DEFAULT_METRIC_SIZE = 100;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SerializedPayloadSizeEstimator.class);
+
+    private final TCalcTransport calculatingPhonyTransport = new TCalcTransport();
+    private final TProtocol calculatingPhonyProtocol =
+            new TCompactProtocol.Factory().getProtocol(calculatingPhonyTransport);
+
+    private final M3.Client phonyClient = new M3.Client(calculatingPhonyProtocol);
+
+    public int evaluateThriftRequestWireSize(MetricBatch metricBatch) {
+        try {
+            phonyClient.emitMetricBatch(metricBatch);
+            return calculatingPhonyTransport.getSizeAndReset();
+        } catch (TException e) {
+            LOG.warn("Unable to calculate metric batch size", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int evaluateByteSize(Metric metric) {
+        try {
+            metric.write(calculatingPhonyProtocol);
+            return calculatingPhonyTransport.getSizeAndReset();
+        } catch (TException e) {
+            LOG.warn("Unable to calculate metric batch size. Defaulting to: " + DEFAULT_METRIC_SIZE, e);
+            return DEFAULT_METRIC_SIZE;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.m3.thrift.TFailoverTransport;
+import com.uber.m3.tally.m3.thrift.TFramedTcpClient;
+import com.uber.m3.tally.m3.thrift.TPipelinedTransport;
+import com.uber.m3.tally.m3.thrift.TUdpChannelClient;
+import com.uber.m3.thrift.gen.M3;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricBatch;
+import com.uber.m3.thrift.gen.MetricTag;
+import com.uber.m3.util.ListSet;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Buffer of the metrics bound to the same transport (endpoint(s)), that are flushed together
+ * in a single {@link MetricBatch}
+ */
+final class Shard implements TFramedTcpClient.FrameListener, TUdpChannelClient.PacketListener {
+    private static final Logger LOG = LoggerFactory.getLogger(Shard.class);
+
+    // Number of packets worth of metrics held by the {@link MetricPacker}
+    private static final int PACKING_WINDOW_PACKETS = 16;
+
+    private final int payloadCapacity;
+
+    // Capacity of the payload sent over framed TCP transport (if configured)
+    private final int framedPayloadCapacity;
+
+    private final Set<MetricTag> commonTags;
+
+    private final M3ReporterStats stats;
+
+    private final PacketFillStats packetFillStats;
+
+    private final List<Metric> metricsBuffer;
+
+    private int bufferedBytes = 0;
+
+    // Packer holding metrics instead of the buffer, null if metrics are packed
+    // following {@link PackingStrategy#NEXT_FIT}
+    @Nullable
+    private final MetricPacker packer;
+
+    private final M3.Client client;
+    private final TTransport transport;
+
+    // Failover transport (along with the client bound to its fallback transport), null unless framed TCP
+    // transport is configured
+    @Nullable
+    private final TFailoverTransport failoverTransport;
+    @Nullable
+    private final M3.Client fallbackClient;
+
+    private final TProtocolFactory protocolFactory;
+
+    // Frames (batches) written into the framed TCP transport, pending to be written out to the socket
+    private final Queue<PendingFrame> pendingFrames = new ArrayDeque<>();
+
+    // Whether the packet being sent has been dropped by the UDP transport (to at least one of the endpoints)
+    private boolean packetDropped;
+
+    Shard(
+            M3Reporter reporter,
+            SocketAddress[] socketAddresses,
+            TProtocolFactory protocolFactory
+    ) throws TTransportException, SocketException {
+        this(reporter, M3Transports.udp(socketAddresses, reporter.udpChannelOptions), protocolFactory);
+    }
+
+    // NOTE: Package-private to be tested with the transport simulating socket's send buffer being full
+    Shard(
+            M3Reporter reporter,
+            TTransport udpTransport,
+            TProtocolFactory protocolFactory
+    ) throws TTransportException {
+        this.payloadCapacity = reporter.payloadCapacity;
+        this.framedPayloadCapacity = reporter.framedPayloadCapacity;
+        this.commonTags = reporter.commonTags;
+        this.stats = reporter.stats;
+        this.packetFillStats = reporter.packetFillStats;
+        this.protocolFactory = protocolFactory;
+
+        metricsBuffer = new ArrayList<>(payloadCapacity / 10);
+
+        // Packets dropped by the transport are accounted for as such, instead of being sent
+        M3Transports.setPacketListener(udpTransport, this);
+
+        TFramedTcpClient tcpClient = M3Transports.framedTcp(reporter);
+
+        if (tcpClient != null) {
+            // Frames are accounted for as sent once written out, while ones that could not be
+            // (once TCP connection broke) are re-sent over UDP
+            tcpClient.setFrameListener(this);
+
+            // Prefer framed TCP, falling back to UDP whenever TCP connection is down
+            failoverTransport = new TFailoverTransport(tcpClient, udpTransport);
+            fallbackClient = new M3.Client(protocolFactory.getProtocol(udpTransport));
+            transport = failoverTransport;
+        } else {
+            failoverTransport = null;
+            fallbackClient = null;
+            transport = udpTransport;
+        }
+
+        packer = createPacker(reporter);
+
+        // Open the socket
+        transport.open();
+
+        client = new M3.Client(protocolFactory.getProtocol(transport));
+    }
+
+    /**
+     * Adds metric to the buffer, flushing it beforehand in case metric doesn't fit into the payload
+     *
+     * @return true if buffered metrics have been flushed, false otherwise
+     */
+    boolean add(Metric metric, int size) throws TException {
+        if (packer != null) {
+            packer.add(metric, size);
+
+            return packer.getPendingBytes() >= currentPayloadCapacity() * PACKING_WINDOW_PACKETS
+                    && flushBuffered();
+        }
+
+        boolean flushed = false;
+
+        if (bufferedBytes + size > currentPayloadCapacity()) {
+            flushed = flushBuffered();
+        }
+
+        metricsBuffer.add(metric);
+        bufferedBytes += size;
+
+        return flushed;
+    }
+
+    private int currentPayloadCapacity() {
+        // NOTE: Larger batches are only sent while framed TCP connection is up, since
+        //       otherwise they'd have to fit into UDP packet of the fallback transport
+        if (failoverTransport != null && failoverTransport.isPrimaryConnected()) {
+            return framedPayloadCapacity;
+        }
+
+        return payloadCapacity;
+    }
+
+    /**
+     * Flushes buffered metrics (if any)
+     *
+     * @return true if any metrics have been flushed, false otherwise
+     */
+    boolean flushBuffered() throws TException {
+        if (packer != null) {
+            return packer.pack(currentPayloadCapacity(), this::emit) > 0;
+        }
+
+        if (metricsBuffer.isEmpty()) {
+            return false;
+        }
+
+        emit(null, metricsBuffer, bufferedBytes);
+
+        metricsBuffer.clear();
+        bufferedBytes = 0;
+
+        return true;
+    }
+
+    @Nullable
+    private MetricPacker createPacker(M3Reporter reporter) {
+        switch (reporter.packingStrategy) {
+            case FIRST_FIT_DECREASING:
+                return new FirstFitDecreasingPacker();
+            case GROUP_BY_TAGS:
+                Set<String> nonHoistableTagNames = new HashSet<>();
+                nonHoistableTagNames.add(reporter.bucketIdTagKey);
+                nonHoistableTagNames.add(reporter.bucketValueTagKey);
+                for (MetricTag commonTag : commonTags) {
+                    nonHoistableTagNames.add(commonTag.getTagName());
+                }
+
+                return new TagGroupingPacker(nonHoistableTagNames);
+            default:
+                return null;
+        }
+    }
+
+    private void emit(@Nullable Set<MetricTag> groupTags, List<Metric> metrics, int bytes) throws TException {
+        Set<MetricTag> batchCommonTags = commonTags;
+
+        if (groupTags != null) {
+            batchCommonTags = new ListSet<>(commonTags.size() + groupTags.size());
+            batchCommonTags.addAll(commonTags);
+            batchCommonTags.addAll(groupTags);
+        }
+
+        boolean framed = failoverTransport != null && failoverTransport.pickTransport();
+
+        try {
+            if (framed) {
+                emitBatch(client, batchCommonTags, metrics);
+
+                // NOTE: Frame is only accounted for as sent once written out to the socket
+                pendingFrames.add(new PendingFrame(metrics.size(), bytes));
+            } else if (failoverTransport != null && bytes > payloadCapacity) {
+                // NOTE: Batch sized to fit into the frame (while TCP connection was up) has to be re-split
+                //       into UDP packets, since connection broke since and batch falls back to UDP
+                emitSplit(client, batchCommonTags, metrics);
+            } else {
+                emitPacket(client, batchCommonTags, metrics, bytes, payloadCapacity);
+            }
+        } catch (TException t) {
+            LOG.error("Failed to flush metrics", t);
+            throw t;
+        }
+    }
+
+    /**
+     * Emits metrics in as many batches as necessary for every one of them to fit into UDP packet
+     */
+    private void emitSplit(M3.Client client, Set<MetricTag> batchCommonTags, List<Metric> metrics) throws TException {
+        int capacity = udpPayloadCapacity(batchCommonTags);
+
+        int batchStart = 0;
+        int batchBytes = 0;
+
+        for (int i = 0; i < metrics.size(); ++i) {
+            int size = M3Reporter.PAYLOAD_SIZE_ESTIMATOR.get().evaluateByteSize(metrics.get(i));
+
+            if (i > batchStart && batchBytes + size > capacity) {
+                try {
+                    emitPacket(client, batchCommonTags, metrics.subList(batchStart, i), batchBytes, capacity);
+                } catch (TException t) {
+                    // Remaining metrics are not sent either
+                    stats.recordDropped(metrics.size() - i);
+                    throw t;
+                }
+
+                batchStart = i;
+                batchBytes = 0;
+            }
+
+            batchBytes += size;
+        }
+
+        if (batchStart < metrics.size()) {
+            emitPacket(client, batchCommonTags, metrics.subList(batchStart, metrics.size()), batchBytes, capacity);
+        }
+    }
+
+    /**
+     * Emits metrics in a single packet, accounting for it being either sent, or dropped by the transport
+     */
+    private void emitPacket(
+            M3.Client client,
+            Set<MetricTag> batchCommonTags,
+            List<Metric> metrics,
+            int bytes,
+            int capacity
+    ) throws TException {
+        packetDropped = false;
+
+        emitBatch(client, batchCommonTags, metrics);
+
+        if (packetDropped) {
+            stats.recordDroppedPacket(metrics.size());
+            return;
+        }
+
+        stats.recordSent(bytes);
+        packetFillStats.record(bytes, capacity);
+    }
+
+    private void emitBatch(M3.Client client, Set<MetricTag> batchCommonTags, List<Metric> metrics) throws TException {
+        try {
+            client.emitMetricBatch(
+                    new MetricBatch()
+                            .setCommonTags(batchCommonTags)
+                            .setMetrics(metrics)
+            );
+        } catch (TException t) {
+            stats.recordSendError();
+            stats.recordDropped(metrics.size());
+            throw t;
+        }
+    }
+
+    private int udpPayloadCapacity(Set<MetricTag> batchCommonTags) {
+        if (batchCommonTags == commonTags) {
+            return payloadCapacity;
+        }
+
+        // Tags hoisted into the batch (beyond the common ones) take up the payload's capacity
+        SerializedPayloadSizeEstimator estimator = M3Reporter.PAYLOAD_SIZE_ESTIMATOR.get();
+
+        return payloadCapacity
+                - estimator.evaluateThriftRequestWireSize(new MetricBatch(new ArrayList<>()).setCommonTags(batchCommonTags))
+                + estimator.evaluateThriftRequestWireSize(new MetricBatch(new ArrayList<>()).setCommonTags(commonTags));
+    }
+
+    @Override
+    public void onPacketDropped(int payloadSize) {
+        // NOTE: Packets are dropped synchronously, while being sent by {@link #emitPacket}
+        packetDropped = true;
+    }
+
+    @Override
+    public void onFrameWritten(int payloadSize) {
+        PendingFrame frame = pendingFrames.poll();
+        if (frame == null) {
+            return;
+        }
+
+        stats.recordSent(frame.bytes);
+        packetFillStats.record(frame.bytes, framedPayloadCapacity);
+    }
+
+    /**
+     * Re-sends the message (metric batch) that could not be written out over TCP through the fallback
+     * (UDP) transport, re-splitting it into UDP packets
+     *
+     * @return true if batch has been re-sent, false otherwise
+     */
+    @Override
+    public boolean onFrameUndelivered(ByteBuffer payload) {
+        PendingFrame frame = pendingFrames.poll();
+
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+
+        MetricBatch batch;
+
+        try {
+            TProtocol protocol = protocolFactory.getProtocol(new TMemoryInputTransport(bytes));
+            protocol.readMessageBegin();
+
+            M3.emitMetricBatch_args args = new M3.emitMetricBatch_args();
+            args.read(protocol);
+
+            protocol.readMessageEnd();
+
+            batch = args.getBatch();
+        } catch (TException e) {
+            LOG.warn("Failed to decode metrics pending to be sent", e);
+
+            if (frame != null) {
+                stats.recordDropped(frame.metricsCount);
+            }
+
+            return false;
+        }
+
+        try {
+            // NOTE: Metrics are accounted for as sent (or dropped) per packet
+            emitSplit(fallbackClient, batch.getCommonTags(), batch.getMetrics());
+
+            return true;
+        } catch (TException e) {
+            LOG.warn("Failed to re-send metrics through fallback transport", e);
+
+            return false;
+        }
+    }
+
+    void drainTransport() {
+        if (!(transport instanceof TPipelinedTransport)) {
+            return;
+        }
+
+        try {
+            ((TPipelinedTransport) transport).drain();
+        } catch (TTransportException e) {
+            stats.recordSendError();
+
+            LOG.warn("Failed to drain transport", e);
+        }
+    }
+
+    void close() {
+        transport.close();
+    }
+
+    /**
+     * Batch written into the framed TCP transport, pending to be written out to the socket
+     */
+    private static final class PendingFrame {
+        private final int metricsCount;
+        private final int bytes;
+
+        PendingFrame(int metricsCount, int bytes) {
+            this.metricsCount = metricsCount;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -83,4 +83,23 @@ public class SizedMetric extends Metric {
     public int getSize() {
         return size;
     }
+
+    /**
+     * Compares metrics by identity, rather than by the (unused) fields of the {@link Metric} it extends,
+     * which would make every {@link SizedMetric} equal to any other one.
+     */
+    @Override
+    public boolean equals(Object that) {
+        return this == that;
+    }
+
+    @Override
+    public boolean equals(Metric that) {
+        return this == that;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
 }
@@ -0,0 +1,221 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.m3.thrift.TCalcTransport;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricTag;
+import com.uber.m3.util.ListSet;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Packs metrics grouping them by their (scope) tags: metrics sharing the same tags are packed together,
+ * with their tags hoisted out of every metric to be emitted once, as common tags of the batch.
+ * <p>
+ * Since every batch is sent in (at least) a packet of its own, only groups large enough to fill
+ * at least half of the packet are hoisted, while the rest of the metrics are packed together
+ * (in the order they've been reported in) retaining their tags, therefore keeping packets full.
+ * <p>
+ * Histogram bucket tags, as well as tags named the same as any of the reporter's common tags
+ * are never hoisted.
+ */
+final class TagGroupingPacker implements MetricPacker {
+    private final Set<String> nonHoistableTagNames;
+
+    private final List<SizedMetric> pending = new ArrayList<>();
+
+    private int pendingBytes = 0;
+
+    private final TCalcTransport calculatingPhonyTransport = new TCalcTransport();
+    private final TProtocol calculatingPhonyProtocol =
+            new TCompactProtocol.Factory().getProtocol(calculatingPhonyTransport);
+
+    TagGroupingPacker(Set<String> nonHoistableTagNames) {
+        this.nonHoistableTagNames = nonHoistableTagNames;
+    }
+
+    @Override
+    public void add(Metric metric, int size) {
+        pending.add(new SizedMetric(metric, size));
+        pendingBytes += size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    @Override
+    public int getPendingBytes() {
+        return pendingBytes;
+    }
+
+    @Override
+    public <E extends Exception> int pack(int capacity, PacketConsumer<E> consumer) throws E {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        Map<Set<MetricTag>, Group> groups = new LinkedHashMap<>();
+        List<SizedMetric> ungrouped = new ArrayList<>();
+
+        for (SizedMetric sizedMetric : pending) {
+            Set<MetricTag> hoistableTags = hoistableTags(sizedMetric.getMetric());
+
+            if (hoistableTags.isEmpty()) {
+                ungrouped.add(sizedMetric);
+            } else {
+                groups.computeIfAbsent(hoistableTags, Group::new).metrics.add(sizedMetric);
+            }
+        }
+
+        pending.clear();
+        pendingBytes = 0;
+
+        Map<MetricTag, Integer> tagSizes = new HashMap<>();
+
+        int packets = 0;
+
+        for (Group group : groups.values()) {
+            int groupTagsBytes = 0;
+            for (MetricTag tag : group.tags) {
+                groupTagsBytes += tagSizes.computeIfAbsent(tag, this::evaluateByteSize);
+            }
+
+            // NOTE: Hoisted tags are shifted from every metric into the batch's common tags,
+            //       therefore reducing packet's capacity
+            int groupCapacity = capacity - groupTagsBytes;
+
+            int hoistedBytes = 0;
+            for (SizedMetric sizedMetric : group.metrics) {
+                hoistedBytes += sizedMetric.getSize() - groupTagsBytes;
+            }
+
+            if (groupCapacity <= 0 || hoistedBytes < groupCapacity / 2) {
+                ungrouped.addAll(group.metrics);
+                continue;
+            }
+
+            for (SizedMetric sizedMetric : group.metrics) {
+                hoist(sizedMetric, group.tags, groupTagsBytes);
+            }
+
+            packets += packNextFit(group.tags, group.metrics, groupCapacity, consumer);
+        }
+
+        packets += packNextFit(null, ungrouped, capacity, consumer);
+
+        return packets;
+    }
+
+    private Set<MetricTag> hoistableTags(Metric metric) {
+        Set<MetricTag> tags = metric.getTags();
+        if (tags == null || tags.isEmpty()) {
+            return new HashSet<>();
+        }
+
+        // NOTE: Tags are commonly backed by {@link ListSet}, which equality is order-sensitive,
+        //       therefore they're copied to be compared irrespective of their order
+        Set<MetricTag> hoistableTags = new HashSet<>(tags.size() * 2);
+
+        for (MetricTag tag : tags) {
+            if (!nonHoistableTagNames.contains(tag.getTagName())) {
+                hoistableTags.add(tag);
+            }
+        }
+
+        return hoistableTags;
+    }
+
+    private static void hoist(SizedMetric sizedMetric, Set<MetricTag> groupTags, int groupTagsBytes) {
+        Metric metric = sizedMetric.getMetric();
+
+        Set<MetricTag> remainingTags = new ListSet<>(metric.getTagsSize() - groupTags.size());
+        for (MetricTag tag : metric.getTags()) {
+            if (!groupTags.contains(tag)) {
+                remainingTags.add(tag);
+            }
+        }
+
+        metric.setTags(remainingTags);
+        sizedMetric.setSize(sizedMetric.getSize() - groupTagsBytes);
+    }
+
+    private static <E extends Exception> int packNextFit(
+            Set<MetricTag> groupTags,
+            List<SizedMetric> metrics,
+            int capacity,
+            PacketConsumer<E> consumer
+    ) throws E {
+        int packets = 0;
+
+        List<Metric> packet = new ArrayList<>();
+        int packetBytes = 0;
+
+        for (SizedMetric sizedMetric : metrics) {
+            if (!packet.isEmpty() && packetBytes + sizedMetric.getSize() > capacity) {
+                consumer.accept(groupTags, packet, packetBytes);
+                ++packets;
+
+                packet = new ArrayList<>();
+                packetBytes = 0;
+            }
+
+            packet.add(sizedMetric.getMetric());
+            packetBytes += sizedMetric.getSize();
+        }
+
+        if (!packet.isEmpty()) {
+            consumer.accept(groupTags, packet, packetBytes);
+            ++packets;
+        }
+
+        return packets;
+    }
+
+    private int evaluateByteSize(MetricTag tag) {
+        try {
+            tag.write(calculatingPhonyProtocol);
+            return calculatingPhonyTransport.getSizeAndReset();
+        } catch (TException e) {
+            throw new RuntimeException("Unable to calculate tag size", e);
+        }
+    }
+
+    private static final class Group {
+        private final Set<MetricTag> tags;
+        private final List<SizedMetric> metrics = new ArrayList<>();
+
+        Group(Set<MetricTag> tags) {
+            this.tags = tags;
+        }
+    }
+}
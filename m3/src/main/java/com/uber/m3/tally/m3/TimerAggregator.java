@@ -0,0 +1,172 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.thrift.gen.CountValue;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricTag;
+import com.uber.m3.thrift.gen.MetricValue;
+import com.uber.m3.util.Duration;
+import com.uber.m3.util.ListSet;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggregates timer samples of the same series (identified by metric's name and tags) within the
+ * buffering window into a histogram of the provided {@link DurationBuckets}, that is emitted as
+ * counters (one per every non-empty bucket) tagged with the bucket-specific tags, following the
+ * same convention as histograms do.
+ * <p>
+ * Metrics of other types (counters, gauges) are not aggregated and should be passed through as is.
+ * <p>
+ * NOTE: Bucket counts are accumulated in plain arrays, that are only ever updated and harvested
+ *       by the owning {@link Processor} on its own thread
+ */
+final class TimerAggregator {
+    private final long[] upperBoundsNanos;
+    private final HistogramBucketTags bucketTags;
+
+    private final Map<MetricCoalescer.SeriesKey, Series> series = new LinkedHashMap<>();
+
+    TimerAggregator(DurationBuckets buckets, HistogramBucketTags bucketTags) {
+        Duration[] upperBounds = buckets.asDurations();
+
+        this.upperBoundsNanos = new long[upperBounds.length];
+        for (int i = 0; i < upperBounds.length; ++i) {
+            upperBoundsNanos[i] = upperBounds[i].getNanos();
+        }
+
+        this.bucketTags = bucketTags;
+    }
+
+    /**
+     * Aggregates provided metric into the histogram of its series (if it's a timer).
+     *
+     * @return true if metric has been aggregated, false if metric is not a timer
+     *         and has to be passed through
+     */
+    boolean aggregate(Metric metric) {
+        MetricValue value = metric.getMetricValue();
+        if (!value.isSetTimer()) {
+            return false;
+        }
+
+        MetricCoalescer.SeriesKey key = new MetricCoalescer.SeriesKey(metric, MetricValue._Fields.TIMER);
+
+        Series aggregated = series.get(key);
+        if (aggregated == null) {
+            aggregated = new Series(metric, upperBoundsNanos.length + 1);
+            series.put(key, aggregated);
+        }
+
+        ++aggregated.bucketCounts[toBucketIndex(value.getTimer().getI64Value())];
+
+        if (metric.isSetTimestamp()) {
+            aggregated.timestamp = metric.getTimestamp();
+        }
+
+        return true;
+    }
+
+    // NOTE: Buckets are inclusive of their lower bound, and exclusive of the upper one,
+    //       matching {@link DurationBuckets#getBucketIndexFor}
+    private int toBucketIndex(long nanos) {
+        int binarySearchResult = Arrays.binarySearch(upperBoundsNanos, nanos);
+
+        return binarySearchResult >= 0 ? binarySearchResult + 1 : ~binarySearchResult;
+    }
+
+    boolean isEmpty() {
+        return series.isEmpty();
+    }
+
+    /**
+     * Hands over counters of every non-empty bucket of every series to the provided consumer (in the order
+     * series have been first reported in), clearing them afterwards
+     */
+    <E extends Exception> void harvest(MetricCoalescer.ThrowingConsumer<Metric, E> consumer) throws E {
+        Iterator<Series> iterator = series.values().iterator();
+
+        while (iterator.hasNext()) {
+            Series aggregated = iterator.next();
+            iterator.remove();
+
+            for (int i = 0; i < aggregated.bucketCounts.length; ++i) {
+                if (aggregated.bucketCounts[i] != 0) {
+                    consumer.accept(toBucketCounter(aggregated, i));
+                }
+            }
+        }
+    }
+
+    private Metric toBucketCounter(Series aggregated, int bucketIndex) {
+        MetricTag bucketIdTag = bucketTags.bucketIdTag(bucketIndex);
+        MetricTag bucketTag = bucketTags.bucketTag(bucketIndex);
+
+        Set<MetricTag> tags = aggregated.tags;
+        Set<MetricTag> bucketCounterTags = new ListSet<>((tags == null ? 0 : tags.size()) + 2);
+
+        if (tags != null) {
+            for (MetricTag tag : tags) {
+                // Bucket-specific tags take precedence over the ones provided
+                if (!tag.getTagName().equals(bucketIdTag.getTagName())
+                        && !tag.getTagName().equals(bucketTag.getTagName())) {
+                    bucketCounterTags.add(tag);
+                }
+            }
+        }
+
+        bucketCounterTags.add(bucketIdTag);
+        bucketCounterTags.add(bucketTag);
+
+        Metric metric = new Metric(aggregated.name);
+        metric.setTags(bucketCounterTags);
+        metric.setMetricValue(
+                new MetricValue().setCount(new CountValue().setI64Value(aggregated.bucketCounts[bucketIndex]))
+        );
+
+        if (aggregated.timestamp != null) {
+            metric.setTimestamp(aggregated.timestamp);
+        }
+
+        return metric;
+    }
+
+    private static final class Series {
+        private final String name;
+        private final Set<MetricTag> tags;
+        private final long[] bucketCounts;
+
+        // Timestamp of the latest sample, null if samples are not timestamped
+        private Long timestamp;
+
+        Series(Metric metric, int bucketsCount) {
+            this.name = metric.getName();
+            this.tags = metric.getTags();
+            this.bucketCounts = new long[bucketsCount];
+        }
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.thrift;
+
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Thrift transport sending messages through the primary {@link TFramedTcpClient}, falling back
+ * to the secondary transport (for ex, {@link TUdpClient}) whenever primary one is not connected.
+ * <p>
+ * Transport is picked for every message individually, upon writing its first chunk (or beforehand,
+ * see {@link #pickTransport()}).
+ */
+public class TFailoverTransport extends TTransport implements TPipelinedTransport, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(TFailoverTransport.class);
+
+    private final TFramedTcpClient primary;
+    private final TTransport fallback;
+
+    // Transport message currently being written is routed to, null in-between messages
+    private TTransport current;
+
+    public TFailoverTransport(TFramedTcpClient primary, TTransport fallback) {
+        if (primary == null || fallback == null) {
+            throw new IllegalArgumentException("Both primary and fallback transports must be provided");
+        }
+
+        this.primary = primary;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Returns whether primary transport is currently connected
+     */
+    public boolean isPrimaryConnected() {
+        return primary.isConnected();
+    }
+
+    /**
+     * Picks the transport next message is going to be routed to (unless picked already), allowing
+     * the caller to size the message accordingly before writing it.
+     *
+     * @return true if message is going to be sent through the primary transport, false otherwise
+     */
+    public boolean pickTransport() {
+        if (current == null) {
+            current = primary.tryConnect() ? primary : fallback;
+        }
+
+        return current == primary;
+    }
+
+    @Override
+    public boolean isOpen() {
+        // NOTE: Messages could always be sent through fallback transport
+        return fallback.isOpen();
+    }
+
+    @Override
+    public void open() throws TTransportException {
+        fallback.open();
+
+        try {
+            primary.open();
+        } catch (TTransportException e) {
+            LOG.warn("Failed to open primary transport, falling back", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        primary.close();
+        fallback.close();
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws TTransportException {
+        throw new UnsupportedOperationException("Reading from failover transport is not supported");
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws TTransportException {
+        pickTransport();
+
+        try {
+            current.write(bytes, offset, length);
+        } catch (TTransportException e) {
+            current = null;
+            throw e;
+        }
+    }
+
+    @Override
+    public void flush() throws TTransportException {
+        if (current == null) {
+            return;
+        }
+
+        TTransport transport = current;
+        current = null;
+
+        transport.flush();
+    }
+
+    @Override
+    public void drain() throws TTransportException {
+        primary.drain();
+    }
+}
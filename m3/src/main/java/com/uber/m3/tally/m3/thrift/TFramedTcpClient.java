@@ -0,0 +1,652 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.thrift;
+
+import org.apache.http.annotation.GuardedBy;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A client for sending data via framed Thrift (compatible with {@link org.apache.thrift.transport.TFramedTransport})
+ * over a persistent TCP connection.
+ * <p>
+ * Every message (terminated by {@link #flush()}) is prefixed with its 4-byte length and appended
+ * to the pipelining buffer, holding several frames, that is only written out to the socket once it's full,
+ * or upon {@link #drain()}, therefore batching several messages per syscall.
+ * <p>
+ * Whenever connection could not be established (or is broken) reconnection is re-attempted lazily,
+ * backing off exponentially between the attempts. Connection is established without blocking the caller
+ * (except for {@link #open()}): connecting is initiated by one attempt, and completed by the subsequent ones.
+ * Frames that could not be written out while connection is down (or once it broke) are handed over
+ * to the {@link FrameListener} (if any), and otherwise dropped, and accounted for in
+ * {@link #getDroppedFramesCount()}.
+ * <p>
+ * Connection being closed by the peer is detected before the pipelined frames are written out, rather
+ * than upon every connection attempt, since it takes a syscall.
+ */
+public class TFramedTcpClient extends TTransport implements TPipelinedTransport, AutoCloseable {
+    public static final int DEFAULT_MAX_FRAME_SIZE = 256 * 1024;
+    public static final int DEFAULT_MIN_RECONNECT_BACKOFF_MILLIS = 100;
+    public static final int DEFAULT_MAX_RECONNECT_BACKOFF_MILLIS = 10_000;
+
+    static final int FRAME_HEADER_SIZE = 4;
+
+    // Number of max-sized frames pipelining buffer is able to hold
+    private static final int PIPELINED_FRAMES = 4;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1_000;
+    private static final long WRITE_TIMEOUT_MILLIS = 5_000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(TFramedTcpClient.class);
+
+    private final SocketAddress socketAddress;
+    private final int maxFrameSizeBytes;
+    private final long minReconnectBackoffNanos;
+    private final long maxReconnectBackoffNanos;
+
+    private final Object lock = new Object();
+
+    // NOTE: Buffer holds complete frames in [0, frameStart), followed by the frame
+    //       currently being written in [frameStart, position)
+    @GuardedBy("lock")
+    private final ByteBuffer buffer;
+
+    @GuardedBy("lock")
+    private int frameStart = -1;
+
+    @GuardedBy("lock")
+    private int pendingFramesCount = 0;
+
+    @GuardedBy("lock")
+    private SocketChannel channel;
+
+    @GuardedBy("lock")
+    private Selector selector;
+
+    @GuardedBy("lock")
+    private SelectionKey selectionKey;
+
+    // Whether channel has finished connecting
+    @GuardedBy("lock")
+    private boolean connected;
+
+    @GuardedBy("lock")
+    private long connectDeadlineNanos;
+
+    @GuardedBy("lock")
+    private long reconnectBackoffNanos;
+
+    @GuardedBy("lock")
+    private long nextConnectAttemptNanos;
+
+    // NOTE: Collector never responds to the (oneway) calls, therefore this buffer is only
+    //       read into to detect connection being closed by the peer
+    @GuardedBy("lock")
+    private final ByteBuffer probeBuffer = ByteBuffer.allocate(1);
+
+    @GuardedBy("lock")
+    private FrameListener frameListener;
+
+    private final AtomicLong droppedFramesCount = new AtomicLong();
+
+    private volatile boolean open;
+
+    /**
+     * Constructs a framed TCP client with the given host and port, and default settings.
+     * @param socketAddress the {@code SocketAddress} for this transport
+     */
+    public TFramedTcpClient(SocketAddress socketAddress) {
+        this(socketAddress, DEFAULT_MAX_FRAME_SIZE, DEFAULT_MIN_RECONNECT_BACKOFF_MILLIS, DEFAULT_MAX_RECONNECT_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Constructs a framed TCP client with the given host and port.
+     * @param socketAddress              the {@code SocketAddress} for this transport
+     * @param maxFrameSizeBytes          the maximum size of a single frame (message)
+     * @param minReconnectBackoffMillis  the initial delay before re-attempting to connect
+     * @param maxReconnectBackoffMillis  the maximum delay before re-attempting to connect
+     */
+    public TFramedTcpClient(
+            SocketAddress socketAddress,
+            int maxFrameSizeBytes,
+            int minReconnectBackoffMillis,
+            int maxReconnectBackoffMillis
+    ) {
+        if (maxFrameSizeBytes <= 0) {
+            throw new IllegalArgumentException("Max frame size must be positive");
+        }
+
+        if (minReconnectBackoffMillis <= 0 || maxReconnectBackoffMillis < minReconnectBackoffMillis) {
+            throw new IllegalArgumentException("Reconnect backoff must be positive, and max backoff no less than min one");
+        }
+
+        this.socketAddress = socketAddress;
+        this.maxFrameSizeBytes = maxFrameSizeBytes;
+        this.minReconnectBackoffNanos = TimeUnit.MILLISECONDS.toNanos(minReconnectBackoffMillis);
+        this.maxReconnectBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxReconnectBackoffMillis);
+        this.reconnectBackoffNanos = minReconnectBackoffNanos;
+        this.buffer = ByteBuffer.allocateDirect(PIPELINED_FRAMES * (maxFrameSizeBytes + FRAME_HEADER_SIZE));
+    }
+
+    /**
+     * Returns whether this transport is open, which doesn't imply it being connected
+     * (see {@link #isConnected()})
+     */
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Opens this transport and attempts to connect, awaiting connection to be established.
+     * <p>
+     * NOTE: Transport stays open even if connection attempt fails, in which case it will
+     *       be re-attempted later on
+     */
+    @Override
+    public void open() throws TTransportException {
+        synchronized (lock) {
+            open = true;
+
+            if (!connect() && !awaitConnected()) {
+                throw new TTransportException(TTransportException.NOT_OPEN, "Failed to connect to " + socketAddress);
+            }
+        }
+    }
+
+    /**
+     * Closes this transport, writing out pending frames (best effort) beforehand.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            try {
+                writeFrames();
+            } catch (TTransportException e) {
+                LOG.warn("Failed to write out pending frames upon closing", e);
+            }
+
+            open = false;
+            disconnect();
+        }
+
+        LOG.info("TCP connection has been closed");
+    }
+
+    /**
+     * Returns whether this transport is currently connected
+     */
+    public boolean isConnected() {
+        synchronized (lock) {
+            return connected;
+        }
+    }
+
+    /**
+     * Returns number of frames dropped due to connection being down
+     */
+    public long getDroppedFramesCount() {
+        return droppedFramesCount.get();
+    }
+
+    /**
+     * Sets the listener notified of every frame, in order, once it's either been written out, or
+     * failed to be (in which case listener could take it over instead of it being dropped).
+     * <p>
+     * NOTE: Listener is invoked by the thread writing frames out, while holding transport's lock
+     * @param listener the listener to set, or null to drop undelivered frames
+     */
+    public void setFrameListener(FrameListener listener) {
+        synchronized (lock) {
+            frameListener = listener;
+        }
+    }
+
+    /**
+     * Returns maximum size of a single frame (message)
+     */
+    public int getMaxFrameSizeBytes() {
+        return maxFrameSizeBytes;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws TTransportException {
+        throw new UnsupportedOperationException("Reading from framed TCP client is not supported");
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws TTransportException {
+        if (!isOpen()) {
+            throw new TTransportException(TTransportException.NOT_OPEN);
+        }
+
+        synchronized (lock) {
+            if (frameStart < 0) {
+                ensureRemaining(FRAME_HEADER_SIZE);
+
+                // Reserve space for the frame's header
+                frameStart = buffer.position();
+                buffer.position(frameStart + FRAME_HEADER_SIZE);
+            }
+
+            int frameSize = buffer.position() - frameStart - FRAME_HEADER_SIZE + length;
+            if (frameSize > maxFrameSizeBytes) {
+                // Discard frame being written
+                buffer.position(frameStart);
+                frameStart = -1;
+
+                throw new TTransportException(
+                    String.format("Message size too large: %d is greater than max frame size %d",
+                        frameSize,
+                        maxFrameSizeBytes
+                    )
+                );
+            }
+
+            ensureRemaining(length);
+
+            buffer.put(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Completes the frame (message) being currently written.
+     * <p>
+     * NOTE: Frame is not necessarily written out to the socket right away, see {@link #drain()}
+     */
+    @Override
+    public void flush() throws TTransportException {
+        synchronized (lock) {
+            if (frameStart < 0) {
+                return;
+            }
+
+            buffer.putInt(frameStart, buffer.position() - frameStart - FRAME_HEADER_SIZE);
+
+            frameStart = -1;
+            ++pendingFramesCount;
+        }
+    }
+
+    @Override
+    public void drain() throws TTransportException {
+        synchronized (lock) {
+            writeFrames();
+        }
+    }
+
+    /**
+     * Attempts to connect unless already connected, or backing off after the previous failed attempt,
+     * without blocking: connection being established is completed by the subsequent attempts.
+     *
+     * @return true if transport is connected, false otherwise
+     */
+    boolean tryConnect() {
+        synchronized (lock) {
+            if (connected) {
+                return true;
+            }
+
+            if (channel != null) {
+                return finishConnect();
+            }
+
+            if (System.nanoTime() - nextConnectAttemptNanos < 0) {
+                return false;
+            }
+
+            return connect();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+
+        // NOTE: Failing to write out previous frames should not affect the message
+        //       currently being written, since it could still go through upon reconnecting
+        try {
+            writeFrames();
+        } catch (TTransportException e) {
+            LOG.warn("Failed to write out pending frames", e);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void writeFrames() throws TTransportException {
+        int framesEnd = frameStart < 0 ? buffer.position() : frameStart;
+        if (framesEnd == 0) {
+            return;
+        }
+
+        // NOTE: Interrupting the thread performing I/O on the channel closes it, which is undesirable
+        //       (for ex, upon reporter's shutdown when pending frames are written out for the last time),
+        //       therefore interrupted status is cleared for the duration of the write
+        boolean interrupted = Thread.interrupted();
+
+        ByteBuffer frames = buffer.duplicate();
+        frames.limit(framesEnd);
+        frames.position(0);
+
+        try {
+            if (connected && isClosedByPeer()) {
+                disconnect();
+            }
+
+            if (!tryConnect()) {
+                completeFrames(frames);
+                throw new TTransportException(TTransportException.NOT_OPEN, "Not connected to " + socketAddress);
+            }
+
+            writeFully(frames);
+            completeFrames(frames);
+        } catch (IOException e) {
+            // NOTE: Frames (partially) remaining in the buffer have not been written out
+            completeFrames(frames);
+
+            disconnect();
+            scheduleReconnect();
+
+            throw new TTransportException(e);
+        } finally {
+            // Written out or not, complete frames are discarded retaining
+            // the frame currently being written (if any)
+            discardFrames(framesEnd);
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private void writeFully(ByteBuffer frames) throws IOException {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MILLIS);
+
+        try {
+            while (frames.hasRemaining()) {
+                if (channel.write(frames) > 0) {
+                    continue;
+                }
+
+                // Socket's send buffer is full, awaiting for it to become writable
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    throw new IOException("Timed out writing to " + socketAddress);
+                }
+
+                selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                selector.select(remainingMillis);
+
+                if (selectionKey.isReadable() && isClosedByPeer()) {
+                    throw new IOException("Connection has been closed by " + socketAddress);
+                }
+
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            if (selectionKey.isValid()) {
+                selectionKey.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * Notifies the listener of every frame having been either written out (ie ending before frames' position),
+     * or not, dropping the latter unless listener took them over
+     */
+    @GuardedBy("lock")
+    private void completeFrames(ByteBuffer frames) {
+        if (frameListener == null && !frames.hasRemaining()) {
+            return;
+        }
+
+        int writtenEnd = frames.position();
+        int frameOffset = 0;
+
+        while (frameOffset < frames.limit()) {
+            int payloadSize = buffer.getInt(frameOffset);
+            int frameEnd = frameOffset + FRAME_HEADER_SIZE + payloadSize;
+
+            if (frameEnd <= writtenEnd) {
+                if (frameListener != null) {
+                    frameListener.onFrameWritten(payloadSize);
+                }
+            } else if (!redeliver(frameOffset + FRAME_HEADER_SIZE, frameEnd)) {
+                droppedFramesCount.incrementAndGet();
+            }
+
+            frameOffset = frameEnd;
+        }
+    }
+
+    @GuardedBy("lock")
+    private boolean redeliver(int payloadStart, int payloadEnd) {
+        if (frameListener == null) {
+            return false;
+        }
+
+        ByteBuffer payload = buffer.asReadOnlyBuffer();
+        payload.limit(payloadEnd);
+        payload.position(payloadStart);
+
+        try {
+            return frameListener.onFrameUndelivered(payload.slice());
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to redeliver frame", e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether connection has been closed by the peer, which otherwise is only detected
+     * upon writing to the socket (after some of the frames might have been lost already).
+     * <p>
+     * NOTE: Since collector never responds, socket only becomes readable once the peer closes
+     *       connection, therefore the socket is only read from once it's been selected as readable
+     */
+    @GuardedBy("lock")
+    private boolean isClosedByPeer() {
+        try {
+            selector.selectNow();
+            selector.selectedKeys().clear();
+
+            if (!selectionKey.isReadable()) {
+                return false;
+            }
+
+            probeBuffer.clear();
+
+            return channel.read(probeBuffer) < 0;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    @GuardedBy("lock")
+    private void discardFrames(int framesEnd) {
+        buffer.limit(buffer.position());
+        buffer.position(framesEnd);
+        buffer.compact();
+
+        if (frameStart >= 0) {
+            frameStart -= framesEnd;
+        }
+
+        pendingFramesCount = 0;
+    }
+
+    /**
+     * Initiates connecting (without blocking), completed by {@link #finishConnect()} unless
+     * connection could be established right away
+     *
+     * @return true if transport is connected, false otherwise
+     */
+    @GuardedBy("lock")
+    private boolean connect() {
+        disconnect();
+
+        try {
+            channel = SocketChannel.open();
+            selector = Selector.open();
+
+            channel.configureBlocking(false);
+            // NOTE: Frames are coalesced before being written out already
+            channel.socket().setTcpNoDelay(true);
+
+            selectionKey = channel.register(selector, SelectionKey.OP_CONNECT);
+            connectDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+
+            return channel.connect(socketAddress) ? onConnected() : false;
+        } catch (IOException e) {
+            onConnectFailed(e);
+            return false;
+        }
+    }
+
+    /**
+     * Completes connecting initiated by {@link #connect()} if connection has been established,
+     * failing it once it's timed out
+     *
+     * @return true if transport is connected, false otherwise
+     */
+    @GuardedBy("lock")
+    private boolean finishConnect() {
+        try {
+            if (channel.finishConnect()) {
+                return onConnected();
+            }
+
+            if (System.nanoTime() - connectDeadlineNanos >= 0) {
+                throw new IOException("Timed out connecting");
+            }
+
+            return false;
+        } catch (IOException e) {
+            onConnectFailed(e);
+            return false;
+        }
+    }
+
+    @GuardedBy("lock")
+    private boolean awaitConnected() {
+        while (channel != null && !connected) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(connectDeadlineNanos - System.nanoTime());
+
+            try {
+                if (remainingMillis > 0) {
+                    selector.select(remainingMillis);
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                onConnectFailed(e);
+                return false;
+            }
+
+            finishConnect();
+        }
+
+        return connected;
+    }
+
+    @GuardedBy("lock")
+    private boolean onConnected() {
+        selectionKey.interestOps(SelectionKey.OP_READ);
+
+        connected = true;
+        reconnectBackoffNanos = minReconnectBackoffNanos;
+
+        LOG.info("TCP connection has been established to {}", socketAddress);
+
+        return true;
+    }
+
+    @GuardedBy("lock")
+    private void onConnectFailed(IOException e) {
+        disconnect();
+        scheduleReconnect();
+
+        LOG.warn("Failed to connect to {}: {}", socketAddress, e.getMessage());
+    }
+
+    @GuardedBy("lock")
+    private void scheduleReconnect() {
+        nextConnectAttemptNanos = System.nanoTime() + reconnectBackoffNanos;
+        reconnectBackoffNanos = Math.min(reconnectBackoffNanos * 2, maxReconnectBackoffNanos);
+    }
+
+    @GuardedBy("lock")
+    private void disconnect() {
+        closeQuietly(selector);
+        closeQuietly(channel);
+
+        selector = null;
+        selectionKey = null;
+        channel = null;
+        connected = false;
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            LOG.warn("Failed to close TCP connection", e);
+        }
+    }
+
+    /**
+     * Listener of the frames (messages) being written out, for ex, to account for them as sent, or
+     * to re-send those that could not be written out through another transport
+     */
+    public interface FrameListener {
+        /**
+         * Invoked once frame has been written out to the socket
+         *
+         * @param payloadSize size of the frame's payload
+         */
+        void onFrameWritten(int payloadSize);
+
+        /**
+         * Handles frame's payload (message) that could not be written out
+         *
+         * @param payload frame's payload, only valid for the duration of the call
+         * @return true if frame has been handled, false if it should be dropped
+         */
+        boolean onFrameUndelivered(ByteBuffer payload);
+    }
+}
@@ -23,8 +23,10 @@ package com.uber.m3.tally.m3.thrift;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
+import javax.annotation.Nullable;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 /**
  * A Thrift transport that sends to multiple connections
@@ -32,18 +34,45 @@ import java.net.SocketException;
 public class TMultiUdpClient extends TTransport implements AutoCloseable {
     private TTransport[] transports;
 
+    // NOTE: Only set when backed by {@link TUdpChannelClient}s, in which case payload
+    //       is written into this (direct) buffer once and then the same buffer is sent
+    //       to every endpoint, instead of being copied into every transport individually
+    private final ByteBuffer sharedWriteBuffer;
+
     public TMultiUdpClient(SocketAddress[] socketAddresses) throws SocketException {
-        if (socketAddresses == null || socketAddresses.length == 0) {
-            throw new IllegalArgumentException("Must provide at least one SocketAddress");
-        }
+        validate(socketAddresses);
 
         transports = new TTransport[socketAddresses.length];
+        sharedWriteBuffer = null;
 
         for (int i = 0; i < socketAddresses.length; i++) {
             transports[i] = new TUdpClient(socketAddresses[i]);
         }
     }
 
+    /**
+     * Constructs a transport sending to multiple connections through {@link TUdpChannelClient}s
+     * configured with provided {@link TUdpChannelOptions}.
+     * @param socketAddresses the {@code SocketAddress}es for this transport
+     * @param options         the {@link TUdpChannelOptions} for the underlying channels
+     */
+    public TMultiUdpClient(SocketAddress[] socketAddresses, TUdpChannelOptions options) {
+        validate(socketAddresses);
+
+        transports = new TTransport[socketAddresses.length];
+        sharedWriteBuffer = ByteBuffer.allocateDirect(TUdpTransport.PACKET_DATA_PAYLOAD_MAX_SIZE);
+
+        for (int i = 0; i < socketAddresses.length; i++) {
+            transports[i] = new TUdpChannelClient(socketAddresses[i], options);
+        }
+    }
+
+    private static void validate(SocketAddress[] socketAddresses) {
+        if (socketAddresses == null || socketAddresses.length == 0) {
+            throw new IllegalArgumentException("Must provide at least one SocketAddress");
+        }
+    }
+
     @Override
     public boolean isOpen() {
         for (TTransport transport : transports) {
@@ -76,6 +105,18 @@ public class TMultiUdpClient extends TTransport implements AutoCloseable {
 
     @Override
     public void write(byte[] bytes, int offset, int length) throws TTransportException {
+        if (sharedWriteBuffer != null) {
+            if (!isOpen()) {
+                throw new TTransportException(TTransportException.NOT_OPEN);
+            }
+
+            synchronized (sharedWriteBuffer) {
+                TUdpChannelClient.put(sharedWriteBuffer, bytes, offset, length);
+            }
+
+            return;
+        }
+
         for (TTransport transport : transports) {
             transport.write(bytes, offset, length);
         }
@@ -83,8 +124,68 @@ public class TMultiUdpClient extends TTransport implements AutoCloseable {
 
     @Override
     public void flush() throws TTransportException {
+        if (sharedWriteBuffer != null) {
+            flushShared();
+            return;
+        }
+
         for (TTransport transport : transports) {
             transport.flush();
         }
     }
+
+    /**
+     * Returns number of packets dropped due to sockets' send buffers being full, summed
+     * across all the endpoints (only accounted for when backed by {@link TUdpChannelClient}s)
+     */
+    public long getDroppedPacketsCount() {
+        long droppedPacketsCount = 0;
+
+        for (TTransport transport : transports) {
+            if (transport instanceof TUdpChannelClient) {
+                droppedPacketsCount += ((TUdpChannelClient) transport).getDroppedPacketsCount();
+            }
+        }
+
+        return droppedPacketsCount;
+    }
+
+    /**
+     * Sets the listener notified of every packet dropped due to socket's send buffer being full, by
+     * either of the endpoints (only reported when backed by {@link TUdpChannelClient}s)
+     * @param listener the listener to set, or null
+     */
+    public void setPacketListener(@Nullable TUdpChannelClient.PacketListener listener) {
+        for (TTransport transport : transports) {
+            if (transport instanceof TUdpChannelClient) {
+                ((TUdpChannelClient) transport).setPacketListener(listener);
+            }
+        }
+    }
+
+    private void flushShared() throws TTransportException {
+        synchronized (sharedWriteBuffer) {
+            sharedWriteBuffer.flip();
+
+            try {
+                TTransportException failure = null;
+
+                // NOTE: Failing to send to one of the endpoints should not prevent
+                //       sending to the rest of them
+                for (TTransport transport : transports) {
+                    try {
+                        ((TUdpChannelClient) transport).send(sharedWriteBuffer);
+                    } catch (TTransportException e) {
+                        failure = e;
+                    }
+                }
+
+                if (failure != null) {
+                    throw failure;
+                }
+            } finally {
+                sharedWriteBuffer.clear();
+            }
+        }
+    }
 }
@@ -0,0 +1,288 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.thrift;
+
+import org.apache.http.annotation.GuardedBy;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.uber.m3.tally.m3.thrift.TUdpTransport.PACKET_DATA_PAYLOAD_MAX_SIZE;
+
+/**
+ * A client for sending data via Thrift UDP, backed by the connected {@link DatagramChannel}.
+ * <p>
+ * Unlike {@link TUdpClient}, payload is accumulated in a direct {@link ByteBuffer} that is handed
+ * to the channel as is, avoiding copying it into native memory on every send.
+ * <p>
+ * In non-blocking mode, packets that can't be sent because socket's send buffer is full are
+ * handled according to the configured {@link TUdpChannelOptions.SendBufferFullPolicy}, accounted for
+ * in {@link #getDroppedPacketsCount()} and reported to the {@link PacketListener} (if any).
+ */
+public class TUdpChannelClient extends TTransport implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(TUdpChannelClient.class);
+
+    private final SocketAddress socketAddress;
+    private final TUdpChannelOptions options;
+
+    private final Object sendLock = new Object();
+
+    @GuardedBy("sendLock")
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(PACKET_DATA_PAYLOAD_MAX_SIZE);
+
+    private final AtomicLong droppedPacketsCount = new AtomicLong();
+
+    @Nullable
+    private volatile PacketListener packetListener;
+
+    private volatile DatagramChannel channel;
+
+    // NOTE: We're using dedicated boolean flag to avoid invoking {@link DatagramChannel#isOpen} directly
+    //       on the hot-path
+    private volatile boolean open;
+
+    /**
+     * Constructs a UDP channel client with the given host and port, and default options.
+     * @param socketAddress the {@code SocketAddress} for this transport
+     */
+    public TUdpChannelClient(SocketAddress socketAddress) {
+        this(socketAddress, TUdpChannelOptions.defaults());
+    }
+
+    /**
+     * Constructs a UDP channel client with the given host and port.
+     * @param socketAddress the {@code SocketAddress} for this transport
+     * @param options       the {@link TUdpChannelOptions} for this transport
+     */
+    public TUdpChannelClient(SocketAddress socketAddress, TUdpChannelOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("Options must not be null");
+        }
+
+        this.socketAddress = socketAddress;
+        this.options = options;
+    }
+
+    @Override
+    public boolean isOpen() {
+        // NOTE: Channel could be closed asynchronously, for ex, when the thread
+        //       performing I/O on it is interrupted
+        return open && channel.isOpen();
+    }
+
+    @Override
+    public void open() throws TTransportException {
+        // Release previously opened channel, if any
+        closeQuietly(this.channel);
+
+        DatagramChannel channel = null;
+
+        try {
+            channel = DatagramChannel.open();
+
+            if (options.getSendBufferSizeBytes() > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, options.getSendBufferSizeBytes());
+            }
+
+            channel.configureBlocking(options.isBlocking());
+            channel.connect(socketAddress);
+
+            this.channel = channel;
+            this.open = true;
+
+            LOG.info("UDP channel has been opened");
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new TTransportException("Error opening transport", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        closeQuietly(channel);
+
+        LOG.info("UDP channel has been closed");
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws TTransportException {
+        throw new UnsupportedOperationException("Reading from UDP channel client is not supported");
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws TTransportException {
+        if (!open) {
+            throw new TTransportException(TTransportException.NOT_OPEN);
+        }
+
+        synchronized (sendLock) {
+            put(writeBuffer, bytes, offset, length);
+        }
+    }
+
+    @Override
+    public void flush() throws TTransportException {
+        synchronized (sendLock) {
+            writeBuffer.flip();
+
+            try {
+                send(writeBuffer);
+            } finally {
+                writeBuffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns number of packets dropped due to socket's send buffer being full
+     */
+    public long getDroppedPacketsCount() {
+        return droppedPacketsCount.get();
+    }
+
+    /**
+     * Sets the listener notified of every packet dropped due to socket's send buffer being full.
+     * <p>
+     * NOTE: Listener is invoked by the thread sending the packet, before the send returns
+     * @param listener the listener to set, or null
+     */
+    public void setPacketListener(@Nullable PacketListener listener) {
+        packetListener = listener;
+    }
+
+    /**
+     * Sends remaining contents of the provided buffer as a single datagram.
+     * <p>
+     * NOTE: Buffer's position is restored upon completion, allowing the same buffer
+     *       to be sent through multiple channels
+     */
+    void send(ByteBuffer buffer) throws TTransportException {
+        if (!open) {
+            throw new TTransportException(TTransportException.NOT_OPEN);
+        }
+
+        if (!buffer.hasRemaining()) {
+            return;
+        }
+
+        int position = buffer.position();
+
+        try {
+            write(buffer);
+        } catch (ClosedByInterruptException e) {
+            // NOTE: Sending a datagram doesn't block for long, therefore caller being interrupted
+            //       (for ex, upon reporter's shutdown) should not tear the transport down: instead
+            //       channel is re-opened and sending is re-attempted, preserving interrupted status
+            boolean interrupted = Thread.interrupted();
+
+            try {
+                open();
+
+                buffer.position(position);
+                write(buffer);
+            } catch (IOException ex) {
+                throw new TTransportException(ex);
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } catch (IOException e) {
+            throw new TTransportException(e);
+        } finally {
+            buffer.position(position);
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        int attempts = 0;
+
+        // NOTE: Datagram is either sent in its entirety or not at all, in which
+        //       case (only possible in non-blocking mode) socket's send buffer is full
+        while (writeDatagram(buffer) == 0) {
+            if (options.getSendBufferFullPolicy() == TUdpChannelOptions.SendBufferFullPolicy.DROP
+                    || ++attempts >= options.getMaxSpinAttempts()) {
+                droppedPacketsCount.incrementAndGet();
+
+                PacketListener listener = packetListener;
+                if (listener != null) {
+                    listener.onPacketDropped(buffer.remaining());
+                }
+                break;
+            }
+
+            Thread.yield();
+        }
+    }
+
+    // NOTE: Only overridden in tests, to simulate socket's send buffer being full
+    int writeDatagram(ByteBuffer buffer) throws IOException {
+        return channel.write(buffer);
+    }
+
+    static void put(ByteBuffer buffer, byte[] bytes, int offset, int length) throws TTransportException {
+        if (buffer.position() + length > PACKET_DATA_PAYLOAD_MAX_SIZE) {
+            throw new TTransportException(
+                String.format("Message size too large: %d is greater than available size %d",
+                    length,
+                    PACKET_DATA_PAYLOAD_MAX_SIZE - buffer.position()
+                )
+            );
+        }
+
+        buffer.put(bytes, offset, length);
+    }
+
+    private static void closeQuietly(DatagramChannel channel) {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close UDP channel", e);
+        }
+    }
+
+    /**
+     * Listener of the packets dropped by the transport, for ex, to account for them as not sent
+     */
+    public interface PacketListener {
+        /**
+         * Invoked once packet has been dropped due to socket's send buffer being full
+         *
+         * @param payloadSize size of the packet's payload
+         */
+        void onPacketDropped(int payloadSize);
+    }
+}
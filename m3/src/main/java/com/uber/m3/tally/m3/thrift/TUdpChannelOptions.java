@@ -0,0 +1,162 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.thrift;
+
+/**
+ * Configuration of the {@link TUdpChannelClient}.
+ * <p>
+ * Use inner {@link Builder} class to construct an instance.
+ */
+public class TUdpChannelOptions {
+    private static final int DEFAULT_MAX_SPIN_ATTEMPTS = 64;
+
+    private final boolean blocking;
+    private final SendBufferFullPolicy sendBufferFullPolicy;
+    private final int maxSpinAttempts;
+    private final int sendBufferSizeBytes;
+
+    private TUdpChannelOptions(Builder builder) {
+        this.blocking = builder.blocking;
+        this.sendBufferFullPolicy = builder.sendBufferFullPolicy;
+        this.maxSpinAttempts = builder.maxSpinAttempts;
+        this.sendBufferSizeBytes = builder.sendBufferSizeBytes;
+    }
+
+    /**
+     * Returns default options: blocking channel, with system default send buffer size
+     */
+    public static TUdpChannelOptions defaults() {
+        return new Builder().build();
+    }
+
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    public SendBufferFullPolicy getSendBufferFullPolicy() {
+        return sendBufferFullPolicy;
+    }
+
+    public int getMaxSpinAttempts() {
+        return maxSpinAttempts;
+    }
+
+    /**
+     * Returns size of the socket's send buffer ({@code SO_SNDBUF}), or 0 if system's default should be used
+     */
+    public int getSendBufferSizeBytes() {
+        return sendBufferSizeBytes;
+    }
+
+    /**
+     * Defines behavior of the non-blocking channel in case socket's send buffer is full
+     */
+    public enum SendBufferFullPolicy {
+        /**
+         * Packet is dropped (and accounted for) right away
+         */
+        DROP,
+        /**
+         * Sending is re-attempted (at most {@link #getMaxSpinAttempts()} times), yielding in between,
+         * before packet is dropped
+         */
+        SPIN
+    }
+
+    /**
+     * Builder of the {@link TUdpChannelOptions}
+     */
+    public static class Builder {
+        protected boolean blocking = true;
+        protected SendBufferFullPolicy sendBufferFullPolicy = SendBufferFullPolicy.DROP;
+        protected int maxSpinAttempts = DEFAULT_MAX_SPIN_ATTEMPTS;
+        protected int sendBufferSizeBytes = 0;
+
+        /**
+         * Configures whether channel should operate in blocking mode.
+         *
+         * @param blocking the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder blocking(boolean blocking) {
+            this.blocking = blocking;
+
+            return this;
+        }
+
+        /**
+         * Configures behavior of the non-blocking channel whenever socket's send buffer is full.
+         *
+         * @param sendBufferFullPolicy the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder sendBufferFullPolicy(SendBufferFullPolicy sendBufferFullPolicy) {
+            if (sendBufferFullPolicy == null) {
+                throw new IllegalArgumentException("Send buffer full policy must not be null");
+            }
+
+            this.sendBufferFullPolicy = sendBufferFullPolicy;
+
+            return this;
+        }
+
+        /**
+         * Configures maximum number of attempts to send a packet with {@link SendBufferFullPolicy#SPIN} policy.
+         *
+         * @param maxSpinAttempts the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder maxSpinAttempts(int maxSpinAttempts) {
+            if (maxSpinAttempts <= 0) {
+                throw new IllegalArgumentException("Max spin attempts must be positive");
+            }
+
+            this.maxSpinAttempts = maxSpinAttempts;
+
+            return this;
+        }
+
+        /**
+         * Configures size of the socket's send buffer ({@code SO_SNDBUF}), 0 to use system's default.
+         *
+         * @param sendBufferSizeBytes the value to set
+         * @return this {@link Builder} with the new value set
+         */
+        public Builder sendBufferSizeBytes(int sendBufferSizeBytes) {
+            if (sendBufferSizeBytes < 0) {
+                throw new IllegalArgumentException("Send buffer size must not be negative");
+            }
+
+            this.sendBufferSizeBytes = sendBufferSizeBytes;
+
+            return this;
+        }
+
+        /**
+         * Builds and returns {@link TUdpChannelOptions} with the configured parameters.
+         *
+         * @return a new {@link TUdpChannelOptions} instance
+         */
+        public TUdpChannelOptions build() {
+            return new TUdpChannelOptions(this);
+        }
+    }
+}
@@ -52,6 +52,16 @@ public class TUdpServer extends TUdpTransport implements AutoCloseable {
         this.timeoutMillis = timeoutMillis;
     }
 
+    /**
+     * Sets the size of the socket's receive buffer ({@code SO_RCVBUF}), absorbing bursts of packets
+     * arriving while receiving thread is busy. NOTE: Kernel may cap the size requested.
+     * @param receiveBufferSizeBytes the size to set
+     * @throws SocketException if the underlying socket rejects the size
+     */
+    public void setReceiveBufferSize(int receiveBufferSizeBytes) throws SocketException {
+        socket.setReceiveBufferSize(receiveBufferSizeBytes);
+    }
+
     @Override
     public void open() throws TTransportException {
         try {
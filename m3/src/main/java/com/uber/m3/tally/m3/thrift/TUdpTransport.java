@@ -43,6 +43,11 @@ public abstract class TUdpTransport extends TTransport implements AutoCloseable
     //       65535 - 512 = 65023 bytes
     public static final int PACKET_DATA_PAYLOAD_MAX_SIZE = 65023;
 
+    // NOTE: These are the sizes of IP and UDP headers (without any options or extension headers),
+    //       that have to be accounted for when fitting UDP packet into the link's MTU
+    public static final int IPV4_UDP_HEADERS_SIZE = 20 + 8;
+    public static final int IPV6_UDP_HEADERS_SIZE = 40 + 8;
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     protected final Object sendLock = new Object();
@@ -88,6 +93,14 @@ public abstract class TUdpTransport extends TTransport implements AutoCloseable
     @Override
     public abstract void open() throws TTransportException;
 
+    /**
+     * Returns the address the underlying socket is bound to (for ex, to resolve an ephemeral port),
+     * or {@code null} if it isn't bound yet
+     */
+    public SocketAddress getLocalSocketAddress() {
+        return socket.getLocalSocketAddress();
+    }
+
     @Override
     public void close() {
         socket.close();
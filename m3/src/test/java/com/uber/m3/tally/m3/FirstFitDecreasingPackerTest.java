@@ -0,0 +1,89 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.thrift.gen.Metric;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FirstFitDecreasingPackerTest {
+
+    @Test
+    public void packsTighterThanNextFit() {
+        FirstFitDecreasingPacker packer = new FirstFitDecreasingPacker();
+
+        // NOTE: Packed in this order (Next-Fit), these would take 3 packets: [6], [5, 4], [3, 2]
+        int[] sizes = {6, 5, 4, 3, 2};
+        for (int size : sizes) {
+            packer.add(new Metric("m" + size), size);
+        }
+
+        assertEquals(20, packer.getPendingBytes());
+
+        List<List<String>> packets = new ArrayList<>();
+        List<Integer> packetsBytes = new ArrayList<>();
+
+        assertEquals(2, packer.pack(10, (groupTags, metrics, bytes) -> {
+            List<String> names = new ArrayList<>();
+            for (Metric metric : metrics) {
+                names.add(metric.getName());
+            }
+            packets.add(names);
+            packetsBytes.add(bytes);
+        }));
+
+        assertEquals(2, packets.size());
+        assertEquals(listOf("m6", "m4"), packets.get(0));
+        assertEquals(listOf("m5", "m3", "m2"), packets.get(1));
+        assertEquals(listOf(10, 10), packetsBytes);
+
+        assertTrue(packer.isEmpty());
+        assertEquals(0, packer.getPendingBytes());
+        assertEquals(0, packer.pack(10, (groupTags, metrics, bytes) -> packets.add(null)));
+    }
+
+    @Test
+    public void oversizedMetricIsPackedOnItsOwn() {
+        FirstFitDecreasingPacker packer = new FirstFitDecreasingPacker();
+
+        packer.add(new Metric("small"), 3);
+        packer.add(new Metric("huge"), 15);
+
+        List<Integer> packetsBytes = new ArrayList<>();
+
+        assertEquals(2, packer.pack(10, (groupTags, metrics, bytes) -> packetsBytes.add(bytes)));
+        assertEquals(listOf(15, 3), packetsBytes);
+    }
+
+    @SafeVarargs
+    private static <T> List<T> listOf(T... elements) {
+        List<T> list = new ArrayList<>();
+        for (T element : elements) {
+            list.add(element);
+        }
+        return list;
+    }
+}
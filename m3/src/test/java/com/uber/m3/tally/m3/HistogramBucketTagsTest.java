@@ -0,0 +1,104 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.Buckets;
+import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.tally.ValueBuckets;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricTag;
+import com.uber.m3.util.Duration;
+import com.uber.m3.util.ImmutableMap;
+import org.junit.Test;
+
+import java.net.SocketException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class HistogramBucketTagsTest {
+    private static final ImmutableMap<String, String> TAGS = ImmutableMap.of("env", "test");
+
+    private static final String BUCKET_ID_NAME = M3Reporter.DEFAULT_HISTOGRAM_BUCKET_ID_NAME;
+    private static final String BUCKET_NAME = M3Reporter.DEFAULT_HISTOGRAM_BUCKET_NAME;
+
+    @Test
+    public void valueBuckets() {
+        Buckets buckets = ValueBuckets.linear(0, 10, 3);
+        HistogramBucketTags bucketTags = new HistogramBucketTags(buckets, "bucketid", "bucket", 2);
+
+        assertEquals(new MetricTag("bucketid").setTagValue("0001"), bucketTags.bucketIdTag(1));
+        assertEquals(new MetricTag("bucket").setTagValue("0.00-10.00"), bucketTags.bucketTag(1));
+
+        assertEquals(new MetricTag("bucketid").setTagValue("0002"), bucketTags.bucketIdTag(2));
+        assertEquals(new MetricTag("bucket").setTagValue("10.00-20.00"), bucketTags.bucketTag(2));
+
+        assertEquals(new MetricTag("bucketid").setTagValue("0003"), bucketTags.bucketIdTag(3));
+        assertEquals(new MetricTag("bucket").setTagValue("20.00-infinity"), bucketTags.bucketTag(3));
+    }
+
+    @Test
+    public void durationBuckets() {
+        Buckets buckets = DurationBuckets.linear(Duration.ZERO, Duration.ofMillis(25), 5);
+        HistogramBucketTags bucketTags = new HistogramBucketTags(buckets, "bucketid", "bucket", 6);
+
+        assertEquals(new MetricTag("bucketid").setTagValue("0001"), bucketTags.bucketIdTag(1));
+        assertEquals(new MetricTag("bucket").setTagValue("0-25ms"), bucketTags.bucketTag(1));
+
+        assertEquals(new MetricTag("bucketid").setTagValue("0005"), bucketTags.bucketIdTag(5));
+        assertEquals(new MetricTag("bucket").setTagValue("100ms-infinity"), bucketTags.bucketTag(5));
+    }
+
+    @Test
+    public void tagsAreReusedByReporter() throws SocketException {
+        Buckets buckets = ValueBuckets.linear(0, 10, 3);
+
+        try (M3CollectorSimulator collector = M3CollectorSimulator.onLoopback()) {
+            M3Reporter reporter = new M3Reporter.Builder(collector.getAddress())
+                    .service("test-service")
+                    .commonTags(TAGS)
+                    .build();
+
+            try {
+                Metric first = reporter.encodeHistogramSamples("histogram", TAGS, buckets, 1, 1).getMetric();
+                Metric second = reporter.encodeHistogramSamples("histogram", TAGS, buckets, 1, 2).getMetric();
+
+                // Reporting with the same buckets emits the very same bucket tags
+                assertSame(tag(first, BUCKET_ID_NAME), tag(second, BUCKET_ID_NAME));
+                assertSame(tag(first, BUCKET_NAME), tag(second, BUCKET_NAME));
+
+                assertEquals(new MetricTag(BUCKET_NAME).setTagValue("0.000000-10.000000"), tag(first, BUCKET_NAME));
+            } finally {
+                reporter.close();
+            }
+        }
+    }
+
+    private static MetricTag tag(Metric metric, String tagName) {
+        for (MetricTag tag : metric.getTags()) {
+            if (tag.getTagName().equals(tagName)) {
+                return tag;
+            }
+        }
+
+        throw new AssertionError(String.format("Metric has no tag %s: %s", tagName, metric));
+    }
+}
@@ -0,0 +1,134 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.util.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class M3CollectorSimulatorTest {
+
+    private static final Duration MAX_WAIT_TIMEOUT = Duration.ofSeconds(30);
+
+    private M3CollectorSimulator simulator;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = M3CollectorSimulator.onLoopback();
+    }
+
+    @After
+    public void tearDown() {
+        simulator.close();
+    }
+
+    @Test
+    public void accountsForReceivedMetrics() throws InterruptedException {
+        try (M3Reporter reporter = newReporter()) {
+            for (int i = 0; i < 100; ++i) {
+                reporter.reportCounter("my-counter", sequenced(i), 1);
+            }
+        }
+
+        assertTrue(simulator.awaitMetrics(100, MAX_WAIT_TIMEOUT));
+
+        M3CollectorStats stats = simulator.snapshot();
+
+        assertEquals(100, stats.getMetrics());
+        assertEquals(100, stats.getSequenced());
+        assertEquals(0, stats.getLost());
+        assertEquals(0, stats.getDuplicates());
+        assertEquals(0, stats.getDecodeErrors());
+        assertTrue(stats.getPackets() > 0);
+        assertTrue(stats.getBatches() >= stats.getPackets());
+        assertTrue(stats.getBytes() >= stats.getMaxPacketBytes());
+        assertTrue(stats.getMetricsPerPacket() > 1);
+    }
+
+    @Test
+    public void detectsLoss() throws InterruptedException {
+        try (M3Reporter reporter = newReporter()) {
+            for (int i = 0; i < 10; ++i) {
+                // Skip some sequence numbers, and repeat the other one
+                if (i != 3 && i != 7) {
+                    reporter.reportCounter("my-counter", sequenced(i), 1);
+                }
+            }
+
+            reporter.reportCounter("my-counter", sequenced(5), 1);
+            // Non-sequenced metrics aren't accounted for loss
+            reporter.reportCounter("other-counter", null, 1);
+        }
+
+        assertTrue(simulator.awaitMetrics(10, MAX_WAIT_TIMEOUT));
+
+        M3CollectorStats stats = simulator.snapshot();
+
+        assertEquals(10, stats.getMetrics());
+        assertEquals(9, stats.getSequenced());
+        assertEquals(2, stats.getLost());
+        assertEquals(1, stats.getDuplicates());
+        assertEquals(0.2, stats.getLossRatio(), 1e-9);
+    }
+
+    @Test
+    public void countsUndecodablePackets() throws Exception {
+        byte[] garbage = new byte[] {1, 2, 3, 4, 5};
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.send(new DatagramPacket(garbage, garbage.length, simulator.getAddress()));
+        }
+
+        long deadline = System.nanoTime() + MAX_WAIT_TIMEOUT.toNanos();
+        while (simulator.snapshot().getPackets() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        M3CollectorStats stats = simulator.snapshot();
+
+        assertEquals(1, stats.getPackets());
+        assertEquals(1, stats.getDecodeErrors());
+        assertEquals(0, stats.getMetrics());
+
+        simulator.reset();
+
+        assertEquals(0, simulator.snapshot().getPackets());
+    }
+
+    private M3Reporter newReporter() {
+        return new M3Reporter.Builder(simulator.getAddress())
+                .service("test-service")
+                .env("test")
+                .build();
+    }
+
+    private static ImmutableMap<String, String> sequenced(long sequence) {
+        return ImmutableMap.of(M3CollectorSimulator.SEQUENCE_TAG, Long.toString(sequence));
+    }
+}
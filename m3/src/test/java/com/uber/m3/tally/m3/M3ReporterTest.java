@@ -23,9 +23,15 @@ package com.uber.m3.tally.m3;
 import com.uber.m3.tally.Buckets;
 import com.uber.m3.tally.CapableOf;
 import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.tally.ScopeKey;
+import com.uber.m3.tally.TestScope;
 import com.uber.m3.tally.ValueBuckets;
+import com.uber.m3.tally.m3.thrift.SendBufferFullChannelClient;
+import com.uber.m3.tally.m3.thrift.TUdpChannelOptions;
+import com.uber.m3.tally.m3.thrift.TUdpTransport;
 import com.uber.m3.thrift.gen.CountValue;
 import com.uber.m3.thrift.gen.GaugeValue;
+import com.uber.m3.thrift.gen.M3;
 import com.uber.m3.thrift.gen.Metric;
 import com.uber.m3.thrift.gen.MetricBatch;
 import com.uber.m3.thrift.gen.MetricTag;
@@ -35,16 +41,24 @@ import com.uber.m3.util.Duration;
 import com.uber.m3.util.ImmutableMap;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryInputTransport;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +68,7 @@ import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -500,6 +515,10 @@ public class M3ReporterTest {
     }
 
     private static MockM3Server bootM3Collector(int expectedMetricsCount) throws InterruptedException {
+        return bootM3Collector(expectedMetricsCount, socketAddress);
+    }
+
+    private static MockM3Server bootM3Collector(int expectedMetricsCount, SocketAddress socketAddress) throws InterruptedException {
         final MockM3Server server = new MockM3Server(expectedMetricsCount, socketAddress);
         new Thread(server::serve).start();
         server.awaitStarting();
@@ -549,4 +568,669 @@ public class M3ReporterTest {
 
         assertEquals(expectedMetricsCount, metrics.size());
     }
+
+    @Test
+    public void testUdpChannelTransport() throws InterruptedException {
+        int expectedMetricsCount = 1_000;
+
+        M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                .service("test-service")
+                .commonTags(
+                        ImmutableMap.of("env", "test")
+                )
+                .udpChannelOptions(
+                        new TUdpChannelOptions.Builder()
+                                .blocking(true)
+                                .sendBufferSizeBytes(1 << 20)
+                                .build()
+                );
+
+        List<Metric> metrics;
+
+        try (final MockM3Server server = bootM3Collector(expectedMetricsCount)) {
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                for (int i = 0; i < expectedMetricsCount; ++i) {
+                    reporter.reportCounter("c", ImmutableMap.of("i", String.valueOf(i)), i);
+                }
+
+                // Shutdown reporter
+                reporter.close();
+
+                server.awaitReceiving(MAX_WAIT_TIMEOUT);
+
+                metrics = server.getService().snapshotMetrics();
+            }
+        }
+
+        assertEquals(expectedMetricsCount, metrics.size());
+
+        for (int i = 0; i < expectedMetricsCount; ++i) {
+            assertEquals(i, metrics.get(i).getMetricValue().getCount().getI64Value());
+        }
+    }
+
+    @Test
+    public void testFramedTcpTransport() throws InterruptedException {
+        int expectedMetricsCount = 10_000;
+
+        try (final MockM3FramedTcpServer server = new MockM3FramedTcpServer(expectedMetricsCount)) {
+            M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                    .service("test-service")
+                    .commonTags(
+                            ImmutableMap.of("env", "test")
+                    )
+                    .tcpEndpoint(server.getSocketAddress())
+                    .tcpMaxFrameSizeBytes(1 << 20);
+
+            M3ReporterStats stats;
+
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                stats = reporter.getStats();
+
+                for (int i = 0; i < expectedMetricsCount; ++i) {
+                    reporter.reportCounter("c", ImmutableMap.of("i", String.valueOf(i)), i);
+                }
+
+                reporter.flush();
+
+                assertTrue(server.awaitReceiving(MAX_WAIT_TIMEOUT));
+            }
+
+            // Frames are accounted for as sent once written out
+            assertEquals(server.getService().snapshotBatches().size(), stats.getPacketsSent());
+            assertEquals(0, stats.getDroppedMetrics());
+
+            List<Metric> metrics = server.getService().snapshotMetrics();
+
+            assertEquals(expectedMetricsCount, metrics.size());
+
+            for (int i = 0; i < expectedMetricsCount; ++i) {
+                assertEquals(i, metrics.get(i).getMetricValue().getCount().getI64Value());
+            }
+
+            assertEquals(1, server.getAcceptedConnectionsCount());
+        }
+    }
+
+    @Test
+    public void testFramedTcpTransportFallsBackToUdp() throws InterruptedException, IOException {
+        SocketAddress unusedTcpSocketAddress;
+
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            unusedTcpSocketAddress = socket.getLocalSocketAddress();
+        }
+
+        M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                .service("test-service")
+                .commonTags(
+                        ImmutableMap.of("env", "test")
+                )
+                .tcpEndpoint(unusedTcpSocketAddress);
+
+        List<Metric> metrics;
+
+        try (final MockM3Server server = bootM3Collector(3)) {
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                reporter.reportCounter("my-counter", DEFAULT_TAGS, 10);
+                reporter.reportGauge("my-gauge", DEFAULT_TAGS, 42.42);
+                reporter.reportTimer("my-timer", DEFAULT_TAGS, Duration.ofMillis(5));
+
+                // Shutdown reporter
+                reporter.close();
+
+                server.awaitReceiving(MAX_WAIT_TIMEOUT);
+
+                metrics = server.getService().snapshotMetrics();
+            }
+        }
+
+        assertEquals(3, metrics.size());
+        assertEquals("my-counter", metrics.get(0).getName());
+    }
+
+    @Test
+    public void testFramedTcpConnectionBreakingWhileMetricsAreBuffered() throws Exception {
+        int expectedMetricsCount = 2_000;
+
+        try (final MockM3FramedTcpServer tcpServer = new MockM3FramedTcpServer(expectedMetricsCount);
+             final MockM3Server udpServer = bootM3Collector(expectedMetricsCount)) {
+            M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                    .service("test-service")
+                    .commonTags(
+                            ImmutableMap.of("env", "test")
+                    )
+                    .tcpEndpoint(tcpServer.getSocketAddress())
+                    .tcpMaxFrameSizeBytes(1 << 20)
+                    .maxProcessorWaitUntilFlushMillis(1_000_000);
+
+            M3ReporterStats stats;
+
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                // NOTE: Metrics are buffered into the batch sized to fit into the frame (rather
+                //       than UDP packet), that has to be re-split once TCP connection breaks
+                for (int i = 0; i < expectedMetricsCount; ++i) {
+                    reporter.reportCounter("c", ImmutableMap.of("i", String.valueOf(i)), i);
+                }
+
+                tcpServer.close();
+
+                reporter.flushAsync().get(MAX_WAIT_TIMEOUT.getSeconds(), TimeUnit.SECONDS);
+
+                udpServer.awaitReceiving(MAX_WAIT_TIMEOUT);
+
+                stats = reporter.getStats();
+            }
+
+            assertEquals(expectedMetricsCount, udpServer.getService().snapshotMetrics().size());
+            assertEquals(udpServer.getService().snapshotBatches().size(), stats.getPacketsSent());
+            assertEquals(0, stats.getDroppedMetrics());
+            assertTrue(tcpServer.getService().snapshotMetrics().isEmpty());
+        }
+    }
+
+    @Test
+    public void testShardedEndpointRouting() throws InterruptedException, UnknownHostException {
+        SocketAddress[] endpoints = new SocketAddress[] {
+                new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 12346),
+                new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 12347),
+        };
+
+        int metricsCount = 100;
+
+        // Compute expected routing of every metric
+        RendezvousRouter router = new RendezvousRouter(endpoints);
+        int[] expectedMetricsCounts = new int[endpoints.length];
+
+        for (int i = 0; i < metricsCount; ++i) {
+            Metric metric = new Metric("my-counter")
+                    .setTags(Collections.singleton(new MetricTag("i").setTagValue(String.valueOf(i))));
+
+            ++expectedMetricsCounts[router.route(metric)];
+        }
+
+        M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(endpoints)
+                .service("test-service")
+                .commonTags(DEFAULT_TAGS)
+                .endpointRouting(EndpointRouting.SHARDED);
+
+        try (final MockM3Server server0 = bootM3Collector(expectedMetricsCounts[0], endpoints[0]);
+             final MockM3Server server1 = bootM3Collector(expectedMetricsCounts[1], endpoints[1])) {
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                for (int i = 0; i < metricsCount; ++i) {
+                    reporter.reportCounter("my-counter", ImmutableMap.of("i", String.valueOf(i)), 1);
+                }
+
+                reporter.close();
+
+                server0.awaitReceiving(MAX_WAIT_TIMEOUT);
+                server1.awaitReceiving(MAX_WAIT_TIMEOUT);
+            }
+
+            List<Metric> metrics0 = server0.getService().snapshotMetrics();
+            List<Metric> metrics1 = server1.getService().snapshotMetrics();
+
+            assertEquals(expectedMetricsCounts[0], metrics0.size());
+            assertEquals(expectedMetricsCounts[1], metrics1.size());
+
+            for (Metric metric : metrics0) {
+                assertEquals(0, router.route(metric));
+            }
+
+            for (Metric metric : metrics1) {
+                assertEquals(1, router.route(metric));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShardedEndpointRoutingIsNotSupportedWithTcp() {
+        new M3Reporter.Builder(socketAddress)
+                .service("test-service")
+                .commonTags(DEFAULT_TAGS)
+                .tcpEndpoint(socketAddress)
+                .endpointRouting(EndpointRouting.SHARDED)
+                .build();
+    }
+
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                .service("test-service")
+                .commonTags(DEFAULT_TAGS)
+                .coalesceMetrics(true);
+
+        ImmutableMap<String, String> tags = ImmutableMap.of("a", "1", "b", "2");
+        ImmutableMap<String, String> reorderedTags = ImmutableMap.of("b", "2", "a", "1");
+
+        List<Metric> metrics;
+
+        try (final MockM3Server server = bootM3Collector(3)) {
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                for (int i = 0; i < 100; ++i) {
+                    reporter.reportCounter("my-counter", i % 2 == 0 ? tags : reorderedTags, 1);
+                    reporter.reportGauge("my-gauge", tags, i);
+                }
+
+                reporter.reportTimer("my-timer", tags, Duration.ofMillis(5));
+
+                reporter.close();
+
+                server.awaitReceiving(MAX_WAIT_TIMEOUT);
+
+                metrics = server.getService().snapshotMetrics();
+            }
+        }
+
+        assertEquals(3, metrics.size());
+
+        Map<String, Metric> metricsByName =
+                metrics.stream().collect(Collectors.toMap(Metric::getName, m -> m));
+
+        assertEquals(100, metricsByName.get("my-counter").getMetricValue().getCount().getI64Value());
+        assertEquals(99, metricsByName.get("my-gauge").getMetricValue().getGauge().getDValue(), EPSILON);
+        assertEquals(5_000_000, metricsByName.get("my-timer").getMetricValue().getTimer().getI64Value());
+    }
+
+    @Test
+    public void testFlushAsync() throws Exception {
+        M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                .service("test-service")
+                .commonTags(DEFAULT_TAGS)
+                // Make sure metrics are not flushed by the processor on its own
+                .maxProcessorWaitUntilFlushMillis(60_000);
+
+        List<Metric> metrics;
+
+        try (final MockM3Server server = bootM3Collector(2)) {
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                reporter.reportCounter("my-counter", null, 10);
+                reporter.reportGauge("my-gauge", null, 42.42);
+
+                // Reporter is not closed, metrics have to be flushed by the barrier
+                reporter.flushAsync().get(MAX_WAIT_TIMEOUT.getSeconds(), TimeUnit.SECONDS);
+
+                server.awaitReceiving(MAX_WAIT_TIMEOUT);
+
+                metrics = server.getService().snapshotMetrics();
+            }
+        }
+
+        assertEquals(2, metrics.size());
+
+        Map<String, Metric> metricsByName =
+                metrics.stream().collect(Collectors.toMap(Metric::getName, m -> m));
+
+        assertEquals(10, metricsByName.get("my-counter").getMetricValue().getCount().getI64Value());
+        assertEquals(42.42, metricsByName.get("my-gauge").getMetricValue().getGauge().getDValue(), EPSILON);
+    }
+
+    @Test
+    public void testPriorityLanes() throws InterruptedException {
+        M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                .service("test-service")
+                .commonTags(DEFAULT_TAGS)
+                .priorityLanes(1024);
+
+        ImmutableMap<String, String> highPriorityTags =
+                new ImmutableMap.Builder<String, String>()
+                        .putAll(Priority.HIGH.tags())
+                        .put("a", "1")
+                        .build();
+
+        List<Metric> metrics;
+
+        try (final MockM3Server server = bootM3Collector(3)) {
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                reporter.reportCounter("my-counter", highPriorityTags, 1);
+                reporter.reportGauge("my-gauge", Priority.LOW.tags(), 2);
+                reporter.reportTimer("my-timer", null, Duration.ofMillis(3));
+
+                reporter.close();
+
+                server.awaitReceiving(MAX_WAIT_TIMEOUT);
+
+                metrics = server.getService().snapshotMetrics();
+
+                assertEquals(0, reporter.getShedMetricsCount());
+            }
+        }
+
+        assertEquals(3, metrics.size());
+
+        // Priority tag is never emitted
+        for (Metric metric : metrics) {
+            for (MetricTag tag : metric.getTags()) {
+                assertNotEquals(M3Reporter.PRIORITY_TAG, tag.getTagName());
+            }
+        }
+
+        Map<String, Metric> metricsByName =
+                metrics.stream().collect(Collectors.toMap(Metric::getName, m -> m));
+
+        assertEquals(
+                Collections.singleton(new MetricTag("a").setTagValue("1")),
+                metricsByName.get("my-counter").getTags()
+        );
+    }
+
+    @Test
+    public void testSharedTimestamp() throws InterruptedException {
+        M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                .service("test-service")
+                .commonTags(DEFAULT_TAGS)
+                .timestampMode(TimestampMode.SHARED);
+
+        List<Metric> metrics;
+
+        try (final MockM3Server server = bootM3Collector(2)) {
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                reporter.startInterval(42);
+
+                reporter.reportCounter("my-counter", null, 1);
+                reporter.reportTimer("my-timer", null, Duration.ofMillis(1));
+
+                reporter.close();
+
+                server.awaitReceiving(MAX_WAIT_TIMEOUT);
+
+                metrics = server.getService().snapshotMetrics();
+            }
+        }
+
+        assertEquals(2, metrics.size());
+
+        for (Metric metric : metrics) {
+            assertEquals(42, metric.getTimestamp());
+        }
+    }
+
+    @Test
+    public void testOmittedTimestamp() throws InterruptedException {
+        M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                .service("test-service")
+                .commonTags(DEFAULT_TAGS)
+                .coalesceMetrics(true)
+                .timestampMode(TimestampMode.OMITTED);
+
+        List<Metric> metrics;
+
+        try (final MockM3Server server = bootM3Collector(2)) {
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                reporter.reportCounter("my-counter", null, 1);
+                reporter.reportCounter("my-counter", null, 2);
+                reporter.reportTimer("my-timer", null, Duration.ofMillis(1));
+
+                reporter.close();
+
+                server.awaitReceiving(MAX_WAIT_TIMEOUT);
+
+                metrics = server.getService().snapshotMetrics();
+            }
+        }
+
+        assertEquals(2, metrics.size());
+
+        for (Metric metric : metrics) {
+            assertFalse(metric.isSetTimestamp());
+        }
+    }
+
+    @Test
+    public void testMtuPacking() throws Exception {
+        final int mtu = 1500;
+        final int metricsCount = 1_000;
+
+        try (DatagramSocket receiver = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            receiver.setSoTimeout(1_000);
+
+            M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(receiver.getLocalSocketAddress())
+                    .service("test-service")
+                    .commonTags(DEFAULT_TAGS)
+                    .mtu(mtu)
+                    .packingStrategy(PackingStrategy.FIRST_FIT_DECREASING);
+
+            PacketFillStats stats;
+
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                for (int i = 0; i < metricsCount; ++i) {
+                    // Vary metrics' sizes
+                    reporter.reportCounter("my-counter-" + i, ImmutableMap.of("t", String.valueOf(i * i)), i);
+                }
+
+                reporter.close();
+
+                stats = reporter.getPacketFillStats();
+            }
+
+            byte[] buffer = new byte[TUdpTransport.PACKET_DATA_PAYLOAD_MAX_SIZE];
+
+            int packets = 0;
+            int metrics = 0;
+
+            while (packets < stats.getPacketCount()) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                receiver.receive(packet);
+
+                // Every packet has to fit into a single IP packet
+                assertTrue(packet.getLength() <= mtu - TUdpTransport.IPV4_UDP_HEADERS_SIZE);
+
+                TProtocol protocol =
+                        new TCompactProtocol(new TMemoryInputTransport(buffer, 0, packet.getLength()));
+
+                protocol.readMessageBegin();
+
+                M3.emitMetricBatch_args args = new M3.emitMetricBatch_args();
+                args.read(protocol);
+
+                metrics += args.getBatch().getMetricsSize();
+                ++packets;
+            }
+
+            assertEquals(metricsCount, metrics);
+            assertTrue(stats.getFillRatio() > 0.9);
+        }
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        final int metricsCount = 100;
+
+        try (DatagramSocket receiver = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(receiver.getLocalSocketAddress())
+                    .service("test-service")
+                    .commonTags(DEFAULT_TAGS);
+
+            TestScope scope = TestScope.create();
+
+            M3ReporterStats stats;
+
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                reporter.exposeStats(scope);
+
+                for (int i = 0; i < metricsCount; ++i) {
+                    reporter.reportCounter("my-counter-" + i, null, i);
+                }
+
+                reporter.flushAsync().get(MAX_WAIT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+
+                stats = reporter.getStats();
+
+                assertEquals(metricsCount, stats.getEnqueuedMetrics());
+                assertEquals(0, stats.getQueueDepth());
+
+                // Stats are exported into the scope periodically
+                ScopeKey enqueuedKey = new ScopeKey(M3Reporter.STATS_SCOPE_NAME + ".enqueued", ImmutableMap.EMPTY);
+
+                long deadline = System.currentTimeMillis() + MAX_WAIT_TIMEOUT.toMillis();
+                while (!scope.snapshot().counters().containsKey(enqueuedKey)
+                        || scope.snapshot().counters().get(enqueuedKey).value() < metricsCount) {
+                    assertTrue(System.currentTimeMillis() < deadline);
+                    Thread.sleep(10);
+                }
+
+                assertEquals(metricsCount, scope.snapshot().counters().get(enqueuedKey).value());
+
+                reporter.close();
+
+                // Metrics reported after reporter is closed are dropped
+                reporter.reportCounter("my-counter", null, 1);
+            }
+
+            assertEquals(1, stats.getDroppedMetrics());
+            assertEquals(0, stats.getPacketsDropped());
+            assertEquals(0, stats.getSendErrors());
+            assertEquals(0, stats.getProcessorRestarts());
+            assertTrue(stats.getPacketsSent() > 0);
+            assertTrue(stats.getBytesSent() > 0);
+
+            long flushes = 0;
+            for (long count : stats.getFlushLatencyCounts()) {
+                flushes += count;
+            }
+
+            assertTrue(flushes > 0);
+        }
+    }
+
+    @Test
+    public void testPacketsDroppedByTransportAreAccountedFor() throws Exception {
+        final int metricsCount = 10;
+
+        try (DatagramSocket receiver = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            TUdpChannelOptions options =
+                    new TUdpChannelOptions.Builder()
+                            .blocking(false)
+                            .sendBufferFullPolicy(TUdpChannelOptions.SendBufferFullPolicy.DROP)
+                            .build();
+
+            M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(receiver.getLocalSocketAddress())
+                    .service("test-service")
+                    .commonTags(DEFAULT_TAGS)
+                    .udpChannelOptions(options);
+
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                // Socket's send buffer is full for the first packet sent through the shard
+                SendBufferFullChannelClient transport =
+                        new SendBufferFullChannelClient(receiver.getLocalSocketAddress(), options, 1);
+
+                Shard shard = new Shard(reporter, transport, new TCompactProtocol.Factory());
+
+                for (int i = 0; i < 2; ++i) {
+                    for (int j = 0; j < metricsCount; ++j) {
+                        SizedMetric metric = reporter.encodeCounter("my-counter-" + j, null, j);
+                        shard.add(metric.getMetric(), metric.getSize());
+                    }
+
+                    assertTrue(shard.flushBuffered());
+                }
+
+                shard.close();
+
+                M3ReporterStats stats = reporter.getStats();
+
+                // Dropped packet (and its metrics) is not accounted for as sent
+                assertEquals(1, stats.getPacketsDropped());
+                assertEquals(metricsCount, stats.getDroppedMetrics());
+                assertEquals(1, stats.getPacketsSent());
+                assertEquals(0, stats.getSendErrors());
+            }
+        }
+    }
+
+    @Test
+    public void testTimerAggregation() throws InterruptedException {
+        DurationBuckets buckets = DurationBuckets.custom(Duration.ofMillis(10), Duration.ofMillis(100));
+
+        M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                .service("test-service")
+                .commonTags(DEFAULT_TAGS)
+                .aggregateTimers(buckets);
+
+        List<Metric> metrics;
+
+        try (final MockM3Server server = bootM3Collector(3)) {
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                for (int i = 0; i < 1_000; ++i) {
+                    reporter.reportTimer("my-timer", null, Duration.ofMillis(i % 3 == 0 ? 5 : 50));
+                }
+
+                reporter.reportCounter("my-counter", null, 1);
+
+                reporter.close();
+
+                server.awaitReceiving(MAX_WAIT_TIMEOUT);
+
+                metrics = server.getService().snapshotMetrics();
+            }
+        }
+
+        // 2 non-empty buckets of the timer, and the counter
+        assertEquals(3, metrics.size());
+
+        long timerSamples = 0;
+
+        for (Metric metric : metrics) {
+            if (metric.getName().equals("my-timer")) {
+                assertTrue(metric.getMetricValue().isSetCount());
+                timerSamples += metric.getMetricValue().getCount().getI64Value();
+            }
+        }
+
+        assertEquals(1_000, timerSamples);
+    }
+
+    @Test
+    public void testTagGrouping() throws InterruptedException {
+        M3Reporter.Builder reporterBuilder = new M3Reporter.Builder(socketAddress)
+                .service("test-service")
+                .commonTags(DEFAULT_TAGS)
+                .mtu(1_500)
+                .packingStrategy(PackingStrategy.GROUP_BY_TAGS);
+
+        ImmutableMap<String, String> scopeTags = ImmutableMap.of("endpoint", "my-endpoint");
+
+        int groupedCount = 200;
+
+        List<MetricBatch> batches;
+
+        try (final MockM3Server server = bootM3Collector(groupedCount + 1)) {
+            try (final M3Reporter reporter = reporterBuilder.build()) {
+                for (int i = 0; i < groupedCount; ++i) {
+                    reporter.reportCounter("my-counter-" + i, scopeTags, 1);
+                }
+
+                reporter.reportCounter("other-counter", ImmutableMap.of("endpoint", "other"), 1);
+
+                reporter.close();
+
+                server.awaitReceiving(MAX_WAIT_TIMEOUT);
+
+                batches = server.getService().snapshotBatches();
+            }
+        }
+
+        MetricTag groupTag = new MetricTag("endpoint").setTagValue("my-endpoint");
+
+        int grouped = 0;
+        int ungrouped = 0;
+
+        for (MetricBatch batch : batches) {
+            boolean isGrouped = batch.getCommonTags().contains(groupTag);
+
+            for (Metric metric : batch.getMetrics()) {
+                if (isGrouped) {
+                    assertTrue(metric.getName().startsWith("my-counter-"));
+                    assertFalse(metric.isSetTags() && !metric.getTags().isEmpty());
+                    ++grouped;
+                } else {
+                    assertEquals("other-counter", metric.getName());
+                    assertEquals(1, metric.getTagsSize());
+                    ++ungrouped;
+                }
+            }
+        }
+
+        assertEquals(groupedCount, grouped);
+        assertEquals(1, ungrouped);
+    }
 }
@@ -0,0 +1,93 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.util.Duration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.uber.m3.tally.m3.TestMetrics.counter;
+import static com.uber.m3.tally.m3.TestMetrics.gauge;
+import static com.uber.m3.tally.m3.TestMetrics.timer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricCoalescerTest {
+
+    @Test
+    public void countersAreSummedUp() {
+        MetricCoalescer coalescer = new MetricCoalescer();
+
+        assertTrue(coalescer.coalesce(counter("c", 1, "a", "1", "b", "2")));
+        assertTrue(coalescer.coalesce(counter("c", 2, "b", "2", "a", "1")));
+        assertTrue(coalescer.coalesce(counter("c", 3, "a", "1")));
+
+        List<Metric> metrics = harvest(coalescer);
+
+        assertEquals(2, metrics.size());
+        assertEquals(3, metrics.get(0).getMetricValue().getCount().getI64Value());
+        assertEquals(3, metrics.get(1).getMetricValue().getCount().getI64Value());
+        assertTrue(coalescer.isEmpty());
+    }
+
+    @Test
+    public void lastGaugeIsRetained() {
+        MetricCoalescer coalescer = new MetricCoalescer();
+
+        assertTrue(coalescer.coalesce(gauge("g", 1.0, "a", "1")));
+        assertTrue(coalescer.coalesce(gauge("g", 2.0, "a", "1")));
+
+        List<Metric> metrics = harvest(coalescer);
+
+        assertEquals(1, metrics.size());
+        assertEquals(2.0, metrics.get(0).getMetricValue().getGauge().getDValue(), 1e-9);
+    }
+
+    @Test
+    public void differentTypesAreNotCoalesced() {
+        MetricCoalescer coalescer = new MetricCoalescer();
+
+        assertTrue(coalescer.coalesce(counter("m", 1, "a", "1")));
+        assertTrue(coalescer.coalesce(gauge("m", 2.0, "a", "1")));
+
+        assertEquals(2, harvest(coalescer).size());
+    }
+
+    @Test
+    public void timersArePassedThrough() {
+        MetricCoalescer coalescer = new MetricCoalescer();
+
+        Metric timer = timer("t", Duration.ofNanos(1));
+
+        assertFalse(coalescer.coalesce(timer));
+        assertTrue(coalescer.isEmpty());
+    }
+
+    private static List<Metric> harvest(MetricCoalescer coalescer) {
+        List<Metric> metrics = new ArrayList<>();
+        coalescer.harvest(metrics::add);
+        return metrics;
+    }
+}
@@ -0,0 +1,143 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.thrift.gen.M3;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in M3 collector receiving framed Thrift over TCP
+ */
+public class MockM3FramedTcpServer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MockM3FramedTcpServer.class);
+
+    private final CountDownLatch expectedMetricsLatch;
+
+    private final TProcessor processor;
+    private final TServerSocket serverTransport;
+    private final MockM3Service service;
+
+    private final List<TTransport> connections = new CopyOnWriteArrayList<>();
+    private final AtomicInteger acceptedConnectionsCount = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    public MockM3FramedTcpServer(int expectedMetricsCount) {
+        this.expectedMetricsLatch = new CountDownLatch(expectedMetricsCount);
+        this.service = new MockM3Service(expectedMetricsLatch);
+        this.processor = new M3.Processor<>(service);
+
+        try {
+            serverTransport = new TServerSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            serverTransport.listen();
+        } catch (TTransportException e) {
+            throw new RuntimeException("Unable to open server socket", e);
+        }
+
+        Thread acceptor = new Thread(this::serve);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public InetSocketAddress getSocketAddress() {
+        return (InetSocketAddress) serverTransport.getServerSocket().getLocalSocketAddress();
+    }
+
+    public MockM3Service getService() {
+        return service;
+    }
+
+    public int getAcceptedConnectionsCount() {
+        return acceptedConnectionsCount.get();
+    }
+
+    /**
+     * Awaits receiving of all the expected metrics
+     */
+    public boolean awaitReceiving(Duration waitTimeout) throws InterruptedException {
+        return expectedMetricsLatch.await(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void serve() {
+        while (!closed) {
+            try {
+                TTransport connection = new TFramedTransport(serverTransport.accept());
+
+                connections.add(connection);
+                acceptedConnectionsCount.incrementAndGet();
+
+                Thread handler = new Thread(() -> handle(connection));
+                handler.setDaemon(true);
+                handler.start();
+            } catch (TTransportException e) {
+                if (!closed) {
+                    LOG.error("Failed to accept connection", e);
+                }
+            }
+        }
+    }
+
+    private void handle(TTransport connection) {
+        TProtocol protocol = new TCompactProtocol.Factory().getProtocol(connection);
+
+        try {
+            while (!closed) {
+                processor.process(protocol, protocol);
+            }
+        } catch (TException e) {
+            // Connection has been closed
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        serverTransport.close();
+
+        for (TTransport connection : connections) {
+            connection.close();
+        }
+
+        LOG.info("Closing receiving server socket");
+    }
+}
@@ -41,9 +41,15 @@ public class MockM3Server implements AutoCloseable {
 
     private static final Logger LOG = LoggerFactory.getLogger(MockM3Server.class);
 
+    private static final long MAX_SERVING_THREAD_WAIT_MILLIS = 5_000;
+
     private final CountDownLatch expectedMetricsLatch;
 
-    private final Object startupMonitor = new Object();
+    private final CountDownLatch startupLatch = new CountDownLatch(1);
+
+    private volatile Throwable startupFailure;
+
+    private volatile Thread servingThread;
 
     private final TProcessor processor;
     private final TTransport transport;
@@ -65,19 +71,21 @@ public class MockM3Server implements AutoCloseable {
     }
 
     public void serve() {
+        servingThread = Thread.currentThread();
+
         try {
             transport.open();
 
             LOG.info("Opened receiving server socket");
         } catch (TTransportException e) {
+            startupFailure = e;
+            startupLatch.countDown();
             throw new RuntimeException("Failed to open socket", e);
         }
 
         TProtocol protocol = new TCompactProtocol.Factory().getProtocol(transport);
 
-        synchronized (startupMonitor) {
-            startupMonitor.notifyAll();
-        }
+        startupLatch.countDown();
 
         while (transport.isOpen()) {
             try {
@@ -107,8 +115,10 @@ public class MockM3Server implements AutoCloseable {
      * Awaits for the server to be fully booted up
      */
     public void awaitStarting() throws InterruptedException {
-        synchronized (startupMonitor) {
-            startupMonitor.wait();
+        startupLatch.await();
+
+        if (startupFailure != null) {
+            throw new IllegalStateException("Server failed to start", startupFailure);
         }
     }
 
@@ -118,5 +128,17 @@ public class MockM3Server implements AutoCloseable {
         transport.close();
 
         LOG.info("Closing receiving server socket");
+
+        // NOTE: Socket is only released once serving thread returns from the blocking
+        //       receive, therefore we have to wait for it to make sure the next server
+        //       could be bound to the same address
+        Thread thread = servingThread;
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(MAX_SERVING_THREAD_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 }
@@ -0,0 +1,223 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.thrift.gen.Metric;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.uber.m3.tally.m3.Priority.HIGH;
+import static com.uber.m3.tally.m3.Priority.LOW;
+import static com.uber.m3.tally.m3.Priority.NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityLanesTest {
+
+    @Test
+    public void lanesAreDrainedProportionallyToWeights() {
+        PriorityLanes lanes = new PriorityLanes(true, PriorityLanes.UNBOUNDED);
+
+        for (int i = 0; i < 10; ++i) {
+            lanes.offer(metric("low"), LOW);
+            lanes.offer(metric("normal"), NORMAL);
+            lanes.offer(metric("high"), HIGH);
+        }
+
+        List<String> polled = pollNames(lanes, 7);
+
+        assertEquals(
+                listOf("high", "high", "high", "high", "normal", "normal", "low"),
+                polled
+        );
+
+        // Once lanes run dry, rest of them are drained
+        assertEquals(23, pollNames(lanes, Integer.MAX_VALUE).size());
+        assertTrue(lanes.isEmpty());
+    }
+
+    @Test
+    public void singleLanePreservesOrder() {
+        PriorityLanes lanes = new PriorityLanes(false, PriorityLanes.UNBOUNDED);
+
+        lanes.offer(metric("1"), LOW);
+        lanes.offer(metric("2"), HIGH);
+        lanes.offer(metric("3"), NORMAL);
+
+        assertEquals(listOf("1", "2", "3"), pollNames(lanes, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void lowestLaneIsShedFirst() {
+        PriorityLanes lanes = new PriorityLanes(true, 3);
+
+        assertTrue(lanes.offer(metric("low-1"), LOW));
+        assertTrue(lanes.offer(metric("low-2"), LOW));
+        assertTrue(lanes.offer(metric("normal"), NORMAL));
+
+        // Oldest low priority metrics are shed to make room
+        assertTrue(lanes.offer(metric("high-1"), HIGH));
+        assertTrue(lanes.offer(metric("high-2"), HIGH));
+        assertEquals(2, lanes.getShedCount());
+
+        // Higher priority lanes are never shed to make room for lower priority metrics
+        assertFalse(lanes.offer(metric("low-3"), LOW));
+        assertEquals(3, lanes.getShedCount());
+        // Rejected metric has never been enqueued, therefore isn't evicted
+        assertEquals(2, lanes.getEvictedCount());
+
+        assertEquals(listOf("high-1", "high-2", "normal"), pollNames(lanes, Integer.MAX_VALUE));
+
+        // Polled metrics free up the capacity
+        assertTrue(lanes.offer(metric("low-4"), LOW));
+        assertEquals(3, lanes.getShedCount());
+    }
+
+    @Test
+    public void markerTrailsEveryLane() {
+        PriorityLanes lanes = new PriorityLanes(true, 2);
+
+        lanes.offer(metric("low"), LOW);
+        lanes.offer(metric("high"), HIGH);
+
+        TestMarker marker = new TestMarker();
+        lanes.offer(marker);
+
+        // Markers are neither accounted for, nor shed
+        assertTrue(lanes.offer(metric("normal"), NORMAL));
+        assertEquals(1, lanes.getShedCount());
+
+        int arrivals = 0;
+        List<String> polledBeforeMarker = new ArrayList<>();
+
+        SizedMetric polled;
+        while ((polled = lanes.poll()) != null) {
+            if (polled == marker) {
+                if (marker.arrive()) {
+                    break;
+                }
+                ++arrivals;
+            } else {
+                polledBeforeMarker.add(polled.getMetric().getName());
+            }
+        }
+
+        assertSame(marker, polled);
+        assertEquals(2, arrivals);
+        assertEquals(listOf("high", "normal"), polledBeforeMarker);
+        assertNull(lanes.poll());
+    }
+
+    @Test
+    public void markerIsNotHeldUpBySheddingLoad() throws Exception {
+        int capacity = 8;
+        PriorityLanes lanes = new PriorityLanes(false, capacity);
+
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicLong sequence = new AtomicLong();
+
+        Thread producer = new Thread(() -> {
+            while (!stopped.get()) {
+                lanes.offer(metric(Long.toString(sequence.incrementAndGet())), LOW);
+            }
+        });
+        producer.start();
+
+        try {
+            while (lanes.getEvictedCount() < capacity) {
+                Thread.yield();
+            }
+
+            TestMarker marker = new TestMarker();
+            lanes.offer(marker);
+
+            // Metrics numbered past this one are enqueued after the marker
+            long lastBeforeMarker = sequence.get();
+
+            // Load keeps being shed off the lane while marker is pending in it
+            long evicted = lanes.getEvictedCount();
+            while (lanes.getEvictedCount() < evicted + 1000) {
+                Thread.yield();
+            }
+
+            boolean passed = false;
+            List<Long> polledBeforeMarker = new ArrayList<>();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+            SizedMetric polled;
+            while (System.nanoTime() < deadline) {
+                polled = lanes.poll();
+
+                if (polled == marker) {
+                    passed = marker.arrive();
+                    break;
+                } else if (polled != null) {
+                    polledBeforeMarker.add(Long.parseLong(polled.getMetric().getName()));
+                }
+            }
+
+            assertTrue(passed);
+            assertTrue(polledBeforeMarker.size() <= capacity);
+
+            // Metrics shed were the ones behind the marker, rather than the marker being moved behind them
+            for (long polledSequence : polledBeforeMarker) {
+                assertTrue(polledSequence <= lastBeforeMarker);
+            }
+        } finally {
+            stopped.set(true);
+            producer.join();
+        }
+    }
+
+    private static List<String> pollNames(PriorityLanes lanes, int limit) {
+        List<String> names = new ArrayList<>();
+
+        SizedMetric metric;
+        while (names.size() < limit && (metric = lanes.poll()) != null) {
+            names.add(metric.getMetric().getName());
+        }
+
+        return names;
+    }
+
+    private static List<String> listOf(String... names) {
+        List<String> list = new ArrayList<>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+
+    private static SizedMetric metric(String name) {
+        return new SizedMetric(new Metric(name), 1);
+    }
+
+    private static final class TestMarker extends PriorityLanes.Marker {
+    }
+}
@@ -0,0 +1,87 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.thrift.gen.Metric;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+
+import static com.uber.m3.tally.m3.TestMetrics.metric;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RendezvousRouterTest {
+
+    private static final SocketAddress[] ENDPOINTS = new SocketAddress[] {
+            InetSocketAddress.createUnresolved("collector-0", 9052),
+            InetSocketAddress.createUnresolved("collector-1", 9052),
+            InetSocketAddress.createUnresolved("collector-2", 9052),
+            InetSocketAddress.createUnresolved("collector-3", 9052),
+    };
+
+    @Test
+    public void sameSeriesIsRoutedToSameEndpoint() {
+        RendezvousRouter router = new RendezvousRouter(ENDPOINTS);
+
+        for (int i = 0; i < 100; ++i) {
+            Metric metric = metric("metric-" + i, "a", "1", "b", String.valueOf(i));
+            Metric reordered = metric("metric-" + i, "b", String.valueOf(i), "a", "1");
+
+            assertEquals(router.route(metric), router.route(reordered));
+            assertEquals(router.route(metric), new RendezvousRouter(ENDPOINTS).route(metric));
+        }
+    }
+
+    @Test
+    public void seriesAreSpreadAcrossEndpoints() {
+        RendezvousRouter router = new RendezvousRouter(ENDPOINTS);
+
+        int seriesCount = 10_000;
+        int[] routed = new int[ENDPOINTS.length];
+
+        for (int i = 0; i < seriesCount; ++i) {
+            ++routed[router.route(metric("metric", "id", String.valueOf(i)))];
+        }
+
+        for (int count : routed) {
+            // Every endpoint should receive its fair share (within 20%)
+            assertTrue(Arrays.toString(routed), Math.abs(count - seriesCount / ENDPOINTS.length) < seriesCount / ENDPOINTS.length / 5);
+        }
+    }
+
+    @Test
+    public void removingEndpointOnlyReroutesItsSeries() {
+        RendezvousRouter router = new RendezvousRouter(ENDPOINTS);
+        RendezvousRouter shrunkRouter = new RendezvousRouter(Arrays.copyOf(ENDPOINTS, ENDPOINTS.length - 1));
+
+        for (int i = 0; i < 10_000; ++i) {
+            Metric metric = metric("metric", "id", String.valueOf(i));
+
+            int endpoint = router.route(metric);
+            if (endpoint != ENDPOINTS.length - 1) {
+                assertEquals(endpoint, shrunkRouter.route(metric));
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.m3.thrift.TCalcTransport;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricTag;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.uber.m3.tally.m3.TestMetrics.metric;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TagGroupingPackerTest {
+
+    private static final int METRIC_SIZE = 100;
+
+    private final TagGroupingPacker packer = new TagGroupingPacker(Collections.singleton("bucketid"));
+
+    private final List<Set<MetricTag>> packetsGroupTags = new ArrayList<>();
+    private final List<List<Metric>> packets = new ArrayList<>();
+    private final List<Integer> packetsBytes = new ArrayList<>();
+
+    @Test
+    public void largeGroupsAreHoisted() {
+        for (int i = 0; i < 10; ++i) {
+            // NOTE: Bucket tag is not hoisted, and remains with the metric
+            packer.add(metric("grouped", "endpoint", "a", "region", "x", "bucketid", String.valueOf(i)), METRIC_SIZE);
+            // NOTE: Tags order doesn't matter
+            packer.add(metric("reordered", "region", "x", "endpoint", "a"), METRIC_SIZE);
+        }
+
+        packer.add(metric("untagged"), METRIC_SIZE);
+        packer.add(metric("small-group", "endpoint", "b"), METRIC_SIZE);
+
+        assertEquals(22 * METRIC_SIZE, packer.getPendingBytes());
+
+        int packetsCount = pack(1_000);
+        int groupTagsBytes = tagSize("endpoint", "a") + tagSize("region", "x");
+
+        assertEquals(packetsCount, packets.size());
+        assertTrue(packer.isEmpty());
+
+        Set<MetricTag> groupTags = new HashSet<>();
+        groupTags.add(tag("endpoint", "a"));
+        groupTags.add(tag("region", "x"));
+
+        int groupedMetrics = 0;
+        int groupedBytes = 0;
+
+        for (int i = 0; i < packets.size(); ++i) {
+            if (packetsGroupTags.get(i) == null) {
+                continue;
+            }
+
+            assertEquals(groupTags, packetsGroupTags.get(i));
+            assertTrue(packetsBytes.get(i) <= 1_000 - groupTagsBytes);
+
+            for (Metric metric : packets.get(i)) {
+                if (metric.getName().equals("grouped")) {
+                    assertEquals(1, metric.getTagsSize());
+                    assertEquals("bucketid", metric.getTags().iterator().next().getTagName());
+                } else {
+                    assertEquals("reordered", metric.getName());
+                    assertEquals(0, metric.getTagsSize());
+                }
+            }
+
+            groupedMetrics += packets.get(i).size();
+            groupedBytes += packetsBytes.get(i);
+        }
+
+        assertEquals(20, groupedMetrics);
+        assertEquals(20 * (METRIC_SIZE - groupTagsBytes), groupedBytes);
+
+        // Ungrouped metrics are packed last, retaining their tags
+        int lastPacket = packets.size() - 1;
+
+        assertNull(packetsGroupTags.get(lastPacket));
+        assertEquals(2, packets.get(lastPacket).size());
+        assertEquals(0, packets.get(lastPacket).get(0).getTagsSize());
+        assertEquals(1, packets.get(lastPacket).get(1).getTagsSize());
+    }
+
+    @Test
+    public void smallGroupsAreNotHoisted() {
+        packer.add(metric("a", "endpoint", "a"), METRIC_SIZE);
+        packer.add(metric("b", "endpoint", "a"), METRIC_SIZE);
+        packer.add(metric("c", "endpoint", "b"), METRIC_SIZE);
+
+        assertEquals(1, pack(1_000));
+
+        assertNull(packetsGroupTags.get(0));
+        assertEquals(3, packets.get(0).size());
+        assertEquals(3 * METRIC_SIZE, (int) packetsBytes.get(0));
+
+        for (Metric metric : packets.get(0)) {
+            assertEquals(1, metric.getTagsSize());
+        }
+    }
+
+    private int pack(int capacity) {
+        return packer.pack(capacity, (groupTags, metrics, bytes) -> {
+            packetsGroupTags.add(groupTags);
+            packets.add(metrics);
+            packetsBytes.add(bytes);
+        });
+    }
+
+    private static int tagSize(String name, String value) {
+        TCalcTransport transport = new TCalcTransport();
+        try {
+            tag(name, value).write(new TCompactProtocol.Factory().getProtocol(transport));
+        } catch (TException e) {
+            throw new RuntimeException(e);
+        }
+        return transport.getSizeAndReset();
+    }
+
+    private static MetricTag tag(String name, String value) {
+        return new MetricTag(name).setTagValue(value);
+    }
+}
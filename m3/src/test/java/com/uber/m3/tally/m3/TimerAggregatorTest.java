@@ -0,0 +1,123 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.thrift.gen.CountValue;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricTag;
+import com.uber.m3.thrift.gen.MetricValue;
+import com.uber.m3.util.Duration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.uber.m3.tally.m3.TestMetrics.timer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimerAggregatorTest {
+
+    private static final DurationBuckets BUCKETS =
+            DurationBuckets.custom(Duration.ofMillis(1), Duration.ofMillis(10), Duration.ofMillis(100));
+
+    private final TimerAggregator aggregator =
+            new TimerAggregator(BUCKETS, new HistogramBucketTags(BUCKETS, "bucketid", "bucket", 6));
+
+    @Test
+    public void samplesAreAggregatedIntoBuckets() {
+        // [0, 1ms)
+        assertTrue(aggregator.aggregate(timer("t", Duration.ofNanos(10), "a", "1")));
+        // [1ms, 10ms)
+        assertTrue(aggregator.aggregate(timer("t", Duration.ofMillis(1), "a", "1")));
+        assertTrue(aggregator.aggregate(timer("t", Duration.ofMillis(5), "a", "1")));
+        // [100ms, +inf)
+        assertTrue(aggregator.aggregate(timer("t", Duration.ofSeconds(5), "a", "1")));
+        // Different series
+        assertTrue(aggregator.aggregate(timer("t", Duration.ofMillis(50), "a", "2")));
+
+        List<Metric> metrics = harvest();
+
+        assertEquals(4, metrics.size());
+        assertTrue(aggregator.isEmpty());
+
+        Map<String, Long> countsByBucketId = new HashMap<>();
+        for (Metric metric : metrics) {
+            assertEquals("t", metric.getName());
+            assertEquals(3, metric.getTags().size());
+
+            countsByBucketId.put(
+                    tagValue(metric, "a") + "/" + tagValue(metric, "bucketid"),
+                    metric.getMetricValue().getCount().getI64Value()
+            );
+        }
+
+        assertEquals(Long.valueOf(1), countsByBucketId.get("1/0000"));
+        assertEquals(Long.valueOf(2), countsByBucketId.get("1/0001"));
+        assertEquals(Long.valueOf(1), countsByBucketId.get("1/0003"));
+        assertEquals(Long.valueOf(1), countsByBucketId.get("2/0002"));
+    }
+
+    @Test
+    public void nonTimersArePassedThrough() {
+        Metric counter = new Metric("c");
+        counter.setMetricValue(new MetricValue().setCount(new CountValue().setI64Value(1)));
+
+        assertFalse(aggregator.aggregate(counter));
+        assertTrue(aggregator.isEmpty());
+    }
+
+    @Test
+    public void latestTimestampIsRetained() {
+        Metric first = timer("t", Duration.ofMillis(5));
+        first.setTimestamp(1);
+        Metric second = timer("t", Duration.ofMillis(5));
+        second.setTimestamp(2);
+
+        aggregator.aggregate(first);
+        aggregator.aggregate(second);
+
+        List<Metric> metrics = harvest();
+
+        assertEquals(1, metrics.size());
+        assertEquals(2, metrics.get(0).getTimestamp());
+        assertEquals(2, metrics.get(0).getMetricValue().getCount().getI64Value());
+    }
+
+    private List<Metric> harvest() {
+        List<Metric> metrics = new ArrayList<>();
+        aggregator.harvest(metrics::add);
+        return metrics;
+    }
+
+    private static String tagValue(Metric metric, String tagName) {
+        for (MetricTag tag : metric.getTags()) {
+            if (tag.getTagName().equals(tagName)) {
+                return tag.getTagValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,58 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.thrift;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Client observing socket's send buffer being full for the given number of attempts to send
+ */
+public final class SendBufferFullChannelClient extends TUdpChannelClient {
+    private int fullAttempts;
+    private int attempts;
+
+    public SendBufferFullChannelClient(SocketAddress socketAddress, TUdpChannelOptions options, int fullAttempts) {
+        super(socketAddress, options);
+
+        this.fullAttempts = fullAttempts;
+    }
+
+    /**
+     * Returns number of attempts to send packets made so far
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    int writeDatagram(ByteBuffer buffer) throws IOException {
+        ++attempts;
+
+        if (fullAttempts > 0) {
+            --fullAttempts;
+            return 0;
+        }
+
+        return super.writeDatagram(buffer);
+    }
+}
@@ -0,0 +1,319 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.thrift;
+
+import com.uber.m3.tally.m3.MockM3FramedTcpServer;
+import com.uber.m3.thrift.gen.M3;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricBatch;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TFramedTcpClientTest {
+
+    private static final Duration MAX_WAIT_TIMEOUT = Duration.ofSeconds(30);
+
+    @Test
+    public void testPipelinedFramesAreWrittenUponDraining() throws TException, InterruptedException {
+        int batchesCount = 3;
+
+        try (MockM3FramedTcpServer server = new MockM3FramedTcpServer(batchesCount)) {
+            try (TFramedTcpClient client = new TFramedTcpClient(server.getSocketAddress())) {
+                client.open();
+
+                assertTrue(client.isConnected());
+
+                M3.Client m3Client = new M3.Client(new TCompactProtocol(client));
+
+                for (int i = 0; i < batchesCount; ++i) {
+                    m3Client.emitMetricBatch(
+                            new MetricBatch().setMetrics(Collections.singletonList(new Metric("metric-" + i)))
+                    );
+                }
+
+                client.drain();
+
+                assertTrue(server.awaitReceiving(MAX_WAIT_TIMEOUT));
+            }
+
+            assertEquals(batchesCount, server.getService().snapshotBatches().size());
+            assertEquals("metric-2", server.getService().snapshotMetrics().get(2).getName());
+            assertEquals(1, server.getAcceptedConnectionsCount());
+        }
+    }
+
+    @Test
+    public void testFramesAreReportedWrittenOnceWrittenOut() throws TException, InterruptedException {
+        int batchesCount = 3;
+
+        RecordingFrameListener listener = new RecordingFrameListener();
+
+        try (MockM3FramedTcpServer server = new MockM3FramedTcpServer(batchesCount)) {
+            try (TFramedTcpClient client = new TFramedTcpClient(server.getSocketAddress())) {
+                client.setFrameListener(listener);
+                client.open();
+
+                M3.Client m3Client = new M3.Client(new TCompactProtocol(client));
+
+                for (int i = 0; i < batchesCount; ++i) {
+                    m3Client.emitMetricBatch(
+                            new MetricBatch().setMetrics(Collections.singletonList(new Metric("metric-" + i)))
+                    );
+                }
+
+                // Frames are only pipelined so far
+                assertEquals(0, listener.writtenFramesCount);
+
+                client.drain();
+
+                assertEquals(batchesCount, listener.writtenFramesCount);
+                assertTrue(listener.undeliveredFrames.isEmpty());
+
+                assertTrue(server.awaitReceiving(MAX_WAIT_TIMEOUT));
+            }
+        }
+    }
+
+    @Test
+    public void testFramesExceedingPipeliningBuffer() throws TException, InterruptedException {
+        int batchesCount = 100;
+
+        try (MockM3FramedTcpServer server = new MockM3FramedTcpServer(batchesCount)) {
+            try (TFramedTcpClient client = new TFramedTcpClient(server.getSocketAddress(), 512, 100, 1_000)) {
+                client.open();
+
+                M3.Client m3Client = new M3.Client(new TCompactProtocol(client));
+
+                for (int i = 0; i < batchesCount; ++i) {
+                    m3Client.emitMetricBatch(
+                            new MetricBatch().setMetrics(Collections.singletonList(new Metric("metric-" + i)))
+                    );
+                }
+
+                // NOTE: Most of the frames have been written out already once the buffer got full
+                client.drain();
+
+                assertTrue(server.awaitReceiving(MAX_WAIT_TIMEOUT));
+                assertEquals(0, client.getDroppedFramesCount());
+            }
+
+            assertEquals(batchesCount, server.getService().snapshotMetrics().size());
+        }
+    }
+
+    @Test
+    public void testWritingTooLargeFrame() throws TTransportException {
+        try (MockM3FramedTcpServer server = new MockM3FramedTcpServer(0)) {
+            try (TFramedTcpClient client = new TFramedTcpClient(server.getSocketAddress(), 16, 100, 1_000)) {
+                client.open();
+
+                client.write(new byte[10]);
+
+                try {
+                    client.write(new byte[10]);
+                    fail();
+                } catch (TTransportException e) {
+                    // expected
+                }
+
+                // Subsequent frames should not be affected
+                client.write(new byte[16]);
+                client.flush();
+                client.drain();
+            }
+        }
+    }
+
+    @Test
+    public void testFramesPipelinedWhenConnectionBreaksAreHandedOver() throws TException, InterruptedException {
+        int batchesCount = 3;
+
+        RecordingFrameListener listener = new RecordingFrameListener();
+
+        MockM3FramedTcpServer server = new MockM3FramedTcpServer(batchesCount);
+
+        try (TFramedTcpClient client = new TFramedTcpClient(server.getSocketAddress(), 1024, 60_000, 60_000)) {
+            client.setFrameListener(listener);
+
+            client.open();
+
+            for (int i = 0; i < batchesCount; ++i) {
+                client.write(("frame-" + i).getBytes(StandardCharsets.UTF_8));
+                client.flush();
+            }
+
+            // NOTE: Connection is only closed by the server once it's been accepted
+            long deadlineNanos = System.nanoTime() + MAX_WAIT_TIMEOUT.toNanos();
+            while (server.getAcceptedConnectionsCount() == 0) {
+                assertTrue(System.nanoTime() < deadlineNanos);
+                Thread.yield();
+            }
+
+            // Connection breaks while frames are still pipelined
+            server.close();
+
+            // NOTE: Connection being closed is only detected once the peer's FIN has arrived
+            Thread.sleep(100);
+
+            try {
+                client.drain();
+                fail();
+            } catch (TTransportException e) {
+                // expected
+            }
+
+            assertEquals(Arrays.asList("frame-0", "frame-1", "frame-2"), listener.undeliveredFrames);
+            assertEquals(0, listener.writtenFramesCount);
+            assertEquals(0, client.getDroppedFramesCount());
+            assertFalse(client.isConnected());
+        }
+    }
+
+    @Test
+    public void testReconnectionBackoff() throws IOException, TTransportException {
+        InetSocketAddress address = unusedSocketAddress();
+
+        try (TFramedTcpClient client = new TFramedTcpClient(address, 1024, 60_000, 60_000)) {
+            try {
+                client.open();
+                fail();
+            } catch (TTransportException e) {
+                // expected
+            }
+
+            assertTrue(client.isOpen());
+            assertFalse(client.isConnected());
+
+            // Should not re-attempt connecting until backoff elapses
+            assertFalse(client.tryConnect());
+
+            client.write(new byte[8]);
+            client.flush();
+
+            try {
+                client.drain();
+                fail();
+            } catch (TTransportException e) {
+                // expected
+            }
+
+            assertEquals(1, client.getDroppedFramesCount());
+        }
+    }
+
+    @Test
+    public void testConnectionIsCompletedBySubsequentAttempts() throws InterruptedException {
+        try (MockM3FramedTcpServer server = new MockM3FramedTcpServer(0)) {
+            try (TFramedTcpClient client = new TFramedTcpClient(server.getSocketAddress())) {
+                long deadlineNanos = System.nanoTime() + MAX_WAIT_TIMEOUT.toNanos();
+
+                while (!client.tryConnect()) {
+                    assertTrue(System.nanoTime() < deadlineNanos);
+                    Thread.sleep(1);
+                }
+
+                assertTrue(client.isConnected());
+            }
+        }
+    }
+
+    @Test
+    public void testConnectingDoesNotBlock() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            List<Socket> fillers = new ArrayList<>();
+
+            try {
+                // Server never accepting connections drops connection attempts once its backlog is full
+                while (true) {
+                    Socket filler = new Socket();
+                    fillers.add(filler);
+
+                    try {
+                        filler.connect(server.getLocalSocketAddress(), 200);
+                    } catch (SocketTimeoutException e) {
+                        break;
+                    }
+                }
+
+                try (TFramedTcpClient client = new TFramedTcpClient(server.getLocalSocketAddress(), 1024, 60_000, 60_000)) {
+                    long startNanos = System.nanoTime();
+
+                    assertFalse(client.tryConnect());
+                    assertFalse(client.tryConnect());
+
+                    // NOTE: Connecting times out after a second
+                    assertTrue(System.nanoTime() - startNanos < TimeUnit.MILLISECONDS.toNanos(500));
+                    assertFalse(client.isConnected());
+                }
+            } finally {
+                for (Socket filler : fillers) {
+                    filler.close();
+                }
+            }
+        }
+    }
+
+    static InetSocketAddress unusedSocketAddress() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return (InetSocketAddress) socket.getLocalSocketAddress();
+        }
+    }
+
+    private static final class RecordingFrameListener implements TFramedTcpClient.FrameListener {
+        private final List<String> undeliveredFrames = new ArrayList<>();
+        private int writtenFramesCount;
+
+        @Override
+        public void onFrameWritten(int payloadSize) {
+            ++writtenFramesCount;
+        }
+
+        @Override
+        public boolean onFrameUndelivered(ByteBuffer payload) {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+
+            return undeliveredFrames.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+}
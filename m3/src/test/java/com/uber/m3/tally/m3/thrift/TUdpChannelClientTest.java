@@ -0,0 +1,225 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3.thrift;
+
+import org.apache.commons.codec.Charsets;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TUdpChannelClientTest {
+
+    private static final long RECEIVE_TIMEOUT_MILLIS = 10_000;
+
+    private DatagramChannel[] receivers;
+
+    @Before
+    public void setup() throws IOException {
+        receivers = new DatagramChannel[2];
+
+        for (int i = 0; i < receivers.length; ++i) {
+            receivers[i] = DatagramChannel.open();
+            receivers[i].bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            receivers[i].configureBlocking(false);
+        }
+    }
+
+    @After
+    public void teardown() throws IOException {
+        for (DatagramChannel receiver : receivers) {
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testWritingAfterFlushingSequence() throws TTransportException, IOException {
+        TUdpChannelOptions options =
+                new TUdpChannelOptions.Builder()
+                        .blocking(false)
+                        .sendBufferSizeBytes(1 << 16)
+                        .build();
+
+        try (TUdpChannelClient client = new TUdpChannelClient(receivers[0].getLocalAddress(), options)) {
+            client.open();
+
+            assertTrue(client.isOpen());
+
+            for (String payload : new String[] {"0xDEEDDEED", "0xABBAABBA"}) {
+                client.write(payload.getBytes(Charsets.US_ASCII));
+                client.flush();
+
+                assertEquals(payload, receive(receivers[0]));
+            }
+
+            assertEquals(0, client.getDroppedPacketsCount());
+        }
+    }
+
+    @Test
+    public void testMultiClientSendsSamePayloadToEveryEndpoint() throws TTransportException, IOException {
+        SocketAddress[] addresses = new SocketAddress[] {
+                receivers[0].getLocalAddress(),
+                receivers[1].getLocalAddress()
+        };
+
+        try (TMultiUdpClient client = new TMultiUdpClient(addresses, TUdpChannelOptions.defaults())) {
+            client.open();
+
+            for (String payload : new String[] {"0xDEEDDEED", "0xABBAABBA"}) {
+                client.write(payload.getBytes(Charsets.US_ASCII));
+                client.flush();
+
+                for (DatagramChannel receiver : receivers) {
+                    assertEquals(payload, receive(receiver));
+                }
+            }
+
+            assertEquals(0, client.getDroppedPacketsCount());
+        }
+    }
+
+    @Test(expected = TTransportException.class)
+    public void testWritingTooLargePayload() throws TTransportException, IOException {
+        try (TUdpChannelClient client = new TUdpChannelClient(receivers[0].getLocalAddress())) {
+            client.open();
+            client.write(new byte[TUdpTransport.PACKET_DATA_PAYLOAD_MAX_SIZE + 1]);
+        }
+    }
+
+    @Test(expected = TTransportException.class)
+    public void testWritingBeforeOpening() throws TTransportException, IOException {
+        TUdpChannelClient client = new TUdpChannelClient(receivers[0].getLocalAddress());
+
+        assertFalse(client.isOpen());
+
+        client.write(new byte[1]);
+    }
+
+    @Test
+    public void testDropPolicyDropsPacketRightAway() throws TTransportException, IOException {
+        TUdpChannelOptions options =
+                new TUdpChannelOptions.Builder()
+                        .blocking(false)
+                        .sendBufferFullPolicy(TUdpChannelOptions.SendBufferFullPolicy.DROP)
+                        .build();
+
+        try (SendBufferFullChannelClient client = new SendBufferFullChannelClient(receivers[0].getLocalAddress(), options, 1)) {
+            List<Integer> droppedPayloadSizes = new ArrayList<>();
+            client.setPacketListener(droppedPayloadSizes::add);
+
+            client.open();
+
+            client.write("0xDEEDDEED".getBytes(Charsets.US_ASCII));
+            client.flush();
+
+            assertEquals(1, client.getAttempts());
+            assertEquals(1, client.getDroppedPacketsCount());
+
+            // Dropped packet is reported to the listener
+            assertEquals(Collections.singletonList(10), droppedPayloadSizes);
+
+            // Following packets are sent, once there's room in the send buffer
+            client.write("0xABBAABBA".getBytes(Charsets.US_ASCII));
+            client.flush();
+
+            assertEquals("0xABBAABBA", receive(receivers[0]));
+            assertEquals(1, client.getDroppedPacketsCount());
+        }
+    }
+
+    @Test
+    public void testSpinPolicyRetriesSending() throws TTransportException, IOException {
+        TUdpChannelOptions options =
+                new TUdpChannelOptions.Builder()
+                        .blocking(false)
+                        .sendBufferFullPolicy(TUdpChannelOptions.SendBufferFullPolicy.SPIN)
+                        .maxSpinAttempts(3)
+                        .build();
+
+        try (SendBufferFullChannelClient client = new SendBufferFullChannelClient(receivers[0].getLocalAddress(), options, 2)) {
+            client.open();
+
+            client.write("0xDEEDDEED".getBytes(Charsets.US_ASCII));
+            client.flush();
+
+            assertEquals(3, client.getAttempts());
+            assertEquals("0xDEEDDEED", receive(receivers[0]));
+            assertEquals(0, client.getDroppedPacketsCount());
+        }
+    }
+
+    @Test
+    public void testSpinPolicyDropsPacketOnceAttemptsAreExhausted() throws TTransportException, IOException {
+        TUdpChannelOptions options =
+                new TUdpChannelOptions.Builder()
+                        .blocking(false)
+                        .sendBufferFullPolicy(TUdpChannelOptions.SendBufferFullPolicy.SPIN)
+                        .maxSpinAttempts(3)
+                        .build();
+
+        try (SendBufferFullChannelClient client = new SendBufferFullChannelClient(receivers[0].getLocalAddress(), options, 5)) {
+            client.open();
+
+            client.write("0xDEEDDEED".getBytes(Charsets.US_ASCII));
+            client.flush();
+
+            assertEquals(3, client.getAttempts());
+            assertEquals(1, client.getDroppedPacketsCount());
+        }
+    }
+
+    private static String receive(DatagramChannel receiver) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(TUdpTransport.PACKET_DATA_PAYLOAD_MAX_SIZE);
+
+        // NOTE: Socket timeout doesn't apply to the channel, therefore receiver is polled
+        //       with the selector instead, for the lost packet to fail the test rather than hang it
+        try (Selector selector = Selector.open()) {
+            receiver.register(selector, SelectionKey.OP_READ);
+
+            if (selector.select(RECEIVE_TIMEOUT_MILLIS) == 0) {
+                throw new AssertionError("Timed out awaiting the packet");
+            }
+
+            receiver.receive(buffer);
+        }
+
+        buffer.flip();
+
+        return Charsets.US_ASCII.decode(buffer).toString();
+    }
+}
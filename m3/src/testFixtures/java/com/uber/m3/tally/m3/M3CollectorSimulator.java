@@ -0,0 +1,321 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.tally.m3.thrift.TUdpTransport;
+import com.uber.m3.thrift.gen.M3;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricBatch;
+import com.uber.m3.thrift.gen.MetricTag;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Embedded M3 collector simulator, receiving and decoding {@link MetricBatch}es sent
+ * by the {@link M3Reporter} over UDP, accounting for the throughput observed.
+ * <p>
+ * Contrary to the {@link MockM3Server}, received metrics are not retained: every packet is decoded
+ * (to validate it) and only accounted for, allowing simulator to keep up with the reporter at line rate
+ * for the duration of the benchmark, or the soak-test (see {@link M3SoakRunner}).
+ * <p>
+ * Loss is detected through sequence tagging: metrics tagged with {@link #SEQUENCE_TAG} are expected to
+ * carry sequence numbers assigned consecutively starting from 0, every number below the highest one
+ * received that has not been received itself is considered lost.
+ */
+public class M3CollectorSimulator implements AutoCloseable {
+
+    /**
+     * Name of the tag carrying metric's sequence number
+     */
+    public static final String SEQUENCE_TAG = "m3_collector_seq";
+
+    private static final Logger LOG = LoggerFactory.getLogger(M3CollectorSimulator.class);
+
+    private static final String EMIT_METRIC_BATCH_METHOD = "emitMetricBatch";
+
+    // NOTE: Receive buffer is sized to absorb bursts while the receiving thread is decoding
+    private static final int RECEIVE_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    private static final long MAX_RECEIVING_THREAD_WAIT_MILLIS = 5_000;
+
+    private static final long AWAIT_POLLING_INTERVAL_MILLIS = 10;
+
+    private final DatagramSocket socket;
+
+    private final Thread receivingThread;
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder metrics = new LongAdder();
+    private final LongAdder decodeErrors = new LongAdder();
+    private final LongAccumulator maxPacketBytes = new LongAccumulator(Math::max, 0);
+
+    // NOTE: Sequence accounting is guarded by the lock of the simulator itself
+    private final BitSet sequences = new BitSet();
+    private long sequenced = 0;
+    private long duplicates = 0;
+
+    private volatile long startNanos;
+
+    private volatile Consumer<MetricBatch> batchListener;
+
+    /**
+     * Creates simulator bound to the provided address, immediately starting to receive packets
+     *
+     * @param address address to bind simulator to, use port 0 to bind to an ephemeral one
+     * @throws SocketException in case simulator's socket could not be bound
+     */
+    public M3CollectorSimulator(SocketAddress address) throws SocketException {
+        socket = new DatagramSocket(null);
+        socket.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+        socket.bind(address);
+
+        startNanos = System.nanoTime();
+
+        receivingThread = new Thread(this::receive, "m3-collector-simulator");
+        receivingThread.setDaemon(true);
+        receivingThread.start();
+
+        LOG.info("Started M3 collector simulator at {}", socket.getLocalSocketAddress());
+    }
+
+    /**
+     * Creates simulator bound to an ephemeral port on the loopback interface
+     */
+    public static M3CollectorSimulator onLoopback() throws SocketException {
+        return new M3CollectorSimulator(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    /**
+     * Returns address the simulator is bound to (to be supplied to the reporter)
+     */
+    public SocketAddress getAddress() {
+        return socket.getLocalSocketAddress();
+    }
+
+    /**
+     * Sets listener to be notified of every batch decoded (on the receiving thread),
+     * for ex, to retain batches for inspection
+     */
+    public void setBatchListener(@Nullable Consumer<MetricBatch> batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    /**
+     * Returns snapshot of the stats accounted for since the simulator was started (or last reset)
+     */
+    public M3CollectorStats snapshot() {
+        long highestSequence;
+        long receivedSequences;
+        long duplicatesSnapshot;
+        long sequencedSnapshot;
+
+        synchronized (this) {
+            highestSequence = sequences.length() - 1;
+            receivedSequences = sequences.cardinality();
+            duplicatesSnapshot = duplicates;
+            sequencedSnapshot = sequenced;
+        }
+
+        return new M3CollectorStats(
+                packets.sum(),
+                bytes.sum(),
+                maxPacketBytes.get(),
+                batches.sum(),
+                metrics.sum(),
+                decodeErrors.sum(),
+                sequencedSnapshot,
+                highestSequence + 1 - receivedSequences,
+                duplicatesSnapshot,
+                System.nanoTime() - startNanos
+        );
+    }
+
+    /**
+     * Resets the stats (for ex, in between benchmark iterations)
+     * <p>
+     * NOTE: Sequence numbers are expected to be restarted from 0 after the reset
+     */
+    public void reset() {
+        synchronized (this) {
+            sequences.clear();
+            sequenced = 0;
+            duplicates = 0;
+        }
+
+        packets.reset();
+        bytes.reset();
+        maxPacketBytes.reset();
+        batches.reset();
+        metrics.reset();
+        decodeErrors.reset();
+
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Awaits until at least the specified number of metrics have been received
+     *
+     * @return true if the metrics have been received, false if the timeout elapsed
+     */
+    public boolean awaitMetrics(long count, Duration timeout) throws InterruptedException {
+        long deadlineNanos = System.nanoTime() + timeout.toNanos();
+
+        while (metrics.sum() < count) {
+            if (System.nanoTime() - deadlineNanos >= 0) {
+                return false;
+            }
+
+            TimeUnit.MILLISECONDS.sleep(AWAIT_POLLING_INTERVAL_MILLIS);
+        }
+
+        return true;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+
+        try {
+            receivingThread.join(MAX_RECEIVING_THREAD_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        LOG.info("Closed M3 collector simulator");
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[TUdpTransport.PACKET_DATA_PAYLOAD_MAX_SIZE];
+
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        TMemoryInputTransport transport = new TMemoryInputTransport();
+        TProtocol protocol = new TCompactProtocol(transport);
+
+        M3.emitMetricBatch_args args = new M3.emitMetricBatch_args();
+
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    LOG.warn("Failed to receive packet", e);
+                }
+                continue;
+            }
+
+            packets.increment();
+            bytes.add(packet.getLength());
+            maxPacketBytes.accumulate(packet.getLength());
+
+            transport.reset(buffer, 0, packet.getLength());
+
+            try {
+                TMessage message = protocol.readMessageBegin();
+                if (!EMIT_METRIC_BATCH_METHOD.equals(message.name)) {
+                    decodeErrors.increment();
+                    continue;
+                }
+
+                args.clear();
+                args.read(protocol);
+                protocol.readMessageEnd();
+            } catch (TException | RuntimeException e) {
+                decodeErrors.increment();
+                continue;
+            }
+
+            account(args.getBatch());
+        }
+    }
+
+    private void account(MetricBatch batch) {
+        Consumer<MetricBatch> listener = batchListener;
+        if (listener != null) {
+            listener.accept(batch);
+        }
+
+        batches.increment();
+
+        if (batch.getMetrics() == null) {
+            return;
+        }
+
+        metrics.add(batch.getMetricsSize());
+
+        for (Metric metric : batch.getMetrics()) {
+            long sequence = sequenceOf(metric);
+            if (sequence < 0) {
+                continue;
+            }
+
+            synchronized (this) {
+                ++sequenced;
+
+                if (sequences.get((int) sequence)) {
+                    ++duplicates;
+                } else {
+                    sequences.set((int) sequence);
+                }
+            }
+        }
+    }
+
+    private static long sequenceOf(Metric metric) {
+        if (metric.getTags() == null) {
+            return -1;
+        }
+
+        for (MetricTag tag : metric.getTags()) {
+            if (SEQUENCE_TAG.equals(tag.getTagName()) && tag.getTagValue() != null) {
+                try {
+                    long sequence = Long.parseLong(tag.getTagValue());
+                    return sequence <= Integer.MAX_VALUE ? sequence : -1;
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+
+        return -1;
+    }
+}
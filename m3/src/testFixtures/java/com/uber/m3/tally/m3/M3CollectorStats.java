@@ -0,0 +1,180 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of the throughput observed by the {@link M3CollectorSimulator}
+ */
+public final class M3CollectorStats {
+    private final long packets;
+    private final long bytes;
+    private final long maxPacketBytes;
+    private final long batches;
+    private final long metrics;
+    private final long decodeErrors;
+    private final long sequenced;
+    private final long lost;
+    private final long duplicates;
+    private final long elapsedNanos;
+
+    M3CollectorStats(
+            long packets,
+            long bytes,
+            long maxPacketBytes,
+            long batches,
+            long metrics,
+            long decodeErrors,
+            long sequenced,
+            long lost,
+            long duplicates,
+            long elapsedNanos
+    ) {
+        this.packets = packets;
+        this.bytes = bytes;
+        this.maxPacketBytes = maxPacketBytes;
+        this.batches = batches;
+        this.metrics = metrics;
+        this.decodeErrors = decodeErrors;
+        this.sequenced = sequenced;
+        this.lost = lost;
+        this.duplicates = duplicates;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns number of packets received
+     */
+    public long getPackets() {
+        return packets;
+    }
+
+    /**
+     * Returns number of bytes received (UDP payloads only)
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns size of the largest packet received (UDP payload only)
+     */
+    public long getMaxPacketBytes() {
+        return maxPacketBytes;
+    }
+
+    /**
+     * Returns number of batches successfully decoded
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Returns number of metrics successfully decoded
+     */
+    public long getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns number of packets that could not be decoded
+     */
+    public long getDecodeErrors() {
+        return decodeErrors;
+    }
+
+    /**
+     * Returns number of metrics received carrying sequence number
+     */
+    public long getSequenced() {
+        return sequenced;
+    }
+
+    /**
+     * Returns number of sequence numbers (below the highest one received) that have not been received
+     * <p>
+     * NOTE: Metrics still in flight at the moment of the snapshot are accounted as lost
+     */
+    public long getLost() {
+        return lost;
+    }
+
+    /**
+     * Returns number of metrics received carrying already received sequence number
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Returns time elapsed since the simulator was started (or reset) until the snapshot
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getPacketsPerSecond() {
+        return perSecond(packets);
+    }
+
+    public double getMetricsPerSecond() {
+        return perSecond(metrics);
+    }
+
+    public double getBytesPerSecond() {
+        return perSecond(bytes);
+    }
+
+    public double getMetricsPerPacket() {
+        return packets == 0 ? 0 : (double) metrics / packets;
+    }
+
+    /**
+     * Returns ratio of the sequence numbers lost to the total number of them expected
+     */
+    public double getLossRatio() {
+        long expected = sequenced - duplicates + lost;
+        return expected == 0 ? 0 : (double) lost / expected;
+    }
+
+    private double perSecond(long value) {
+        return elapsedNanos == 0 ? 0 : value * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "packets=%d (%.1f/s), metrics=%d (%.1f/s), bytes=%d (%.1f/s), metrics/packet=%.2f, "
+                        + "max packet=%dB, batches=%d, decode errors=%d, lost=%d (%.4f%%), duplicates=%d",
+                packets, getPacketsPerSecond(),
+                metrics, getMetricsPerSecond(),
+                bytes, getBytesPerSecond(),
+                getMetricsPerPacket(),
+                maxPacketBytes,
+                batches,
+                decodeErrors,
+                lost, getLossRatio() * 100,
+                duplicates
+        );
+    }
+}
@@ -0,0 +1,170 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.util.ImmutableMap;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Standalone soak-test, reporting sequenced counters through the {@link M3Reporter} into the
+ * {@link M3CollectorSimulator} for the specified duration, periodically printing the throughput observed.
+ * <p>
+ * Accepts following (optional) arguments:
+ * <ul>
+ *     <li>{@code --duration=<seconds>}: duration of the soak-test (60 by default)</li>
+ *     <li>{@code --threads=<count>}: number of reporting threads (1 by default)</li>
+ *     <li>{@code --rate=<metrics/s>}: target reporting rate across all threads, 0 being unbounded (default)</li>
+ *     <li>{@code --tags=<count>}: number of (extra) tags every metric is reported with (4 by default)</li>
+ *     <li>{@code --interval=<seconds>}: interval of printing intermediate stats (10 by default)</li>
+ *     <li>{@code --packing=<strategy>}: {@link PackingStrategy} of the reporter</li>
+ *     <li>{@code --mtu=<bytes>}: MTU of the reporter, if any</li>
+ *     <li>{@code --lanes=<capacity>}: capacity of the reporter's priority lanes, unbounded queue is used otherwise</li>
+ * </ul>
+ */
+public final class M3SoakRunner {
+
+    private static final String METRIC_NAME = "soak-counter";
+
+    // Pacing is applied in bursts, to avoid checking the clock for every metric reported
+    private static final int PACING_BURST_SIZE = 64;
+
+    private static final Duration MAX_DRAIN_WAIT = Duration.ofSeconds(10);
+
+    private M3SoakRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration", "60"));
+        int threadsCount = Integer.parseInt(options.getOrDefault("threads", "1"));
+        long rate = Long.parseLong(options.getOrDefault("rate", "0"));
+        int tagsCount = Integer.parseInt(options.getOrDefault("tags", "4"));
+        long intervalSeconds = Long.parseLong(options.getOrDefault("interval", "10"));
+
+        try (M3CollectorSimulator simulator = M3CollectorSimulator.onLoopback()) {
+            M3Reporter.Builder builder = new M3Reporter.Builder(simulator.getAddress())
+                    .service("soak-test")
+                    .env("test");
+
+            if (options.containsKey("packing")) {
+                builder.packingStrategy(PackingStrategy.valueOf(options.get("packing")));
+            }
+
+            if (options.containsKey("mtu")) {
+                builder.mtu(Integer.parseInt(options.get("mtu")));
+            }
+
+            if (options.containsKey("lanes")) {
+                builder.priorityLanes(Integer.parseInt(options.get("lanes")));
+            }
+
+            M3Reporter reporter = builder.build();
+
+            AtomicLong sequence = new AtomicLong();
+
+            long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+            Thread[] threads = new Thread[threadsCount];
+            long threadRate = rate / threadsCount;
+
+            for (int i = 0; i < threadsCount; ++i) {
+                Runnable reporting = () -> report(reporter, sequence, tagsCount, threadRate, deadlineNanos);
+
+                threads[i] = new Thread(reporting, "soak-reporter-" + i);
+                threads[i].start();
+            }
+
+            while (System.nanoTime() - deadlineNanos < 0) {
+                TimeUnit.SECONDS.sleep(Math.min(intervalSeconds, remainingSeconds(deadlineNanos)));
+                System.out.println("[soak] reported=" + sequence.get() + ", " + simulator.snapshot());
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            reporter.close();
+
+            // Allow packets in flight to be received
+            simulator.awaitMetrics(sequence.get(), MAX_DRAIN_WAIT);
+
+            M3CollectorStats stats = simulator.snapshot();
+
+            System.out.println("[soak] done: reported=" + sequence.get() + ", " + stats);
+            System.out.println("[soak] packet fill ratio=" + reporter.getPacketFillStats().getFillRatio());
+        }
+    }
+
+    private static void report(M3Reporter reporter, AtomicLong sequence, int tagsCount, long rate, long deadlineNanos) {
+        Map<String, String> baseTags = new HashMap<>();
+        for (int i = 0; i < tagsCount; ++i) {
+            baseTags.put("tag" + i, "value" + i);
+        }
+
+        long startNanos = System.nanoTime();
+        long reported = 0;
+
+        while (System.nanoTime() - deadlineNanos < 0) {
+            for (int i = 0; i < PACING_BURST_SIZE; ++i) {
+                ImmutableMap<String, String> tags = new ImmutableMap.Builder<String, String>(tagsCount + 1)
+                        .putAll(baseTags)
+                        .put(M3CollectorSimulator.SEQUENCE_TAG, Long.toString(sequence.getAndIncrement()))
+                        .build();
+
+                reporter.reportCounter(METRIC_NAME, tags, 1);
+            }
+
+            reported += PACING_BURST_SIZE;
+
+            if (rate > 0) {
+                long aheadNanos = startNanos + reported * TimeUnit.SECONDS.toNanos(1) / rate - System.nanoTime();
+                if (aheadNanos > 0) {
+                    LockSupport.parkNanos(aheadNanos);
+                }
+            }
+        }
+    }
+
+    private static long remainingSeconds(long deadlineNanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(deadlineNanos - System.nanoTime()));
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected arguments in the form of --<name>=<value>, got: " + arg);
+            }
+
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        return options;
+    }
+}
@@ -0,0 +1,62 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.m3;
+
+import com.uber.m3.thrift.gen.CountValue;
+import com.uber.m3.thrift.gen.GaugeValue;
+import com.uber.m3.thrift.gen.Metric;
+import com.uber.m3.thrift.gen.MetricTag;
+import com.uber.m3.thrift.gen.MetricValue;
+import com.uber.m3.thrift.gen.TimerValue;
+import com.uber.m3.util.Duration;
+import com.uber.m3.util.ListSet;
+
+import java.util.Set;
+
+/**
+ * Factories for the thrift {@link Metric}s used by the M3 reporter and relay tests,
+ * with tags given as alternating name and value pairs.
+ */
+public final class TestMetrics {
+    private TestMetrics() {
+    }
+
+    public static Metric counter(String name, long value, String... tags) {
+        return metric(name, tags).setMetricValue(new MetricValue().setCount(new CountValue().setI64Value(value)));
+    }
+
+    public static Metric gauge(String name, double value, String... tags) {
+        return metric(name, tags).setMetricValue(new MetricValue().setGauge(new GaugeValue().setDValue(value)));
+    }
+
+    public static Metric timer(String name, Duration value, String... tags) {
+        return metric(name, tags).setMetricValue(new MetricValue().setTimer(new TimerValue().setI64Value(value.getNanos())));
+    }
+
+    public static Metric metric(String name, String... tags) {
+        Set<MetricTag> tagSet = new ListSet<>();
+        for (int i = 0; i < tags.length; i += 2) {
+            tagSet.add(new MetricTag(tags[i]).setTagValue(tags[i + 1]));
+        }
+
+        return new Metric(name).setTags(tagSet);
+    }
+}
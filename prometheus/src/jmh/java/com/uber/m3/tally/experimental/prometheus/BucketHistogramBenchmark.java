@@ -0,0 +1,107 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.tally.ValueBuckets;
+import com.uber.m3.util.Duration;
+import com.uber.m3.util.ImmutableMap;
+import io.prometheus.client.CollectorRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reporting of the histogram samples, cost of which should not depend
+ * on the number of samples reported for the bucket.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-server", "-XX:+UseG1GC"})
+@State(Scope.Benchmark)
+public class BucketHistogramBenchmark {
+    private static final ImmutableMap<String, String> TAGS = ImmutableMap.of("env", "test");
+
+    private static final ValueBuckets VALUE_BUCKETS = ValueBuckets.linear(0.1, 100d, 128);
+
+    private static final DurationBuckets DURATION_BUCKETS =
+            DurationBuckets.linear(Duration.ofMillis(1), Duration.ofMillis(10), 128);
+
+    @Param({"1", "1000", "1000000"})
+    public long samples;
+
+    private PrometheusReporter reporter;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        reporter = PrometheusReporter.builder()
+                .registry(new CollectorRegistry(true))
+                .build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void teardown() {
+        reporter.close();
+    }
+
+    @Benchmark
+    public void reportHistogramSamples() {
+        reporter.reportHistogramSamples("histogram", TAGS, VALUE_BUCKETS, 10, samples);
+    }
+
+    @Benchmark
+    public void reportHistogramValueSamples() {
+        reporter.reportHistogramValueSamples(
+                "histogram_value",
+                TAGS,
+                VALUE_BUCKETS,
+                VALUE_BUCKETS.getValueLowerBoundFor(10),
+                VALUE_BUCKETS.getValueUpperBoundFor(10),
+                samples
+        );
+    }
+
+    @Benchmark
+    public void reportHistogramDurationSamples() {
+        reporter.reportHistogramDurationSamples(
+                "histogram_duration",
+                TAGS,
+                DURATION_BUCKETS,
+                DURATION_BUCKETS.getDurationLowerBoundFor(10),
+                DURATION_BUCKETS.getDurationUpperBoundFor(10),
+                samples
+        );
+    }
+}
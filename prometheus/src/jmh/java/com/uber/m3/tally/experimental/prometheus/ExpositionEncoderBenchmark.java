@@ -0,0 +1,131 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.NullStatsReporter;
+import com.uber.m3.tally.RootScopeBuilder;
+import com.uber.m3.tally.ScopeCloseException;
+import com.uber.m3.tally.ValueBuckets;
+import com.uber.m3.util.Duration;
+import com.uber.m3.util.ImmutableMap;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks encoding of the tally scope by {@link ExpositionEncoder}, compared to
+ * {@link PrometheusCollector} combined with simpleclient's {@link TextFormat}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-server", "-XX:+UseG1GC"})
+@State(Scope.Benchmark)
+public class ExpositionEncoderBenchmark {
+
+    private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Param({"1000", "100000"})
+    public int series;
+
+    private com.uber.m3.tally.Scope scope;
+
+    private ExpositionEncoder encoder;
+
+    private CollectorRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        scope = new RootScopeBuilder()
+                .reporter(new NullStatsReporter())
+                .reportEvery(Duration.ofSeconds(60));
+
+        ValueBuckets buckets = ValueBuckets.linear(0, 10, 10);
+
+        // Every tenth series is a histogram, the rest are split between counters and gauges
+        for (int i = 0; i < series; ++i) {
+            com.uber.m3.tally.Scope tagged = scope.tagged(ImmutableMap.of("instance", String.valueOf(i / 10)));
+
+            if (i % 10 == 0) {
+                tagged.histogram("histogram", buckets).recordValue(i % 100);
+            } else if (i % 2 == 0) {
+                tagged.counter(String.format("counter_%d", i % 10)).inc(i);
+            } else {
+                tagged.gauge(String.format("gauge_%d", i % 10)).update(i);
+            }
+        }
+
+        encoder = new ExpositionEncoder(scope);
+
+        registry = new CollectorRegistry(true);
+        new PrometheusCollector(scope).register(registry);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws ScopeCloseException {
+        scope.close();
+    }
+
+    @Benchmark
+    public void encodeText() throws IOException {
+        encoder.encode(NULL_OUTPUT_STREAM, ExpositionEncoder.Format.PROMETHEUS_TEXT);
+    }
+
+    @Benchmark
+    public void encodeOpenMetrics() throws IOException {
+        encoder.encode(NULL_OUTPUT_STREAM, ExpositionEncoder.Format.OPENMETRICS);
+    }
+
+    @Benchmark
+    public void collectAndWriteText() throws IOException {
+        Writer writer = new OutputStreamWriter(NULL_OUTPUT_STREAM, StandardCharsets.UTF_8);
+        TextFormat.write004(writer, registry.metricFamilySamples());
+        writer.flush();
+    }
+}
@@ -0,0 +1,123 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.util.Duration;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Benchmarks scrape latency of the {@link PrometheusHttpServer}, with the payload
+ * either rendered on every scrape or cached.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-server", "-XX:+UseG1GC", "-Xmx4g", "-Dsun.net.httpserver.nodelay=true"})
+@State(Scope.Benchmark)
+public class PrometheusHttpServerBenchmark {
+
+    @Param({"1000", "1000000"})
+    public int series;
+
+    @Param({"0", "1000"})
+    public long cacheTtlMillis;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private PrometheusHttpServer server;
+
+    private URL url;
+
+    private final byte[] readBuffer = new byte[64 * 1024];
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        CollectorRegistry registry = new CollectorRegistry(true);
+
+        Gauge gauge = Gauge.build()
+                .name("gauge")
+                .help("gauge")
+                .labelNames("env", "instance")
+                .register(registry);
+
+        for (int i = 0; i < series; ++i) {
+            gauge.labels("test", String.valueOf(i)).set(i);
+        }
+
+        server = PrometheusHttpServer.builder()
+                .address(new InetSocketAddress("localhost", 0))
+                .registry(registry)
+                .cacheTtl(Duration.ofMillis(cacheTtlMillis))
+                .build();
+
+        url = new URL("http", "localhost", server.getAddress().getPort(), PrometheusHttpServer.METRICS_PATH);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        server.close();
+    }
+
+    @Benchmark
+    public long scrape() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (gzip) {
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+        }
+
+        long total = 0;
+
+        try (InputStream stream = gzip
+                ? new GZIPInputStream(connection.getInputStream())
+                : connection.getInputStream()) {
+            int read;
+            while ((read = stream.read(readBuffer)) >= 0) {
+                total += read;
+            }
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,99 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Summary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks throughput of the observations of the {@link SketchSummary}, compared to the
+ * {@link Summary} (configured the way {@link PrometheusReporter} does by default), under multithreaded load.
+ * <p>
+ * NOTE: Number of threads could be overridden with {@code -t}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-server", "-XX:+UseG1GC"})
+@Threads(4)
+@State(Scope.Benchmark)
+public class SketchSummaryBenchmark {
+
+    private Summary.Child summary;
+
+    private SketchSummary.Child sketchSummary;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        CollectorRegistry registry = new CollectorRegistry(true);
+
+        summary = Summary.build("summary", "help")
+                .quantile(0.5, 0.01)
+                .quantile(0.75, 0.001)
+                .quantile(0.95, 0.001)
+                .quantile(0.99, 0.001)
+                .quantile(0.999, 0.0001)
+                .ageBuckets(5)
+                .maxAgeSeconds(TimeUnit.MINUTES.toSeconds(10))
+                .labelNames("foo")
+                .register(registry)
+                .labels("bar");
+
+        sketchSummary = SketchSummary.build("sketch_summary", "help")
+                .quantiles(0.5, 0.75, 0.95, 0.99, 0.999)
+                .ageBuckets(5)
+                .maxAgeSeconds(TimeUnit.MINUTES.toSeconds(10))
+                .labelNames("foo")
+                .register(registry)
+                .labels("bar");
+    }
+
+    @Benchmark
+    public void observeSummary() {
+        summary.observe(latency());
+    }
+
+    @Benchmark
+    public void observeSketchSummary() {
+        sketchSummary.observe(latency());
+    }
+
+    private static double latency() {
+        // Roughly log-normal latencies, centered around 10ms
+        return 0.01 * Math.exp(ThreadLocalRandom.current().nextGaussian());
+    }
+}
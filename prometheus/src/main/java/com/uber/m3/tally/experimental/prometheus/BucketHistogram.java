@@ -0,0 +1,351 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prometheus histogram accepting bucket-count deltas directly, rather than individual observations.
+ * <p>
+ * Unlike {@link io.prometheus.client.Histogram}, samples already aggregated into the buckets
+ * (like the ones of tally {@link com.uber.m3.tally.Histogram}) are accounted for in constant time,
+ * irrespective of their number.
+ * <p>
+ * Since the individual observations are not known, {@code _sum} is estimated by accounting every sample
+ * at the midpoint of its bucket (or at its finite bound, for the first and the last, unbounded ones).
+ */
+public class BucketHistogram extends Collector implements Collector.Describable {
+
+    static final String BUCKET_LABEL_NAME = "le";
+
+    private final String fullname;
+    private final String help;
+    private final List<String> labelNames;
+
+    private final double[] upperBounds;
+
+    // Values samples of the bucket are accounted at, in the estimate of the sum
+    private final double[] midpoints;
+
+    private final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<>();
+
+    // NOTE: {@link io.prometheus.client.SimpleCollector} is not extended, since it creates
+    //       the child without labels before the bucket layout of the subclass is initialized
+    private BucketHistogram(Builder builder) {
+        fullname = builder.name;
+        help = builder.help;
+        labelNames = Collections.unmodifiableList(Arrays.asList(builder.labelNames));
+
+        checkMetricName(fullname);
+
+        for (String labelName : labelNames) {
+            checkMetricLabelName(labelName);
+        }
+
+        if (labelNames.contains(BUCKET_LABEL_NAME)) {
+            throw new IllegalStateException("Histogram cannot have a label named 'le'");
+        }
+
+        upperBounds = builder.upperBounds;
+        midpoints = midpoints(upperBounds);
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    public static Builder build(String name, String help) {
+        return new Builder().name(name).help(help);
+    }
+
+    /**
+     * Returns provided upper bounds of the buckets, with {@code +Inf} appended (unless already present)
+     */
+    static double[] withInfiniteBound(double[] upperBounds) {
+        if (upperBounds.length > 0 && Double.isInfinite(upperBounds[upperBounds.length - 1])) {
+            return upperBounds.clone();
+        }
+
+        double[] bounds = Arrays.copyOf(upperBounds, upperBounds.length + 1);
+        bounds[upperBounds.length] = Double.POSITIVE_INFINITY;
+        return bounds;
+    }
+
+    /**
+     * Returns values samples of the buckets are accounted at, in the estimate of the sum
+     */
+    static double[] midpoints(double[] upperBounds) {
+        double[] midpoints = new double[upperBounds.length];
+
+        for (int i = 0; i < upperBounds.length; ++i) {
+            double upper = upperBounds[i];
+
+            if (i == 0) {
+                midpoints[i] = upper;
+            } else if (Double.isInfinite(upper)) {
+                midpoints[i] = upperBounds[i - 1];
+            } else {
+                midpoints[i] = upperBounds[i - 1] + (upper - upperBounds[i - 1]) / 2;
+            }
+        }
+
+        return midpoints;
+    }
+
+    /**
+     * Returns the child of this histogram with the provided label values, creating it if necessary
+     */
+    public Child labels(String... labelValues) {
+        if (labelValues.length != labelNames.size()) {
+            throw new IllegalArgumentException("Incorrect number of labels");
+        }
+
+        for (String labelValue : labelValues) {
+            if (labelValue == null) {
+                throw new IllegalArgumentException("Label cannot be null");
+            }
+        }
+
+        return children.computeIfAbsent(Arrays.asList(labelValues), key -> new Child(upperBounds, midpoints));
+    }
+
+    /**
+     * Removes the child of this histogram with the provided label values
+     */
+    public void remove(String... labelValues) {
+        children.remove(Arrays.asList(labelValues));
+    }
+
+    /**
+     * Removes all of the children of this histogram
+     */
+    public void clear() {
+        children.clear();
+    }
+
+    /**
+     * Increments bucket at the provided index by the provided number of samples
+     * (of the child without labels).
+     */
+    public void incBucket(int bucketIndex, long samples) {
+        labels().incBucket(bucketIndex, samples);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+
+        for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+            List<String> bucketLabelNames = new ArrayList<>(labelNames);
+            bucketLabelNames.add(BUCKET_LABEL_NAME);
+
+            long[] counts = entry.getValue().counts();
+
+            long cumulativeCount = 0;
+
+            for (int i = 0; i < counts.length; ++i) {
+                cumulativeCount += counts[i];
+
+                List<String> bucketLabelValues = new ArrayList<>(entry.getKey());
+                bucketLabelValues.add(doubleToGoString(upperBounds[i]));
+
+                samples.add(new MetricFamilySamples.Sample(
+                        fullname + "_bucket", bucketLabelNames, bucketLabelValues, cumulativeCount
+                ));
+            }
+
+            samples.add(new MetricFamilySamples.Sample(
+                    fullname + "_count", labelNames, entry.getKey(), cumulativeCount
+            ));
+            samples.add(new MetricFamilySamples.Sample(
+                    fullname + "_sum", labelNames, entry.getKey(), entry.getValue().sum()
+            ));
+        }
+
+        return Collections.singletonList(new MetricFamilySamples(fullname, Type.HISTOGRAM, help, samples));
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        return Collections.singletonList(
+                new MetricFamilySamples(fullname, Type.HISTOGRAM, help, Collections.emptyList())
+        );
+    }
+
+    /**
+     * Builder helps to configure and create {@link BucketHistogram}.
+     */
+    public static class Builder {
+
+        private String name;
+        private String help;
+        private String[] labelNames = new String[0];
+        private double[] upperBounds;
+
+        /**
+         * Sets name of the histogram
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Sets help (description) of the histogram
+         */
+        public Builder help(String help) {
+            this.help = help;
+            return this;
+        }
+
+        /**
+         * Sets names of the labels of the histogram
+         */
+        public Builder labelNames(String... labelNames) {
+            this.labelNames = labelNames;
+            return this;
+        }
+
+        /**
+         * Sets upper bounds of the buckets, that have to be in strictly increasing order.
+         * Bucket with {@code +Inf} upper bound is appended, unless already present.
+         */
+        public Builder buckets(double... upperBounds) {
+            for (int i = 1; i < upperBounds.length; ++i) {
+                if (upperBounds[i] <= upperBounds[i - 1]) {
+                    throw new IllegalStateException("Histogram buckets must be in increasing order");
+                }
+            }
+
+            this.upperBounds = withInfiniteBound(upperBounds);
+
+            return this;
+        }
+
+        /**
+         * Creates {@link BucketHistogram} from Builder.
+         */
+        public BucketHistogram create() {
+            if (name == null || name.isEmpty()) {
+                throw new IllegalStateException("Name hasn't been set");
+            }
+
+            if (help == null || help.isEmpty()) {
+                throw new IllegalStateException("Help hasn't been set");
+            }
+
+            if (upperBounds == null) {
+                throw new IllegalStateException("Histogram buckets must be set");
+            }
+
+            return new BucketHistogram(this);
+        }
+
+        /**
+         * Creates {@link BucketHistogram} from Builder, registering it with the provided registry.
+         */
+        public BucketHistogram register(CollectorRegistry registry) {
+            BucketHistogram histogram = create();
+            registry.register(histogram);
+            return histogram;
+        }
+    }
+
+    /**
+     * Labelled child of the {@link BucketHistogram}, holding per-bucket (non-cumulative) counts.
+     */
+    public static class Child {
+
+        private final double[] upperBounds;
+        private final double[] midpoints;
+
+        private final LongAdder[] counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Child(double[] upperBounds, double[] midpoints) {
+            this.upperBounds = upperBounds;
+            this.midpoints = midpoints;
+            this.counts = new LongAdder[upperBounds.length];
+
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Increments bucket at the provided index by the provided number of samples.
+         * Indexes past the last bucket are accounted in the last ({@code +Inf}) one.
+         */
+        public void incBucket(int bucketIndex, long samples) {
+            int index = Math.min(bucketIndex, counts.length - 1);
+
+            counts[index].add(samples);
+            sum.add(midpoints[index] * samples);
+        }
+
+        /**
+         * Increments bucket the provided value falls under (ie the first one with
+         * the upper bound greater or equal to it) by the provided number of samples.
+         */
+        public void incBucketOf(double value, long samples) {
+            incBucket(bucketIndexOf(value), samples);
+        }
+
+        /**
+         * Accounts the observed value in the bucket it falls under, and at its exact value in the sum
+         */
+        void observe(double value) {
+            counts[bucketIndexOf(value)].increment();
+            sum.add(value);
+        }
+
+        long[] counts() {
+            long[] snapshot = new long[counts.length];
+            for (int i = 0; i < counts.length; ++i) {
+                snapshot[i] = counts[i].sum();
+            }
+            return snapshot;
+        }
+
+        double sum() {
+            return sum.sum();
+        }
+
+        private int bucketIndexOf(double value) {
+            int index = Arrays.binarySearch(upperBounds, value);
+
+            // NOTE: In case bound is not found binary search returns {@code (-(insertion point) - 1)},
+            //       insertion point being the index of the first bound greater than the value
+            return index >= 0 ? index : ~index;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.Buckets;
+import io.prometheus.client.Collector;
+
+/**
+ * Layout of the Prometheus histogram buckets corresponding to the tally {@link Buckets}, shared by the exporters
+ * exposing the cumulative bucket values of the tally histograms (see {@link ExpositionEncoder} and
+ * {@link PrometheusCollector}).
+ * <p>
+ * Tally buckets are exposed under their upper bounds, followed by the {@code +Inf} one the overflow bucket
+ * is exposed under. In case tally buckets' last bound is infinite already, overflow bucket is merged into it.
+ */
+final class BucketLayout {
+    // Labels of the upper bounds of the buckets, i.e. {@code 0.5} (the last one being {@code +Inf})
+    final String[] upperBoundLabels;
+
+    // Values samples of the bucket are accounted at, in the estimate of the sum
+    private final double[] midpoints;
+
+    BucketLayout(Buckets buckets) {
+        double[] upperBounds = BucketHistogram.withInfiniteBound(PrometheusReporter.upperBoundsOf(buckets));
+
+        upperBoundLabels = new String[upperBounds.length];
+        for (int i = 0; i < upperBounds.length; ++i) {
+            upperBoundLabels[i] = Collector.doubleToGoString(upperBounds[i]);
+        }
+
+        midpoints = BucketHistogram.midpoints(upperBounds);
+    }
+
+    /**
+     * Returns number of the buckets, including the {@code +Inf} one
+     */
+    int size() {
+        return upperBoundLabels.length;
+    }
+
+    /**
+     * Accumulates values of the tally buckets into the cumulative counts of the buckets.
+     *
+     * @param bucketValues values of the tally buckets, last one being the overflow bucket.
+     * @param counts       cumulative counts of the buckets, filled in (has to hold {@link #size()} of them at least).
+     * @return sum of the samples, estimated by accounting every one at the midpoint of its bucket.
+     */
+    double accumulate(long[] bucketValues, long[] counts) {
+        long count = 0;
+        double sum = 0;
+
+        int lastIndex = upperBoundLabels.length - 1;
+
+        for (int i = 0, index = 0; index <= lastIndex; ++index) {
+            int bucketEnd = index == lastIndex ? bucketValues.length : index + 1;
+
+            for (; i < bucketEnd; ++i) {
+                count += bucketValues[i];
+                sum += bucketValues[i] * midpoints[index];
+            }
+
+            counts[index] = count;
+        }
+
+        return sum;
+    }
+}
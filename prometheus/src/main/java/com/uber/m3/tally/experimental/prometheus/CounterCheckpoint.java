@@ -0,0 +1,480 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.Buckets;
+import com.uber.m3.tally.Scope;
+import com.uber.m3.tally.ScopeVisitor;
+import com.uber.m3.util.Duration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoint of the cumulative totals of the counters and histogram buckets of the tally {@link Scope},
+ * persisted to a local memory-mapped file, for the totals to continue across restarts of the process
+ * (rather than being reset to zero, incurring rate resets and gaps in the queries).
+ * <p>
+ * Totals checkpointed by the previous process are loaded at startup, and added to the values of the series
+ * exposed by {@link PrometheusCollector} and {@link ExpositionEncoder} created with the checkpoint (see
+ * {@link #restoring(ScopeVisitor)}). Totals (along with the time series were created at) are checkpointed
+ * every {@link Builder#interval(Duration)} by the background thread, and once more when the checkpoint is
+ * closed, walking the scope the same way scrapes do, therefore metrics' hot path is not affected.
+ * <p>
+ * Checkpoints alternate between two slots of the file, each one being guarded by a checksum, so that
+ * a torn write (in case process crashes mid-checkpoint) falls back to the previous checkpoint.
+ * Series of the previous checkpoints are retained until the file is removed.
+ * <p>
+ * NOTE: Increments made since the last checkpoint are lost if process isn't closed gracefully.
+ * <p>
+ * Usage example:
+ * <pre>
+ * {@code
+ *   CounterCheckpoint checkpoint = CounterCheckpoint.builder()
+ *                                                   .path(Paths.get("/var/lib/service/tally.checkpoint"))
+ *                                                   .scope(scope)
+ *                                                   .build();
+ *   new PrometheusCollector(scope, checkpoint).register(CollectorRegistry.defaultRegistry);
+ * }
+ * </pre>
+ */
+public class CounterCheckpoint implements AutoCloseable {
+
+    private static final int MAGIC = 0x54434B50;
+
+    // Slot header: magic (4), generation (8), payload length (4), payload checksum (4)
+    private static final int SLOT_HEADER_SIZE = 20;
+
+    private static final int INITIAL_SLOT_SIZE = 64 * 1024;
+
+    private static final byte KIND_COUNTER = 0;
+    private static final byte KIND_HISTOGRAM = 1;
+
+    private final Scope scope;
+
+    private final FileChannel channel;
+
+    // Totals checkpointed by the previous process, never modified after being loaded
+    private final Map<SeriesKey, Totals> restoredTotals;
+
+    private final ScheduledExecutorService scheduler;
+
+    // NOTE: Following state is guarded by the checkpoint
+    private MappedByteBuffer mapping;
+    private int slotSize;
+    private long generation;
+    private int nextSlot;
+    private boolean closed;
+
+    private CounterCheckpoint(Builder builder) throws IOException {
+        scope = builder.scope;
+
+        channel = FileChannel.open(
+                builder.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+
+        long fileSize = channel.size();
+        slotSize = fileSize >= 2L * (SLOT_HEADER_SIZE + INITIAL_SLOT_SIZE)
+                ? (int) Math.min(fileSize / 2, Integer.MAX_VALUE)
+                : SLOT_HEADER_SIZE + INITIAL_SLOT_SIZE;
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * slotSize);
+
+        restoredTotals = Collections.unmodifiableMap(load());
+
+        long intervalMillis = builder.interval.toMillis();
+        if (intervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "tally-counter-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(
+                    this::checkpointQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS
+            );
+        } else {
+            scheduler = null;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns visitor adding the restored totals to the values of the counters and histograms it visits,
+     * before passing them to the provided one
+     */
+    public ScopeVisitor restoring(ScopeVisitor visitor) {
+        return restoredTotals.isEmpty() ? visitor : new RestoringVisitor(visitor);
+    }
+
+    /**
+     * Checkpoints current totals of the scope's counters and histograms
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        Map<SeriesKey, Totals> totals = new LinkedHashMap<>(restoredTotals);
+        scope.visit(restoring(new TotalsCollectingVisitor(totals)));
+
+        write(encode(totals));
+    }
+
+    /**
+     * Checkpoints current totals, and stops checkpointing
+     */
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+
+        synchronized (this) {
+            try {
+                checkpoint();
+            } finally {
+                closed = true;
+                channel.close();
+            }
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            // NOTE: Failed checkpoint is retried by the following one, previous checkpoint remaining intact
+        }
+    }
+
+    private Map<SeriesKey, Totals> load() {
+        long latestGeneration = -1;
+        Map<SeriesKey, Totals> latest = new HashMap<>();
+
+        for (int slot = 0; slot < 2; ++slot) {
+            int offset = slot * slotSize;
+
+            if (mapping.getInt(offset) != MAGIC) {
+                continue;
+            }
+
+            long slotGeneration = mapping.getLong(offset + 4);
+            int length = mapping.getInt(offset + 12);
+            int checksum = mapping.getInt(offset + 16);
+
+            if (slotGeneration <= latestGeneration || length < 0 || length > slotSize - SLOT_HEADER_SIZE) {
+                continue;
+            }
+
+            byte[] payload = new byte[length];
+            ByteBuffer slotBuffer = mapping.duplicate();
+            slotBuffer.position(offset + SLOT_HEADER_SIZE);
+            slotBuffer.get(payload);
+
+            if (checksum(payload, length) != checksum) {
+                continue;
+            }
+
+            try {
+                latest = decode(payload);
+            } catch (IOException e) {
+                continue;
+            }
+
+            latestGeneration = slotGeneration;
+            nextSlot = 1 - slot;
+        }
+
+        generation = latestGeneration + 1;
+
+        return latest;
+    }
+
+    private void write(ByteArrayOutputStream payload) throws IOException {
+        int length = payload.size();
+
+        if (length > slotSize - SLOT_HEADER_SIZE) {
+            // NOTE: Once the file is grown, the second slot is moved past the end of the first one,
+            //       therefore checkpoint is written into it, the first slot remaining intact
+            slotSize = Math.max(2 * slotSize, SLOT_HEADER_SIZE + length);
+            mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * slotSize);
+            nextSlot = 1;
+        }
+
+        byte[] bytes = payload.toByteArray();
+        int offset = nextSlot * slotSize;
+
+        // Slot is invalidated first, and its header is only written once the payload is
+        mapping.putInt(offset, 0);
+
+        ByteBuffer slotBuffer = mapping.duplicate();
+        slotBuffer.position(offset + SLOT_HEADER_SIZE);
+        slotBuffer.put(bytes, 0, length);
+
+        mapping.putLong(offset + 4, generation);
+        mapping.putInt(offset + 12, length);
+        mapping.putInt(offset + 16, checksum(bytes, length));
+        mapping.putInt(offset, MAGIC);
+        mapping.force();
+
+        ++generation;
+        nextSlot = 1 - nextSlot;
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static ByteArrayOutputStream encode(Map<SeriesKey, Totals> totals) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+
+        out.writeInt(totals.size());
+
+        for (Map.Entry<SeriesKey, Totals> entry : totals.entrySet()) {
+            SeriesKey key = entry.getKey();
+            Totals series = entry.getValue();
+
+            out.writeByte(series.kind);
+            out.writeUTF(key.getName());
+            out.writeInt(key.getTags().size());
+            for (Map.Entry<String, String> tag : key.getTags().entrySet()) {
+                out.writeUTF(tag.getKey());
+                out.writeUTF(tag.getValue());
+            }
+
+            out.writeLong(series.createdAtMillis);
+            out.writeInt(series.values.length);
+            for (long value : series.values) {
+                out.writeLong(value);
+            }
+        }
+
+        out.flush();
+
+        return payload;
+    }
+
+    private static Map<SeriesKey, Totals> decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        int size = in.readInt();
+        Map<SeriesKey, Totals> totals = new HashMap<>();
+
+        for (int i = 0; i < size; ++i) {
+            byte kind = in.readByte();
+            String name = in.readUTF();
+
+            int tagCount = in.readInt();
+            Map<String, String> tags = new HashMap<>(tagCount * 2);
+            for (int j = 0; j < tagCount; ++j) {
+                tags.put(in.readUTF(), in.readUTF());
+            }
+
+            long createdAtMillis = in.readLong();
+
+            long[] values = new long[in.readInt()];
+            for (int j = 0; j < values.length; ++j) {
+                values[j] = in.readLong();
+            }
+
+            totals.put(new SeriesKey(name, tags), new Totals(kind, createdAtMillis, values));
+        }
+
+        return totals;
+    }
+
+    /**
+     * Cumulative totals of the series, along with the time it was (first) created at
+     */
+    private static final class Totals {
+        private final byte kind;
+        private final long createdAtMillis;
+        private final long[] values;
+
+        Totals(byte kind, long createdAtMillis, long[] values) {
+            this.kind = kind;
+            this.createdAtMillis = createdAtMillis;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Visitor adding restored totals to the visited values
+     */
+    private final class RestoringVisitor implements ScopeVisitor {
+        private final ScopeVisitor delegate;
+
+        RestoringVisitor(ScopeVisitor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void visitCounter(String name, Map<String, String> tags, long value, long createdAtMillis) {
+            Totals restored = restoredTotals.get(new SeriesKey(name, tags));
+
+            if (restored != null && restored.kind == KIND_COUNTER) {
+                delegate.visitCounter(name, tags, restored.values[0] + value, restored.createdAtMillis);
+            } else {
+                delegate.visitCounter(name, tags, value, createdAtMillis);
+            }
+        }
+
+        @Override
+        public void visitGauge(String name, Map<String, String> tags, double value) {
+            delegate.visitGauge(name, tags, value);
+        }
+
+        @Override
+        public void visitHistogram(
+                String name,
+                Map<String, String> tags,
+                Buckets buckets,
+                long[] bucketValues,
+                long createdAtMillis
+        ) {
+            Totals restored = restoredTotals.get(new SeriesKey(name, tags));
+
+            // NOTE: Totals are only restored if bucket layout hasn't changed
+            if (restored != null
+                    && restored.kind == KIND_HISTOGRAM
+                    && restored.values.length == bucketValues.length) {
+                long[] values = new long[bucketValues.length];
+                for (int i = 0; i < values.length; ++i) {
+                    values[i] = restored.values[i] + bucketValues[i];
+                }
+
+                delegate.visitHistogram(name, tags, buckets, values, restored.createdAtMillis);
+            } else {
+                delegate.visitHistogram(name, tags, buckets, bucketValues, createdAtMillis);
+            }
+        }
+    }
+
+    /**
+     * Visitor collecting totals of the visited counters and histograms
+     */
+    private static final class TotalsCollectingVisitor implements ScopeVisitor {
+        private final Map<SeriesKey, Totals> totals;
+
+        TotalsCollectingVisitor(Map<SeriesKey, Totals> totals) {
+            this.totals = totals;
+        }
+
+        @Override
+        public void visitCounter(String name, Map<String, String> tags, long value, long createdAtMillis) {
+            totals.put(new SeriesKey(name, tags).retained(), new Totals(KIND_COUNTER, createdAtMillis, new long[] {value}));
+        }
+
+        @Override
+        public void visitGauge(String name, Map<String, String> tags, double value) {
+            // Gauges are not cumulative, therefore not checkpointed
+        }
+
+        @Override
+        public void visitHistogram(
+                String name,
+                Map<String, String> tags,
+                Buckets buckets,
+                long[] bucketValues,
+                long createdAtMillis
+        ) {
+            totals.put(
+                    new SeriesKey(name, tags).retained(),
+                    new Totals(KIND_HISTOGRAM, createdAtMillis, bucketValues.clone())
+            );
+        }
+    }
+
+    /**
+     * Builder helps to configure and create {@link CounterCheckpoint}.
+     */
+    public static final class Builder {
+
+        private Path path;
+        private Scope scope;
+        private Duration interval = Duration.ofSeconds(10);
+
+        /**
+         * Sets path of the checkpoint file, created if it doesn't exist.
+         */
+        public Builder path(Path path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * Sets scope, totals of the counters and histograms of which are checkpointed.
+         */
+        public Builder scope(Scope scope) {
+            this.scope = scope;
+            return this;
+        }
+
+        /**
+         * Sets interval totals are checkpointed at. In case it's zero, totals are only checkpointed
+         * explicitly (see {@link CounterCheckpoint#checkpoint()}) and on close. Default value is set to 10 seconds.
+         */
+        public Builder interval(Duration interval) {
+            this.interval = interval;
+            return this;
+        }
+
+        /**
+         * Builds {@link CounterCheckpoint} from Builder, loading totals of the previous checkpoint (if any).
+         */
+        public CounterCheckpoint build() throws IOException {
+            if (path == null) {
+                throw new IllegalStateException("Path hasn't been set");
+            }
+
+            if (scope == null) {
+                throw new IllegalStateException("Scope hasn't been set");
+            }
+
+            if (interval.toMillis() < 0) {
+                throw new IllegalArgumentException("Interval must not be negative");
+            }
+
+            return new CounterCheckpoint(this);
+        }
+    }
+}
@@ -0,0 +1,761 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.Buckets;
+import com.uber.m3.tally.Scope;
+import com.uber.m3.tally.ScopeVisitor;
+import io.prometheus.client.Collector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encoder writing the live state of the metrics held by the tally {@link Scope} in the Prometheus
+ * text (0.0.4) or OpenMetrics (1.0.0) exposition format straight into an {@link OutputStream}.
+ * <p>
+ * Unlike {@link PrometheusCollector} combined with simpleclient's {@code TextFormat}, it doesn't materialize
+ * samples (along with the lists of their label names and values) on every scrape: names and label sets
+ * of every series are sanitized, escaped and encoded once (the first time series is observed), and only
+ * the values are encoded on every scrape.
+ * <p>
+ * Metrics are exposed the same way {@link PrometheusCollector} does, additionally exposing the time
+ * counters and histograms were created at (as {@code _created} samples) in the OpenMetrics format. Since
+ * tally doesn't record exemplars, none are exposed.
+ * <p>
+ * Visiting is serialized, concurrent invocations of {@link #encode(OutputStream, Format)} wait for each other
+ * to snapshot the values of the metrics, but not for each other to write them out, so a slow scraper doesn't
+ * hold up the others. Snapshots only hold the values (referring to the pre-encoded series), and are pooled,
+ * so neither the payload is buffered as a whole, nor a snapshot is allocated on every scrape.
+ * <p>
+ * Usage example:
+ * <pre>
+ * {@code
+ *   ExpositionEncoder encoder = new ExpositionEncoder(scope);
+ *   encoder.encode(outputStream, ExpositionEncoder.Format.OPENMETRICS);
+ * }
+ * </pre>
+ */
+public class ExpositionEncoder {
+
+    private static final int WRITE_BUFFER_SIZE = 8 * 1024;
+
+    private static final byte[] OPENMETRICS_EOF = bytes("# EOF\n");
+    private static final byte[] POSITIVE_INFINITY = bytes("+Inf");
+    private static final byte[] NEGATIVE_INFINITY = bytes("-Inf");
+    private static final byte[] NAN = bytes("NaN");
+
+    private static final String TOTAL_SUFFIX = "_total";
+
+    private static final String[] NO_RESERVED_LABEL_NAMES = new String[0];
+    private static final String[] HISTOGRAM_RESERVED_LABEL_NAMES = {BucketHistogram.BUCKET_LABEL_NAME};
+
+    private final Scope scope;
+
+    private final ScopeVisitor scopeVisitor;
+
+    private final EncodingVisitor visitor = new EncodingVisitor();
+
+    // NOTE: Following state is guarded by the visitor
+    private final Map<String, Family> families = new HashMap<>();
+    private final Map<String, Family> openMetricsFamilies = new HashMap<>();
+    private final Map<SeriesKey, Series> counterSeries = new HashMap<>();
+    private final Map<SeriesKey, Series> gaugeSeries = new HashMap<>();
+    private final Map<SeriesKey, Series> histogramSeries = new HashMap<>();
+    private final Map<Buckets, EncodedBucketLayout> bucketLayouts = new HashMap<>();
+
+    // Families observed by the current scrape, in the order of their observation
+    private final List<Family> scrapedFamilies = new ArrayList<>();
+
+    // Snapshots released by the completed scrapes, as many as there were concurrent scrapes at most
+    private final Deque<Snapshot> snapshots = new ArrayDeque<>();
+
+    private long generation;
+
+    public ExpositionEncoder(Scope scope) {
+        this(scope, null);
+    }
+
+    /**
+     * Creates encoder exposing totals of the counters and histograms continued
+     * from the ones checkpointed by the previous process (see {@link CounterCheckpoint}).
+     */
+    public ExpositionEncoder(Scope scope, CounterCheckpoint checkpoint) {
+        this.scope = scope;
+        this.scopeVisitor = checkpoint != null ? checkpoint.restoring(visitor) : visitor;
+    }
+
+    /**
+     * Writes the current state of the metrics of the scope in the provided format.
+     * <p>
+     * NOTE: Provided stream is neither flushed, nor closed
+     *
+     * @param out    stream to write to.
+     * @param format exposition format.
+     */
+    public void encode(OutputStream out, Format format) throws IOException {
+        Snapshot snapshot;
+
+        synchronized (visitor) {
+            ++generation;
+            scrapedFamilies.clear();
+
+            scope.visit(scopeVisitor);
+
+            snapshot = snapshots.isEmpty() ? new Snapshot() : snapshots.pop();
+
+            for (Family family : scrapedFamilies) {
+                family.snapshot(snapshot, format, generation);
+            }
+        }
+
+        // NOTE: Values are written out once the lock is released, so that slow scrapers don't block each other
+        try {
+            snapshot.writeTo(out, format);
+        } finally {
+            snapshot.clear();
+
+            synchronized (visitor) {
+                snapshots.push(snapshot);
+            }
+        }
+    }
+
+    private Family family(String name, Type type) {
+        String sanitizedName = Collector.sanitizeMetricName(name);
+
+        // NOTE: Counters named with and without the "_total" suffix designate the same OpenMetrics family,
+        //       while being separate families in the text format
+        String baseName = type == Type.COUNTER && sanitizedName.endsWith(TOTAL_SUFFIX)
+                ? sanitizedName.substring(0, sanitizedName.length() - TOTAL_SUFFIX.length())
+                : sanitizedName;
+
+        Family family = families.get(sanitizedName);
+        if (family == null) {
+            Family peer = openMetricsFamilies.get(baseName);
+
+            // First metric observed under the name determines the type of the family
+            if (peer != null && peer.type != type) {
+                return null;
+            }
+
+            family = new Family(sanitizedName, baseName, type);
+            families.put(sanitizedName, family);
+
+            if (peer == null) {
+                openMetricsFamilies.put(baseName, family);
+            } else {
+                family.peer = peer;
+                peer.peer = family;
+            }
+        }
+
+        return family.type == type ? family : null;
+    }
+
+    private Series series(Map<SeriesKey, Series> seriesMap, String name, Map<String, String> tags, Type type) {
+        SeriesKey key = new SeriesKey(name, tags);
+
+        Series series = seriesMap.get(key);
+        if (series == null) {
+            Family family = family(name, type);
+            if (family == null) {
+                return null;
+            }
+
+            // NOTE: Tags are only copied (if necessary) once the series is first seen
+            SeriesKey retainedKey = key.retained();
+            series = new Series(family, retainedKey);
+            seriesMap.put(retainedKey, series);
+        }
+
+        if (series.family.generation != generation) {
+            series.family.generation = generation;
+            series.family.members.clear();
+            scrapedFamilies.add(series.family);
+        }
+
+        series.family.members.add(series);
+
+        return series;
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sanitizes label name, replacing characters not allowed by Prometheus with underscores
+     */
+    static String sanitizeLabelName(String labelName) {
+        StringBuilder sanitized = null;
+
+        for (int i = 0; i < labelName.length(); ++i) {
+            char c = labelName.charAt(i);
+
+            boolean allowed = c == '_'
+                    || (c >= 'a' && c <= 'z')
+                    || (c >= 'A' && c <= 'Z')
+                    || (i > 0 && c >= '0' && c <= '9');
+
+            if (!allowed && sanitized == null) {
+                sanitized = new StringBuilder(labelName.length() + 1).append(labelName, 0, i);
+            }
+
+            if (sanitized != null) {
+                if (allowed) {
+                    sanitized.append(c);
+                } else if (c >= '0' && c <= '9') {
+                    // Label names may not start with a digit
+                    sanitized.append('_').append(c);
+                } else {
+                    sanitized.append('_');
+                }
+            }
+        }
+
+        return sanitized == null ? labelName : sanitized.toString();
+    }
+
+    /**
+     * Sanitizes names of the tags into label names, renaming the ones clashing with the reserved label names,
+     * or with the names of the preceding labels (i.e. {@code a.b} and {@code a_b}), by prefixing them with
+     * underscores until the clash is resolved.
+     * <p>
+     * NOTE: Tag names are expected to be sorted, so that clashes are resolved the same way every time
+     *
+     * @param tagNames           sorted names of the tags.
+     * @param reservedLabelNames names of the labels added to the series along with the tags.
+     * @return names of the labels, in the order of the tags.
+     */
+    static String[] uniqueLabelNames(String[] tagNames, String... reservedLabelNames) {
+        String[] labelNames = new String[tagNames.length];
+        Set<String> taken = new HashSet<>(Arrays.asList(reservedLabelNames));
+
+        for (int i = 0; i < tagNames.length; ++i) {
+            String labelName = sanitizeLabelName(tagNames[i]);
+            while (!taken.add(labelName)) {
+                labelName = "_" + labelName;
+            }
+
+            labelNames[i] = labelName;
+        }
+
+        return labelNames;
+    }
+
+    /**
+     * Returns names of the labels the series of the specified type is labeled with, besides the ones of its tags
+     */
+    static String[] reservedLabelNames(boolean histogram) {
+        return histogram ? HISTOGRAM_RESERVED_LABEL_NAMES : NO_RESERVED_LABEL_NAMES;
+    }
+
+    /**
+     * Escapes label value as required by both of the exposition formats
+     */
+    static void appendEscapedLabelValue(StringBuilder builder, String labelValue) {
+        for (int i = 0; i < labelValue.length(); ++i) {
+            char c = labelValue.charAt(i);
+
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+
+    /**
+     * Exposition format
+     */
+    public enum Format {
+        PROMETHEUS_TEXT("text/plain; version=0.0.4; charset=utf-8"),
+        OPENMETRICS("application/openmetrics-text; version=1.0.0; charset=utf-8");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    private enum Type {
+        COUNTER("counter"),
+        GAUGE("gauge"),
+        HISTOGRAM("histogram");
+
+        private final String typeName;
+
+        Type(String typeName) {
+            this.typeName = typeName;
+        }
+    }
+
+    /**
+     * Metric family, along with the (pre-encoded) names of its samples in either of the formats
+     */
+    private static final class Family {
+        private final Type type;
+
+        private final SampleNames textNames;
+        private final SampleNames openMetricsNames;
+
+        // Series of the family observed by the current scrape
+        private final List<Series> members = new ArrayList<>();
+
+        // Counter named with (or without) the "_total" suffix, sharing the OpenMetrics family with this one
+        private Family peer;
+
+        private long generation;
+        private long writtenGeneration;
+
+        Family(String name, String baseName, Type type) {
+            this.type = type;
+            this.textNames = new SampleNames(name, name, type);
+            this.openMetricsNames = new SampleNames(
+                    baseName, type == Type.COUNTER ? baseName + TOTAL_SUFFIX : baseName, type
+            );
+        }
+
+        void snapshot(Snapshot snapshot, Format format, long generation) {
+            boolean openMetrics = format == Format.OPENMETRICS;
+            SampleNames names = openMetrics ? openMetricsNames : textNames;
+
+            if (openMetrics && peer != null && peer.generation == generation) {
+                // Members of both of the peers are written at once, under the single family
+                if (writtenGeneration == generation) {
+                    return;
+                }
+
+                peer.writtenGeneration = generation;
+
+                snapshot.addMembers(members);
+                snapshot.addMembers(peer.members);
+                snapshot.addFamily(names, type);
+                return;
+            }
+
+            snapshot.addMembers(members);
+            snapshot.addFamily(names, type);
+        }
+    }
+
+    /**
+     * Pre-encoded names of the samples of the family
+     */
+    private static final class SampleNames {
+        private final byte[] typeLine;
+        private final byte[] sample;
+        private final byte[] bucket;
+        private final byte[] count;
+        private final byte[] sum;
+        private final byte[] created;
+
+        SampleNames(String familyName, String sampleName, Type type) {
+            typeLine = bytes(String.format("# TYPE %s %s\n", familyName, type.typeName));
+            sample = bytes(sampleName);
+            bucket = bytes(familyName + "_bucket");
+            count = bytes(familyName + "_count");
+            sum = bytes(familyName + "_sum");
+            created = bytes(familyName + "_created");
+        }
+    }
+
+    /**
+     * Series of the family: its pre-encoded label set, along with the values observed by the current scrape
+     * (until they're snapshot)
+     */
+    private static final class Series {
+        private final Family family;
+
+        // Label set, i.e. {@code {a="b",c="d"}} (or empty)
+        private final byte[] labels;
+
+        // Label set left open for the bucket bound to be appended, i.e. {@code {a="b",c="d",}
+        private final byte[] openLabels;
+
+        // Creation time (in seconds), i.e. {@code " 1600000000.123\n"}
+        private byte[] created;
+
+        private long longValue;
+        private double doubleValue;
+        private long[] bucketValues;
+        private EncodedBucketLayout layout;
+
+        Series(Family family, SeriesKey key) {
+            this.family = family;
+
+            String[] tagNames = key.labelNames();
+            String[] labelValues = key.labelValues(tagNames);
+            String[] labelNames = uniqueLabelNames(tagNames, reservedLabelNames(family.type == Type.HISTOGRAM));
+
+            StringBuilder builder = new StringBuilder("{");
+            for (int i = 0; i < labelNames.length; ++i) {
+                builder.append(labelNames[i]).append("=\"");
+                appendEscapedLabelValue(builder, labelValues[i]);
+                builder.append("\",");
+            }
+
+            openLabels = bytes(builder.toString());
+
+            if (labelNames.length == 0) {
+                labels = new byte[0];
+            } else {
+                builder.setCharAt(builder.length() - 1, '}');
+                labels = bytes(builder.toString());
+            }
+        }
+
+        void setCreatedAtMillis(long createdAtMillis) {
+            if (created == null) {
+                created = bytes(String.format(" %d.%03d\n", createdAtMillis / 1000, createdAtMillis % 1000));
+            }
+        }
+
+        void writeHistogram(Sink sink, SampleNames names, long[] bucketValues, long[] counts) throws IOException {
+            double sum = layout.layout.accumulate(bucketValues, counts);
+
+            for (int index = 0; index < layout.bucketBounds.length; ++index) {
+                sink.write(names.bucket);
+                sink.write(openLabels);
+                sink.write(layout.bucketBounds[index]);
+                sink.writeLong(counts[index]);
+                sink.write((byte) '\n');
+            }
+
+            sink.write(names.count);
+            sink.write(labels);
+            sink.write((byte) ' ');
+            sink.writeLong(counts[layout.bucketBounds.length - 1]);
+            sink.write((byte) '\n');
+
+            sink.write(names.sum);
+            sink.write(labels);
+            sink.write((byte) ' ');
+            sink.writeDouble(sum);
+            sink.write((byte) '\n');
+        }
+    }
+
+    /**
+     * Layout of the Prometheus histogram buckets, along with their pre-encoded bound labels
+     */
+    private static final class EncodedBucketLayout {
+        private final BucketLayout layout;
+
+        // Bucket bound labels closing the label set, i.e. {@code le="0.5"} }
+        private final byte[][] bucketBounds;
+
+        EncodedBucketLayout(Buckets buckets) {
+            layout = new BucketLayout(buckets);
+
+            bucketBounds = new byte[layout.size()][];
+            for (int i = 0; i < bucketBounds.length; ++i) {
+                bucketBounds[i] = bytes(String.format(
+                        "%s=\"%s\"} ", BucketHistogram.BUCKET_LABEL_NAME, layout.upperBoundLabels[i]
+                ));
+            }
+        }
+    }
+
+    /**
+     * Values of the series observed by a single scrape (referring to their pre-encoded names and label sets),
+     * grouped by the families they're written under.
+     * <p>
+     * NOTE: Snapshot is filled under the lock of the encoder, but written out by the scrape that has taken it
+     *       exclusively, after releasing the lock
+     */
+    private static final class Snapshot {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
+
+        private SampleNames[] familyNames = new SampleNames[INITIAL_CAPACITY];
+        private Type[] familyTypes = new Type[INITIAL_CAPACITY];
+        // Index of the series following the last one of the family
+        private int[] familyEnds = new int[INITIAL_CAPACITY];
+        private int familyCount;
+
+        private Series[] series = new Series[INITIAL_CAPACITY];
+        private long[] longValues = new long[INITIAL_CAPACITY];
+        private double[] doubleValues = new double[INITIAL_CAPACITY];
+        private long[][] bucketValues = new long[INITIAL_CAPACITY][];
+        private int seriesCount;
+
+        // Cumulative counts of the buckets of the histogram being written
+        private long[] counts = new long[INITIAL_CAPACITY];
+
+        void addMembers(List<Series> members) {
+            if (seriesCount + members.size() > series.length) {
+                int capacity = Math.max(series.length * 2, seriesCount + members.size());
+
+                series = Arrays.copyOf(series, capacity);
+                longValues = Arrays.copyOf(longValues, capacity);
+                doubleValues = Arrays.copyOf(doubleValues, capacity);
+                bucketValues = Arrays.copyOf(bucketValues, capacity);
+            }
+
+            for (Series member : members) {
+                series[seriesCount] = member;
+                longValues[seriesCount] = member.longValue;
+                doubleValues[seriesCount] = member.doubleValue;
+                bucketValues[seriesCount] = member.bucketValues;
+                ++seriesCount;
+            }
+        }
+
+        // Adds the family the series added since the previous family are written under
+        void addFamily(SampleNames names, Type type) {
+            if (familyCount == familyNames.length) {
+                familyNames = Arrays.copyOf(familyNames, familyCount * 2);
+                familyTypes = Arrays.copyOf(familyTypes, familyCount * 2);
+                familyEnds = Arrays.copyOf(familyEnds, familyCount * 2);
+            }
+
+            familyNames[familyCount] = names;
+            familyTypes[familyCount] = type;
+            familyEnds[familyCount] = seriesCount;
+            ++familyCount;
+        }
+
+        void writeTo(OutputStream out, Format format) throws IOException {
+            boolean openMetrics = format == Format.OPENMETRICS;
+            Sink sink = new Sink(out, writeBuffer);
+
+            for (int family = 0, i = 0; family < familyCount; ++family) {
+                SampleNames names = familyNames[family];
+                Type type = familyTypes[family];
+
+                sink.write(names.typeLine);
+
+                for (; i < familyEnds[family]; ++i) {
+                    switch (type) {
+                        case COUNTER:
+                            sink.write(names.sample);
+                            sink.write(series[i].labels);
+                            sink.write((byte) ' ');
+                            sink.writeLong(longValues[i]);
+                            sink.write((byte) '\n');
+                            break;
+                        case GAUGE:
+                            sink.write(names.sample);
+                            sink.write(series[i].labels);
+                            sink.write((byte) ' ');
+                            sink.writeDouble(doubleValues[i]);
+                            sink.write((byte) '\n');
+                            break;
+                        default:
+                            if (counts.length < series[i].layout.bucketBounds.length) {
+                                counts = new long[series[i].layout.bucketBounds.length];
+                            }
+
+                            series[i].writeHistogram(sink, names, bucketValues[i], counts);
+                    }
+
+                    if (openMetrics && type != Type.GAUGE) {
+                        sink.write(names.created);
+                        sink.write(series[i].labels);
+                        sink.write(series[i].created);
+                    }
+                }
+            }
+
+            if (openMetrics) {
+                sink.write(OPENMETRICS_EOF);
+            }
+
+            sink.flush();
+        }
+
+        // Drops references to the bucket values, retaining the capacity of the snapshot for the next scrape
+        void clear() {
+            Arrays.fill(bucketValues, 0, seriesCount, null);
+            seriesCount = 0;
+            familyCount = 0;
+        }
+    }
+
+    /**
+     * Visitor recording values of the visited metrics into their (cached) series
+     */
+    private final class EncodingVisitor implements ScopeVisitor {
+        @Override
+        public void visitCounter(String name, Map<String, String> tags, long value, long createdAtMillis) {
+            Series series = series(counterSeries, name, tags, Type.COUNTER);
+            if (series == null) {
+                return;
+            }
+
+            series.longValue = value;
+            series.setCreatedAtMillis(createdAtMillis);
+        }
+
+        @Override
+        public void visitGauge(String name, Map<String, String> tags, double value) {
+            Series series = series(gaugeSeries, name, tags, Type.GAUGE);
+            if (series == null) {
+                return;
+            }
+
+            series.doubleValue = value;
+        }
+
+        @Override
+        public void visitHistogram(
+                String name,
+                Map<String, String> tags,
+                Buckets buckets,
+                long[] bucketValues,
+                long createdAtMillis
+        ) {
+            Series series = series(histogramSeries, name, tags, Type.HISTOGRAM);
+            if (series == null) {
+                return;
+            }
+
+            if (series.layout == null) {
+                series.layout = bucketLayouts.computeIfAbsent(buckets, EncodedBucketLayout::new);
+            }
+
+            series.bucketValues = bucketValues;
+            series.setCreatedAtMillis(createdAtMillis);
+        }
+    }
+
+    /**
+     * Buffered sink encoding values without intermediate strings
+     */
+    private static final class Sink {
+        // Enough to hold any long, including the sign
+        private static final int MAX_LONG_DIGITS = 20;
+
+        // Doubles of smaller magnitude are integral values if they are whole
+        private static final double MAX_INTEGRAL_DOUBLE = 1e15;
+
+        private final OutputStream out;
+        private final byte[] buffer;
+
+        private int position;
+
+        Sink(OutputStream out, byte[] buffer) {
+            this.out = out;
+            this.buffer = buffer;
+        }
+
+        void write(byte b) throws IOException {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+
+            buffer[position++] = b;
+        }
+
+        void write(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.length - position) {
+                flushBuffer();
+
+                if (bytes.length > buffer.length) {
+                    out.write(bytes);
+                    return;
+                }
+            }
+
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void writeLong(long value) throws IOException {
+            if (value == Long.MIN_VALUE) {
+                write(bytes(Long.toString(value)));
+                return;
+            }
+
+            if (buffer.length - position < MAX_LONG_DIGITS) {
+                flushBuffer();
+            }
+
+            if (value < 0) {
+                buffer[position++] = '-';
+                value = -value;
+            }
+
+            int digits = 1;
+            for (long remainder = value / 10; remainder > 0; remainder /= 10) {
+                ++digits;
+            }
+
+            for (int i = position + digits - 1; i >= position; --i) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+
+            position += digits;
+        }
+
+        void writeDouble(double value) throws IOException {
+            if (Double.isNaN(value)) {
+                write(NAN);
+            } else if (value == Double.POSITIVE_INFINITY) {
+                write(POSITIVE_INFINITY);
+            } else if (value == Double.NEGATIVE_INFINITY) {
+                write(NEGATIVE_INFINITY);
+            } else if (value == Math.rint(value) && Math.abs(value) < MAX_INTEGRAL_DOUBLE) {
+                writeLong((long) value);
+            } else {
+                write(bytes(Double.toString(value)));
+            }
+        }
+
+        void flush() throws IOException {
+            flushBuffer();
+        }
+
+        private void flushBuffer() throws IOException {
+            if (position > 0) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+        }
+    }
+}
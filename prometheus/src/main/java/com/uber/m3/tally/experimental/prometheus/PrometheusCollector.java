@@ -0,0 +1,214 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.Buckets;
+import com.uber.m3.tally.Scope;
+import com.uber.m3.tally.ScopeVisitor;
+import io.prometheus.client.Collector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Prometheus {@link Collector} reading the live state of the metrics held by the tally
+ * {@link Scope} at the time of the scrape.
+ * <p>
+ * Unlike {@link PrometheusReporter}, it doesn't keep a copy of the metrics' state in Prometheus collectors,
+ * nor is it lagging behind by up to the reporting interval of the scope: every scrape walks the scope's metrics
+ * directly (see {@link Scope#visit(ScopeVisitor)}), exposing
+ * <ul>
+ *     <li>{@link com.uber.m3.tally.Counter}s as Prometheus counters (with their cumulative values)</li>
+ *     <li>{@link com.uber.m3.tally.Gauge}s as Prometheus gauges</li>
+ *     <li>{@link com.uber.m3.tally.Histogram}s as Prometheus histograms, sharing the bucket layout
+ *     (and estimating the sum, see {@link BucketHistogram})</li>
+ * </ul>
+ * {@link com.uber.m3.tally.Timer}s are not held by the scope, and therefore are not exposed.
+ * <p>
+ * Metric names are sanitized (see {@link Collector#sanitizeMetricName(String)}), therefore the scope's
+ * separator is replaced with an underscore, as are tag names exposed as label names.
+ * <p>
+ * Usage example:
+ * <pre>
+ * {@code
+ *   Scope scope = new RootScopeBuilder().reporter(new NullStatsReporter())
+ *                                       .reportEvery(Duration.ofSeconds(1));
+ *   new PrometheusCollector(scope).register(CollectorRegistry.defaultRegistry);
+ * }
+ * </pre>
+ */
+public class PrometheusCollector extends Collector {
+
+    private final Scope scope;
+
+    private final CounterCheckpoint checkpoint;
+
+    // Bucket layouts are computed once per {@link Buckets}, rather than on every scrape
+    private final ConcurrentHashMap<Buckets, BucketLayout> bucketLayouts = new ConcurrentHashMap<>();
+
+    public PrometheusCollector(Scope scope) {
+        this(scope, null);
+    }
+
+    /**
+     * Creates collector exposing totals of the counters and histograms continued
+     * from the ones checkpointed by the previous process (see {@link CounterCheckpoint}).
+     */
+    public PrometheusCollector(Scope scope, CounterCheckpoint checkpoint) {
+        this.scope = scope;
+        this.checkpoint = checkpoint;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        SamplesCollectingVisitor visitor = new SamplesCollectingVisitor();
+
+        scope.visit(checkpoint != null ? checkpoint.restoring(visitor) : visitor);
+
+        return new ArrayList<>(visitor.families.values());
+    }
+
+    private BucketLayout bucketLayout(Buckets buckets) {
+        return bucketLayouts.computeIfAbsent(buckets, BucketLayout::new);
+    }
+
+    /**
+     * Visitor collecting samples of the visited metrics into the metric families (by the name)
+     */
+    private final class SamplesCollectingVisitor implements ScopeVisitor {
+        private final Map<String, MetricFamilySamples> families = new LinkedHashMap<>();
+
+        @Override
+        public void visitCounter(String name, Map<String, String> tags, long value, long createdAtMillis) {
+            String familyName = sanitizeMetricName(name);
+
+            List<MetricFamilySamples.Sample> samples = samples(familyName, Type.COUNTER, "counter");
+            if (samples == null) {
+                return;
+            }
+
+            String[] tagNames = tagNames(tags);
+
+            samples.add(new MetricFamilySamples.Sample(
+                    familyName, labelNames(tagNames, false), labelValues(tags, tagNames), value
+            ));
+        }
+
+        @Override
+        public void visitGauge(String name, Map<String, String> tags, double value) {
+            String familyName = sanitizeMetricName(name);
+
+            List<MetricFamilySamples.Sample> samples = samples(familyName, Type.GAUGE, "gauge");
+            if (samples == null) {
+                return;
+            }
+
+            String[] tagNames = tagNames(tags);
+
+            samples.add(new MetricFamilySamples.Sample(
+                    familyName, labelNames(tagNames, false), labelValues(tags, tagNames), value
+            ));
+        }
+
+        @Override
+        public void visitHistogram(
+                String name,
+                Map<String, String> tags,
+                Buckets buckets,
+                long[] bucketValues,
+                long createdAtMillis
+        ) {
+            String familyName = sanitizeMetricName(name);
+
+            List<MetricFamilySamples.Sample> samples = samples(familyName, Type.HISTOGRAM, "histogram");
+            if (samples == null) {
+                return;
+            }
+
+            BucketLayout layout = bucketLayout(buckets);
+
+            String[] tagNames = tagNames(tags);
+
+            List<String> labelNames = labelNames(tagNames, true);
+            List<String> labelValues = labelValues(tags, tagNames);
+
+            List<String> bucketLabelNames = new ArrayList<>(labelNames);
+            bucketLabelNames.add(BucketHistogram.BUCKET_LABEL_NAME);
+
+            String bucketName = familyName + "_bucket";
+
+            long[] counts = new long[layout.size()];
+            double sum = layout.accumulate(bucketValues, counts);
+
+            for (int index = 0; index < counts.length; ++index) {
+                List<String> bucketLabelValues = new ArrayList<>(labelValues);
+                bucketLabelValues.add(layout.upperBoundLabels[index]);
+
+                samples.add(new MetricFamilySamples.Sample(
+                        bucketName, bucketLabelNames, bucketLabelValues, counts[index]
+                ));
+            }
+
+            long count = counts[counts.length - 1];
+
+            samples.add(new MetricFamilySamples.Sample(familyName + "_count", labelNames, labelValues, count));
+            samples.add(new MetricFamilySamples.Sample(familyName + "_sum", labelNames, labelValues, sum));
+        }
+
+        // NOTE: Tags are sorted by their names, so that clashing label names are resolved the same way every time
+        private String[] tagNames(Map<String, String> tags) {
+            String[] tagNames = tags.keySet().toArray(new String[0]);
+            Arrays.sort(tagNames);
+            return tagNames;
+        }
+
+        private List<String> labelNames(String[] tagNames, boolean histogram) {
+            return Arrays.asList(
+                    ExpositionEncoder.uniqueLabelNames(tagNames, ExpositionEncoder.reservedLabelNames(histogram))
+            );
+        }
+
+        private List<String> labelValues(Map<String, String> tags, String[] tagNames) {
+            List<String> labelValues = new ArrayList<>(tagNames.length);
+            for (String tagName : tagNames) {
+                labelValues.add(tags.get(tagName));
+            }
+
+            return labelValues;
+        }
+
+        // Returns samples of the family with the provided name, or null in case
+        // the family has already been registered by the metric of the other type
+        private List<MetricFamilySamples.Sample> samples(String familyName, Type type, String typeName) {
+            MetricFamilySamples family = families.computeIfAbsent(familyName, key ->
+                    new MetricFamilySamples(
+                            familyName, type, String.format("%s %s", familyName, typeName), new ArrayList<>()
+                    )
+            );
+
+            return family.type == type ? family.samples : null;
+        }
+    }
+}
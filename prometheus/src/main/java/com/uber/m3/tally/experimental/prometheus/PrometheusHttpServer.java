@@ -0,0 +1,432 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.uber.m3.tally.Scope;
+import com.uber.m3.util.Duration;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Embedded HTTP server exposing metrics of the {@link CollectorRegistry} in the Prometheus text format,
+ * based on {@link com.sun.net.httpserver.HttpServer}.
+ * <p>
+ * Whenever {@link Builder#cacheTtl(Duration)} is configured, rendered payload (and its gzipped version)
+ * is cached for the specified duration, making scrapes (by multiple scrapers) arriving within it share
+ * a single rendering. Every payload is rendered into the buffer it's cached in (sized after the previous payload,
+ * to avoid re-growing it), and written out of it without copying.
+ * Otherwise, every scrape is rendered straight into the response (using chunked transfer encoding),
+ * never buffering the whole of it (see {@link ExpositionEncoder} for how the scope is encoded).
+ * <p>
+ * Alternatively, tally {@link Scope} could be exposed directly (see {@link Builder#scope(Scope)}), in which case
+ * it's encoded by {@link ExpositionEncoder}, in either Prometheus text or OpenMetrics format (if the scraper
+ * accepts it).
+ * <p>
+ * Responses are gzipped, if the scraper accepts it.
+ * <p>
+ * NOTE: {@link HttpServer} writes response headers and body separately, which (combined with delayed ACKs)
+ *       might incur latency of tens of milliseconds per scrape, unless {@code sun.net.httpserver.nodelay}
+ *       system property is set to {@code true}.
+ * <p>
+ * Usage example:
+ * <pre>
+ * {@code
+ *   PrometheusHttpServer server = PrometheusHttpServer.builder()
+ *                                                     .address(new InetSocketAddress(9464))
+ *                                                     .cacheTtl(Duration.ofSeconds(1))
+ *                                                     .build();
+ * }
+ * </pre>
+ */
+public class PrometheusHttpServer implements AutoCloseable {
+
+    static final String METRICS_PATH = "/metrics";
+
+    private static final String OPENMETRICS_MEDIA_TYPE = "application/openmetrics-text";
+
+    private static final Duration DEFAULT_CACHE_TTL = Duration.ZERO;
+    private static final int DEFAULT_THREADS = 2;
+
+    private static final int STREAMING_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_RENDER_BUFFER_SIZE = 64 * 1024;
+
+    private static final AtomicInteger serverThreadCounter = new AtomicInteger(0);
+
+    private final CollectorRegistry registry;
+
+    // Encoder of the scope exposed instead of the registry, if any
+    private final ExpositionEncoder encoder;
+
+    private final long cacheTtlNanos;
+
+    private final HttpServer server;
+
+    private final ExecutorService executorService;
+
+    private final ConcurrentMap<ExpositionEncoder.Format, Payload> cachedPayloads = new ConcurrentHashMap<>();
+
+    private final Object renderLock = new Object();
+
+    // Size of the last rendered payload (guarded by the render lock)
+    private int lastPayloadSize = INITIAL_RENDER_BUFFER_SIZE;
+
+    private PrometheusHttpServer(Builder builder) throws IOException {
+        registry = builder.registry;
+        encoder = builder.scope != null ? new ExpositionEncoder(builder.scope, builder.checkpoint) : null;
+        cacheTtlNanos = builder.cacheTtl.getNanos();
+
+        executorService = Executors.newFixedThreadPool(builder.threads, runnable -> {
+            Thread thread = new Thread(
+                    runnable, String.format("tally-prometheus-http-%d", serverThreadCounter.getAndIncrement())
+            );
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        server = HttpServer.create(builder.address, 0);
+
+        HttpHandler handler = this::handle;
+        server.createContext("/", handler);
+        server.createContext(METRICS_PATH, handler);
+        server.setExecutor(executorService);
+        server.start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the address this server is listening on
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executorService.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            ExpositionEncoder.Format format = negotiateFormat(exchange);
+            boolean gzip = acceptsGzip(exchange);
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+
+            exchange.getResponseHeaders().set("Content-Type", format.getContentType());
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+
+            if (cacheTtlNanos > 0) {
+                Payload payload = payload(format);
+                PayloadBuffer body = gzip ? payload.gzipped() : payload.body;
+
+                if (head) {
+                    exchange.sendResponseHeaders(200, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, body.size());
+                    body.writeOut(exchange.getResponseBody());
+                }
+            } else if (head) {
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                // NOTE: Response length of 0 designates chunked transfer encoding
+                exchange.sendResponseHeaders(200, 0);
+                stream(exchange.getResponseBody(), format, gzip);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void stream(OutputStream responseBody, ExpositionEncoder.Format format, boolean gzip) throws IOException {
+        if (!gzip) {
+            render(responseBody, format);
+            return;
+        }
+
+        // NOTE: Closing the gzip stream releases its deflater (on the error path as well),
+        //       leaving the response body to be closed along with the exchange
+        try (GZIPOutputStream gzipStream = new FastGZIPOutputStream(responseBody, STREAMING_BUFFER_SIZE)) {
+            render(gzipStream, format);
+        }
+    }
+
+    private void render(OutputStream out, ExpositionEncoder.Format format) throws IOException {
+        if (encoder != null) {
+            encoder.encode(out, format);
+            return;
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), STREAMING_BUFFER_SIZE);
+        TextFormat.write004(writer, registry.metricFamilySamples());
+        writer.flush();
+    }
+
+    private Payload payload(ExpositionEncoder.Format format) throws IOException {
+        Payload payload = cachedPayloads.get(format);
+        if (payload != null && !payload.isExpired(cacheTtlNanos)) {
+            return payload;
+        }
+
+        synchronized (renderLock) {
+            // Check whether payload has been rendered by the concurrent scrape,
+            // while we were waiting for lock
+            payload = cachedPayloads.get(format);
+            if (payload != null && !payload.isExpired(cacheTtlNanos)) {
+                return payload;
+            }
+
+            // NOTE: Some headroom is left for the payload to grow, without re-growing the buffer
+            PayloadBuffer body = new PayloadBuffer(lastPayloadSize + lastPayloadSize / 8);
+            render(body, format);
+            lastPayloadSize = body.size();
+
+            payload = new Payload(body, System.nanoTime());
+            cachedPayloads.put(format, payload);
+
+            return payload;
+        }
+    }
+
+    private ExpositionEncoder.Format negotiateFormat(HttpExchange exchange) {
+        // NOTE: OpenMetrics format is only supported when exposing the scope
+        if (encoder != null) {
+            List<String> accepts = exchange.getRequestHeaders().get("Accept");
+            if (accepts != null) {
+                for (String accept : accepts) {
+                    if (accept.contains(OPENMETRICS_MEDIA_TYPE)) {
+                        return ExpositionEncoder.Format.OPENMETRICS;
+                    }
+                }
+            }
+        }
+
+        return ExpositionEncoder.Format.PROMETHEUS_TEXT;
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        List<String> acceptEncodings = exchange.getRequestHeaders().get("Accept-Encoding");
+        if (acceptEncodings == null) {
+            return false;
+        }
+
+        for (String acceptEncoding : acceptEncodings) {
+            for (String encoding : acceptEncoding.split(",")) {
+                if (encoding.trim().toLowerCase().startsWith("gzip")) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Rendered payload, gzipped lazily (once) if requested
+     */
+    private static final class Payload {
+        private final PayloadBuffer body;
+        private final long renderedAtNanos;
+
+        private volatile PayloadBuffer gzipped;
+
+        Payload(PayloadBuffer body, long renderedAtNanos) {
+            this.body = body;
+            this.renderedAtNanos = renderedAtNanos;
+        }
+
+        boolean isExpired(long ttlNanos) {
+            return System.nanoTime() - renderedAtNanos >= ttlNanos;
+        }
+
+        PayloadBuffer gzipped() throws IOException {
+            PayloadBuffer result = gzipped;
+            if (result != null) {
+                return result;
+            }
+
+            synchronized (this) {
+                if (gzipped == null) {
+                    PayloadBuffer compressed = new PayloadBuffer(Math.max(body.size() / 4, 32));
+
+                    try (GZIPOutputStream gzipStream = new FastGZIPOutputStream(compressed, STREAMING_BUFFER_SIZE)) {
+                        body.writeOut(gzipStream);
+                    }
+
+                    gzipped = compressed;
+                }
+
+                return gzipped;
+            }
+        }
+    }
+
+    /**
+     * Buffer payload is rendered (or compressed) into, and then written out of (by any number of scrapes)
+     * without being copied.
+     * <p>
+     * NOTE: Buffer is no longer written to, once it's been published
+     */
+    private static final class PayloadBuffer extends ByteArrayOutputStream {
+        PayloadBuffer(int size) {
+            super(size);
+        }
+
+        void writeOut(OutputStream out) throws IOException {
+            // NOTE: Unlike writeTo, doesn't hold the lock of the buffer while writing into the (slow) stream
+            out.write(buf, 0, count);
+        }
+    }
+
+    /**
+     * {@link GZIPOutputStream} favoring speed over compression ratio, since (large) payloads
+     * have to be compressed on the scrape path.
+     * <p>
+     * NOTE: Closing this stream finishes it and releases its (native) deflater, but leaves the underlying
+     *       stream open
+     */
+    private static final class FastGZIPOutputStream extends GZIPOutputStream {
+        private boolean closed;
+
+        FastGZIPOutputStream(OutputStream out, int size) throws IOException {
+            super(out, size);
+
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+
+            try {
+                finish();
+            } finally {
+                def.end();
+            }
+        }
+    }
+
+    /**
+     * Builder helps to configure and create {@link PrometheusHttpServer}.
+     */
+    public static final class Builder {
+
+        private InetSocketAddress address;
+        private CollectorRegistry registry = CollectorRegistry.defaultRegistry;
+        private Scope scope;
+        private CounterCheckpoint checkpoint;
+        private Duration cacheTtl = DEFAULT_CACHE_TTL;
+        private int threads = DEFAULT_THREADS;
+
+        /**
+         * Sets address server is listening on.
+         */
+        public Builder address(InetSocketAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        /**
+         * Sets custom {@link CollectorRegistry}. Default registry is set to {@link CollectorRegistry#defaultRegistry}.
+         */
+        public Builder registry(CollectorRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+
+        /**
+         * Sets tally {@link Scope} to expose (encoded by {@link ExpositionEncoder}) instead of the registry.
+         * Scrapes accepting OpenMetrics format are served with it.
+         */
+        public Builder scope(Scope scope) {
+            this.scope = scope;
+            return this;
+        }
+
+        /**
+         * Sets checkpoint the totals of the scope's counters and histograms are continued from,
+         * see {@link CounterCheckpoint}.
+         */
+        public Builder checkpoint(CounterCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        /**
+         * Sets duration rendered payload is cached for. By default, payload is not cached.
+         */
+        public Builder cacheTtl(Duration cacheTtl) {
+            this.cacheTtl = cacheTtl;
+            return this;
+        }
+
+        /**
+         * Sets number of threads serving scrapes. Default value is set to 2.
+         */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Builds and starts {@link PrometheusHttpServer} from Builder.
+         */
+        public PrometheusHttpServer build() throws IOException {
+            if (address == null) {
+                throw new IllegalStateException("Address hasn't been set");
+            }
+
+            if (cacheTtl.compareTo(Duration.ZERO) < 0) {
+                throw new IllegalArgumentException("Cache TTL must be non-negative");
+            }
+
+            return new PrometheusHttpServer(this);
+        }
+    }
+}
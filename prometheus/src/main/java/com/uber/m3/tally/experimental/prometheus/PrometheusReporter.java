@@ -23,6 +23,7 @@ package com.uber.m3.tally.experimental.prometheus;
 import com.uber.m3.tally.Buckets;
 import com.uber.m3.tally.Capabilities;
 import com.uber.m3.tally.CapableOf;
+import com.uber.m3.tally.DurationBuckets;
 import com.uber.m3.tally.StatsReporter;
 import com.uber.m3.util.Duration;
 import io.prometheus.client.CollectorRegistry;
@@ -39,6 +40,8 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 
 /**
@@ -68,6 +71,17 @@ import java.util.stream.Collectors;
  *       <li>{@link Builder#defaultBuckets(double[])} sets
  *       {@link io.prometheus.client.Histogram.Builder#buckets(double...)} </li>
  *   </ul>
+ * When {@link SketchSummary} is used, it's configured with the same {@link Builder#ageBuckets(int)},
+ * {@link Builder#maxAgeSeconds(long)} and quantiles (keys of {@link Builder#defaultQuantiles(Map)}) as
+ * {@link io.prometheus.client.Summary} is, tolerated errors being superseded by
+ * {@link Builder#relativeAccuracy(double)}.
+ * Samples of tally {@link com.uber.m3.tally.Histogram}s are reported into {@link BucketHistogram}s, sharing
+ * the bucket layout of the tally {@link Buckets}, and accounting for every bucket's samples at once.
+ * <p>
+ * Series (label children of the collectors) not updated for longer than {@link Builder#seriesTtl(Duration)}
+ * are removed, keeping the size of the scrape bounded when tag values churn. Since tally reports gauges
+ * only when they're updated, this includes gauges that are still held but were set just once.
+ * <p>
  * Use {@link PrometheusReporter.Builder} to construct {@link PrometheusReporter}.
  * <p>
  * Usage example:
@@ -105,10 +119,32 @@ public class PrometheusReporter implements StatsReporter {
     private final double[] defaultBuckets;
     private final int ageBuckets;
     private final long maxAgeSeconds;
+    private final double relativeAccuracy;
     private final ConcurrentMap<String, Counter> registeredCounters;
     private final ConcurrentMap<String, Gauge> registeredGauges;
     private final ConcurrentMap<String, Histogram> registeredHistograms;
     private final ConcurrentMap<String, Summary> registeredSummaries;
+    private final ConcurrentMap<String, BucketHistogram> registeredBucketHistograms;
+    private final ConcurrentMap<String, SketchSummary> registeredSketchSummaries;
+
+    // Children of the registered collectors, resolved once per series
+    private final ConcurrentMap<SeriesKey, TrackedChild<Counter.Child>> counterChildren = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SeriesKey, TrackedChild<Gauge.Child>> gaugeChildren = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SeriesKey, TrackedChild<Histogram.Child>> histogramChildren =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<SeriesKey, TrackedChild<Summary.Child>> summaryChildren = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SeriesKey, TrackedChild<BucketHistogram.Child>> bucketHistogramChildren =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<SeriesKey, TrackedChild<SketchSummary.Child>> sketchSummaryChildren =
+            new ConcurrentHashMap<>();
+
+    // Children not updated for longer than this are removed (unless it's 0)
+    private final long seriesTtlMillis;
+    private final LongSupplier clock;
+
+    // Coarse time children are stamped with when updated, advanced on every flush
+    private volatile long nowMillis;
+    private volatile long lastExpiryMillis;
 
     private PrometheusReporter(
             Map<Double, Double> defaultQuantiles,
@@ -116,7 +152,10 @@ public class PrometheusReporter implements StatsReporter {
             TimerType defaultTimerType,
             CollectorRegistry registry,
             int ageBuckets,
-            long maxAgeSeconds
+            long maxAgeSeconds,
+            double relativeAccuracy,
+            Duration seriesTtl,
+            LongSupplier clock
     ) {
         this.registry = registry;
         this.timerType = defaultTimerType;
@@ -124,10 +163,17 @@ public class PrometheusReporter implements StatsReporter {
         this.defaultQuantiles = defaultQuantiles;
         this.ageBuckets = ageBuckets;
         this.maxAgeSeconds = maxAgeSeconds;
+        this.relativeAccuracy = relativeAccuracy;
+        this.seriesTtlMillis = seriesTtl.toMillis();
+        this.clock = clock;
+        this.nowMillis = clock.getAsLong();
+        this.lastExpiryMillis = nowMillis;
         this.registeredCounters = new ConcurrentHashMap<>();
         this.registeredGauges = new ConcurrentHashMap<>();
         this.registeredSummaries = new ConcurrentHashMap<>();
         this.registeredHistograms = new ConcurrentHashMap<>();
+        this.registeredBucketHistograms = new ConcurrentHashMap<>();
+        this.registeredSketchSummaries = new ConcurrentHashMap<>();
     }
 
     public static Builder builder() {
@@ -136,26 +182,22 @@ public class PrometheusReporter implements StatsReporter {
 
     @Override
     public void reportCounter(String name, Map<String, String> tags, long value) {
-        final Map<String, String> finalTags = (tags == null) ? Collections.emptyMap() : tags;
-        String collectorName = canonicalMetricId(name, finalTags.keySet());
-        Counter counter = registeredCounters.computeIfAbsent(collectorName, key -> Counter.build()
-                .name(name)
-                .help(String.format("%s counter", name))
-                .labelNames(collectionToStringArray(finalTags.keySet()))
-                .register(registry));
-        counter.labels(collectionToStringArray(finalTags.values())).inc(value);
+        SeriesKey key = new SeriesKey(name, tags);
+        TrackedChild<Counter.Child> counter;
+        do {
+            counter = trackedChild(counterChildren, key, this::resolveCounter);
+            counter.child.inc(value);
+        } while (counter.expired);
     }
 
     @Override
     public void reportGauge(String name, Map<String, String> tags, double value) {
-        final Map<String, String> finalTags = (tags == null) ? Collections.emptyMap() : tags;
-        String collectorName = canonicalMetricId(name, finalTags.keySet());
-        Gauge gauge = registeredGauges.computeIfAbsent(collectorName, key -> Gauge.build()
-                .name(name)
-                .help(String.format("%s gauge", name))
-                .labelNames(collectionToStringArray(finalTags.keySet()))
-                .register(registry));
-        gauge.labels(collectionToStringArray(finalTags.values())).set(value);
+        SeriesKey key = new SeriesKey(name, tags);
+        TrackedChild<Gauge.Child> gauge;
+        do {
+            gauge = trackedChild(gaugeChildren, key, this::resolveGauge);
+            gauge.child.set(value);
+        } while (gauge.expired);
     }
 
     @Override
@@ -164,6 +206,9 @@ public class PrometheusReporter implements StatsReporter {
             case HISTOGRAM:
                 reportTimerHistogram(name, tags, interval);
                 break;
+            case SKETCH:
+                reportTimerSketchSummary(name, tags, interval);
+                break;
             case SUMMARY:
             default:
                 reportTimerSummary(name, tags, interval);
@@ -179,20 +224,12 @@ public class PrometheusReporter implements StatsReporter {
             double bucketUpperBound,
             long samples
     ) {
-        final Map<String, String> finalTags = (tags == null) ? Collections.emptyMap() : tags;
-        String collectorName = canonicalMetricId(name, finalTags.keySet());
-        Histogram.Child histogram = registeredHistograms.computeIfAbsent(collectorName, key -> {
-            double[] b = buckets.getValueUpperBounds().stream().mapToDouble(a -> a).toArray();
-            return Histogram.build()
-                    .name(name)
-                    .help(String.format("%s histogram", name))
-                    .buckets(b)
-                    .labelNames(collectionToStringArray(finalTags.keySet()))
-                    .register(registry);
-        }).labels(collectionToStringArray(finalTags.values()));
-        for (int i = 0; i < samples; i++) {
-            histogram.observe(bucketUpperBound);
-        }
+        SeriesKey key = new SeriesKey(name, tags);
+        TrackedChild<BucketHistogram.Child> histogram;
+        do {
+            histogram = trackedChild(bucketHistogramChildren, key, k -> resolveBucketHistogram(k, buckets));
+            histogram.child.incBucketOf(bucketUpperBound, samples);
+        } while (histogram.expired);
     }
 
     @Override
@@ -204,21 +241,30 @@ public class PrometheusReporter implements StatsReporter {
             Duration bucketUpperBound,
             long samples
     ) {
-        final Map<String, String> finalTags = (tags == null) ? Collections.emptyMap() : tags;
-        String collectorName = canonicalMetricId(name, finalTags.keySet());
-        Histogram.Child histogram = registeredHistograms.computeIfAbsent(collectorName, key -> {
-            double[] b = buckets.getDurationUpperBounds().stream().mapToDouble(Duration::getSeconds).toArray();
-            return Histogram.build()
-                    .name(name)
-                    .help(String.format("%s histogram", name))
-                    .buckets(b)
-                    .labelNames(collectionToStringArray(finalTags.keySet()))
-                    .register(registry);
-        }).labels(collectionToStringArray(finalTags.values()));
-        double bucketUpperBoundValue = bucketUpperBound.getSeconds();
-        for (int i = 0; i < samples; i++) {
-            histogram.observe(bucketUpperBoundValue);
-        }
+        SeriesKey key = new SeriesKey(name, tags);
+        TrackedChild<BucketHistogram.Child> histogram;
+        do {
+            histogram = trackedChild(bucketHistogramChildren, key, k -> resolveBucketHistogram(k, buckets));
+            histogram.child.incBucketOf(bucketUpperBound.getSeconds(), samples);
+        } while (histogram.expired);
+    }
+
+    @Override
+    public void reportHistogramSamples(
+            String name,
+            Map<String, String> tags,
+            Buckets buckets,
+            int bucketIndex,
+            long samples
+    ) {
+        // NOTE: Buckets of the {@link BucketHistogram} are laid out the same way tally ones are,
+        //       therefore samples are accounted directly by the bucket's index
+        SeriesKey key = new SeriesKey(name, tags);
+        TrackedChild<BucketHistogram.Child> histogram;
+        do {
+            histogram = trackedChild(bucketHistogramChildren, key, k -> resolveBucketHistogram(k, buckets));
+            histogram.child.incBucket(bucketIndex, samples);
+        } while (histogram.expired);
     }
 
     @Override
@@ -228,45 +274,216 @@ public class PrometheusReporter implements StatsReporter {
 
     @Override
     public void flush() {
-        // no-op flush does nothing for Prometheus reporter.
+        // NOTE: Tally scopes flush the reporter after every report, therefore it's used
+        //       to advance the time children are stamped with and to expire the stale ones
+        long now = clock.getAsLong();
+        nowMillis = now;
+
+        if (seriesTtlMillis > 0 && now - lastExpiryMillis >= Math.max(seriesTtlMillis / 2, 1)) {
+            lastExpiryMillis = now;
+            expireChildren(now - seriesTtlMillis);
+        }
     }
 
     @Override
     public void close() {
+        counterChildren.clear();
+        gaugeChildren.clear();
+        histogramChildren.clear();
+        summaryChildren.clear();
+        bucketHistogramChildren.clear();
+        sketchSummaryChildren.clear();
+
         // registry#clear() should not be called, since registry might contain other non-tally collectors.
         registeredCounters.values().forEach(registry::unregister);
         registeredGauges.values().forEach(registry::unregister);
         registeredSummaries.values().forEach(registry::unregister);
         registeredHistograms.values().forEach(registry::unregister);
+        registeredBucketHistograms.values().forEach(registry::unregister);
+        registeredSketchSummaries.values().forEach(registry::unregister);
     }
 
     private void reportTimerSummary(String name, Map<String, String> tags, Duration interval) {
-        final Map<String, String> finalTags = (tags == null) ? Collections.emptyMap() : tags;
-        String collectorName = canonicalMetricId(name, finalTags.keySet());
+        SeriesKey key = new SeriesKey(name, tags);
+        TrackedChild<Summary.Child> summary;
+        do {
+            summary = trackedChild(summaryChildren, key, this::resolveSummary);
+            summary.child.observe(interval.getSeconds());
+        } while (summary.expired);
+    }
+
+    private void reportTimerSketchSummary(String name, Map<String, String> tags, Duration interval) {
+        SeriesKey key = new SeriesKey(name, tags);
+        TrackedChild<SketchSummary.Child> summary;
+        do {
+            summary = trackedChild(sketchSummaryChildren, key, this::resolveSketchSummary);
+            summary.child.observe(interval.getSeconds());
+        } while (summary.expired);
+    }
+
+    private void reportTimerHistogram(String name, Map<String, String> tags, Duration interval) {
+        SeriesKey key = new SeriesKey(name, tags);
+        TrackedChild<Histogram.Child> histogram;
+        do {
+            histogram = trackedChild(histogramChildren, key, this::resolveHistogram);
+            histogram.child.observe(interval.getSeconds());
+        } while (histogram.expired);
+    }
+
+    // Returns (tracked) child of the series, resolving it if necessary, and stamps it as updated
+    private <C> TrackedChild<C> trackedChild(
+            ConcurrentMap<SeriesKey, TrackedChild<C>> children,
+            SeriesKey key,
+            Function<SeriesKey, TrackedChild<C>> resolver
+    ) {
+        TrackedChild<C> child = SeriesKey.computeIfAbsent(children, key, resolver);
+
+        // NOTE: Time is only written when it changes, to avoid contending
+        //       on the child's cache line on every update
+        long now = nowMillis;
+        if (child.lastUpdateMillis != now) {
+            child.lastUpdateMillis = now;
+        }
+
+        return child;
+    }
+
+    private void expireChildren(long expiryMillis) {
+        expireChildren(counterChildren, expiryMillis);
+        expireChildren(gaugeChildren, expiryMillis);
+        expireChildren(histogramChildren, expiryMillis);
+        expireChildren(summaryChildren, expiryMillis);
+        expireChildren(bucketHistogramChildren, expiryMillis);
+        expireChildren(sketchSummaryChildren, expiryMillis);
+    }
+
+    private static <C> void expireChildren(ConcurrentMap<SeriesKey, TrackedChild<C>> children, long expiryMillis) {
+        for (Map.Entry<SeriesKey, TrackedChild<C>> entry : children.entrySet()) {
+            if (entry.getValue().lastUpdateMillis >= expiryMillis) {
+                continue;
+            }
+
+            // NOTE: Child is marked expired and removed from its collector while holding the entry,
+            //       so that the concurrent report can't resolve the new child (wrapping the one
+            //       still registered with the collector) before the removal completes. Concurrent
+            //       update which might have landed into the expired child is repeated against the
+            //       new one. Update racing with the check (of the series idle for the whole TTL)
+            //       might still be lost, which is tolerated
+            children.computeIfPresent(entry.getKey(), (key, child) -> {
+                if (child.lastUpdateMillis >= expiryMillis) {
+                    return child;
+                }
+
+                child.expired = true;
+                child.remover.run();
+
+                return null;
+            });
+        }
+    }
+
+    // NOTE: Collectors are registered with the labels in the canonical order, therefore
+    //       label values of the series are resolved in the same order as well
+
+    private TrackedChild<Counter.Child> resolveCounter(SeriesKey series) {
+        String name = series.getName();
+        String collectorName = canonicalMetricId(name, series.getTags().keySet());
+        String[] labelNames = series.labelNames();
+        Counter counter = registeredCounters.computeIfAbsent(collectorName, key -> Counter.build()
+                .name(name)
+                .help(String.format("%s counter", name))
+                .labelNames(labelNames)
+                .register(registry));
+        String[] labelValues = series.labelValues(labelNames);
+        return new TrackedChild<>(counter.labels(labelValues), () -> counter.remove(labelValues));
+    }
+
+    private TrackedChild<Gauge.Child> resolveGauge(SeriesKey series) {
+        String name = series.getName();
+        String collectorName = canonicalMetricId(name, series.getTags().keySet());
+        String[] labelNames = series.labelNames();
+        Gauge gauge = registeredGauges.computeIfAbsent(collectorName, key -> Gauge.build()
+                .name(name)
+                .help(String.format("%s gauge", name))
+                .labelNames(labelNames)
+                .register(registry));
+        String[] labelValues = series.labelValues(labelNames);
+        return new TrackedChild<>(gauge.labels(labelValues), () -> gauge.remove(labelValues));
+    }
+
+    private TrackedChild<Summary.Child> resolveSummary(SeriesKey series) {
+        String name = series.getName();
+        String collectorName = canonicalMetricId(name, series.getTags().keySet());
+        String[] labelNames = series.labelNames();
         Summary summary = registeredSummaries.computeIfAbsent(collectorName, key -> {
             Summary.Builder builder = Summary.build()
                     .name(name)
                     .help(String.format("%s summary", name))
                     .ageBuckets(ageBuckets)
                     .maxAgeSeconds(maxAgeSeconds)
-                    .labelNames(collectionToStringArray(finalTags.keySet()));
+                    .labelNames(labelNames);
             defaultQuantiles.forEach(builder::quantile);
             return builder.register(registry);
         });
-        summary.labels(collectionToStringArray(finalTags.values())).observe(interval.getSeconds());
+        String[] labelValues = series.labelValues(labelNames);
+        return new TrackedChild<>(summary.labels(labelValues), () -> summary.remove(labelValues));
     }
 
-    private void reportTimerHistogram(String name, Map<String, String> tags, Duration interval) {
-        final Map<String, String> finalTags = (tags == null) ? Collections.emptyMap() : tags;
-        String collectorName = canonicalMetricId(name, finalTags.keySet());
+    private TrackedChild<SketchSummary.Child> resolveSketchSummary(SeriesKey series) {
+        String name = series.getName();
+        String collectorName = canonicalMetricId(name, series.getTags().keySet());
+        String[] labelNames = series.labelNames();
+        SketchSummary summary = registeredSketchSummaries.computeIfAbsent(collectorName, key -> SketchSummary.build()
+                .name(name)
+                .help(String.format("%s summary", name))
+                .ageBuckets(ageBuckets)
+                .maxAgeSeconds(maxAgeSeconds)
+                .quantiles(defaultQuantiles.keySet().stream().mapToDouble(Double::doubleValue).toArray())
+                .relativeAccuracy(relativeAccuracy)
+                .labelNames(labelNames)
+                .register(registry));
+        String[] labelValues = series.labelValues(labelNames);
+        return new TrackedChild<>(summary.labels(labelValues), () -> summary.remove(labelValues));
+    }
+
+    private TrackedChild<Histogram.Child> resolveHistogram(SeriesKey series) {
+        String name = series.getName();
+        String collectorName = canonicalMetricId(name, series.getTags().keySet());
+        String[] labelNames = series.labelNames();
         Histogram histogram = registeredHistograms.computeIfAbsent(collectorName, key -> Histogram.build()
                 .name(name)
                 .help(String.format("%s histogram", name))
                 .buckets(defaultBuckets)
-                .labelNames(collectionToStringArray(finalTags.keySet()))
+                .labelNames(labelNames)
+                .register(registry));
+        String[] labelValues = series.labelValues(labelNames);
+        return new TrackedChild<>(histogram.labels(labelValues), () -> histogram.remove(labelValues));
+    }
+
+    private TrackedChild<BucketHistogram.Child> resolveBucketHistogram(SeriesKey series, Buckets buckets) {
+        String name = series.getName();
+        String collectorName = canonicalMetricId(name, series.getTags().keySet());
+        String[] labelNames = series.labelNames();
+        BucketHistogram histogram = registeredBucketHistograms.computeIfAbsent(collectorName, key -> BucketHistogram.build()
+                .name(name)
+                .help(String.format("%s histogram", name))
+                .buckets(upperBoundsOf(buckets))
+                .labelNames(labelNames)
                 .register(registry));
-        histogram.labels(collectionToStringArray(finalTags.values()))
-                .observe(interval.getSeconds());
+        String[] labelValues = series.labelValues(labelNames);
+        return new TrackedChild<>(histogram.labels(labelValues), () -> histogram.remove(labelValues));
+    }
+
+    /**
+     * Returns upper bounds of the provided tally {@link Buckets}, durations being expressed in seconds.
+     *
+     * @param buckets tally buckets.
+     * @return upper bounds of the buckets.
+     */
+    static double[] upperBoundsOf(Buckets buckets) {
+        return buckets instanceof DurationBuckets
+                ? buckets.getDurationUpperBounds().stream().mapToDouble(Duration::getSeconds).toArray()
+                : buckets.getValueUpperBounds().stream().mapToDouble(a -> a).toArray();
     }
 
     /**
@@ -349,10 +566,28 @@ public class PrometheusReporter implements StatsReporter {
     /**
      * Default buckets when creating a new Summary.
      */
-    private static double[] defaultBuckets() {
+    static double[] defaultBuckets() {
         return new double[]{.005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10};
     }
 
+    /**
+     * Child of the registered collector, along with the time it was last updated at
+     */
+    private static final class TrackedChild<C> {
+        private final C child;
+
+        // Removes the child from its collector
+        private final Runnable remover;
+
+        private volatile long lastUpdateMillis;
+        private volatile boolean expired;
+
+        TrackedChild(C child, Runnable remover) {
+            this.child = child;
+            this.remover = remover;
+        }
+    }
+
     /**
      * Builder helps to configure and create {@link PrometheusReporter}.
      */
@@ -364,6 +599,9 @@ public class PrometheusReporter implements StatsReporter {
         private double[] defaultBuckets = PrometheusReporter.defaultBuckets();
         private int ageBuckets = 5;
         private long maxAgeSeconds = TimeUnit.MINUTES.toSeconds(10);
+        private double relativeAccuracy = 0.01;
+        private Duration seriesTtl = Duration.ZERO;
+        private LongSupplier clock = System::currentTimeMillis;
 
         /**
          * Sets custom {@link CollectorRegistry}. Default registry is set to {@link CollectorRegistry#defaultRegistry}.
@@ -402,8 +640,8 @@ public class PrometheusReporter implements StatsReporter {
         }
 
         /**
-         * Sets default representation of {@link com.uber.m3.tally.Timer}. It can be either emitted as
-         * {@link io.prometheus.client.Summary} or {@link io.prometheus.client.Histogram}.
+         * Sets default representation of {@link com.uber.m3.tally.Timer}. It can be emitted as
+         * {@link io.prometheus.client.Summary}, {@link io.prometheus.client.Histogram} or {@link SketchSummary}.
          */
         public Builder timerType(TimerType timerType) {
             this.timerType = timerType;
@@ -426,12 +664,53 @@ public class PrometheusReporter implements StatsReporter {
             return this;
         }
 
+        /**
+         * Sets {@link SketchSummary.Builder#relativeAccuracy(double)}. Default value is set to 0.01.
+         */
+        public Builder relativeAccuracy(double relativeAccuracy) {
+            this.relativeAccuracy = relativeAccuracy;
+            return this;
+        }
+
+        /**
+         * Sets duration after which series not updated (ie reported) are removed from the collectors.
+         * Expiry is performed when the reporter is flushed (which tally scopes do after every report),
+         * therefore series are removed within one and a half of the duration (plus the reporting interval).
+         * Default value is set to {@link Duration#ZERO}, meaning series are never removed.
+         * <p>
+         * NOTE: Tally gauges are only reported when they're updated, therefore a gauge set once (or to
+         *       a value changing less often than the duration) is removed as well, until it's updated
+         *       again. Gauges expected to outlive the duration have to be updated periodically.
+         */
+        public Builder seriesTtl(Duration seriesTtl) {
+            if (seriesTtl.compareTo(Duration.ZERO) < 0) {
+                throw new IllegalArgumentException("Series TTL must be non-negative");
+            }
+
+            this.seriesTtl = seriesTtl;
+            return this;
+        }
+
+        // NOTE: Only used in testing
+        Builder clock(LongSupplier clock) {
+            this.clock = clock;
+            return this;
+        }
+
         /**
          * Builds {@link PrometheusReporter} from Builder.
          */
         public PrometheusReporter build() {
             return new PrometheusReporter(
-                    defaultQuantiles, defaultBuckets, timerType, registry, ageBuckets, maxAgeSeconds
+                    defaultQuantiles,
+                    defaultBuckets,
+                    timerType,
+                    registry,
+                    ageBuckets,
+                    maxAgeSeconds,
+                    relativeAccuracy,
+                    seriesTtl,
+                    clock
             );
         }
     }
@@ -0,0 +1,775 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.Buckets;
+import com.uber.m3.tally.Capabilities;
+import com.uber.m3.tally.CapableOf;
+import com.uber.m3.tally.StatsReporter;
+import com.uber.m3.util.Duration;
+import io.prometheus.client.Collector;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An implementation of {@link StatsReporter} pushing metrics to the Prometheus remote-write endpoint,
+ * for the processes that are never scraped (batch jobs, short-lived pods, etc).
+ * <p>
+ * Reporter accumulates the values reported by tally (counters being accumulated into cumulative ones),
+ * and on every {@link #flush()} (which tally scopes do after every report) encodes all of the series
+ * into the remote-write {@code WriteRequest}s straight from its own state (without simpleclient collectors),
+ * labels of every series being encoded only once.
+ * <p>
+ * Series are sharded (by their identity) across {@link Builder#shards(int)} senders, each of which
+ * <ul>
+ *     <li>sends snappy-compressed requests of up to {@link Builder#maxSamplesPerSend(int)} samples
+ *     one at a time, preserving the order of the samples of every series</li>
+ *     <li>holds up to {@link Builder#maxPendingBatches(int)} requests pending, dropping the following ones</li>
+ *     <li>retries requests failed with the recoverable (5xx, 429 or I/O) errors up to
+ *     {@link Builder#maxRetries(int)} times, backing off exponentially</li>
+ * </ul>
+ * Metrics are exposed the same way {@link PrometheusReporter} does, timers being exposed as histograms
+ * (see {@link Builder#timerBuckets(double...)}). Series are kept until the reporter is closed.
+ * <p>
+ * Usage example:
+ * <pre>
+ * {@code
+ *   RemoteWriteReporter reporter = RemoteWriteReporter.builder()
+ *                                                     .endpoint(new URL("http://prometheus:9090/api/v1/write"))
+ *                                                     .shards(4)
+ *                                                     .build();
+ *   Scope scope = new RootScopeBuilder().reporter(reporter)
+ *                                       .reportEvery(Duration.ofSeconds(10));
+ * }
+ * </pre>
+ */
+public class RemoteWriteReporter implements StatsReporter {
+
+    static final String NAME_LABEL_NAME = "__name__";
+
+    private static final String REMOTE_WRITE_VERSION = "0.1.0";
+
+    private static final long SHARD_POLL_INTERVAL_MILLIS = 100;
+
+    private static final AtomicInteger shardThreadCounter = new AtomicInteger(0);
+
+    private final URL endpoint;
+    private final Map<String, String> headers;
+    private final int timeoutMillis;
+
+    private final int maxSamplesPerSend;
+    private final int maxRetries;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long closeTimeoutMillis;
+
+    private final HistogramLayout timerLayout;
+
+    private final Shard[] shards;
+
+    private final ExecutorService executorService;
+
+    private final ConcurrentMap<SeriesKey, CounterSeries> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SeriesKey, GaugeSeries> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SeriesKey, HistogramSeries> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SeriesKey, HistogramSeries> histograms = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Buckets, HistogramLayout> histogramLayouts = new ConcurrentHashMap<>();
+
+    private final LongAdder sentSamples = new LongAdder();
+    private final LongAdder droppedSamples = new LongAdder();
+    private final LongAdder failedSamples = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    private RemoteWriteReporter(Builder builder) {
+        endpoint = builder.endpoint;
+        headers = Collections.unmodifiableMap(new LinkedHashMap<>(builder.headers));
+        timeoutMillis = (int) builder.timeout.toMillis();
+
+        maxSamplesPerSend = builder.maxSamplesPerSend;
+        maxRetries = builder.maxRetries;
+        minBackoffMillis = builder.minBackoff.toMillis();
+        maxBackoffMillis = builder.maxBackoff.toMillis();
+        closeTimeoutMillis = builder.closeTimeout.toMillis();
+
+        timerLayout = new HistogramLayout(BucketHistogram.withInfiniteBound(builder.timerBuckets));
+
+        executorService = Executors.newFixedThreadPool(builder.shards, runnable -> {
+            Thread thread = new Thread(
+                    runnable, String.format("tally-remote-write-%d", shardThreadCounter.getAndIncrement())
+            );
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        shards = new Shard[builder.shards];
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new Shard(builder.maxPendingBatches);
+            executorService.submit(shards[i]);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public void reportCounter(String name, Map<String, String> tags, long value) {
+        SeriesKey.computeIfAbsent(counters, new SeriesKey(name, tags), CounterSeries::new).value.add(value);
+    }
+
+    @Override
+    public void reportGauge(String name, Map<String, String> tags, double value) {
+        SeriesKey.computeIfAbsent(gauges, new SeriesKey(name, tags), GaugeSeries::new).value = value;
+    }
+
+    @Override
+    public void reportTimer(String name, Map<String, String> tags, Duration interval) {
+        SeriesKey.computeIfAbsent(timers, new SeriesKey(name, tags), key -> new HistogramSeries(key, timerLayout))
+                .buckets.observe(interval.getSeconds());
+    }
+
+    @Override
+    public void reportHistogramValueSamples(
+            String name,
+            Map<String, String> tags,
+            Buckets buckets,
+            double bucketLowerBound,
+            double bucketUpperBound,
+            long samples
+    ) {
+        histogram(name, tags, buckets).buckets.incBucketOf(bucketUpperBound, samples);
+    }
+
+    @Override
+    public void reportHistogramDurationSamples(
+            String name,
+            Map<String, String> tags,
+            Buckets buckets,
+            Duration bucketLowerBound,
+            Duration bucketUpperBound,
+            long samples
+    ) {
+        histogram(name, tags, buckets).buckets.incBucketOf(bucketUpperBound.getSeconds(), samples);
+    }
+
+    @Override
+    public void reportHistogramSamples(
+            String name,
+            Map<String, String> tags,
+            Buckets buckets,
+            int bucketIndex,
+            long samples
+    ) {
+        histogram(name, tags, buckets).buckets.incBucket(bucketIndex, samples);
+    }
+
+    @Override
+    public Capabilities capabilities() {
+        return CapableOf.REPORTING_TAGGING;
+    }
+
+    /**
+     * Encodes current state of all of the series into requests, queueing them to be sent
+     */
+    @Override
+    public void flush() {
+        synchronized (shards) {
+            long timestampMillis = System.currentTimeMillis();
+
+            for (CounterSeries series : counters.values()) {
+                series.write(shard(series), timestampMillis);
+            }
+
+            for (GaugeSeries series : gauges.values()) {
+                series.write(shard(series), timestampMillis);
+            }
+
+            for (HistogramSeries series : timers.values()) {
+                series.write(shard(series), timestampMillis);
+            }
+
+            for (HistogramSeries series : histograms.values()) {
+                series.write(shard(series), timestampMillis);
+            }
+
+            for (Shard shard : shards) {
+                shard.seal();
+            }
+        }
+    }
+
+    /**
+     * Flushes the reporter, and waits (up to {@link Builder#closeTimeout(Duration)}) for
+     * the pending requests to be sent
+     */
+    @Override
+    public void close() {
+        flush();
+
+        for (Shard shard : shards) {
+            shard.closing = true;
+        }
+
+        executorService.shutdown();
+
+        try {
+            if (!executorService.awaitTermination(closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns number of samples sent successfully
+     */
+    public long getSentSamples() {
+        return sentSamples.sum();
+    }
+
+    /**
+     * Returns number of samples dropped, since sender had too many requests pending
+     */
+    public long getDroppedSamples() {
+        return droppedSamples.sum();
+    }
+
+    /**
+     * Returns number of samples failed to be sent (with non-recoverable error, or after all retries)
+     */
+    public long getFailedSamples() {
+        return failedSamples.sum();
+    }
+
+    /**
+     * Returns number of requests retried
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    private HistogramSeries histogram(String name, Map<String, String> tags, Buckets buckets) {
+        return SeriesKey.computeIfAbsent(histograms, new SeriesKey(name, tags), key -> new HistogramSeries(
+                key,
+                histogramLayouts.computeIfAbsent(buckets, b -> new HistogramLayout(
+                        BucketHistogram.withInfiniteBound(PrometheusReporter.upperBoundsOf(b))
+                ))
+        ));
+    }
+
+    private Shard shard(Series series) {
+        return shards[(series.hashCode & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private long backoffMillis(int attempt) {
+        return Math.min(minBackoffMillis << Math.min(attempt, 30), maxBackoffMillis);
+    }
+
+    /**
+     * Sender of the requests of the subset of series, sending them one at a time
+     */
+    private final class Shard implements Runnable {
+
+        // NOTE: Encoder is only used when flushing, while holding the lock
+        private final WriteRequestEncoder encoder = new WriteRequestEncoder();
+
+        private final BlockingQueue<Request> pendingRequests;
+
+        private byte[] compressionBuffer = new byte[0];
+
+        private volatile boolean closing;
+
+        Shard(int maxPendingBatches) {
+            pendingRequests = new ArrayBlockingQueue<>(maxPendingBatches);
+        }
+
+        void append(byte[][] labels, double value, long timestampMillis) {
+            encoder.timeSeries(labels, value, timestampMillis);
+
+            if (encoder.samples() >= maxSamplesPerSend) {
+                seal();
+            }
+        }
+
+        // Compresses series appended so far into the request, and queues it to be sent
+        void seal() {
+            int samples = encoder.samples();
+            if (samples == 0) {
+                return;
+            }
+
+            try {
+                int maxCompressedLength = Snappy.maxCompressedLength(encoder.size());
+                if (compressionBuffer.length < maxCompressedLength) {
+                    compressionBuffer = new byte[maxCompressedLength];
+                }
+
+                int compressedLength = Snappy.compress(encoder.buffer(), 0, encoder.size(), compressionBuffer, 0);
+
+                Request request = new Request(Arrays.copyOf(compressionBuffer, compressedLength), samples);
+                if (!pendingRequests.offer(request)) {
+                    droppedSamples.add(samples);
+                }
+            } catch (IOException e) {
+                failedSamples.add(samples);
+            } finally {
+                encoder.reset();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!closing || !pendingRequests.isEmpty()) {
+                Request request;
+
+                try {
+                    request = pendingRequests.poll(SHARD_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+                if (request != null) {
+                    send(request);
+                }
+            }
+
+            for (Request request : pendingRequests) {
+                failedSamples.add(request.samples);
+            }
+        }
+
+        private void send(Request request) {
+            for (int attempt = 0; true; ++attempt) {
+                int status = post(request.body);
+
+                if (status >= 200 && status < 300) {
+                    sentSamples.add(request.samples);
+                    return;
+                }
+
+                // NOTE: Only server errors, throttling and I/O errors (status of -1) are recoverable
+                boolean recoverable = status < 0 || status >= 500 || status == 429;
+                if (!recoverable || attempt >= maxRetries) {
+                    failedSamples.add(request.samples);
+                    return;
+                }
+
+                retries.increment();
+
+                try {
+                    Thread.sleep(backoffMillis(attempt));
+                } catch (InterruptedException e) {
+                    failedSamples.add(request.samples);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        // Returns status of the response, or -1 in case request failed
+        private int post(byte[] body) {
+            HttpURLConnection connection = null;
+
+            try {
+                connection = (HttpURLConnection) endpoint.openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setConnectTimeout(timeoutMillis);
+                connection.setReadTimeout(timeoutMillis);
+                connection.setFixedLengthStreamingMode(body.length);
+
+                connection.setRequestProperty("Content-Type", "application/x-protobuf");
+                connection.setRequestProperty("Content-Encoding", "snappy");
+                connection.setRequestProperty("X-Prometheus-Remote-Write-Version", REMOTE_WRITE_VERSION);
+                headers.forEach(connection::setRequestProperty);
+
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+
+                int status = connection.getResponseCode();
+
+                // Response is drained, so that connection could be reused
+                InputStream response = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+                if (response != null) {
+                    try (InputStream in = response) {
+                        byte[] buffer = new byte[1024];
+                        int read;
+                        do {
+                            read = in.read(buffer);
+                        } while (read >= 0);
+                    }
+                }
+
+                return status;
+            } catch (IOException e) {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Compressed {@code WriteRequest}, pending to be sent
+     */
+    private static final class Request {
+        private final byte[] body;
+        private final int samples;
+
+        Request(byte[] body, int samples) {
+            this.body = body;
+            this.samples = samples;
+        }
+    }
+
+    /**
+     * Encoded labels of the series, sorted by their names (as required by remote-write), with the slots
+     * of the metric name (and bucket bound) labels filled in by the samples of the series.
+     * <p>
+     * Tags whose (sanitized) names clash with the reserved {@code __name__} and {@code le} labels, or with
+     * the names of the other tags, are renamed by prefixing them with underscores until the clash is resolved
+     */
+    private static final class LabelSet {
+        private final byte[][] labels;
+        private final int nameIndex;
+        private final int boundIndex;
+
+        LabelSet(SeriesKey key, boolean bounded) {
+            List<String> labelNames = new ArrayList<>();
+            Map<String, byte[]> labelsByName = new HashMap<>();
+
+            String[] tagNames = key.labelNames();
+            String[] tagValues = key.labelValues(tagNames);
+
+            // NOTE: Bucket bound label is reserved for all series, so that tags are labeled
+            //       the same way by the buckets and the rest of the samples of histograms
+            String[] tagLabelNames = ExpositionEncoder.uniqueLabelNames(
+                    tagNames, NAME_LABEL_NAME, BucketHistogram.BUCKET_LABEL_NAME
+            );
+
+            for (int i = 0; i < tagNames.length; ++i) {
+                labelNames.add(tagLabelNames[i]);
+                labelsByName.put(tagLabelNames[i], WriteRequestEncoder.label(tagLabelNames[i], tagValues[i]));
+            }
+
+            labelNames.add(NAME_LABEL_NAME);
+            if (bounded) {
+                labelNames.add(BucketHistogram.BUCKET_LABEL_NAME);
+            }
+
+            Collections.sort(labelNames);
+
+            labels = new byte[labelNames.size()][];
+            for (int i = 0; i < labels.length; ++i) {
+                labels[i] = labelsByName.get(labelNames.get(i));
+            }
+
+            nameIndex = labelNames.indexOf(NAME_LABEL_NAME);
+            boundIndex = bounded ? labelNames.indexOf(BucketHistogram.BUCKET_LABEL_NAME) : -1;
+        }
+
+        byte[][] with(byte[] nameLabel) {
+            labels[nameIndex] = nameLabel;
+            return labels;
+        }
+
+        byte[][] with(byte[] nameLabel, byte[] boundLabel) {
+            labels[nameIndex] = nameLabel;
+            labels[boundIndex] = boundLabel;
+            return labels;
+        }
+    }
+
+    /**
+     * Layout of the histogram buckets, along with their encoded bound labels
+     */
+    private static final class HistogramLayout {
+        private final double[] upperBounds;
+        private final double[] midpoints;
+        private final byte[][] boundLabels;
+
+        HistogramLayout(double[] upperBounds) {
+            this.upperBounds = upperBounds;
+            this.midpoints = BucketHistogram.midpoints(upperBounds);
+
+            boundLabels = new byte[upperBounds.length][];
+            for (int i = 0; i < upperBounds.length; ++i) {
+                boundLabels[i] = WriteRequestEncoder.label(
+                        BucketHistogram.BUCKET_LABEL_NAME, Collector.doubleToGoString(upperBounds[i])
+                );
+            }
+        }
+    }
+
+    /**
+     * State of the series, accumulated from the values reported by tally
+     */
+    private abstract static class Series {
+        private final int hashCode;
+
+        Series(SeriesKey key) {
+            this.hashCode = key.hashCode();
+        }
+
+        static byte[] nameLabel(SeriesKey key, String suffix) {
+            return WriteRequestEncoder.label(NAME_LABEL_NAME, Collector.sanitizeMetricName(key.getName()) + suffix);
+        }
+
+        abstract void write(Shard shard, long timestampMillis);
+    }
+
+    private static final class CounterSeries extends Series {
+        private final LabelSet labelSet;
+        private final byte[] nameLabel;
+
+        private final LongAdder value = new LongAdder();
+
+        CounterSeries(SeriesKey key) {
+            super(key);
+
+            labelSet = new LabelSet(key, false);
+            nameLabel = nameLabel(key, "");
+        }
+
+        @Override
+        void write(Shard shard, long timestampMillis) {
+            shard.append(labelSet.with(nameLabel), value.sum(), timestampMillis);
+        }
+    }
+
+    private static final class GaugeSeries extends Series {
+        private final LabelSet labelSet;
+        private final byte[] nameLabel;
+
+        private volatile double value;
+
+        GaugeSeries(SeriesKey key) {
+            super(key);
+
+            labelSet = new LabelSet(key, false);
+            nameLabel = nameLabel(key, "");
+        }
+
+        @Override
+        void write(Shard shard, long timestampMillis) {
+            shard.append(labelSet.with(nameLabel), value, timestampMillis);
+        }
+    }
+
+    private static final class HistogramSeries extends Series {
+        private final HistogramLayout layout;
+
+        private final LabelSet labelSet;
+        private final LabelSet bucketLabelSet;
+
+        private final byte[] bucketNameLabel;
+        private final byte[] countNameLabel;
+        private final byte[] sumNameLabel;
+
+        // NOTE: Samples are counted the same way they are by the children of {@link BucketHistogram}
+        private final BucketHistogram.Child buckets;
+
+        HistogramSeries(SeriesKey key, HistogramLayout layout) {
+            super(key);
+
+            this.layout = layout;
+
+            labelSet = new LabelSet(key, false);
+            bucketLabelSet = new LabelSet(key, true);
+
+            bucketNameLabel = nameLabel(key, "_bucket");
+            countNameLabel = nameLabel(key, "_count");
+            sumNameLabel = nameLabel(key, "_sum");
+
+            buckets = new BucketHistogram.Child(layout.upperBounds, layout.midpoints);
+        }
+
+        @Override
+        void write(Shard shard, long timestampMillis) {
+            long[] counts = buckets.counts();
+            long count = 0;
+
+            for (int i = 0; i < counts.length; ++i) {
+                count += counts[i];
+
+                shard.append(bucketLabelSet.with(bucketNameLabel, layout.boundLabels[i]), count, timestampMillis);
+            }
+
+            shard.append(labelSet.with(countNameLabel), count, timestampMillis);
+            shard.append(labelSet.with(sumNameLabel), buckets.sum(), timestampMillis);
+        }
+    }
+
+    /**
+     * Builder helps to configure and create {@link RemoteWriteReporter}.
+     */
+    public static final class Builder {
+
+        private URL endpoint;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private Duration timeout = Duration.ofSeconds(30);
+        private int shards = 1;
+        private int maxSamplesPerSend = 2000;
+        private int maxPendingBatches = 16;
+        private int maxRetries = 5;
+        private Duration minBackoff = Duration.ofMillis(30);
+        private Duration maxBackoff = Duration.ofSeconds(5);
+        private Duration closeTimeout = Duration.ofSeconds(10);
+        private double[] timerBuckets = PrometheusReporter.defaultBuckets();
+
+        /**
+         * Sets URL of the remote-write endpoint.
+         */
+        public Builder endpoint(URL endpoint) {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        /**
+         * Adds header to be sent with every request (for authorization, tenancy, etc).
+         */
+        public Builder header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * Sets connect and read timeouts of the requests. Default value is set to 30 seconds.
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Sets number of the senders, sending requests in parallel. Default value is set to 1.
+         */
+        public Builder shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * Sets maximum number of samples sent in a single request. Default value is set to 2000.
+         */
+        public Builder maxSamplesPerSend(int maxSamplesPerSend) {
+            this.maxSamplesPerSend = maxSamplesPerSend;
+            return this;
+        }
+
+        /**
+         * Sets maximum number of requests pending to be sent by every sender, following ones being dropped.
+         * Default value is set to 16.
+         */
+        public Builder maxPendingBatches(int maxPendingBatches) {
+            this.maxPendingBatches = maxPendingBatches;
+            return this;
+        }
+
+        /**
+         * Sets maximum number of retries of the request failed with recoverable error. Default value is set to 5.
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets backoff before the first retry, doubled with every following one. Default value is set to 30ms.
+         */
+        public Builder minBackoff(Duration minBackoff) {
+            this.minBackoff = minBackoff;
+            return this;
+        }
+
+        /**
+         * Sets maximum backoff between the retries. Default value is set to 5 seconds.
+         */
+        public Builder maxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * Sets maximum duration {@link RemoteWriteReporter#close()} waits for the pending requests to be sent.
+         * Default value is set to 10 seconds.
+         */
+        public Builder closeTimeout(Duration closeTimeout) {
+            this.closeTimeout = closeTimeout;
+            return this;
+        }
+
+        /**
+         * Sets upper bounds of the buckets of the histograms timers are exposed as.
+         * Default value is set to: [.005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10]
+         */
+        public Builder timerBuckets(double... timerBuckets) {
+            this.timerBuckets = timerBuckets;
+            return this;
+        }
+
+        /**
+         * Builds {@link RemoteWriteReporter} from Builder, starting its senders.
+         */
+        public RemoteWriteReporter build() {
+            if (endpoint == null) {
+                throw new IllegalStateException("Endpoint hasn't been set");
+            }
+
+            if (shards <= 0 || maxSamplesPerSend <= 0 || maxPendingBatches <= 0 || maxRetries < 0) {
+                throw new IllegalArgumentException(
+                        "Shards, max samples per send and max pending batches must be positive, "
+                                + "max retries non-negative"
+                );
+            }
+
+            return new RemoteWriteReporter(this);
+        }
+    }
+}
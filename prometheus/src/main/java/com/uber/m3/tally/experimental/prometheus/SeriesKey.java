@@ -0,0 +1,148 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.util.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Identity of the series reported by tally: name of the metric along with its tags.
+ * <p>
+ * Tally reports the same series with the same {@link ImmutableMap} of tags every time (which caches
+ * its hash code), therefore resolving the series by the key costs a single hash probe.
+ * <p>
+ * Key holds the tags it's created with, so that looking the series up doesn't copy them, while
+ * the key retained by the map holds an immutable copy of them (see {@link #retained()}).
+ */
+final class SeriesKey {
+    private static final String[] EMPTY_STRING_ARRAY = new String[0];
+
+    private final String name;
+    private final Map<String, String> tags;
+    private final int hashCode;
+
+    @SuppressWarnings("unchecked")
+    SeriesKey(String name, Map<String, String> tags) {
+        this.name = name;
+        this.tags = tags == null ? ImmutableMap.EMPTY : tags;
+        this.hashCode = 31 * name.hashCode() + this.tags.hashCode();
+    }
+
+    private SeriesKey(String name, ImmutableMap<String, String> tags, int hashCode) {
+        this.name = name;
+        this.tags = tags;
+        this.hashCode = hashCode;
+    }
+
+    /**
+     * Returns the value of the series in the map, computing it for the retained key in case it's absent
+     */
+    static <V> V computeIfAbsent(ConcurrentMap<SeriesKey, V> map, SeriesKey key, Function<SeriesKey, V> mappingFunction) {
+        V value = map.get(key);
+        if (value == null) {
+            value = map.computeIfAbsent(key.retained(), mappingFunction);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the key that could be retained, copying the tags unless they're immutable already
+     */
+    SeriesKey retained() {
+        if (tags instanceof ImmutableMap) {
+            return this;
+        }
+
+        // NOTE: Tags are copied to make sure key could not be mutated once it's retained
+        return new SeriesKey(name, new ImmutableMap<>(tags), hashCode);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * Returns names of the labels of the series in the canonical (lexicographic) order
+     */
+    String[] labelNames() {
+        String[] labelNames = tags.keySet().toArray(EMPTY_STRING_ARRAY);
+        Arrays.sort(labelNames);
+        return labelNames;
+    }
+
+    /**
+     * Returns values of the labels of the series, in the order of the provided label names
+     */
+    String[] labelValues(String[] labelNames) {
+        String[] labelValues = new String[labelNames.length];
+        for (int i = 0; i < labelNames.length; ++i) {
+            labelValues[i] = tags.get(labelNames[i]);
+        }
+        return labelValues;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof SeriesKey)) {
+            return false;
+        }
+
+        SeriesKey that = (SeriesKey) other;
+
+        return hashCode == that.hashCode && name.equals(that.name) && tagsEqual(tags, that.tags);
+    }
+
+    private static boolean tagsEqual(Map<String, String> tags, Map<String, String> otherTags) {
+        // NOTE: {@link ImmutableMap} only equals to another {@link ImmutableMap}
+        if (tags instanceof ImmutableMap && otherTags instanceof ImmutableMap) {
+            return tags.equals(otherTags);
+        }
+
+        if (tags.size() != otherTags.size()) {
+            return false;
+        }
+
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!Objects.equals(tag.getValue(), otherTags.get(tag.getKey()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -0,0 +1,512 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Prometheus summary estimating quantiles with a relative-error sketch, rather than CKMS streams.
+ * <p>
+ * Unlike {@link io.prometheus.client.Summary}, observations are recorded without taking any locks:
+ * every observation increments the counter of the logarithmically-sized bucket it falls under, such that
+ * any value of the bucket is within the configured relative error of the observed one
+ * (see <a href="https://arxiv.org/abs/1908.10693">DDSketch</a>). Buckets are only allocated (in pages)
+ * once observed, and sketches sharing the relative error are merged by adding up their counts.
+ * <p>
+ * Quantiles are computed at the time of the scrape, over a sliding time window of {@code maxAgeSeconds},
+ * rotating through {@code ageBuckets} sketches (the same way {@link io.prometheus.client.Summary} does),
+ * while {@code _count} and {@code _sum} account for all of the observations.
+ * <p>
+ * Values smaller than {@link #MIN_INDEXABLE_VALUE} (including negative ones) are accounted as zeros,
+ * values greater than {@link #MAX_INDEXABLE_VALUE} as the latter.
+ */
+public class SketchSummary extends Collector implements Collector.Describable {
+
+    static final String QUANTILE_LABEL_NAME = "quantile";
+
+    static final double MIN_INDEXABLE_VALUE = 1e-9;
+    static final double MAX_INDEXABLE_VALUE = 1e9;
+
+    private static final int PAGE_SIZE = 64;
+
+    private final String fullname;
+    private final String help;
+    private final List<String> labelNames;
+
+    private final double[] quantiles;
+    private final String[] quantileLabels;
+
+    private final Mapping mapping;
+
+    private final int ageBuckets;
+    private final long rotationIntervalMillis;
+
+    private final LongSupplier clock;
+
+    private final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<>();
+
+    private SketchSummary(Builder builder) {
+        fullname = builder.name;
+        help = builder.help;
+        labelNames = Collections.unmodifiableList(Arrays.asList(builder.labelNames));
+
+        checkMetricName(fullname);
+
+        for (String labelName : labelNames) {
+            checkMetricLabelName(labelName);
+        }
+
+        if (labelNames.contains(QUANTILE_LABEL_NAME)) {
+            throw new IllegalStateException("Summary cannot have a label named 'quantile'");
+        }
+
+        quantiles = builder.quantiles.clone();
+        Arrays.sort(quantiles);
+
+        quantileLabels = new String[quantiles.length];
+        for (int i = 0; i < quantiles.length; ++i) {
+            quantileLabels[i] = doubleToGoString(quantiles[i]);
+        }
+
+        mapping = new Mapping(builder.relativeAccuracy);
+
+        ageBuckets = builder.ageBuckets;
+        rotationIntervalMillis = Math.max(TimeUnit.SECONDS.toMillis(builder.maxAgeSeconds) / ageBuckets, 1);
+
+        clock = builder.clock;
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    public static Builder build(String name, String help) {
+        return new Builder().name(name).help(help);
+    }
+
+    /**
+     * Returns the child of this summary with the provided label values, creating it if necessary
+     */
+    public Child labels(String... labelValues) {
+        if (labelValues.length != labelNames.size()) {
+            throw new IllegalArgumentException("Incorrect number of labels");
+        }
+
+        for (String labelValue : labelValues) {
+            if (labelValue == null) {
+                throw new IllegalArgumentException("Label cannot be null");
+            }
+        }
+
+        return children.computeIfAbsent(Arrays.asList(labelValues), key -> new Child(this));
+    }
+
+    /**
+     * Removes the child of this summary with the provided label values
+     */
+    public void remove(String... labelValues) {
+        children.remove(Arrays.asList(labelValues));
+    }
+
+    /**
+     * Removes all of the children of this summary
+     */
+    public void clear() {
+        children.clear();
+    }
+
+    /**
+     * Observes the provided value (by the child without labels).
+     */
+    public void observe(double value) {
+        labels().observe(value);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+
+        for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+            List<String> quantileLabelNames = new ArrayList<>(labelNames);
+            quantileLabelNames.add(QUANTILE_LABEL_NAME);
+
+            double[] values = entry.getValue().quantiles();
+
+            for (int i = 0; i < quantiles.length; ++i) {
+                List<String> quantileLabelValues = new ArrayList<>(entry.getKey());
+                quantileLabelValues.add(quantileLabels[i]);
+
+                samples.add(new MetricFamilySamples.Sample(fullname, quantileLabelNames, quantileLabelValues, values[i]));
+            }
+
+            samples.add(new MetricFamilySamples.Sample(
+                    fullname + "_count", labelNames, entry.getKey(), entry.getValue().count()
+            ));
+            samples.add(new MetricFamilySamples.Sample(
+                    fullname + "_sum", labelNames, entry.getKey(), entry.getValue().sum()
+            ));
+        }
+
+        return Collections.singletonList(new MetricFamilySamples(fullname, Type.SUMMARY, help, samples));
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        return Collections.singletonList(
+                new MetricFamilySamples(fullname, Type.SUMMARY, help, Collections.emptyList())
+        );
+    }
+
+    /**
+     * Builder helps to configure and create {@link SketchSummary}.
+     */
+    public static class Builder {
+
+        private String name;
+        private String help;
+        private String[] labelNames = new String[0];
+        private double[] quantiles = new double[0];
+        private double relativeAccuracy = 0.01;
+        private int ageBuckets = 5;
+        private long maxAgeSeconds = TimeUnit.MINUTES.toSeconds(10);
+        private LongSupplier clock = System::currentTimeMillis;
+
+        /**
+         * Sets name of the summary
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Sets help (description) of the summary
+         */
+        public Builder help(String help) {
+            this.help = help;
+            return this;
+        }
+
+        /**
+         * Sets names of the labels of the summary
+         */
+        public Builder labelNames(String... labelNames) {
+            this.labelNames = labelNames;
+            return this;
+        }
+
+        /**
+         * Sets quantiles to expose, each within [0, 1]
+         */
+        public Builder quantiles(double... quantiles) {
+            for (double quantile : quantiles) {
+                if (quantile < 0 || quantile > 1) {
+                    throw new IllegalArgumentException("Quantile must be within [0, 1]");
+                }
+            }
+
+            this.quantiles = quantiles;
+            return this;
+        }
+
+        /**
+         * Sets relative accuracy of the quantiles, within (0, 1). Default value is set to 0.01.
+         */
+        public Builder relativeAccuracy(double relativeAccuracy) {
+            if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+                throw new IllegalArgumentException("Relative accuracy must be within (0, 1)");
+            }
+
+            this.relativeAccuracy = relativeAccuracy;
+            return this;
+        }
+
+        /**
+         * Sets number of the sketches time window is rotated through. Default value is set to 5.
+         */
+        public Builder ageBuckets(int ageBuckets) {
+            if (ageBuckets <= 0) {
+                throw new IllegalArgumentException("Number of age buckets must be positive");
+            }
+
+            this.ageBuckets = ageBuckets;
+            return this;
+        }
+
+        /**
+         * Sets duration of the time window quantiles are computed over. Default value is set to 10 minutes.
+         */
+        public Builder maxAgeSeconds(long maxAgeSeconds) {
+            if (maxAgeSeconds <= 0) {
+                throw new IllegalArgumentException("Max age must be positive");
+            }
+
+            this.maxAgeSeconds = maxAgeSeconds;
+            return this;
+        }
+
+        // NOTE: Only used in testing
+        Builder clock(LongSupplier clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Creates {@link SketchSummary} from Builder.
+         */
+        public SketchSummary create() {
+            if (name == null || name.isEmpty()) {
+                throw new IllegalStateException("Name hasn't been set");
+            }
+
+            if (help == null || help.isEmpty()) {
+                throw new IllegalStateException("Help hasn't been set");
+            }
+
+            return new SketchSummary(this);
+        }
+
+        /**
+         * Creates {@link SketchSummary} from Builder, registering it with the provided registry.
+         */
+        public SketchSummary register(CollectorRegistry registry) {
+            SketchSummary summary = create();
+            registry.register(summary);
+            return summary;
+        }
+    }
+
+    /**
+     * Labelled child of the {@link SketchSummary}.
+     */
+    public static class Child {
+
+        private final SketchSummary summary;
+
+        // Sketches of the time window, indexed by their epoch (modulo number of them)
+        private final AtomicReferenceArray<Sketch> window;
+
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Child(SketchSummary summary) {
+            this.summary = summary;
+            this.window = new AtomicReferenceArray<>(summary.ageBuckets);
+        }
+
+        /**
+         * Observes the provided value.
+         */
+        public void observe(double value) {
+            count.increment();
+            sum.add(value);
+
+            sketch(epoch()).add(summary.mapping.index(value));
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        double sum() {
+            return sum.sum();
+        }
+
+        /**
+         * Returns values of the quantiles (in ascending order) over the current time window,
+         * or {@code NaN}s if nothing has been observed within it
+         */
+        double[] quantiles() {
+            Mapping mapping = summary.mapping;
+
+            long[] counts = new long[mapping.bucketCount];
+
+            long epoch = epoch();
+            for (int i = 0; i < window.length(); ++i) {
+                Sketch sketch = window.get(i);
+                if (sketch != null && sketch.epoch > epoch - window.length()) {
+                    sketch.mergeInto(counts);
+                }
+            }
+
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+
+            double[] values = new double[summary.quantiles.length];
+
+            int index = 0;
+            long cumulativeCount = counts[0];
+
+            for (int i = 0; i < values.length; ++i) {
+                if (total == 0) {
+                    values[i] = Double.NaN;
+                    continue;
+                }
+
+                // NOTE: Quantiles are sorted, therefore buckets are scanned only once
+                double rank = summary.quantiles[i] * (total - 1);
+                while (cumulativeCount <= rank) {
+                    cumulativeCount += counts[++index];
+                }
+
+                values[i] = mapping.value(index);
+            }
+
+            return values;
+        }
+
+        private long epoch() {
+            return summary.clock.getAsLong() / summary.rotationIntervalMillis;
+        }
+
+        private Sketch sketch(long epoch) {
+            int slot = (int) (epoch % window.length());
+
+            Sketch sketch = window.get(slot);
+            if (sketch != null && sketch.epoch >= epoch) {
+                return sketch;
+            }
+
+            // Sketch of the slot has expired, therefore it's replaced with a fresh one. Observations
+            // racing with the replacement might be recorded into the expired one, which is tolerated
+            Sketch fresh = new Sketch(epoch, summary.mapping);
+            if (window.compareAndSet(slot, sketch, fresh)) {
+                return fresh;
+            }
+
+            return window.get(slot);
+        }
+    }
+
+    /**
+     * Logarithmic mapping of the values onto the buckets, such that any value of the bucket
+     * is within the relative accuracy of any other one
+     */
+    static final class Mapping {
+        private final double gamma;
+        private final double logGamma;
+
+        // Index of the first (non-zero) bucket, bucket at index 0 accounts for zeros
+        private final int minIndex;
+
+        private final int bucketCount;
+
+        Mapping(double relativeAccuracy) {
+            gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+            logGamma = Math.log(gamma);
+
+            minIndex = (int) Math.ceil(Math.log(MIN_INDEXABLE_VALUE) / logGamma);
+
+            int maxIndex = (int) Math.ceil(Math.log(MAX_INDEXABLE_VALUE) / logGamma);
+            bucketCount = maxIndex - minIndex + 2;
+        }
+
+        int index(double value) {
+            if (!(value >= MIN_INDEXABLE_VALUE)) {
+                return 0;
+            }
+
+            if (value >= MAX_INDEXABLE_VALUE) {
+                return bucketCount - 1;
+            }
+
+            return (int) Math.ceil(Math.log(value) / logGamma) - minIndex + 1;
+        }
+
+        double value(int index) {
+            if (index == 0) {
+                return 0;
+            }
+
+            // NOTE: Bucket (gamma^(i - 1), gamma^i] is represented by the value equidistant
+            //       (relatively) from its bounds
+            return 2 * Math.exp((index + minIndex - 1) * logGamma) / (gamma + 1);
+        }
+    }
+
+    /**
+     * Sketch of the observations made within a single epoch of the time window
+     */
+    private static final class Sketch {
+        private final long epoch;
+
+        private final AtomicLong zeroCount = new AtomicLong();
+
+        // Pages of the bucket counters, allocated once observed
+        private final AtomicReferenceArray<AtomicLongArray> pages;
+
+        Sketch(long epoch, Mapping mapping) {
+            this.epoch = epoch;
+            this.pages = new AtomicReferenceArray<>((mapping.bucketCount + PAGE_SIZE - 1) / PAGE_SIZE);
+        }
+
+        void add(int index) {
+            if (index == 0) {
+                zeroCount.incrementAndGet();
+                return;
+            }
+
+            int pageIndex = index / PAGE_SIZE;
+
+            AtomicLongArray page = pages.get(pageIndex);
+            if (page == null) {
+                pages.compareAndSet(pageIndex, null, new AtomicLongArray(PAGE_SIZE));
+                page = pages.get(pageIndex);
+            }
+
+            page.incrementAndGet(index % PAGE_SIZE);
+        }
+
+        void mergeInto(long[] counts) {
+            counts[0] += zeroCount.get();
+
+            for (int pageIndex = 0; pageIndex < pages.length(); ++pageIndex) {
+                AtomicLongArray page = pages.get(pageIndex);
+                if (page == null) {
+                    continue;
+                }
+
+                int offset = pageIndex * PAGE_SIZE;
+                for (int i = 0; i < PAGE_SIZE && offset + i < counts.length; ++i) {
+                    counts[offset + i] += page.get(i);
+                }
+            }
+        }
+    }
+}
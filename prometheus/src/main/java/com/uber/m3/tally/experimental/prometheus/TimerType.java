@@ -21,12 +21,12 @@
 package com.uber.m3.tally.experimental.prometheus;
 
 /**
- * {@link com.uber.m3.tally.Timer} metric can be represented as {@link io.prometheus.client.Summary} or
- * {@link io.prometheus.client.Histogram}.
+ * {@link com.uber.m3.tally.Timer} metric can be represented as {@link io.prometheus.client.Summary},
+ * {@link io.prometheus.client.Histogram} or {@link SketchSummary} (summary recording observations without locking).
  *
  * @see <a href="https://prometheus.io/docs/concepts/metric_types/#histogram">Histogram</a>
  * @see <a href="https://prometheus.io/docs/concepts/metric_types/#summary">Summary</a>
  */
 public enum TimerType {
-    SUMMARY, HISTOGRAM
+    SUMMARY, HISTOGRAM, SKETCH
 }
@@ -0,0 +1,178 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encoder of the Prometheus remote-write {@code WriteRequest} protobuf message, written by hand
+ * (rather than generated) to encode series straight from their pre-encoded labels:
+ * <pre>
+ * message WriteRequest { repeated TimeSeries timeseries = 1; }
+ * message TimeSeries   { repeated Label labels = 1; repeated Sample samples = 2; }
+ * message Label        { string name = 1; string value = 2; }
+ * message Sample       { double value = 1; int64 timestamp = 2; }
+ * </pre>
+ * Encoder's buffer is reused across requests, see {@link #reset()}.
+ */
+final class WriteRequestEncoder {
+
+    // Tags of the length-delimited fields #1 and #2
+    private static final byte FIELD_1_LENGTH_DELIMITED = 0x0A;
+    private static final byte FIELD_2_LENGTH_DELIMITED = 0x12;
+
+    // Tags of the Sample's fields
+    private static final byte SAMPLE_VALUE_FIXED64 = 0x09;
+    private static final byte SAMPLE_TIMESTAMP_VARINT = 0x10;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private byte[] buffer;
+
+    private int size;
+
+    private int samples;
+
+    WriteRequestEncoder() {
+        this(INITIAL_BUFFER_SIZE);
+    }
+
+    private WriteRequestEncoder(int initialSize) {
+        buffer = new byte[initialSize];
+    }
+
+    /**
+     * Returns label encoded as the field of the {@code TimeSeries} message,
+     * to be passed to {@link #timeSeries(byte[][], double, long)}
+     */
+    static byte[] label(String name, String value) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+
+        int labelSize = 1 + varintSize(nameBytes.length) + nameBytes.length
+                + 1 + varintSize(valueBytes.length) + valueBytes.length;
+
+        WriteRequestEncoder encoder = new WriteRequestEncoder(1 + varintSize(labelSize) + labelSize);
+
+        encoder.writeByte(FIELD_1_LENGTH_DELIMITED);
+        encoder.writeVarint(labelSize);
+        encoder.writeByte(FIELD_1_LENGTH_DELIMITED);
+        encoder.writeVarint(nameBytes.length);
+        encoder.writeBytes(nameBytes);
+        encoder.writeByte(FIELD_2_LENGTH_DELIMITED);
+        encoder.writeVarint(valueBytes.length);
+        encoder.writeBytes(valueBytes);
+
+        return encoder.buffer;
+    }
+
+    /**
+     * Appends {@code TimeSeries} with the provided (encoded, see {@link #label(String, String)}) labels,
+     * sorted by their names, and a single sample
+     */
+    void timeSeries(byte[][] labels, double value, long timestampMillis) {
+        int labelsSize = 0;
+        for (byte[] label : labels) {
+            labelsSize += label.length;
+        }
+
+        int sampleSize = 1 + Long.BYTES + 1 + varintSize(timestampMillis);
+        int timeSeriesSize = labelsSize + 1 + varintSize(sampleSize) + sampleSize;
+
+        ensureCapacity(1 + varintSize(timeSeriesSize) + timeSeriesSize);
+
+        writeByte(FIELD_1_LENGTH_DELIMITED);
+        writeVarint(timeSeriesSize);
+
+        for (byte[] label : labels) {
+            writeBytes(label);
+        }
+
+        writeByte(FIELD_2_LENGTH_DELIMITED);
+        writeVarint(sampleSize);
+        writeByte(SAMPLE_VALUE_FIXED64);
+        writeFixed64(Double.doubleToRawLongBits(value));
+        writeByte(SAMPLE_TIMESTAMP_VARINT);
+        writeVarint(timestampMillis);
+
+        ++samples;
+    }
+
+    /**
+     * Resets encoder, retaining its buffer
+     */
+    void reset() {
+        size = 0;
+        samples = 0;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int samples() {
+        return samples;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer.length - size < capacity) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + capacity));
+        }
+    }
+
+    private void writeByte(byte b) {
+        buffer[size++] = b;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        buffer[size++] = (byte) value;
+    }
+
+    private void writeFixed64(long value) {
+        for (int i = 0; i < Long.BYTES; ++i) {
+            buffer[size++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    static int varintSize(long value) {
+        int varintSize = 1;
+        while ((value & ~0x7FL) != 0) {
+            ++varintSize;
+            value >>>= 7;
+        }
+        return varintSize;
+    }
+}
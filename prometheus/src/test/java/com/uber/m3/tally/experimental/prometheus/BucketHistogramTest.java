@@ -0,0 +1,95 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BucketHistogramTest {
+    private static final double EPSILON = 1e-9;
+
+    private CollectorRegistry registry;
+
+    @Before
+    public void init() {
+        registry = new CollectorRegistry(true);
+    }
+
+    @Test
+    public void incBucket() {
+        BucketHistogram histogram = BucketHistogram.build("test", "help")
+                .buckets(1, 2, 4)
+                .register(registry);
+
+        histogram.incBucket(0, 1);
+        histogram.incBucket(1, 1_000_000);
+        histogram.incBucket(3, 10);
+        // Indexes past the last bucket are accounted in the +Inf one
+        histogram.incBucket(4, 10);
+
+        assertEquals(1d, bucket("1.0"), EPSILON);
+        assertEquals(1_000_001d, bucket("2.0"), EPSILON);
+        assertEquals(1_000_001d, bucket("4.0"), EPSILON);
+        assertEquals(1_000_021d, bucket("+Inf"), EPSILON);
+        assertEquals(1_000_021d, registry.getSampleValue("test_count"), EPSILON);
+
+        // Samples are accounted at the midpoints of the buckets (or their finite bounds)
+        assertEquals(1 + 1.5 * 1_000_000 + 4 * 20, registry.getSampleValue("test_sum"), EPSILON);
+    }
+
+    @Test
+    public void incBucketOf() {
+        BucketHistogram histogram = BucketHistogram.build("test", "help")
+                .buckets(1, 2, 4)
+                .labelNames("foo")
+                .register(registry);
+
+        histogram.labels("bar").incBucketOf(2, 5);
+        histogram.labels("bar").incBucketOf(3, 5);
+        histogram.labels("bar").incBucketOf(Double.MAX_VALUE, 5);
+
+        assertEquals(0d, bucket("1.0", "bar"), EPSILON);
+        assertEquals(5d, bucket("2.0", "bar"), EPSILON);
+        assertEquals(10d, bucket("4.0", "bar"), EPSILON);
+        assertEquals(15d, bucket("+Inf", "bar"), EPSILON);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unorderedBuckets() {
+        BucketHistogram.build("test", "help").buckets(1, 4, 2);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void bucketLabel() {
+        BucketHistogram.build("test", "help").buckets(1).labelNames("le").create();
+    }
+
+    private double bucket(String le) {
+        return registry.getSampleValue("test_bucket", new String[]{"le"}, new String[]{le});
+    }
+
+    private double bucket(String le, String foo) {
+        return registry.getSampleValue("test_bucket", new String[]{"foo", "le"}, new String[]{foo, le});
+    }
+}
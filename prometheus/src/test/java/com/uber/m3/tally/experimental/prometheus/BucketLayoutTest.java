@@ -0,0 +1,59 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.ValueBuckets;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BucketLayoutTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void accumulate() {
+        BucketLayout layout = new BucketLayout(ValueBuckets.custom(1, 2, 4));
+
+        assertArrayEquals(new String[]{"1.0", "2.0", "4.0", "+Inf"}, layout.upperBoundLabels);
+
+        long[] counts = new long[layout.size()];
+        double sum = layout.accumulate(new long[]{1, 2, 0, 3}, counts);
+
+        assertArrayEquals(new long[]{1, 3, 3, 6}, counts);
+        // Samples are accounted at the midpoints of the buckets (or their finite bounds)
+        assertEquals(1 + 1.5 * 2 + 4 * 3, sum, EPSILON);
+    }
+
+    @Test
+    public void accumulateIntoInfiniteBound() {
+        BucketLayout layout = new BucketLayout(ValueBuckets.custom(1, Double.POSITIVE_INFINITY));
+
+        assertArrayEquals(new String[]{"1.0", "+Inf"}, layout.upperBoundLabels);
+
+        // Overflow bucket is merged into the last one, bound by the infinity already
+        long[] counts = new long[layout.size()];
+        double sum = layout.accumulate(new long[]{1, 2, 3}, counts);
+
+        assertArrayEquals(new long[]{1, 6}, counts);
+        assertEquals(1 + 1 * 5, sum, EPSILON);
+    }
+}
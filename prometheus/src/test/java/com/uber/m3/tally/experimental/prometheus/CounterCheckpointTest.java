@@ -0,0 +1,191 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.NullStatsReporter;
+import com.uber.m3.tally.RootScopeBuilder;
+import com.uber.m3.tally.Scope;
+import com.uber.m3.tally.ScopeCloseException;
+import com.uber.m3.tally.ValueBuckets;
+import com.uber.m3.util.Duration;
+import com.uber.m3.util.ImmutableMap;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CounterCheckpointTest {
+    private static final double EPSILON = 1e-9;
+
+    private static final ValueBuckets BUCKETS = ValueBuckets.custom(1, 10);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+
+    @Before
+    public void init() throws IOException {
+        path = folder.getRoot().toPath().resolve("tally.checkpoint");
+    }
+
+    @Test
+    public void totalsContinueAcrossRestarts() throws IOException, ScopeCloseException {
+        Process first = new Process();
+        assertNull(first.registry.getSampleValue("requests"));
+
+        first.scope.counter("requests").inc(5);
+        first.scope.tagged(ImmutableMap.of("env", "test")).counter("errors").inc(2);
+        first.scope.histogram("sizes", BUCKETS).recordValue(5);
+        first.scope.gauge("gauge").update(42);
+        first.close();
+
+        Process second = new Process();
+
+        // Series are exposed once they're used again
+        assertNull(second.registry.getSampleValue("requests"));
+
+        second.scope.counter("requests").inc(1);
+        second.scope.histogram("sizes", BUCKETS).recordValue(50);
+
+        assertEquals(6d, second.registry.getSampleValue("requests"), EPSILON);
+        assertEquals(1d, bucket(second.registry, "10.0"), EPSILON);
+        assertEquals(2d, bucket(second.registry, "+Inf"), EPSILON);
+        second.close();
+
+        // Series not used by the previous process are retained
+        Process third = new Process();
+        third.scope.counter("requests").inc(0);
+        third.scope.tagged(ImmutableMap.of("env", "test")).counter("errors").inc(1);
+
+        assertEquals(6d, third.registry.getSampleValue("requests"), EPSILON);
+        assertEquals(3d, third.registry.getSampleValue("errors", new String[]{"env"}, new String[]{"test"}), EPSILON);
+        third.close();
+    }
+
+    @Test
+    public void tornCheckpointFallsBackToPreviousOne() throws IOException, ScopeCloseException {
+        Process first = new Process();
+        first.scope.counter("requests").inc(1);
+        first.checkpoint.checkpoint();
+        first.scope.counter("requests").inc(1);
+        first.close();
+
+        // Latest checkpoint is written into the second slot, corrupting its payload
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            long payloadOffset = file.length() / 2 + 20;
+            file.seek(payloadOffset);
+            int b = file.read();
+            file.seek(payloadOffset);
+            file.write(b ^ 0xFF);
+        }
+
+        Process second = new Process();
+        second.scope.counter("requests").inc(0);
+
+        assertEquals(1d, second.registry.getSampleValue("requests"), EPSILON);
+        second.close();
+    }
+
+    @Test
+    public void fileGrows() throws IOException, ScopeCloseException {
+        Process first = new Process();
+        for (int i = 0; i < 5_000; ++i) {
+            first.scope.tagged(ImmutableMap.of("id", String.valueOf(i))).counter("requests").inc(i);
+        }
+        first.close();
+
+        Process second = new Process();
+        second.scope.tagged(ImmutableMap.of("id", "4999")).counter("requests").inc(1);
+
+        assertEquals(
+                5000d,
+                second.registry.getSampleValue("requests", new String[]{"id"}, new String[]{"4999"}),
+                EPSILON
+        );
+        second.close();
+    }
+
+    @Test
+    public void checkpointsPeriodically() throws Exception {
+        Scope scope = new RootScopeBuilder().reporter(new NullStatsReporter()).reportEvery(Duration.ofSeconds(1));
+        CounterCheckpoint checkpoint = CounterCheckpoint.builder()
+                .path(path)
+                .scope(scope)
+                .interval(Duration.ofMillis(10))
+                .build();
+
+        scope.counter("requests").inc(7);
+
+        // First checkpoint is written into the first slot, marking it with the magic number
+        boolean checkpointed = false;
+        for (int attempt = 0; attempt < 500 && !checkpointed; ++attempt) {
+            Thread.sleep(10);
+
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+                checkpointed = file.length() > 0 && file.readInt() == 0x54434B50;
+            }
+        }
+
+        assertTrue(checkpointed);
+
+        checkpoint.close();
+        scope.close();
+    }
+
+    private static Double bucket(CollectorRegistry registry, String upperBound) {
+        return registry.getSampleValue("sizes_bucket", new String[]{"le"}, new String[]{upperBound});
+    }
+
+    /**
+     * Scope of the process, exposed by the collector with the checkpoint
+     */
+    private final class Process {
+        private final Scope scope;
+        private final CounterCheckpoint checkpoint;
+        private final CollectorRegistry registry = new CollectorRegistry(true);
+
+        Process() throws IOException {
+            scope = new RootScopeBuilder().reporter(new NullStatsReporter()).reportEvery(Duration.ofSeconds(1));
+            checkpoint = CounterCheckpoint.builder()
+                    .path(path)
+                    .scope(scope)
+                    .interval(Duration.ZERO)
+                    .build();
+
+            new PrometheusCollector(scope, checkpoint).register(registry);
+        }
+
+        void close() throws IOException, ScopeCloseException {
+            checkpoint.close();
+            scope.close();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.NullStatsReporter;
+import com.uber.m3.tally.RootScopeBuilder;
+import com.uber.m3.tally.Scope;
+import com.uber.m3.tally.ScopeCloseException;
+import com.uber.m3.tally.ValueBuckets;
+import com.uber.m3.util.Duration;
+import com.uber.m3.util.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExpositionEncoderTest {
+    private static final Pattern CREATED_PATTERN = Pattern.compile("_created(\\{[^}]*})? \\d+\\.\\d{3}");
+
+    private Scope scope;
+    private ExpositionEncoder encoder;
+
+    @Before
+    public void init() {
+        scope = new RootScopeBuilder()
+                .reporter(new NullStatsReporter())
+                .reportEvery(Duration.ofSeconds(1));
+
+        encoder = new ExpositionEncoder(scope);
+    }
+
+    @After
+    public void close() throws ScopeCloseException {
+        scope.close();
+    }
+
+    @Test
+    public void encodeText() throws IOException {
+        scope.counter("requests").inc(3);
+        scope.gauge("temperature").update(36.6);
+        scope.histogram("latency", ValueBuckets.custom(1, 10)).recordValue(5);
+
+        assertEquals(
+                "# TYPE requests counter\n"
+                        + "requests 3\n"
+                        + "# TYPE temperature gauge\n"
+                        + "temperature 36.6\n"
+                        + "# TYPE latency histogram\n"
+                        + "latency_bucket{le=\"1.0\"} 0\n"
+                        + "latency_bucket{le=\"10.0\"} 1\n"
+                        + "latency_bucket{le=\"+Inf\"} 1\n"
+                        + "latency_count 1\n"
+                        + "latency_sum 5.5\n",
+                encode(ExpositionEncoder.Format.PROMETHEUS_TEXT)
+        );
+
+        // Every encoding observes current values
+        scope.counter("requests").inc(1);
+
+        assertTrue(encode(ExpositionEncoder.Format.PROMETHEUS_TEXT).contains("requests 4\n"));
+    }
+
+    @Test
+    public void encodeOpenMetrics() throws IOException {
+        long startSeconds = System.currentTimeMillis() / 1000;
+
+        scope.counter("requests_total").inc(3);
+        scope.gauge("temperature").update(36.6);
+        scope.histogram("latency", ValueBuckets.custom(1)).recordValue(5);
+
+        String encoded = encode(ExpositionEncoder.Format.OPENMETRICS);
+
+        assertEquals(
+                "# TYPE requests counter\n"
+                        + "requests_total 3\n"
+                        + "requests_created <created>\n"
+                        + "# TYPE temperature gauge\n"
+                        + "temperature 36.6\n"
+                        + "# TYPE latency histogram\n"
+                        + "latency_bucket{le=\"1.0\"} 0\n"
+                        + "latency_bucket{le=\"+Inf\"} 1\n"
+                        + "latency_count 1\n"
+                        + "latency_sum 1\n"
+                        + "latency_created <created>\n"
+                        + "# EOF\n",
+                encoded.replaceAll("_created (\\d+\\.\\d{3})", "_created <created>")
+        );
+
+        long createdSeconds = Long.parseLong(encoded.replaceAll("(?s).*requests_created (\\d+)\\..*", "$1"));
+        assertTrue(createdSeconds >= startSeconds && createdSeconds <= System.currentTimeMillis() / 1000);
+    }
+
+    @Test
+    public void encodeLabels() throws IOException {
+        scope.tagged(ImmutableMap.of("region", "us\"east\\1\n", "1st-host", "a"))
+                .subScope("sub")
+                .counter("requests")
+                .inc(1);
+
+        scope.tagged(ImmutableMap.of("region", "eu"))
+                .subScope("sub")
+                .counter("requests")
+                .inc(2);
+
+        List<String> lines = Arrays.asList(encode(ExpositionEncoder.Format.PROMETHEUS_TEXT).split("\n"));
+
+        // Labels are sorted, names sanitized and values escaped
+        assertEquals(3, lines.size());
+        assertEquals("# TYPE sub_requests counter", lines.get(0));
+        assertTrue(lines.contains("sub_requests{_1st_host=\"a\",region=\"us\\\"east\\\\1\\n\"} 1"));
+        assertTrue(lines.contains("sub_requests{region=\"eu\"} 2"));
+    }
+
+    @Test
+    public void encodeClashingLabelNames() throws IOException {
+        scope.tagged(ImmutableMap.of("host.name", "dotted", "host_name", "underscored")).counter("requests").inc(1);
+        scope.tagged(ImmutableMap.of("le", "bound")).histogram("latency", ValueBuckets.custom(1)).recordValue(5);
+
+        String encoded = encode(ExpositionEncoder.Format.PROMETHEUS_TEXT);
+
+        // Clashing labels are renamed, as well as the ones clashing with the bucket bound of histograms
+        assertTrue(encoded.contains("requests{host_name=\"dotted\",_host_name=\"underscored\"} 1\n"));
+        assertTrue(encoded.contains("latency_bucket{_le=\"bound\",le=\"+Inf\"} 1\n"));
+        assertTrue(encoded.contains("latency_count{_le=\"bound\"} 1\n"));
+    }
+
+    @Test
+    public void encodeConflictingTypes() throws IOException {
+        scope.counter("metric").inc(1);
+        scope.gauge("metric").update(2);
+
+        String encoded = encode(ExpositionEncoder.Format.PROMETHEUS_TEXT);
+
+        // First metric observed under the name wins
+        assertEquals("# TYPE metric counter\nmetric 1\n", encoded);
+    }
+
+    @Test
+    public void encodeTotalSuffixedCounters() throws IOException {
+        scope.counter("requests").inc(1);
+        scope.gauge("temperature").update(36.6);
+        scope.tagged(ImmutableMap.of("region", "eu")).counter("requests_total").inc(2);
+
+        // Counters are separate families in the text format...
+        assertEquals(
+                "# TYPE requests counter\n"
+                        + "requests 1\n"
+                        + "# TYPE temperature gauge\n"
+                        + "temperature 36.6\n"
+                        + "# TYPE requests_total counter\n"
+                        + "requests_total{region=\"eu\"} 2\n",
+                encode(ExpositionEncoder.Format.PROMETHEUS_TEXT)
+        );
+
+        // ...while sharing the single family in the OpenMetrics one
+        assertEquals(
+                "# TYPE requests counter\n"
+                        + "requests_total 1\n"
+                        + "requests_created <created>\n"
+                        + "requests_total{region=\"eu\"} 2\n"
+                        + "requests_created{region=\"eu\"} <created>\n"
+                        + "# TYPE temperature gauge\n"
+                        + "temperature 36.6\n"
+                        + "# EOF\n",
+                encode(ExpositionEncoder.Format.OPENMETRICS).replaceAll(" \\d+\\.\\d{3}\n", " <created>\n")
+        );
+    }
+
+    @Test
+    public void encodeWhileAnotherScrapeIsBlocked() throws Exception {
+        scope.counter("requests").inc(1);
+
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        OutputStream blocked = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writing.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<?> blockedScrape = executor.submit(() -> {
+                encoder.encode(blocked, ExpositionEncoder.Format.PROMETHEUS_TEXT);
+                return null;
+            });
+
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+            // Scrape writing to the slow stream doesn't hold up the others
+            assertEquals(
+                    "# TYPE requests counter\nrequests 1\n",
+                    encode(ExpositionEncoder.Format.PROMETHEUS_TEXT)
+            );
+
+            release.countDown();
+            blockedScrape.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void encodeValuesSnapshotBeforeWriting() throws IOException {
+        scope.counter("requests").inc(1);
+        scope.histogram("latency", ValueBuckets.custom(1)).recordValue(5);
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        String[] concurrent = new String[1];
+
+        // Stream updating metrics, and scraping them, while the outer scrape is being written out
+        OutputStream interleaving = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (concurrent[0] == null) {
+                    scope.counter("requests").inc(1);
+                    scope.histogram("latency", ValueBuckets.custom(1)).recordValue(0);
+
+                    concurrent[0] = encode(ExpositionEncoder.Format.PROMETHEUS_TEXT);
+                }
+
+                written.write(b, off, len);
+            }
+        };
+
+        encoder.encode(interleaving, ExpositionEncoder.Format.PROMETHEUS_TEXT);
+
+        String outer = new String(written.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(outer.contains("requests 1\n"));
+        assertTrue(outer.contains("latency_count 1\n"));
+
+        assertTrue(concurrent[0].contains("requests 2\n"));
+        assertTrue(concurrent[0].contains("latency_count 2\n"));
+
+        // Snapshots released by the scrapes are reused by the subsequent ones
+        assertEquals(concurrent[0], encode(ExpositionEncoder.Format.PROMETHEUS_TEXT));
+    }
+
+    @Test
+    public void encodeEmpty() throws IOException {
+        assertEquals("", encode(ExpositionEncoder.Format.PROMETHEUS_TEXT));
+        assertEquals("# EOF\n", encode(ExpositionEncoder.Format.OPENMETRICS));
+    }
+
+    @Test
+    public void encodeLargeValues() throws IOException {
+        scope.counter("counter").inc(Long.MAX_VALUE);
+        scope.gauge("gauge").update(-1e20);
+
+        String encoded = encode(ExpositionEncoder.Format.PROMETHEUS_TEXT);
+
+        assertTrue(encoded.contains("counter " + Long.MAX_VALUE + "\n"));
+        assertTrue(encoded.contains("gauge -1.0E20\n"));
+        assertFalse(CREATED_PATTERN.matcher(encoded).find());
+    }
+
+    @Test
+    public void sanitizeLabelName() {
+        assertEquals("valid_name", ExpositionEncoder.sanitizeLabelName("valid_name"));
+        assertEquals("in_valid_name", ExpositionEncoder.sanitizeLabelName("in.valid-name"));
+        assertEquals("_1abc", ExpositionEncoder.sanitizeLabelName("1abc"));
+    }
+
+    private String encode(ExpositionEncoder.Format format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(out, format);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
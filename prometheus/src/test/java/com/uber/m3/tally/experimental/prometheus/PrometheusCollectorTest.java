@@ -0,0 +1,138 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.DurationBuckets;
+import com.uber.m3.tally.NullStatsReporter;
+import com.uber.m3.tally.RootScopeBuilder;
+import com.uber.m3.tally.Scope;
+import com.uber.m3.tally.ScopeCloseException;
+import com.uber.m3.util.Duration;
+import com.uber.m3.util.ImmutableMap;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PrometheusCollectorTest {
+    private static final double EPSILON = 1e-9;
+
+    private CollectorRegistry registry;
+    private Scope scope;
+
+    @Before
+    public void init() {
+        registry = new CollectorRegistry(true);
+        scope = new RootScopeBuilder()
+                .reporter(new NullStatsReporter())
+                .reportEvery(Duration.ofSeconds(1));
+
+        new PrometheusCollector(scope).register(registry);
+    }
+
+    @After
+    public void close() throws ScopeCloseException {
+        scope.close();
+    }
+
+    @Test
+    public void collectCounters() {
+        scope.counter("counter").inc(1);
+        scope.tagged(ImmutableMap.of("foo", "bar")).counter("counter").inc(2);
+
+        assertEquals(1d, registry.getSampleValue("counter"), EPSILON);
+        assertEquals(2d, registry.getSampleValue("counter", new String[]{"foo"}, new String[]{"bar"}), EPSILON);
+
+        // Scrapes always observe current (cumulative) values
+        scope.counter("counter").inc(3);
+
+        assertEquals(4d, registry.getSampleValue("counter"), EPSILON);
+    }
+
+    @Test
+    public void collectGauges() {
+        scope.subScope("sub").gauge("gauge").update(42);
+
+        // Names are sanitized
+        assertEquals(42d, registry.getSampleValue("sub_gauge"), EPSILON);
+    }
+
+    @Test
+    public void collectHistograms() {
+        DurationBuckets buckets = DurationBuckets.custom(Duration.ofMillis(10), Duration.ofMillis(100));
+
+        scope.histogram("histogram", buckets).recordDuration(Duration.ofMillis(5));
+        scope.histogram("histogram", buckets).recordDuration(Duration.ofMillis(50));
+        scope.histogram("histogram", buckets).recordDuration(Duration.ofSeconds(1));
+
+        assertEquals(1d, bucket("0.01"), EPSILON);
+        assertEquals(2d, bucket("0.1"), EPSILON);
+        assertEquals(3d, bucket("+Inf"), EPSILON);
+        assertEquals(3d, registry.getSampleValue("histogram_count"), EPSILON);
+        assertEquals(0.01 + 0.055 + 0.1, registry.getSampleValue("histogram_sum"), EPSILON);
+    }
+
+    @Test
+    public void labelNamesAreSanitized() {
+        scope.tagged(ImmutableMap.of("http.method", "GET")).counter("counter").inc(1);
+        scope.tagged(ImmutableMap.of("2xx", "true")).gauge("gauge").update(2);
+
+        assertEquals(1d, registry.getSampleValue("counter", new String[]{"http_method"}, new String[]{"GET"}), EPSILON);
+        assertEquals(2d, registry.getSampleValue("gauge", new String[]{"_2xx"}, new String[]{"true"}), EPSILON);
+    }
+
+    @Test
+    public void clashingLabelNamesAreRenamed() {
+        scope.tagged(ImmutableMap.of("host.name", "dotted", "host_name", "underscored")).counter("counter").inc(1);
+        scope.tagged(ImmutableMap.of("le", "bound")).histogram("histogram", DurationBuckets.custom(Duration.ofMillis(10)))
+                .recordDuration(Duration.ofMillis(5));
+
+        assertEquals(
+                1d,
+                registry.getSampleValue(
+                        "counter", new String[]{"host_name", "_host_name"}, new String[]{"dotted", "underscored"}
+                ),
+                EPSILON
+        );
+        assertEquals(
+                1d,
+                registry.getSampleValue("histogram_bucket", new String[]{"_le", "le"}, new String[]{"bound", "0.01"}),
+                EPSILON
+        );
+        assertEquals(1d, registry.getSampleValue("histogram_count", new String[]{"_le"}, new String[]{"bound"}), EPSILON);
+    }
+
+    @Test
+    public void conflictingTypes() {
+        scope.counter("metric").inc(1);
+        scope.tagged(ImmutableMap.of("foo", "bar")).gauge("metric").update(2);
+
+        assertEquals(1d, registry.getSampleValue("metric"), EPSILON);
+        assertNull(registry.getSampleValue("metric", new String[]{"foo"}, new String[]{"bar"}));
+    }
+
+    private double bucket(String le) {
+        return registry.getSampleValue("histogram_bucket", new String[]{"le"}, new String[]{le});
+    }
+}
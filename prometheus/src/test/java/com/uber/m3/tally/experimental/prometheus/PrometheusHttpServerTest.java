@@ -0,0 +1,211 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.NullStatsReporter;
+import com.uber.m3.tally.RootScopeBuilder;
+import com.uber.m3.tally.Scope;
+import com.uber.m3.tally.ScopeCloseException;
+import com.uber.m3.util.Duration;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusHttpServerTest {
+    private CollectorRegistry registry;
+    private Counter counter;
+    private PrometheusHttpServer server;
+
+    @Before
+    public void init() {
+        registry = new CollectorRegistry(true);
+        counter = Counter.build().name("requests").help("requests").labelNames("env").register(registry);
+        counter.labels("test").inc(1);
+    }
+
+    @After
+    public void close() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void scrapeStreamed() throws IOException {
+        server = start(Duration.ZERO);
+
+        String body = scrape(PrometheusHttpServer.METRICS_PATH, false);
+        assertTrue(body.contains("requests{env=\"test\",} 1.0"));
+
+        // Every scrape renders current values
+        counter.labels("test").inc(1);
+        assertTrue(scrape(PrometheusHttpServer.METRICS_PATH, false).contains("requests{env=\"test\",} 2.0"));
+    }
+
+    @Test
+    public void scrapeGzipped() throws IOException {
+        server = start(Duration.ZERO);
+        assertTrue(scrape("/", true).contains("requests{env=\"test\",} 1.0"));
+
+        server.close();
+
+        server = start(Duration.ofSeconds(60));
+        assertTrue(scrape("/", true).contains("requests{env=\"test\",} 1.0"));
+        // Gzipped payload is cached along with plain one
+        assertEquals(scrape("/", false), scrape("/", true));
+    }
+
+    @Test
+    public void scrapeCached() throws IOException {
+        server = start(Duration.ofSeconds(60));
+
+        String body = scrape(PrometheusHttpServer.METRICS_PATH, false);
+        assertTrue(body.contains("requests{env=\"test\",} 1.0"));
+
+        // Scrapes within TTL share the rendered payload
+        counter.labels("test").inc(1);
+        assertEquals(body, scrape(PrometheusHttpServer.METRICS_PATH, false));
+    }
+
+    @Test
+    public void scrapeCacheExpired() throws IOException, InterruptedException {
+        server = start(Duration.ofMillis(10));
+
+        assertTrue(scrape(PrometheusHttpServer.METRICS_PATH, false).contains("requests{env=\"test\",} 1.0"));
+
+        counter.labels("test").inc(1);
+        Thread.sleep(20);
+
+        assertTrue(scrape(PrometheusHttpServer.METRICS_PATH, false).contains("requests{env=\"test\",} 2.0"));
+    }
+
+    @Test
+    public void scrapeScope() throws IOException, ScopeCloseException {
+        Scope scope = new RootScopeBuilder()
+                .reporter(new NullStatsReporter())
+                .reportEvery(Duration.ofSeconds(1));
+
+        scope.counter("scope_requests").inc(5);
+
+        server = PrometheusHttpServer.builder()
+                .address(new InetSocketAddress("localhost", 0))
+                .scope(scope)
+                .cacheTtl(Duration.ofSeconds(60))
+                .build();
+
+        assertTrue(scrape(PrometheusHttpServer.METRICS_PATH, false).contains("scope_requests 5\n"));
+
+        // Scrapes accepting OpenMetrics are served with it (and cached separately)
+        HttpURLConnection connection = open(PrometheusHttpServer.METRICS_PATH);
+        connection.setRequestProperty("Accept", "application/openmetrics-text; version=1.0.0,text/plain;q=0.5");
+
+        assertEquals(ExpositionEncoder.Format.OPENMETRICS.getContentType(), connection.getContentType());
+
+        String body = new String(readFully(connection.getInputStream()), StandardCharsets.UTF_8);
+        assertTrue(body.contains("scope_requests_total 5\n"));
+        assertTrue(body.endsWith("# EOF\n"));
+
+        scope.close();
+    }
+
+    @Test
+    public void head() throws IOException {
+        server = start(Duration.ofSeconds(60));
+
+        HttpURLConnection connection = open(PrometheusHttpServer.METRICS_PATH);
+        connection.setRequestMethod("HEAD");
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(TextFormat.CONTENT_TYPE_004, connection.getContentType());
+        assertFalse(connection.getInputStream().read() >= 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addressNotSet() throws IOException {
+        PrometheusHttpServer.builder().registry(registry).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCacheTtl() throws IOException {
+        PrometheusHttpServer.builder()
+                .address(new InetSocketAddress("localhost", 0))
+                .cacheTtl(Duration.ofMillis(-1))
+                .build();
+    }
+
+    private PrometheusHttpServer start(Duration cacheTtl) throws IOException {
+        return PrometheusHttpServer.builder()
+                .address(new InetSocketAddress("localhost", 0))
+                .registry(registry)
+                .cacheTtl(cacheTtl)
+                .build();
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        URL url = new URL("http", "localhost", server.getAddress().getPort(), path);
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private String scrape(String path, boolean gzip) throws IOException {
+        HttpURLConnection connection = open(path);
+        if (gzip) {
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+        }
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(TextFormat.CONTENT_TYPE_004, connection.getContentType());
+        assertEquals(gzip ? "gzip" : null, connection.getContentEncoding());
+
+        try (InputStream stream = gzip
+                ? new GZIPInputStream(connection.getInputStream())
+                : connection.getInputStream()) {
+            return new String(readFully(stream), StandardCharsets.UTF_8);
+        }
+    }
+
+    static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+
+        int read;
+        while ((read = stream.read(buffer)) >= 0) {
+            result.write(buffer, 0, read);
+        }
+
+        return result.toByteArray();
+    }
+}
@@ -23,6 +23,7 @@ import com.uber.m3.tally.Buckets;
 import com.uber.m3.tally.DurationBuckets;
 import com.uber.m3.tally.ValueBuckets;
 import com.uber.m3.util.Duration;
+import com.uber.m3.util.ImmutableMap;
 import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Counter;
@@ -41,10 +42,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.uber.m3.tally.experimental.prometheus.PrometheusReporter.METRIC_ID_KEY_VALUE;
 import static com.uber.m3.tally.experimental.prometheus.PrometheusReporter.collectionToStringArray;
@@ -208,6 +216,47 @@ public class PrometheusReporterTest {
             Mockito.verify(registry, times(1)).register(Mockito.any());
         }
 
+        @Test
+        public void reportCounterWithMutableTags() {
+            Map<String, String> tags = new HashMap<>();
+            tags.put("key", "value1");
+            reporter.reportCounter("test", tags, 1);
+
+            // Series retains its own copy of the tags
+            tags.put("key", "value2");
+            reporter.reportCounter("test", tags, 2);
+
+            tags.put("key", "value1");
+            reporter.reportCounter("test", tags, 3);
+            // Series is resolved regardless of the type of the tags' map
+            reporter.reportCounter("test", ImmutableMap.of("key", "value1"), 4);
+
+            Assert.assertThat(getMetricSample(registry, "test", singletonMap("key", "value1"), null), is(8d));
+            Assert.assertThat(getMetricSample(registry, "test", singletonMap("key", "value2"), null), is(2d));
+        }
+
+        @Test
+        public void reportCounterWithTagsInDifferentOrder() {
+            Map<String, String> tags1 = new LinkedHashMap<>();
+            tags1.put("a", "1");
+            tags1.put("b", "2");
+            Map<String, String> tags2 = new LinkedHashMap<>();
+            tags2.put("b", "4");
+            tags2.put("a", "3");
+
+            reporter.reportCounter("test", tags1, 23);
+            reporter.reportCounter("test", tags2, 42);
+
+            // Labels are always resolved in the canonical order
+            Assert.assertThat(
+                    registry.getSampleValue("test", new String[]{"a", "b"}, new String[]{"1", "2"}), is(23d)
+            );
+            Assert.assertThat(
+                    registry.getSampleValue("test", new String[]{"a", "b"}, new String[]{"3", "4"}), is(42d)
+            );
+            Mockito.verify(registry, times(1)).register(Mockito.any());
+        }
+
         @Test
         public void reportCounterWithMultipleTags() {
             Map<String, String> tags = new HashMap<>();
@@ -526,6 +575,32 @@ public class PrometheusReporterTest {
             Assert.assertThat(default_percentile, is(nullValue()));
         }
 
+        @Test
+        public void reportTimerSketchDefaultQuantiles() {
+            PrometheusReporter reporterSketch = PrometheusReporter.builder()
+                    .registry(registry)
+                    .timerType(TimerType.SKETCH)
+                    .build();
+            Map<String, String> tags = singletonMap("key", "value");
+            double sum = 0;
+            for (int i = 1; i <= 100; i++) {
+                reporterSketch.reportTimer("test", tags, Duration.ofSeconds(i));
+                sum += i;
+            }
+            double quantile_50 = getMetricSample(
+                    registry, "test", tags, singletonMap("quantile", "0.5")
+            );
+            double quantile_99 = getMetricSample(
+                    registry, "test", tags, singletonMap("quantile", "0.99")
+            );
+            // quantiles are within relative accuracy (of 1% by default)
+            Assert.assertEquals(50d, quantile_50, 50 * 0.01);
+            Assert.assertEquals(99d, quantile_99, 99 * 0.01);
+            Assert.assertThat(getMetricSample(registry, "test_count", tags, null), is(100d));
+            Assert.assertThat(getMetricSample(registry, "test_sum", tags, null), is(sum));
+            Mockito.verify(registry, times(1)).register(Mockito.any(SketchSummary.class));
+        }
+
         @Test
         public void reportTimerHistogramDefaultBuckets() {
             PrometheusReporter reporterHistogram = PrometheusReporter.builder()
@@ -996,6 +1071,130 @@ public class PrometheusReporterTest {
         }
     }
 
+    @RunWith(JUnit4.class)
+    public static class SeriesExpiryTest {
+        private final AtomicLong clock = new AtomicLong(0);
+        private CollectorRegistry registry;
+        private PrometheusReporter reporter;
+
+        @Before
+        public void init() {
+            registry = new CollectorRegistry(true);
+            reporter = PrometheusReporter.builder()
+                    .registry(registry)
+                    .timerType(TimerType.SKETCH)
+                    .seriesTtl(Duration.ofSeconds(10))
+                    .clock(clock::get)
+                    .build();
+        }
+
+        @Test
+        public void staleSeriesAreRemoved() {
+            Map<String, String> tags1 = singletonMap("key", "value1");
+            Map<String, String> tags2 = singletonMap("key", "value2");
+
+            reporter.reportCounter("counter", tags1, 1);
+            reporter.reportCounter("counter", tags2, 2);
+            reporter.reportGauge("gauge", tags2, 3);
+            reporter.reportTimer("timer", tags2, Duration.ofSeconds(4));
+            reporter.reportHistogramSamples("histogram", tags2, ValueBuckets.linear(0, 1, 2), 1, 5);
+
+            advance(6);
+            reporter.reportCounter("counter", tags1, 1);
+
+            advance(6);
+            Assert.assertThat(getMetricSample(registry, "counter", tags1, null), is(2d));
+            Assert.assertThat(getMetricSample(registry, "counter", tags2, null), is(nullValue()));
+            Assert.assertThat(getMetricSample(registry, "gauge", tags2, null), is(nullValue()));
+            Assert.assertThat(getMetricSample(registry, "timer_count", tags2, null), is(nullValue()));
+            Assert.assertThat(getMetricSample(registry, "histogram_count", tags2, null), is(nullValue()));
+
+            // Series reported again after expiry starts afresh
+            reporter.reportCounter("counter", tags2, 5);
+            Assert.assertThat(getMetricSample(registry, "counter", tags2, null), is(5d));
+
+            advance(12);
+            Assert.assertThat(getMetricSample(registry, "counter", tags1, null), is(nullValue()));
+            Assert.assertThat(getMetricSample(registry, "counter", tags2, null), is(nullValue()));
+        }
+
+        @Test
+        public void gaugeSetOnceIsRemoved() {
+            Map<String, String> tags = singletonMap("key", "value");
+
+            // Gauge set once is reported once, subsequent reports of its scope skip it
+            reporter.reportGauge("gauge", tags, 3);
+
+            advance(6);
+            Assert.assertThat(getMetricSample(registry, "gauge", tags, null), is(3d));
+
+            advance(6);
+            Assert.assertThat(getMetricSample(registry, "gauge", tags, null), is(nullValue()));
+
+            // Gauge is back once it's updated again, even to the same value
+            reporter.reportGauge("gauge", tags, 3);
+            Assert.assertThat(getMetricSample(registry, "gauge", tags, null), is(3d));
+        }
+
+        @Test
+        public void seriesAreNotRemovedByDefault() {
+            PrometheusReporter defaultReporter = PrometheusReporter.builder()
+                    .registry(registry)
+                    .clock(clock::get)
+                    .build();
+
+            defaultReporter.reportCounter("default_counter", null, 1);
+
+            clock.addAndGet(TimeUnit.HOURS.toMillis(1));
+            defaultReporter.flush();
+            Assert.assertThat(getMetricSample(registry, "default_counter", null, null), is(1d));
+        }
+
+        @Test
+        public void seriesReportedWhileExpiringRemainRegistered() throws Exception {
+            Map<String, String> tags = singletonMap("key", "value");
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+
+            try {
+                for (int i = 0; i < 1000; ++i) {
+                    reporter.reportCounter("counter", tags, 1);
+                    clock.addAndGet(TimeUnit.SECONDS.toMillis(20));
+
+                    Future<?> report = executor.submit(() -> {
+                        barrier.await();
+                        reporter.reportCounter("counter", tags, 1);
+                        return null;
+                    });
+                    Future<?> expiry = executor.submit(() -> {
+                        barrier.await();
+                        reporter.flush();
+                        return null;
+                    });
+
+                    report.get(5, TimeUnit.SECONDS);
+                    expiry.get(5, TimeUnit.SECONDS);
+
+                    // Series still tracked by the reporter is never orphaned from its collector
+                    reporter.reportCounter("counter", tags, 1);
+                    Assert.assertThat(getMetricSample(registry, "counter", tags, null), notNullValue());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void negativeSeriesTtl() {
+            PrometheusReporter.builder().seriesTtl(Duration.ofSeconds(-1));
+        }
+
+        private void advance(long seconds) {
+            clock.addAndGet(TimeUnit.SECONDS.toMillis(seconds));
+            reporter.flush();
+        }
+    }
+
     @RunWith(JUnit4.class)
     public static class ConcurrencyTest {
         private CollectorRegistry registry;
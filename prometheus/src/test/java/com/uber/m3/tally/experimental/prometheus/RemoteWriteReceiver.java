@@ -0,0 +1,256 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in of the remote-write receiver, decoding requests it receives
+ * and responding with the queued statuses (200 by default)
+ */
+class RemoteWriteReceiver implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+
+    private final List<Sample> samples = new CopyOnWriteArrayList<>();
+
+    private final List<Map<String, String>> headers = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private volatile long responseDelayMillis;
+
+    RemoteWriteReceiver() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/v1/write", this::handle);
+        server.start();
+    }
+
+    URL getEndpoint() throws IOException {
+        return new URL(
+                String.format("http://localhost:%d/api/v1/write", server.getAddress().getPort())
+        );
+    }
+
+    /**
+     * Queues statuses to respond to the following requests with
+     */
+    void respondWith(int... statuses) {
+        for (int status : statuses) {
+            this.statuses.add(status);
+        }
+    }
+
+    void delayResponses(long responseDelayMillis) {
+        this.responseDelayMillis = responseDelayMillis;
+    }
+
+    /**
+     * Returns samples of the requests accepted (responded with 2xx)
+     */
+    List<Sample> getSamples() {
+        return samples;
+    }
+
+    List<Map<String, String>> getHeaders() {
+        return headers;
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read; (read = in.read(buffer)) >= 0; ) {
+                out.write(buffer, 0, read);
+            }
+            body = out.toByteArray();
+        }
+
+        if (responseDelayMillis > 0) {
+            try {
+                Thread.sleep(responseDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Integer queued = statuses.poll();
+        int status = queued != null ? queued : 200;
+
+        if (status >= 200 && status < 300) {
+            Map<String, String> requestHeaders = new LinkedHashMap<>();
+            exchange.getRequestHeaders().forEach((name, values) -> requestHeaders.put(name, values.get(0)));
+            headers.add(requestHeaders);
+
+            samples.addAll(decodeWriteRequest(Snappy.uncompress(body)));
+        }
+
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private static List<Sample> decodeWriteRequest(byte[] bytes) {
+        List<Sample> decoded = new ArrayList<>();
+
+        Decoder request = new Decoder(bytes, 0, bytes.length);
+        while (request.hasNext()) {
+            request.tag();
+            decoded.add(decodeTimeSeries(request.message()));
+        }
+
+        return decoded;
+    }
+
+    private static Sample decodeTimeSeries(Decoder timeSeries) {
+        Map<String, String> labels = new LinkedHashMap<>();
+        double value = Double.NaN;
+        long timestampMillis = 0;
+
+        while (timeSeries.hasNext()) {
+            if (timeSeries.tag() == 1) {
+                Decoder label = timeSeries.message();
+                label.tag();
+                String name = label.string();
+                label.tag();
+                labels.put(name, label.string());
+            } else {
+                Decoder sample = timeSeries.message();
+                sample.tag();
+                value = Double.longBitsToDouble(sample.fixed64());
+                sample.tag();
+                timestampMillis = sample.varint();
+            }
+        }
+
+        return new Sample(Collections.unmodifiableMap(labels), value, timestampMillis);
+    }
+
+    static final class Sample {
+        final Map<String, String> labels;
+        final double value;
+        final long timestampMillis;
+
+        Sample(Map<String, String> labels, double value, long timestampMillis) {
+            this.labels = labels;
+            this.value = value;
+            this.timestampMillis = timestampMillis;
+        }
+
+        String getName() {
+            return labels.get(RemoteWriteReporter.NAME_LABEL_NAME);
+        }
+
+        @Override
+        public String toString() {
+            return labels + "=" + value + "@" + timestampMillis;
+        }
+    }
+
+    /**
+     * Minimal decoder of the protobuf messages, supporting only the wire types used by {@code WriteRequest}
+     */
+    private static final class Decoder {
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+
+        Decoder(byte[] bytes, int offset, int end) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.end = end;
+        }
+
+        boolean hasNext() {
+            return position < end;
+        }
+
+        // Returns number of the field
+        int tag() {
+            return (int) (varint() >>> 3);
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        long fixed64() {
+            long value = 0;
+            for (int i = 0; i < Long.BYTES; ++i) {
+                value |= (bytes[position++] & 0xFFL) << (8 * i);
+            }
+            return value;
+        }
+
+        Decoder message() {
+            int length = (int) varint();
+            Decoder message = new Decoder(bytes, position, position + length);
+            position += length;
+            return message;
+        }
+
+        String string() {
+            int length = (int) varint();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
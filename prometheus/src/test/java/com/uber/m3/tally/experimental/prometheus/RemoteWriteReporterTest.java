@@ -0,0 +1,271 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import com.uber.m3.tally.ValueBuckets;
+import com.uber.m3.util.Duration;
+import com.uber.m3.util.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteWriteReporterTest {
+    private static final Map<String, String> TAGS = ImmutableMap.of("region", "us", "env", "test");
+
+    private RemoteWriteReceiver receiver;
+
+    @Before
+    public void init() throws IOException {
+        receiver = new RemoteWriteReceiver();
+    }
+
+    @After
+    public void close() {
+        receiver.close();
+    }
+
+    @Test
+    public void counterIsCumulative() throws IOException {
+        RemoteWriteReporter reporter = builder().build();
+        reporter.reportCounter("requests", TAGS, 2);
+        reporter.flush();
+        reporter.reportCounter("requests", TAGS, 3);
+        reporter.close();
+
+        List<RemoteWriteReceiver.Sample> samples = receiver.getSamples();
+        assertEquals(2, samples.size());
+        assertEquals(2, samples.get(0).value, 0);
+        assertEquals(5, samples.get(1).value, 0);
+
+        // Labels are sorted by their names
+        assertEquals(
+                Arrays.asList("__name__", "env", "region"),
+                Arrays.asList(samples.get(0).labels.keySet().toArray())
+        );
+        assertEquals("requests", samples.get(0).getName());
+        assertEquals("us", samples.get(0).labels.get("region"));
+        assertTrue(samples.get(0).timestampMillis > 0);
+
+        Map<String, String> headers = receiver.getHeaders().get(0);
+        assertEquals("snappy", headers.get("Content-encoding"));
+        assertEquals("application/x-protobuf", headers.get("Content-type"));
+        assertEquals("0.1.0", headers.get("X-prometheus-remote-write-version"));
+        assertEquals("tenant", headers.get("X-scope-orgid"));
+
+        assertEquals(2, receiver.getRequests());
+    }
+
+    @Test
+    public void gauge() throws IOException {
+        RemoteWriteReporter reporter = builder().build();
+        reporter.reportGauge("queue.size", Collections.emptyMap(), 7.5);
+        reporter.close();
+
+        List<RemoteWriteReceiver.Sample> samples = receiver.getSamples();
+        assertEquals(1, samples.size());
+        assertEquals("queue_size", samples.get(0).getName());
+        assertEquals(7.5, samples.get(0).value, 0);
+    }
+
+    @Test
+    public void histogram() throws IOException {
+        ValueBuckets buckets = ValueBuckets.linear(1, 1, 2);
+
+        RemoteWriteReporter reporter = builder().build();
+        reporter.reportHistogramSamples("sizes", TAGS, buckets, 0, 1);
+        reporter.reportHistogramSamples("sizes", TAGS, buckets, 1, 2);
+        reporter.reportHistogramSamples("sizes", TAGS, buckets, 2, 4);
+        reporter.close();
+
+        Map<String, Double> values = receiver.getSamples().stream().collect(Collectors.toMap(
+                sample -> sample.getName() + sample.labels.getOrDefault("le", ""),
+                sample -> sample.value
+        ));
+
+        assertEquals(1, values.get("sizes_bucket1.0"), 0);
+        assertEquals(3, values.get("sizes_bucket2.0"), 0);
+        assertEquals(7, values.get("sizes_bucket+Inf"), 0);
+        assertEquals(7, values.get("sizes_count"), 0);
+        assertEquals(5, values.size());
+
+        RemoteWriteReceiver.Sample bucket = receiver.getSamples().get(0);
+        assertEquals(
+                Arrays.asList("__name__", "env", "le", "region"),
+                Arrays.asList(bucket.labels.keySet().toArray())
+        );
+    }
+
+    @Test
+    public void clashingLabelsAreRenamed() throws IOException {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("__name__", "name");
+        tags.put("le", "bound");
+        tags.put("host.name", "dotted");
+        tags.put("host_name", "underscored");
+
+        RemoteWriteReporter reporter = builder().build();
+        reporter.reportHistogramSamples("sizes", tags, ValueBuckets.linear(1, 1, 1), 0, 1);
+        reporter.close();
+
+        for (RemoteWriteReceiver.Sample sample : receiver.getSamples()) {
+            assertTrue(sample.getName().startsWith("sizes_"));
+            assertEquals("name", sample.labels.get("___name__"));
+            assertEquals("bound", sample.labels.get("_le"));
+            assertEquals("dotted", sample.labels.get("host_name"));
+            assertEquals("underscored", sample.labels.get("_host_name"));
+        }
+
+        RemoteWriteReceiver.Sample bucket = receiver.getSamples().get(0);
+        assertEquals(
+                Arrays.asList("___name__", "__name__", "_host_name", "_le", "host_name", "le"),
+                Arrays.asList(bucket.labels.keySet().toArray())
+        );
+    }
+
+    @Test
+    public void timer() throws IOException {
+        RemoteWriteReporter reporter = builder().timerBuckets(0.1, 1).build();
+        reporter.reportTimer("latency", TAGS, Duration.ofMillis(50));
+        reporter.reportTimer("latency", TAGS, Duration.ofMillis(500));
+        reporter.close();
+
+        Map<String, Double> values = receiver.getSamples().stream().collect(Collectors.toMap(
+                sample -> sample.getName() + sample.labels.getOrDefault("le", ""),
+                sample -> sample.value
+        ));
+
+        assertEquals(1, values.get("latency_bucket0.1"), 0);
+        assertEquals(2, values.get("latency_bucket1.0"), 0);
+        assertEquals(2, values.get("latency_bucket+Inf"), 0);
+        assertEquals(2, values.get("latency_count"), 0);
+        assertEquals(0.55, values.get("latency_sum"), 1e-9);
+    }
+
+    @Test
+    public void batchesAreSplit() throws IOException {
+        RemoteWriteReporter reporter = builder().maxSamplesPerSend(10).build();
+        for (int i = 0; i < 25; ++i) {
+            reporter.reportCounter("requests", Collections.singletonMap("id", String.valueOf(i)), 1);
+        }
+        reporter.close();
+
+        assertEquals(25, receiver.getSamples().size());
+        assertEquals(3, receiver.getRequests());
+    }
+
+    @Test
+    public void shardsSendAllSeries() throws IOException {
+        RemoteWriteReporter reporter = builder().shards(4).maxSamplesPerSend(5).build();
+
+        for (int i = 0; i < 100; ++i) {
+            reporter.reportCounter("requests", Collections.singletonMap("id", String.valueOf(i)), i);
+        }
+
+        reporter.close();
+
+        assertEquals(100, reporter.getSentSamples());
+        assertEquals(100, receiver.getSamples().size());
+        assertEquals(
+                100,
+                receiver.getSamples().stream().map(sample -> sample.labels.get("id")).distinct().count()
+        );
+    }
+
+    @Test
+    public void recoverableErrorsAreRetried() throws IOException {
+        receiver.respondWith(500, 429);
+
+        RemoteWriteReporter reporter = builder().build();
+        reporter.reportCounter("requests", TAGS, 1);
+        reporter.close();
+
+        assertEquals(3, receiver.getRequests());
+        assertEquals(1, receiver.getSamples().size());
+        assertEquals(2, reporter.getRetries());
+        assertEquals(1, reporter.getSentSamples());
+        assertEquals(0, reporter.getFailedSamples());
+    }
+
+    @Test
+    public void retriesAreBounded() throws IOException {
+        receiver.respondWith(503, 503, 503);
+
+        RemoteWriteReporter reporter = builder().maxRetries(2).build();
+        reporter.reportCounter("requests", TAGS, 1);
+        reporter.close();
+
+        assertEquals(3, receiver.getRequests());
+        assertEquals(0, receiver.getSamples().size());
+        assertEquals(1, reporter.getFailedSamples());
+    }
+
+    @Test
+    public void nonRecoverableErrorsAreNotRetried() throws IOException {
+        receiver.respondWith(400);
+
+        RemoteWriteReporter reporter = builder().build();
+        reporter.reportCounter("requests", TAGS, 1);
+        reporter.close();
+
+        assertEquals(1, receiver.getRequests());
+        assertEquals(0, reporter.getRetries());
+        assertEquals(1, reporter.getFailedSamples());
+    }
+
+    @Test
+    public void pendingBatchesAreBounded() throws IOException {
+        receiver.delayResponses(200);
+
+        RemoteWriteReporter reporter = builder().maxPendingBatches(1).build();
+        for (int i = 0; i < 5; ++i) {
+            reporter.reportCounter("requests", TAGS, 1);
+            reporter.flush();
+        }
+        reporter.close();
+
+        // At most one request is being sent, while another one is pending (closing flushes once more)
+        assertTrue(reporter.getDroppedSamples() >= 4);
+        assertEquals(6, reporter.getSentSamples() + reporter.getDroppedSamples());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endpointIsRequired() {
+        RemoteWriteReporter.builder().build();
+    }
+
+    private RemoteWriteReporter.Builder builder() throws IOException {
+        return RemoteWriteReporter.builder()
+                .endpoint(receiver.getEndpoint())
+                .header("X-Scope-OrgID", "tenant")
+                .minBackoff(Duration.ofMillis(1));
+    }
+}
@@ -0,0 +1,206 @@
+// Copyright (c) 2021 Uber Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.uber.m3.tally.experimental.prometheus;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SketchSummaryTest {
+    private static final double EPSILON = 1e-9;
+
+    private static final double RELATIVE_ACCURACY = 0.01;
+
+    private final AtomicLong clock = new AtomicLong(0);
+
+    private CollectorRegistry registry;
+    private SketchSummary summary;
+
+    @Before
+    public void init() {
+        registry = new CollectorRegistry(true);
+        summary = SketchSummary.build("summary", "help")
+                .labelNames("foo")
+                .quantiles(0.99, 0.5, 0, 0.9)
+                .relativeAccuracy(RELATIVE_ACCURACY)
+                .ageBuckets(5)
+                .maxAgeSeconds(50)
+                .clock(clock::get)
+                .register(registry);
+    }
+
+    @Test
+    public void quantilesWithinRelativeAccuracy() {
+        Random random = new Random(42);
+
+        double[] values = new double[10_000];
+        for (int i = 0; i < values.length; ++i) {
+            // Spanning a number of orders of magnitude
+            values[i] = Math.exp(random.nextGaussian() * 3);
+            summary.labels("bar").observe(values[i]);
+        }
+
+        Arrays.sort(values);
+
+        for (double quantile : new double[]{0.5, 0.9, 0.99}) {
+            double expected = values[(int) (quantile * (values.length - 1))];
+            double actual = sample("summary", quantile);
+
+            assertEquals(expected, actual, expected * RELATIVE_ACCURACY);
+        }
+
+        assertEquals(values.length, registry.getSampleValue("summary_count", labels(), values("bar")), EPSILON);
+    }
+
+    @Test
+    public void countAndSum() {
+        summary.labels("bar").observe(1.5);
+        summary.labels("bar").observe(2.5);
+        summary.labels("baz").observe(3);
+
+        assertEquals(2, registry.getSampleValue("summary_count", labels(), values("bar")), EPSILON);
+        assertEquals(4, registry.getSampleValue("summary_sum", labels(), values("bar")), EPSILON);
+        assertEquals(1, registry.getSampleValue("summary_count", labels(), values("baz")), EPSILON);
+    }
+
+    @Test
+    public void zerosAndOutOfRangeValues() {
+        summary.labels("bar").observe(0);
+        summary.labels("bar").observe(-1);
+        summary.labels("bar").observe(1e12);
+        summary.labels("bar").observe(1e12);
+
+        assertEquals(0, sample("summary", 0.5), EPSILON);
+        assertEquals(SketchSummary.MAX_INDEXABLE_VALUE, sample("summary", 0.99),
+                SketchSummary.MAX_INDEXABLE_VALUE * RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void windowRotation() {
+        summary.labels("bar").observe(1);
+        assertEquals(1, sample("summary", 0.5), RELATIVE_ACCURACY);
+
+        // Observations stay within the window for (at least) 4 out of 5 age buckets
+        clock.set(TimeUnit.SECONDS.toMillis(40));
+        summary.labels("bar").observe(100);
+        summary.labels("bar").observe(100);
+        assertEquals(100, sample("summary", 0.5), 100 * RELATIVE_ACCURACY);
+        assertEquals(1, sample("summary", 0), RELATIVE_ACCURACY);
+
+        clock.set(TimeUnit.SECONDS.toMillis(50));
+        assertEquals(100, sample("summary", 0), 100 * RELATIVE_ACCURACY);
+
+        // Once the window has moved past every observation, quantiles are not known
+        clock.set(TimeUnit.SECONDS.toMillis(100));
+        assertTrue(Double.isNaN(sample("summary", 0.5)));
+
+        // While count and sum account for all of the observations
+        assertEquals(3, registry.getSampleValue("summary_count", labels(), values("bar")), EPSILON);
+        assertEquals(201, registry.getSampleValue("summary_sum", labels(), values("bar")), EPSILON);
+    }
+
+    @Test
+    public void concurrentObservations() throws InterruptedException {
+        int threads = 4;
+        int observations = 10_000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; ++i) {
+            executor.submit(() -> {
+                for (int j = 0; j < observations; ++j) {
+                    summary.labels("bar").observe(j % 100);
+                }
+                latch.countDown();
+            });
+        }
+
+        latch.await();
+        executor.shutdown();
+
+        assertEquals(threads * observations, registry.getSampleValue("summary_count", labels(), values("bar")),
+                EPSILON);
+        assertEquals(49, sample("summary", 0.5), 49 * RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void removeChild() {
+        summary.labels("bar").observe(1);
+        summary.remove("bar");
+
+        assertNull(registry.getSampleValue("summary_count", labels(), values("bar")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void quantileLabel() {
+        SketchSummary.build("summary", "help").labelNames("quantile").create();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidQuantile() {
+        SketchSummary.build("summary", "help").quantiles(1.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRelativeAccuracy() {
+        SketchSummary.build("summary", "help").relativeAccuracy(0);
+    }
+
+    @Test
+    public void mappingAccuracy() {
+        SketchSummary.Mapping mapping = new SketchSummary.Mapping(RELATIVE_ACCURACY);
+
+        for (double value = SketchSummary.MIN_INDEXABLE_VALUE; value < SketchSummary.MAX_INDEXABLE_VALUE; value *= 1.7) {
+            double mapped = mapping.value(mapping.index(value));
+            assertEquals(value, mapped, value * RELATIVE_ACCURACY);
+        }
+    }
+
+    private double sample(String name, double quantile) {
+        return registry.getSampleValue(
+                name,
+                new String[]{"foo", "quantile"},
+                new String[]{"bar", Collector.doubleToGoString(quantile)}
+        );
+    }
+
+    private static String[] labels() {
+        return new String[]{"foo"};
+    }
+
+    private static String[] values(String value) {
+        return new String[]{value};
+    }
+}
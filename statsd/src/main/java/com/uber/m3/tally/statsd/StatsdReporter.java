@@ -26,20 +26,35 @@ import com.uber.m3.tally.Capabilities;
 import com.uber.m3.tally.CapableOf;
 import com.uber.m3.util.Duration;
 import com.uber.m3.tally.StatsReporter;
+import com.uber.m3.util.ImmutableMap;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * A StatsD reporter
+ * A StatsD reporter, reporting tags in the DogStatsD format ({@code |#key:value,...})
+ * <p>
+ * Tags are rendered into {@code key:value} strings once per tag set, and cached by the (equal) tag map.
+ * Tally reports the same series with the same {@link ImmutableMap} of tags every time, which caches
+ * its hash code, so a lookup rarely has to compare maps entry by entry.
+ * <p>
+ * Cached tag sets are never evicted, therefore the cache is bounded to
+ * {@link #MAX_RENDERED_TAG_SETS} entries: tag sets seen past that are rendered on every report.
  */
 public class StatsdReporter implements StatsReporter {
+    static final int MAX_RENDERED_TAG_SETS = 10_000;
+
     private static final int DEFAULT_SAMPLE_RATE = 1;
     private static final int DEFAULT_HISTOGRAM_BUCKET_NAME_PRECISION = 6;
 
+    private static final String[] NO_TAGS = new String[0];
+
     private StatsDClient statsdClient;
     private double sampleRate;
     private String bucketFmt;
 
+    private final ConcurrentHashMap<Map<String, String>, String[]> renderedTags = new ConcurrentHashMap<>();
+
     /**
      * Create a StatsD reporter
      * @param statsd                       a DogStatsD client
@@ -63,7 +78,7 @@ public class StatsdReporter implements StatsReporter {
 
     @Override
     public Capabilities capabilities() {
-        return CapableOf.REPORTING;
+        return CapableOf.REPORTING_TAGGING;
     }
 
     @Override
@@ -78,20 +93,17 @@ public class StatsdReporter implements StatsReporter {
 
     @Override
     public void reportCounter(String name, Map<String, String> tags, long value) {
-        // We don't support tags for StatsD
-        statsdClient.count(name, value, sampleRate);
+        statsdClient.count(name, value, sampleRate, tags(tags));
     }
 
     @Override
     public void reportGauge(String name, Map<String, String> tags, double value) {
-        // We don't support tags for StatsD
-        statsdClient.gauge(name, value, sampleRate);
+        statsdClient.gauge(name, value, sampleRate, tags(tags));
     }
 
     @Override
     public void reportTimer(String name, Map<String, String> tags, Duration interval) {
-        // We don't support tags for StatsD
-        statsdClient.time(name, interval.toMillis(), sampleRate);
+        statsdClient.time(name, interval.toMillis(), sampleRate, tags(tags));
     }
 
     @Override
@@ -103,7 +115,6 @@ public class StatsdReporter implements StatsReporter {
         double bucketUpperBound,
         long samples
     ) {
-        // We don't support tags for StatsD
         statsdClient.count(
             bucketString(
                 name,
@@ -111,7 +122,8 @@ public class StatsdReporter implements StatsReporter {
                 valueBucketString(bucketUpperBound)
             ),
             samples,
-            sampleRate
+            sampleRate,
+            tags(tags)
         );
     }
 
@@ -124,7 +136,6 @@ public class StatsdReporter implements StatsReporter {
         Duration bucketUpperBound,
         long samples
     ) {
-        // We don't support tags for StatsD
         statsdClient.count(
             bucketString(
                 name,
@@ -132,10 +143,47 @@ public class StatsdReporter implements StatsReporter {
                 durationBucketString(bucketUpperBound)
             ),
             samples,
-            sampleRate
+            sampleRate,
+            tags(tags)
         );
     }
 
+    String[] tags(Map<String, String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return NO_TAGS;
+        }
+
+        String[] rendered = renderedTags.get(tags);
+        if (rendered != null) {
+            return rendered;
+        }
+
+        if (renderedTags.size() >= MAX_RENDERED_TAG_SETS) {
+            return renderTags(tags);
+        }
+
+        // NOTE: Tags are copied to make sure cache key could not be mutated once it's retained
+        Map<String, String> key = tags instanceof ImmutableMap ? tags : new ImmutableMap<>(tags);
+
+        return renderedTags.computeIfAbsent(key, StatsdReporter::renderTags);
+    }
+
+    private static String[] renderTags(Map<String, String> tags) {
+        String[] rendered = new String[tags.size()];
+
+        int i = 0;
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            rendered[i++] = String.format("%s:%s", sanitizeTag(tag.getKey()), sanitizeTag(tag.getValue()));
+        }
+
+        return rendered;
+    }
+
+    // Replaces characters delimiting tags (and metrics) in the DogStatsD format
+    private static String sanitizeTag(String tag) {
+        return tag.replace(',', '_').replace('|', '_').replace('\n', '_');
+    }
+
     private String bucketString(String name, String lowerBound, String upperBound) {
         return String.format("%s.%s-%s", name, lowerBound, upperBound);
     }
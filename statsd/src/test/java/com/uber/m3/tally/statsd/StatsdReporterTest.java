@@ -27,11 +27,23 @@ import com.uber.m3.tally.CapableOf;
 import com.uber.m3.tally.DurationBuckets;
 import com.uber.m3.tally.ValueBuckets;
 import com.uber.m3.util.Duration;
+import com.uber.m3.util.ImmutableMap;
 import org.junit.Test;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class StatsdReporterTest {
     private final int PORT = 4434;
@@ -102,6 +114,64 @@ public class StatsdReporterTest {
     public void capabilities() {
         reporter = new StatsdReporter(new NoOpStatsDClient());
 
-        assertEquals(CapableOf.REPORTING, reporter.capabilities());
+        assertEquals(CapableOf.REPORTING_TAGGING, reporter.capabilities());
+    }
+
+    @Test
+    public void tags() {
+        statsd = mock(StatsDClient.class);
+        reporter = new StatsdReporter(statsd);
+
+        ImmutableMap<String, String> tags = ImmutableMap.of("env", "test");
+
+        reporter.reportCounter("statsd-count", tags, 4);
+        reporter.reportCounter("statsd-count", tags, 2);
+        reporter.reportGauge("statsd-gauge", ImmutableMap.of("host", "a|b,c"), 1.5);
+        reporter.reportTimer("statsd-timer", null, Duration.ofMillis(250));
+
+        verify(statsd, times(2)).count(eq("statsd-count"), anyLong(), eq(1d), eq("env:test"));
+
+        // Tags are rendered once per tag set
+        assertArrayEquals(new String[]{"env:test"}, reporter.tags(tags));
+        assertSame(reporter.tags(tags), reporter.tags(tags));
+
+        // Delimiters are sanitized
+        verify(statsd).gauge(eq("statsd-gauge"), eq(1.5), anyDouble(), eq("host:a_b_c"));
+        verify(statsd).time("statsd-timer", 250, 1d);
+    }
+
+    @Test
+    public void mutableTagsAreCopied() {
+        statsd = mock(StatsDClient.class);
+        reporter = new StatsdReporter(statsd);
+
+        Map<String, String> tags = new HashMap<>();
+        tags.put("env", "test");
+        reporter.reportCounter("statsd-count", tags, 1);
+
+        tags.put("env", "prod");
+        reporter.reportCounter("statsd-count", tags, 1);
+
+        verify(statsd).count("statsd-count", 1, 1d, "env:test");
+        verify(statsd).count("statsd-count", 1, 1d, "env:prod");
+    }
+
+    @Test
+    public void renderedTagsAreBounded() {
+        statsd = mock(StatsDClient.class);
+        reporter = new StatsdReporter(statsd);
+
+        for (int i = 0; i < StatsdReporter.MAX_RENDERED_TAG_SETS; i++) {
+            reporter.tags(ImmutableMap.of("id", String.valueOf(i)));
+        }
+
+        ImmutableMap<String, String> tags = ImmutableMap.of("id", "overflow");
+
+        // Tag sets past the bound are still rendered, just not retained
+        assertArrayEquals(new String[]{"id:overflow"}, reporter.tags(tags));
+        assertNotSame(reporter.tags(tags), reporter.tags(tags));
+
+        ImmutableMap<String, String> cached = ImmutableMap.of("id", "0");
+        assertSame(reporter.tags(cached), reporter.tags(cached));
     }
 }